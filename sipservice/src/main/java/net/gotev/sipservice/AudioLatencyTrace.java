@@ -0,0 +1,93 @@
+package net.gotev.sipservice;
+
+import org.pjsip.pjsua2.AudioMedia;
+
+/**
+ * Measures the time from the 200 OK of a call to the first audio frame played.
+ * The first played frame is detected when the level of the signal sent by the conference
+ * bridge to the playback device rises above zero. It's sampled by the
+ * {@link CallSetupTimeline} poller, once the call audio has been connected to the device.
+ */
+class AudioLatencyTrace {
+
+    private static final String LOG_TAG = AudioLatencyTrace.class.getSimpleName();
+
+    private int callId;
+    private boolean prewarmed = false;
+    private long okTimestamp = 0;
+    private long confirmedTimestamp = 0;
+    private long connectedTimestamp = 0;
+    private long firstFrameTimestamp = 0;
+    private AudioMedia playback;
+
+    void setPrewarmed(boolean prewarmed) {
+        this.prewarmed = prewarmed;
+    }
+
+    /**
+     * Marks the 200 OK being sent (incoming call) or received (outgoing call).
+     */
+    synchronized void onOk() {
+        if (okTimestamp == 0) okTimestamp = System.nanoTime();
+    }
+
+    synchronized void onConfirmed() {
+        onOk();
+        if (confirmedTimestamp == 0) confirmedTimestamp = System.nanoTime();
+    }
+
+    /**
+     * Marks the call audio being connected to the playback device and starts waiting
+     * for the first frame.
+     * @param playback playback device media
+     * @param callId call ID
+     */
+    synchronized void onAudioConnected(AudioMedia playback, int callId) {
+        if (connectedTimestamp != 0) return;
+        onOk();
+        this.callId = callId;
+        connectedTimestamp = System.nanoTime();
+        this.playback = playback;
+    }
+
+    /**
+     * Checks if a frame has been played since the last sample.
+     * @return true while waiting for the first played frame
+     */
+    synchronized boolean sample() {
+        if (playback == null) return false;
+
+        try {
+            if (playback.getTxLevel() > 0) {
+                firstFrameTimestamp = System.nanoTime();
+                playback = null;
+                Logger.debug(LOG_TAG, toString());
+                return false;
+            }
+        } catch (Exception exc) {
+            playback = null;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stops waiting for the first played frame.
+     */
+    synchronized void cancel() {
+        playback = null;
+    }
+
+    private long sinceOk(long timestamp) {
+        return timestamp == 0 ? -1 : (timestamp - okTimestamp) / 1000000;
+    }
+
+    @Override
+    public String toString() {
+        return "Answer to audio trace for call " + callId +
+                " - Prewarmed: " + prewarmed +
+                ", 200 OK to confirmed ms: " + sinceOk(confirmedTimestamp) +
+                ", to audio connected ms: " + sinceOk(connectedTimestamp) +
+                ", to first frame ms: " + sinceOk(firstFrameTimestamp);
+    }
+}
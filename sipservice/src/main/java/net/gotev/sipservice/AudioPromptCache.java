@@ -0,0 +1,100 @@
+package net.gotev.sipservice;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of opened prompt players.
+ * A cached player has its file already opened and its header parsed, so playback starts
+ * by rewinding and connecting it to the call, without any file open or parse latency.
+ * Players which are not in the cache or are already playing are created on demand.
+ */
+class AudioPromptCache {
+
+    private static final String TAG = AudioPromptCache.class.getSimpleName();
+
+    private final int maxEntries;
+    private final LinkedHashMap<String, AudioPromptPlayer> players;
+
+    AudioPromptCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.players = new LinkedHashMap<>(maxEntries, 0.75f, true);
+    }
+
+    /**
+     * Opens the prompt and keeps it in the cache.
+     * @param file absolute path of the WAV file
+     * @throws Exception if the file can't be opened
+     */
+    synchronized void preload(String file) throws Exception {
+        if (players.containsKey(file)) return;
+
+        players.put(file, AudioPromptPlayer.create(Collections.singletonList(file)));
+        evict();
+    }
+
+    /**
+     * Gets a player ready to be played from the start.
+     * @param files absolute paths of the files to play, more than one builds a playlist
+     * @return player marked as in use, to be given back with {@link #release(AudioPromptPlayer)}
+     * @throws Exception if the player can't be created
+     */
+    synchronized AudioPromptPlayer acquire(List<String> files) throws Exception {
+        AudioPromptPlayer player = players.get(AudioPromptPlayer.getKey(files));
+
+        if (player == null || player.isInUse()) {
+            player = AudioPromptPlayer.create(files);
+            if (player.isReusable() && !players.containsKey(player.getKey())) {
+                players.put(player.getKey(), player);
+                evict();
+            }
+        } else {
+            player.setPos(0);
+        }
+
+        player.setInUse(true);
+        return player;
+    }
+
+    /**
+     * Gives back a player once its playback is over. Players which are not cached are deleted.
+     */
+    synchronized void release(AudioPromptPlayer player) {
+        player.setInUse(false);
+        player.setListener(null);
+
+        if (players.get(player.getKey()) != player) {
+            player.delete();
+        }
+    }
+
+    synchronized int size() {
+        return players.size();
+    }
+
+    /**
+     * Deletes all the cached players. To be called before destroying the stack.
+     */
+    synchronized void clear() {
+        for (AudioPromptPlayer player : players.values()) {
+            player.delete();
+        }
+        players.clear();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, AudioPromptPlayer>> iterator = players.entrySet().iterator();
+        while (players.size() > maxEntries && iterator.hasNext()) {
+            AudioPromptPlayer eldest = iterator.next().getValue();
+            iterator.remove();
+            // a playing prompt is deleted when released
+            if (!eldest.isInUse()) {
+                eldest.delete();
+            }
+            Logger.debug(TAG, "Evicted audio prompt, cached: " + players.size());
+        }
+    }
+}
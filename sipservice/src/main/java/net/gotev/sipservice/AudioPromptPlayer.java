@@ -0,0 +1,100 @@
+package net.gotev.sipservice;
+
+import org.pjsip.pjsua2.AudioMediaPlayer;
+import org.pjsip.pjsua2.StringVector;
+import org.pjsip.pjsua2.pjmedia_file_player_option;
+
+import java.util.List;
+
+/**
+ * Wrapper around PJSUA2 AudioMediaPlayer, used to play prompts into a call.
+ * The end of file is reported from the media thread, where the player must not be
+ * destroyed, so the listener is expected to hand it over to another thread.
+ */
+class AudioPromptPlayer extends AudioMediaPlayer {
+
+    interface Listener {
+        void onPromptEof(AudioPromptPlayer player);
+    }
+
+    private final String key;
+    private final boolean playlist;
+    private volatile Listener listener;
+    private boolean inUse = false;
+
+    private AudioPromptPlayer(String key, boolean playlist) {
+        super();
+        this.key = key;
+        this.playlist = playlist;
+        NativeObjectTracker.getInstance().register(NativeObjectTracker.Kind.PLAYER, this, this::delete);
+    }
+
+    @Override
+    public synchronized void delete() {
+        NativeObjectTracker.getInstance().unregister(this);
+        super.delete();
+    }
+
+    /**
+     * Creates a player for the given files. A single file is opened with createPlayer,
+     * more files are chained with createPlaylist. Both never loop.
+     * @param files absolute paths of the WAV files to play
+     * @return the player, already opened and parsed
+     * @throws Exception if a file can't be opened
+     */
+    static AudioPromptPlayer create(List<String> files) throws Exception {
+        boolean playlist = files.size() > 1;
+        AudioPromptPlayer player = new AudioPromptPlayer(getKey(files), playlist);
+        try {
+            if (!playlist) {
+                player.createPlayer(files.get(0), pjmedia_file_player_option.PJMEDIA_FILE_NO_LOOP);
+            } else {
+                StringVector fileNames = new StringVector();
+                for (String file : files) {
+                    fileNames.add(file);
+                }
+                player.createPlaylist(fileNames, "", pjmedia_file_player_option.PJMEDIA_FILE_NO_LOOP);
+            }
+        } catch (Exception exc) {
+            // nobody else holds the player yet
+            player.delete();
+            throw exc;
+        }
+        return player;
+    }
+
+    static String getKey(List<String> files) {
+        return String.join("|", files);
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * pjmedia playlists can't be rewound, thus they can't be reused once played.
+     */
+    boolean isReusable() {
+        return !playlist;
+    }
+
+    boolean isInUse() {
+        return inUse;
+    }
+
+    void setInUse(boolean inUse) {
+        this.inUse = inUse;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void onEof2() {
+        Listener currentListener = listener;
+        if (currentListener != null) {
+            currentListener.onPromptEof(this);
+        }
+    }
+}
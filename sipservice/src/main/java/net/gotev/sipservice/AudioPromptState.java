@@ -0,0 +1,11 @@
+package net.gotev.sipservice;
+
+/**
+ * How an audio prompt playback ended.
+ */
+public enum AudioPromptState {
+    COMPLETED,
+    STOPPED,
+    BARGED_IN,
+    FAILED
+}
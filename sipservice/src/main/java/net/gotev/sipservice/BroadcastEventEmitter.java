@@ -36,7 +36,15 @@ public class BroadcastEventEmitter implements SipServiceConstants {
         CALL_STATS,
         CALL_RECONNECTION_STATE,
         SILENT_CALL_STATUS,
-        NOTIFY_TLS_VERIFY_STATUS_FAILED
+        NOTIFY_TLS_VERIFY_STATUS_FAILED,
+        CALL_RECORDING,
+        AUDIO_PROMPT_STATE,
+        MEDIA_GRAPH,
+        CALL_SETUP_TIMELINE,
+        CALL_PROBE_RESULT,
+        CALL_HISTORY,
+        CALL_QUALITY,
+        VIDEO_STATS
     }
 
     public BroadcastEventEmitter(Context context) {
@@ -81,7 +89,7 @@ public class BroadcastEventEmitter implements SipServiceConstants {
         intent.putExtra(PARAM_ACCOUNT_ID, accountID);
         intent.putExtra(PARAM_REGISTRATION_CODE, registrationStateCode);
 
-        mContext.sendBroadcast(intent);
+        sendBroadcast(intent);
     }
 
     /**
@@ -102,7 +110,7 @@ public class BroadcastEventEmitter implements SipServiceConstants {
         intent.putExtra(PARAM_CALL_STATUS, callStateStatus);
         intent.putExtra(PARAM_CONNECT_TIMESTAMP, connectTimestamp);
 
-        mContext.sendBroadcast(intent);
+        sendBroadcast(intent);
     }
 
     /**
@@ -119,7 +127,7 @@ public class BroadcastEventEmitter implements SipServiceConstants {
             .putExtra(PARAM_CALL_ID, callID)
             .putExtra(PARAM_MEDIA_STATE_KEY, state)
             .putExtra(PARAM_MEDIA_STATE_VALUE, value);
-        mContext.sendBroadcast(intent);
+        sendBroadcast(intent);
     }
 
     public void outgoingCall(String accountID, int callID, String number, boolean isVideo, boolean isVideoConference, boolean isTransfer) {
@@ -140,7 +148,7 @@ public class BroadcastEventEmitter implements SipServiceConstants {
         intent.setAction(getAction(BroadcastAction.STACK_STATUS));
         intent.putExtra(PARAM_STACK_STARTED, started);
 
-        mContext.sendBroadcast(intent);
+        sendBroadcast(intent);
     }
 
     public void codecPriorities(ArrayList<CodecPriority> codecPriorities) {
@@ -149,7 +157,7 @@ public class BroadcastEventEmitter implements SipServiceConstants {
         intent.setAction(getAction(BroadcastAction.CODEC_PRIORITIES));
         intent.putParcelableArrayListExtra(PARAM_CODEC_PRIORITIES_LIST, codecPriorities);
 
-        mContext.sendBroadcast(intent);
+        sendBroadcast(intent);
     }
 
     public void codecPrioritiesSetStatus(boolean success) {
@@ -158,7 +166,7 @@ public class BroadcastEventEmitter implements SipServiceConstants {
         intent.setAction(getAction(BroadcastAction.CODEC_PRIORITIES_SET_STATUS));
         intent.putExtra(PARAM_SUCCESS, success);
 
-        mContext.sendBroadcast(intent);
+        sendBroadcast(intent);
     }
 
     void missedCall(String displayName, String uri) {
@@ -178,10 +186,12 @@ public class BroadcastEventEmitter implements SipServiceConstants {
         intent.putExtra(PARAM_INCOMING_VIDEO_WIDTH, width);
         intent.putExtra(PARAM_INCOMING_VIDEO_HEIGHT, height);
 
-        mContext.sendBroadcast(intent);
+        sendBroadcast(intent);
     }
 
-    void callStats(int callID, int duration, String audioCodec, int callStateStatus, RtpStreamStats rx, RtpStreamStats tx) {
+    void callStats(int callID, int duration, String audioCodec, int callStateStatus,
+                   RtpStreamStats rx, RtpStreamStats tx, CallStreamStats streamStats,
+                   VideoStreamStats videoStats) {
         final Intent intent = new Intent()
             .setAction(getAction(BroadcastAction.CALL_STATS))
             .putExtra(PARAM_CALL_ID, callID)
@@ -189,15 +199,28 @@ public class BroadcastEventEmitter implements SipServiceConstants {
             .putExtra(PARAM_CALL_STATS_AUDIO_CODEC, audioCodec)
             .putExtra(PARAM_CALL_STATS_CALL_STATUS, callStateStatus)
             .putExtra(PARAM_CALL_STATS_RX_STREAM, rx)
-            .putExtra(PARAM_CALL_STATS_TX_STREAM, tx);
-        mContext.sendBroadcast(intent);
+            .putExtra(PARAM_CALL_STATS_TX_STREAM, tx)
+            .putExtra(PARAM_CALL_STATS_STREAM, streamStats)
+            .putExtra(PARAM_CALL_STATS_VIDEO, videoStats);
+        sendBroadcast(intent);
+    }
+
+    void videoStats(String accountID, int callID, VideoStreamStats stats) {
+        final Intent intent = new Intent()
+            .setAction(getAction(BroadcastAction.VIDEO_STATS))
+            .putExtra(PARAM_ACCOUNT_ID, accountID)
+            .putExtra(PARAM_CALL_ID, callID)
+            .putExtra(PARAM_VIDEO_STATS, stats);
+        sendBroadcast(intent);
     }
 
-    void callReconnectionState(CallReconnectionState state) {
+    void callReconnectionState(CallReconnectionState state, long durationMillis, float successRate) {
         final Intent intent = new Intent();
         intent.setAction(getAction(BroadcastAction.CALL_RECONNECTION_STATE));
         intent.putExtra(PARAM_CALL_RECONNECTION_STATE, state);
-        mContext.sendBroadcast(intent);
+        intent.putExtra(PARAM_CALL_RECONNECTION_DURATION, durationMillis);
+        intent.putExtra(PARAM_CALL_RECONNECTION_SUCCESS_RATE, successRate);
+        sendBroadcast(intent);
     }
 
     void silentCallStatus(boolean status, String number) {
@@ -214,6 +237,69 @@ public class BroadcastEventEmitter implements SipServiceConstants {
         sendExplicitBroadcast(intent);
     }
 
+    void callRecording(int callID, ArrayList<String> files) {
+        final Intent intent = new Intent();
+        intent.setAction(getAction(BroadcastAction.CALL_RECORDING));
+        intent.putExtra(PARAM_CALL_ID, callID);
+        intent.putStringArrayListExtra(PARAM_CALL_RECORDING_FILES, files);
+        sendBroadcast(intent);
+    }
+
+    void audioPromptState(String accountID, int callID, AudioPromptState state, String dtmf) {
+        final Intent intent = new Intent()
+            .setAction(getAction(BroadcastAction.AUDIO_PROMPT_STATE))
+            .putExtra(PARAM_ACCOUNT_ID, accountID)
+            .putExtra(PARAM_CALL_ID, callID)
+            .putExtra(PARAM_AUDIO_PROMPT_STATE, state)
+            .putExtra(PARAM_DTMF, dtmf);
+        sendBroadcast(intent);
+    }
+
+    void mediaGraph(String mediaGraph) {
+        final Intent intent = new Intent()
+            .setAction(getAction(BroadcastAction.MEDIA_GRAPH))
+            .putExtra(PARAM_MEDIA_GRAPH, mediaGraph);
+        sendBroadcast(intent);
+    }
+
+    void callSetupTimeline(int callID, long[] timeline) {
+        final Intent intent = new Intent()
+            .setAction(getAction(BroadcastAction.CALL_SETUP_TIMELINE))
+            .putExtra(PARAM_CALL_ID, callID)
+            .putExtra(PARAM_CALL_SETUP_TIMELINE, timeline);
+        sendBroadcast(intent);
+    }
+
+    void callProbeResult(CallProbeResult result) {
+        final Intent intent = new Intent()
+            .setAction(getAction(BroadcastAction.CALL_PROBE_RESULT))
+            .putExtra(PARAM_CALL_PROBE_RESULT, result);
+        sendBroadcast(intent);
+    }
+
+    void callHistory(ArrayList<CallHistoryRecord> records, int page, int total) {
+        final Intent intent = new Intent()
+            .setAction(getAction(BroadcastAction.CALL_HISTORY))
+            .putParcelableArrayListExtra(PARAM_CALL_HISTORY, records)
+            .putExtra(PARAM_CALL_HISTORY_PAGE, page)
+            .putExtra(PARAM_CALL_HISTORY_TOTAL, total);
+        sendBroadcast(intent);
+    }
+
+    void callQuality(ArrayList<CallQualitySummary> summaries, CallQualitySummary total) {
+        final Intent intent = new Intent()
+            .setAction(getAction(BroadcastAction.CALL_QUALITY))
+            .putParcelableArrayListExtra(PARAM_CALL_QUALITY, summaries)
+            .putExtra(PARAM_CALL_QUALITY_TOTAL, total);
+        sendBroadcast(intent);
+    }
+
+    private void sendBroadcast(Intent intent) {
+        MetricsRegistry.getInstance().counter("sip_events_emitted_total",
+                "Broadcast events emitted by the service", "event", intent.getAction()).inc();
+        mContext.sendBroadcast(intent);
+    }
+
     private void sendExplicitBroadcast(Intent intent) {
         PackageManager pm=mContext.getPackageManager();
         List<ResolveInfo> matches=pm.queryBroadcastReceivers(intent, 0);
@@ -227,6 +313,6 @@ public class BroadcastEventEmitter implements SipServiceConstants {
             intent.addFlags(Intent.FLAG_RECEIVER_FOREGROUND);
         }
 
-        mContext.sendBroadcast(intent);
+        sendBroadcast(intent);
     }
 }
@@ -6,6 +6,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import static net.gotev.sipservice.ObfuscationHelper.getValue;
 
@@ -87,10 +88,16 @@ public class BroadcastEventReceiver extends BroadcastReceiver implements SipServ
                 intent.getIntExtra(PARAM_CALL_STATS_DURATION, 0),
                 intent.getStringExtra(PARAM_CALL_STATS_AUDIO_CODEC), callStatus,
                 intent.getParcelableExtra(PARAM_CALL_STATS_RX_STREAM),
-                intent.getParcelableExtra(PARAM_CALL_STATS_TX_STREAM));
+                intent.getParcelableExtra(PARAM_CALL_STATS_TX_STREAM),
+                intent.getParcelableExtra(PARAM_CALL_STATS_STREAM),
+                intent.getParcelableExtra(PARAM_CALL_STATS_VIDEO));
 
         } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.CALL_RECONNECTION_STATE).equals(action)) {
-            onCallReconnectionState((CallReconnectionState) intent.getSerializableExtra(PARAM_CALL_RECONNECTION_STATE));
+            onCallReconnectionState(
+                    (CallReconnectionState) intent.getSerializableExtra(PARAM_CALL_RECONNECTION_STATE),
+                    intent.getLongExtra(PARAM_CALL_RECONNECTION_DURATION, -1),
+                    intent.getFloatExtra(PARAM_CALL_RECONNECTION_SUCCESS_RATE, 0)
+            );
 
         } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.SILENT_CALL_STATUS).equals(action)) {
             onSilentCallStatus(
@@ -100,6 +107,52 @@ public class BroadcastEventReceiver extends BroadcastReceiver implements SipServ
 
         } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.NOTIFY_TLS_VERIFY_STATUS_FAILED).equals(action)) {
             onTlsVerifyStatusFailed();
+
+        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.CALL_RECORDING).equals(action)) {
+            onCallRecording(
+                    intent.getIntExtra(PARAM_CALL_ID, -1),
+                    intent.getStringArrayListExtra(PARAM_CALL_RECORDING_FILES)
+            );
+
+        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.AUDIO_PROMPT_STATE).equals(action)) {
+            onAudioPromptState(
+                    intent.getStringExtra(PARAM_ACCOUNT_ID),
+                    intent.getIntExtra(PARAM_CALL_ID, -1),
+                    (AudioPromptState) intent.getSerializableExtra(PARAM_AUDIO_PROMPT_STATE),
+                    intent.getStringExtra(PARAM_DTMF)
+            );
+
+        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.MEDIA_GRAPH).equals(action)) {
+            onMediaGraph(intent.getStringExtra(PARAM_MEDIA_GRAPH));
+
+        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.CALL_SETUP_TIMELINE).equals(action)) {
+            onCallSetupTimeline(
+                    intent.getIntExtra(PARAM_CALL_ID, -1),
+                    intent.getLongArrayExtra(PARAM_CALL_SETUP_TIMELINE)
+            );
+
+        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.CALL_PROBE_RESULT).equals(action)) {
+            onCallProbeResult(intent.getParcelableExtra(PARAM_CALL_PROBE_RESULT));
+
+        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.CALL_HISTORY).equals(action)) {
+            onCallHistory(
+                    intent.getParcelableArrayListExtra(PARAM_CALL_HISTORY),
+                    intent.getIntExtra(PARAM_CALL_HISTORY_PAGE, 0),
+                    intent.getIntExtra(PARAM_CALL_HISTORY_TOTAL, 0)
+            );
+
+        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.CALL_QUALITY).equals(action)) {
+            onCallQuality(
+                    intent.getParcelableArrayListExtra(PARAM_CALL_QUALITY),
+                    intent.getParcelableExtra(PARAM_CALL_QUALITY_TOTAL)
+            );
+
+        } else if (BroadcastEventEmitter.getAction(BroadcastEventEmitter.BroadcastAction.VIDEO_STATS).equals(action)) {
+            onVideoStats(
+                    intent.getStringExtra(PARAM_ACCOUNT_ID),
+                    intent.getIntExtra(PARAM_CALL_ID, -1),
+                    intent.getParcelableExtra(PARAM_VIDEO_STATS)
+            );
         }
     }
 
@@ -145,6 +198,22 @@ public class BroadcastEventReceiver extends BroadcastReceiver implements SipServ
                 BroadcastEventEmitter.BroadcastAction.SILENT_CALL_STATUS));
         intentFilter.addAction(BroadcastEventEmitter.getAction(
                 BroadcastEventEmitter.BroadcastAction.NOTIFY_TLS_VERIFY_STATUS_FAILED));
+        intentFilter.addAction(BroadcastEventEmitter.getAction(
+                BroadcastEventEmitter.BroadcastAction.CALL_RECORDING));
+        intentFilter.addAction(BroadcastEventEmitter.getAction(
+                BroadcastEventEmitter.BroadcastAction.AUDIO_PROMPT_STATE));
+        intentFilter.addAction(BroadcastEventEmitter.getAction(
+                BroadcastEventEmitter.BroadcastAction.MEDIA_GRAPH));
+        intentFilter.addAction(BroadcastEventEmitter.getAction(
+                BroadcastEventEmitter.BroadcastAction.CALL_SETUP_TIMELINE));
+        intentFilter.addAction(BroadcastEventEmitter.getAction(
+                BroadcastEventEmitter.BroadcastAction.CALL_PROBE_RESULT));
+        intentFilter.addAction(BroadcastEventEmitter.getAction(
+                BroadcastEventEmitter.BroadcastAction.CALL_HISTORY));
+        intentFilter.addAction(BroadcastEventEmitter.getAction(
+                BroadcastEventEmitter.BroadcastAction.CALL_QUALITY));
+        intentFilter.addAction(BroadcastEventEmitter.getAction(
+                BroadcastEventEmitter.BroadcastAction.VIDEO_STATS));
         context.registerReceiver(this, intentFilter);
     }
 
@@ -223,10 +292,42 @@ public class BroadcastEventReceiver extends BroadcastReceiver implements SipServ
         Logger.debug(LOG_TAG, "Call Stats sent "+duration+" "+audioCodec);
     }
 
+    /**
+     * Call statistics sent at hangup, including RTT, IPDV, loss types and jitter buffer state.
+     * By default it calls {@link #onCallStats(int, int, String, int, RtpStreamStats, RtpStreamStats)}.
+     * @param streamStats extended statistics of the audio stream, may be null
+     */
+    protected void onCallStats(int callID, int duration, String audioCodec, int callStatusCode,
+                               RtpStreamStats rx, RtpStreamStats tx, CallStreamStats streamStats) {
+        onCallStats(callID, duration, audioCodec, callStatusCode, rx, tx);
+    }
+
+    /**
+     * Call statistics sent at hangup, with the video stream statistics of video calls.
+     * By default it calls
+     * {@link #onCallStats(int, int, String, int, RtpStreamStats, RtpStreamStats, CallStreamStats)}.
+     * @param videoStats statistics of the video stream, null for audio only calls
+     */
+    protected void onCallStats(int callID, int duration, String audioCodec, int callStatusCode,
+                               RtpStreamStats rx, RtpStreamStats tx, CallStreamStats streamStats,
+                               VideoStreamStats videoStats) {
+        onCallStats(callID, duration, audioCodec, callStatusCode, rx, tx, streamStats);
+    }
+
     protected void onCallReconnectionState(CallReconnectionState state) {
         Logger.debug(LOG_TAG, "Call reconnection state " + state.name());
     }
 
+    /**
+     * Call reconnection state, with its measures.
+     * @param state reconnection state
+     * @param durationMillis time taken by the reconnection, -1 while in progress
+     * @param successRate successful reconnections over the attempted ones, between 0 and 1
+     */
+    protected void onCallReconnectionState(CallReconnectionState state, long durationMillis, float successRate) {
+        onCallReconnectionState(state);
+    }
+
     protected void onSilentCallStatus(boolean success, String number) {
         Logger.debug(LOG_TAG, "Success: " +success+ " for silent call: " +number);
     }
@@ -234,4 +335,61 @@ public class BroadcastEventReceiver extends BroadcastReceiver implements SipServ
     protected void onTlsVerifyStatusFailed() {
         Logger.debug(LOG_TAG, "TlsVerifyStatusFailed");
     }
+
+    protected void onCallRecording(int callID, ArrayList<String> files) {
+        Logger.debug(LOG_TAG, "Call recording finalised for call " + callID + ", files: " + files.size());
+    }
+
+    protected void onAudioPromptState(String accountID, int callID, AudioPromptState state, String dtmf) {
+        Logger.debug(LOG_TAG, "Audio prompt " + state.name() + " for call " + callID);
+    }
+
+    protected void onMediaGraph(String mediaGraph) {
+        Logger.debug(LOG_TAG, "Media graph:\n" + mediaGraph);
+    }
+
+    /**
+     * Setup timeline of a call, delivered at hangup.
+     * @param callID call ID
+     * @param timeline milliseconds elapsed from the first milestone, indexed by
+     *                 {@link CallSetupMilestone} ordinal, -1 for milestones not reached
+     */
+    protected void onCallSetupTimeline(int callID, long[] timeline) {
+        Logger.debug(LOG_TAG, "Call setup timeline for call " + callID + ": " + Arrays.toString(timeline));
+    }
+
+    protected void onCallProbeResult(CallProbeResult result) {
+        Logger.debug(LOG_TAG, "Call probe result - " + result);
+    }
+
+    /**
+     * Delivers a page of the call history requested with
+     * {@link SipServiceCommand#getCallHistory(Context, long, long, String, int, int)}.
+     * @param records records of the page, most recent first
+     * @param page zero based page number
+     * @param total number of records matching the query
+     */
+    protected void onCallHistory(ArrayList<CallHistoryRecord> records, int page, int total) {
+        Logger.debug(LOG_TAG, "Call history page " + page + ": " + records.size() + " of " + total);
+    }
+
+    /**
+     * Delivers the aggregated call quality requested with
+     * {@link SipServiceCommand#getCallQuality(Context, String, String, String)}.
+     * @param summaries percentiles of each network type, codec and account matching the query
+     * @param total percentiles of all the matching calls
+     */
+    protected void onCallQuality(ArrayList<CallQualitySummary> summaries, CallQualitySummary total) {
+        Logger.debug(LOG_TAG, "Call quality - " + total);
+    }
+
+    /**
+     * Video stream statistics of a call, sent periodically while the video stream is active.
+     * @param accountID call's account IdUri
+     * @param callID call ID number
+     * @param stats statistics of the video stream
+     */
+    protected void onVideoStats(String accountID, int callID, VideoStreamStats stats) {
+        Logger.debug(LOG_TAG, "Video stats for call " + callID + " - " + stats);
+    }
 }
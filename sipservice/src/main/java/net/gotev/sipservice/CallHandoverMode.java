@@ -0,0 +1,19 @@
+package net.gotev.sipservice;
+
+/**
+ * How active calls are moved to a new network.
+ */
+public enum CallHandoverMode {
+    /**
+     * pjsua IP change: the transports bound to the old network are shut down first,
+     * then accounts re-register and calls are re-INVITEd.
+     */
+    BREAK_BEFORE_MAKE,
+    /**
+     * A new UDP transport is brought up on the new network while the old one still works.
+     * UDP accounts re-register and calls are re-INVITEd over it, and the old transport is
+     * closed once media flows on the new path. If it doesn't, everything moves back to
+     * the old transport.
+     */
+    MAKE_BEFORE_BREAK
+}
@@ -0,0 +1,290 @@
+package net.gotev.sipservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+
+/**
+ * Entry of the call history, written once at hangup.
+ * Timestamps are wall clock milliseconds, 0 when the call has never been connected.
+ */
+@SuppressWarnings("unused")
+public class CallHistoryRecord implements Parcelable {
+
+    private int callId;
+    private String accountID;
+    private boolean incoming;
+    private boolean missed;
+    private String remoteUri;
+    private String displayName;
+    private long startTimestamp;
+    private long connectTimestamp;
+    private long endTimestamp;
+    private int duration;
+    private int statusCode;
+    private String codec;
+    private RtpStreamStats rx;
+    private RtpStreamStats tx;
+    private CallStreamStats streamStats;
+    private VideoStreamStats videoStats;
+    private int reconnects;
+    private ArrayList<CallQualitySample> qualitySamples = new ArrayList<>();
+
+    CallHistoryRecord() { }
+
+    /*****          Parcelable overrides        ******/
+    public static final Parcelable.Creator<CallHistoryRecord> CREATOR =
+            new Parcelable.Creator<CallHistoryRecord>() {
+                @Override
+                public CallHistoryRecord createFromParcel(final Parcel in) {
+                    return new CallHistoryRecord(in);
+                }
+
+                @Override
+                public CallHistoryRecord[] newArray(final int size) {
+                    return new CallHistoryRecord[size];
+                }
+            };
+
+    @Override
+    public void writeToParcel(Parcel parcel, int arg1) {
+        parcel.writeInt(callId);
+        parcel.writeString(accountID);
+        parcel.writeByte((byte) (incoming ? 1 : 0));
+        parcel.writeByte((byte) (missed ? 1 : 0));
+        parcel.writeString(remoteUri);
+        parcel.writeString(displayName);
+        parcel.writeLong(startTimestamp);
+        parcel.writeLong(connectTimestamp);
+        parcel.writeLong(endTimestamp);
+        parcel.writeInt(duration);
+        parcel.writeInt(statusCode);
+        parcel.writeString(codec);
+        parcel.writeParcelable(rx, 0);
+        parcel.writeParcelable(tx, 0);
+        parcel.writeParcelable(streamStats, 0);
+        parcel.writeParcelable(videoStats, 0);
+        parcel.writeInt(reconnects);
+        parcel.writeTypedList(qualitySamples);
+    }
+
+    private CallHistoryRecord(Parcel in) {
+        callId = in.readInt();
+        accountID = in.readString();
+        incoming = in.readByte() == 1;
+        missed = in.readByte() == 1;
+        remoteUri = in.readString();
+        displayName = in.readString();
+        startTimestamp = in.readLong();
+        connectTimestamp = in.readLong();
+        endTimestamp = in.readLong();
+        duration = in.readInt();
+        statusCode = in.readInt();
+        codec = in.readString();
+        rx = in.readParcelable(RtpStreamStats.class.getClassLoader());
+        tx = in.readParcelable(RtpStreamStats.class.getClassLoader());
+        streamStats = in.readParcelable(CallStreamStats.class.getClassLoader());
+        videoStats = in.readParcelable(VideoStreamStats.class.getClassLoader());
+        reconnects = in.readInt();
+        in.readTypedList(qualitySamples, CallQualitySample.CREATOR);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+    /*          Parcelable overrides end        */
+
+    public int getCallId() {
+        return callId;
+    }
+
+    CallHistoryRecord setCallId(int callId) {
+        this.callId = callId;
+        return this;
+    }
+
+    public String getAccountID() {
+        return accountID;
+    }
+
+    CallHistoryRecord setAccountID(String accountID) {
+        this.accountID = accountID;
+        return this;
+    }
+
+    public boolean isIncoming() {
+        return incoming;
+    }
+
+    CallHistoryRecord setIncoming(boolean incoming) {
+        this.incoming = incoming;
+        return this;
+    }
+
+    /**
+     * @return true for incoming calls which have never been connected
+     */
+    public boolean isMissed() {
+        return missed;
+    }
+
+    CallHistoryRecord setMissed(boolean missed) {
+        this.missed = missed;
+        return this;
+    }
+
+    public String getRemoteUri() {
+        return remoteUri;
+    }
+
+    CallHistoryRecord setRemoteUri(String remoteUri) {
+        this.remoteUri = remoteUri;
+        return this;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    CallHistoryRecord setDisplayName(String displayName) {
+        this.displayName = displayName;
+        return this;
+    }
+
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    CallHistoryRecord setStartTimestamp(long startTimestamp) {
+        this.startTimestamp = startTimestamp;
+        return this;
+    }
+
+    public long getConnectTimestamp() {
+        return connectTimestamp;
+    }
+
+    CallHistoryRecord setConnectTimestamp(long connectTimestamp) {
+        this.connectTimestamp = connectTimestamp;
+        return this;
+    }
+
+    public long getEndTimestamp() {
+        return endTimestamp;
+    }
+
+    CallHistoryRecord setEndTimestamp(long endTimestamp) {
+        this.endTimestamp = endTimestamp;
+        return this;
+    }
+
+    /**
+     * @return connected duration in seconds
+     */
+    public int getDuration() {
+        return duration;
+    }
+
+    CallHistoryRecord setDuration(int duration) {
+        this.duration = duration;
+        return this;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    CallHistoryRecord setStatusCode(int statusCode) {
+        this.statusCode = statusCode;
+        return this;
+    }
+
+    /**
+     * @return audio codec, or null if the call has no audio stream
+     */
+    public String getCodec() {
+        return codec;
+    }
+
+    CallHistoryRecord setCodec(String codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    public RtpStreamStats getRx() {
+        return rx;
+    }
+
+    public RtpStreamStats getTx() {
+        return tx;
+    }
+
+    CallHistoryRecord setStreamStats(RtpStreamStats rx, RtpStreamStats tx) {
+        this.rx = rx;
+        this.tx = tx;
+        return this;
+    }
+
+    /**
+     * @return extended statistics of the audio stream, or null if the call had no audio
+     */
+    public CallStreamStats getStreamStats() {
+        return streamStats;
+    }
+
+    CallHistoryRecord setStreamStats(CallStreamStats streamStats) {
+        this.streamStats = streamStats;
+        return this;
+    }
+
+    /**
+     * @return statistics of the video stream, or null if the call had no video
+     */
+    public VideoStreamStats getVideoStats() {
+        return videoStats;
+    }
+
+    CallHistoryRecord setVideoStats(VideoStreamStats videoStats) {
+        this.videoStats = videoStats;
+        return this;
+    }
+
+    /**
+     * @return number of successful reconnections after network changes
+     */
+    public int getReconnects() {
+        return reconnects;
+    }
+
+    CallHistoryRecord setReconnects(int reconnects) {
+        this.reconnects = reconnects;
+        return this;
+    }
+
+    public ArrayList<CallQualitySample> getQualitySamples() {
+        return qualitySamples;
+    }
+
+    CallHistoryRecord setQualitySamples(ArrayList<CallQualitySample> qualitySamples) {
+        this.qualitySamples = qualitySamples;
+        return this;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "CallId: " + callId +
+                ", Incoming: " + incoming +
+                ", Missed: " + missed +
+                ", Start: " + startTimestamp +
+                ", Duration: " + duration +
+                ", StatusCode: " + statusCode +
+                ", Codec: " + codec +
+                ", Reconnects: " + reconnects +
+                ", QualitySamples: " + qualitySamples.size();
+    }
+}
@@ -0,0 +1,339 @@
+package net.gotev.sipservice;
+
+import com.google.gson.Gson;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only call history, one json line per call.
+ * Records are batched and written on a background thread, so the SIP thread only hands them
+ * over. Next to the data file, a small binary index keeps start timestamp, remote URI and
+ * byte range of each record: queries filter on the index and read from the data file only
+ * the records of the requested page.
+ * When the store exceeds the maximum records by a quarter, the oldest ones are dropped.
+ * Records which can't be written are kept and written again later.
+ */
+class CallHistoryStore {
+
+    private static final String TAG = CallHistoryStore.class.getSimpleName();
+    static final String FILE_NAME = "call_history.jsonl";
+    static final String INDEX_FILE_NAME = "call_history.idx";
+    static final int MAX_RECORDS = 2000;
+    private static final int FLUSH_BATCH_SIZE = 16;
+    private static final long FLUSH_DELAY_MS = 2000;
+
+    interface QueryCallback {
+        void onResult(ArrayList<CallHistoryRecord> records, int total);
+    }
+
+    private final File file;
+    private final File indexFile;
+    private final Gson gson = new Gson();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "SipCallHistory"));
+
+    // everything below is accessed only from the executor thread
+    private final ArrayList<CallHistoryRecord> pending = new ArrayList<>();
+    private final ArrayList<IndexEntry> index = new ArrayList<>();
+    private boolean loaded = false;
+    private boolean flushScheduled = false;
+    private long fileLength = 0;
+
+    CallHistoryStore(File directory) {
+        this.file = new File(directory, FILE_NAME);
+        this.indexFile = new File(directory, INDEX_FILE_NAME);
+    }
+
+    void add(CallHistoryRecord record) {
+        executor.execute(() -> {
+            pending.add(record);
+            if (pending.size() >= FLUSH_BATCH_SIZE) {
+                flush();
+            } else {
+                scheduleFlush();
+            }
+        });
+    }
+
+    /**
+     * Gets a page of records, most recent first.
+     * @param from minimum start timestamp (inclusive), 0 for no lower bound
+     * @param to maximum start timestamp (exclusive), 0 for no upper bound
+     * @param remoteUri remote party URI, null to match every call
+     * @param page zero based page number
+     * @param pageSize records per page
+     * @param callback invoked on the store thread with the page and the total matching records
+     */
+    void query(long from, long to, String remoteUri, int page, int pageSize, QueryCallback callback) {
+        executor.execute(() -> {
+            flush();
+
+            ArrayList<IndexEntry> matching = new ArrayList<>();
+            for (int i = index.size() - 1; i >= 0; i--) {
+                IndexEntry entry = index.get(i);
+                if (entry.timestamp < from || (to > 0 && entry.timestamp >= to)) continue;
+                if (remoteUri != null && !remoteUri.equals(entry.remoteUri)) continue;
+                matching.add(entry);
+            }
+
+            ArrayList<CallHistoryRecord> records = new ArrayList<>();
+            int start = Math.max(0, page) * pageSize;
+            int end = Math.min(matching.size(), start + pageSize);
+            if (start < end) {
+                try (RandomAccessFile data = new RandomAccessFile(file, "r")) {
+                    for (int i = start; i < end; i++) {
+                        IndexEntry entry = matching.get(i);
+                        byte[] buffer = new byte[entry.length];
+                        data.seek(entry.offset);
+                        data.readFully(buffer);
+                        records.add(gson.fromJson(new String(buffer, StandardCharsets.UTF_8),
+                                CallHistoryRecord.class));
+                    }
+                } catch (Exception exc) {
+                    Logger.error(TAG, "Error while reading call history", exc);
+                }
+            }
+
+            callback.onResult(records, matching.size());
+        });
+    }
+
+    /**
+     * Writes the pending records and shuts the store down.
+     */
+    void shutdown() {
+        executor.execute(this::flush);
+        executor.shutdown();
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled || executor.isShutdown()) return;
+        flushScheduled = true;
+        executor.schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        flushScheduled = false;
+        load();
+        if (pending.isEmpty()) return;
+
+        ArrayList<IndexEntry> added = new ArrayList<>(pending.size());
+        try (FileOutputStream data = new FileOutputStream(file, true)) {
+            BufferedOutputStream out = new BufferedOutputStream(data);
+            long offset = fileLength;
+            for (CallHistoryRecord record : pending) {
+                byte[] bytes = gson.toJson(record).getBytes(StandardCharsets.UTF_8);
+                out.write(bytes);
+                out.write('\n');
+                added.add(new IndexEntry(record.getStartTimestamp(), offset, bytes.length,
+                        record.getRemoteUri()));
+                offset += bytes.length + 1;
+            }
+            out.flush();
+            fileLength = offset;
+        } catch (IOException exc) {
+            Logger.error(TAG, "Error while writing call history, retrying later", exc);
+            // the batch is written again entirely, drop what has been written of it
+            truncate(fileLength);
+            if (pending.size() > MAX_RECORDS) {
+                pending.subList(0, pending.size() - MAX_RECORDS).clear();
+            }
+            scheduleFlush();
+            return;
+        }
+        pending.clear();
+
+        index.addAll(added);
+        if (!writeIndex(added, true)) {
+            indexFile.delete();
+        }
+
+        if (index.size() > MAX_RECORDS + MAX_RECORDS / 4) {
+            compact();
+        }
+    }
+
+    private void truncate(long length) {
+        if (!file.exists()) return;
+        try (RandomAccessFile data = new RandomAccessFile(file, "rw")) {
+            if (data.length() > length) data.setLength(length);
+        } catch (IOException exc) {
+            Logger.error(TAG, "Error while truncating call history", exc);
+        }
+    }
+
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        if (!file.exists()) {
+            indexFile.delete();
+            return;
+        }
+
+        fileLength = file.length();
+        if (readIndex()) return;
+
+        Logger.info(TAG, "Rebuilding call history index");
+        index.clear();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            long offset = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int length = line.getBytes(StandardCharsets.UTF_8).length;
+                if (length > 0) {
+                    try {
+                        CallHistoryRecord record = gson.fromJson(line, CallHistoryRecord.class);
+                        index.add(new IndexEntry(record.getStartTimestamp(), offset, length,
+                                record.getRemoteUri()));
+                    } catch (Exception exc) {
+                        Logger.error(TAG, "Skipping corrupted call history record at " + offset);
+                    }
+                }
+                offset += length + 1;
+            }
+        } catch (IOException exc) {
+            Logger.error(TAG, "Error while loading call history", exc);
+        }
+        writeIndex(index, false);
+    }
+
+    /**
+     * @return true if the index has been read and it covers exactly the data file
+     */
+    private boolean readIndex() {
+        if (!indexFile.exists()) return false;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            while (true) {
+                long timestamp;
+                try {
+                    timestamp = in.readLong();
+                } catch (EOFException exc) {
+                    break;
+                }
+                long offset = in.readLong();
+                int length = in.readInt();
+                String remoteUri = in.readBoolean() ? in.readUTF() : null;
+                index.add(new IndexEntry(timestamp, offset, length, remoteUri));
+            }
+        } catch (IOException exc) {
+            Logger.error(TAG, "Error while reading call history index", exc);
+            index.clear();
+            return false;
+        }
+
+        long indexedLength = index.isEmpty() ? 0 : index.get(index.size() - 1).end();
+        if (indexedLength != fileLength) {
+            index.clear();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean writeIndex(ArrayList<IndexEntry> entries, boolean append) {
+        return writeIndex(indexFile, entries, append);
+    }
+
+    private boolean writeIndex(File target, ArrayList<IndexEntry> entries, boolean append) {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(target, append)))) {
+            for (IndexEntry entry : entries) {
+                out.writeLong(entry.timestamp);
+                out.writeLong(entry.offset);
+                out.writeInt(entry.length);
+                out.writeBoolean(entry.remoteUri != null);
+                if (entry.remoteUri != null) out.writeUTF(entry.remoteUri);
+            }
+            return true;
+        } catch (IOException exc) {
+            Logger.error(TAG, "Error while writing call history index", exc);
+            return false;
+        }
+    }
+
+    /**
+     * Copies the byte ranges of the most recent records into a new data file and
+     * rewrites the index, without parsing the records.
+     */
+    private void compact() {
+        int dropped = index.size() - MAX_RECORDS;
+        File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+        File tmpIndexFile = new File(indexFile.getAbsolutePath() + ".tmp");
+        ArrayList<IndexEntry> kept = new ArrayList<>(MAX_RECORDS);
+
+        try (RandomAccessFile in = new RandomAccessFile(file, "r");
+             BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile, false))) {
+            long offset = 0;
+            byte[] buffer = new byte[4096];
+            for (int i = dropped; i < index.size(); i++) {
+                IndexEntry entry = index.get(i);
+                if (buffer.length < entry.length) buffer = new byte[entry.length];
+                in.seek(entry.offset);
+                in.readFully(buffer, 0, entry.length);
+                out.write(buffer, 0, entry.length);
+                out.write('\n');
+                kept.add(new IndexEntry(entry.timestamp, offset, entry.length, entry.remoteUri));
+                offset += entry.length + 1;
+            }
+        } catch (IOException exc) {
+            Logger.error(TAG, "Error while compacting call history", exc);
+            tmpFile.delete();
+            return;
+        }
+
+        if (!writeIndex(tmpIndexFile, kept, false)) {
+            tmpFile.delete();
+            return;
+        }
+
+        // a stale index is detected on load and rebuilt, so the data file goes first
+        if (!tmpFile.renameTo(file)) {
+            Logger.error(TAG, "Error while replacing call history file");
+            tmpFile.delete();
+            tmpIndexFile.delete();
+            return;
+        }
+        if (!tmpIndexFile.renameTo(indexFile)) {
+            indexFile.delete();
+        }
+
+        index.clear();
+        index.addAll(kept);
+        fileLength = kept.isEmpty() ? 0 : kept.get(kept.size() - 1).end();
+        Logger.debug(TAG, "Call history compacted, dropped " + dropped + " records");
+    }
+
+    private static class IndexEntry {
+        final long timestamp;
+        final long offset;
+        final int length;
+        final String remoteUri;
+
+        IndexEntry(long timestamp, long offset, int length, String remoteUri) {
+            this.timestamp = timestamp;
+            this.offset = offset;
+            this.length = length;
+            this.remoteUri = remoteUri;
+        }
+
+        long end() {
+            return offset + length + 1;
+        }
+    }
+}
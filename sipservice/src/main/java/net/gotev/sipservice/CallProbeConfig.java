@@ -0,0 +1,151 @@
+package net.gotev.sipservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Contains the configuration of the synthetic call probes.
+ * When enabled, a silent call is placed to {@link #getNumber()} every {@link #getInterval()}
+ * seconds and hung up after {@link #getCallDuration()} seconds. The echo or test extension
+ * is expected to answer and to send back audio.
+ */
+@SuppressWarnings("unused")
+public class CallProbeConfig implements Parcelable {
+
+    public static final int DEFAULT_INTERVAL = 15 * 60;     // 15 min
+    public static final int DEFAULT_CALL_DURATION = 10;     // 10 s
+    public static final int DEFAULT_MAX_RESULTS = 200;
+    public static final int MIN_INTERVAL = 60;              // 1 min
+
+    private boolean enabled = false;
+    private String accountID = "";
+    private String number = "";
+    private int interval = DEFAULT_INTERVAL;
+    private int callDuration = DEFAULT_CALL_DURATION;
+    private int maxResults = DEFAULT_MAX_RESULTS;
+
+    public CallProbeConfig() { }
+
+    /*****          Parcelable overrides        ******/
+    public static final Parcelable.Creator<CallProbeConfig> CREATOR =
+            new Parcelable.Creator<CallProbeConfig>() {
+                @Override
+                public CallProbeConfig createFromParcel(final Parcel in) {
+                    return new CallProbeConfig(in);
+                }
+
+                @Override
+                public CallProbeConfig[] newArray(final int size) {
+                    return new CallProbeConfig[size];
+                }
+            };
+
+    @Override
+    public void writeToParcel(Parcel parcel, int arg1) {
+        parcel.writeByte((byte) (enabled ? 1 : 0));
+        parcel.writeString(accountID);
+        parcel.writeString(number);
+        parcel.writeInt(interval);
+        parcel.writeInt(callDuration);
+        parcel.writeInt(maxResults);
+    }
+
+    private CallProbeConfig(Parcel in) {
+        enabled = in.readByte() == 1;
+        accountID = in.readString();
+        number = in.readString();
+        interval = in.readInt();
+        callDuration = in.readInt();
+        maxResults = in.readInt();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+    /*          Parcelable overrides end        */
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public CallProbeConfig setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        return this;
+    }
+
+    /**
+     * @return ID of the account used to place the probes
+     */
+    public String getAccountID() {
+        return accountID;
+    }
+
+    public CallProbeConfig setAccountID(String accountID) {
+        this.accountID = accountID == null ? "" : accountID;
+        return this;
+    }
+
+    /**
+     * @return echo or test extension to call
+     */
+    public String getNumber() {
+        return number;
+    }
+
+    public CallProbeConfig setNumber(String number) {
+        this.number = number == null ? "" : number;
+        return this;
+    }
+
+    /**
+     * @return seconds between two probes
+     */
+    public int getInterval() {
+        return interval;
+    }
+
+    public CallProbeConfig setInterval(int interval) {
+        this.interval = Math.max(interval, MIN_INTERVAL);
+        return this;
+    }
+
+    /**
+     * @return seconds after which the probe call is hung up
+     */
+    public int getCallDuration() {
+        return callDuration;
+    }
+
+    public CallProbeConfig setCallDuration(int callDuration) {
+        this.callDuration = Math.max(callDuration, 1);
+        return this;
+    }
+
+    /**
+     * @return number of results kept in the local store
+     */
+    public int getMaxResults() {
+        return maxResults;
+    }
+
+    public CallProbeConfig setMaxResults(int maxResults) {
+        this.maxResults = Math.max(maxResults, 1);
+        return this;
+    }
+
+    boolean isValid() {
+        return !accountID.isEmpty() && !number.isEmpty();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Enabled: " + enabled +
+                ", Interval: " + interval +
+                ", CallDuration: " + callDuration +
+                ", MaxResults: " + maxResults;
+    }
+}
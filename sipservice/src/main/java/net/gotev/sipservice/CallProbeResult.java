@@ -0,0 +1,207 @@
+package net.gotev.sipservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Outcome of a synthetic call probe. Durations are in milliseconds, -1 when not measured.
+ */
+@SuppressWarnings("unused")
+public class CallProbeResult implements Parcelable {
+
+    private long timestamp;
+    private String accountID;
+    private boolean registrationActive = false;
+    private int registrationStatus = 0;
+    private boolean connected = false;
+    private boolean aborted = false;
+    private int callStatus = 0;
+    private long postDialDelay = -1;
+    private long teardownTime = -1;
+    private long rxPackets = 0;
+    private long rxLoss = 0;
+    private long rxJitterMeanUsec = 0;
+    private long txLoss = 0;
+    private long txJitterMeanUsec = 0;
+
+    CallProbeResult(String accountID) {
+        this.timestamp = System.currentTimeMillis();
+        this.accountID = accountID;
+    }
+
+    /*****          Parcelable overrides        ******/
+    public static final Parcelable.Creator<CallProbeResult> CREATOR =
+            new Parcelable.Creator<CallProbeResult>() {
+                @Override
+                public CallProbeResult createFromParcel(final Parcel in) {
+                    return new CallProbeResult(in);
+                }
+
+                @Override
+                public CallProbeResult[] newArray(final int size) {
+                    return new CallProbeResult[size];
+                }
+            };
+
+    @Override
+    public void writeToParcel(Parcel parcel, int arg1) {
+        parcel.writeLong(timestamp);
+        parcel.writeString(accountID);
+        parcel.writeByte((byte) (registrationActive ? 1 : 0));
+        parcel.writeInt(registrationStatus);
+        parcel.writeByte((byte) (connected ? 1 : 0));
+        parcel.writeByte((byte) (aborted ? 1 : 0));
+        parcel.writeInt(callStatus);
+        parcel.writeLong(postDialDelay);
+        parcel.writeLong(teardownTime);
+        parcel.writeLong(rxPackets);
+        parcel.writeLong(rxLoss);
+        parcel.writeLong(rxJitterMeanUsec);
+        parcel.writeLong(txLoss);
+        parcel.writeLong(txJitterMeanUsec);
+    }
+
+    private CallProbeResult(Parcel in) {
+        timestamp = in.readLong();
+        accountID = in.readString();
+        registrationActive = in.readByte() == 1;
+        registrationStatus = in.readInt();
+        connected = in.readByte() == 1;
+        aborted = in.readByte() == 1;
+        callStatus = in.readInt();
+        postDialDelay = in.readLong();
+        teardownTime = in.readLong();
+        rxPackets = in.readLong();
+        rxLoss = in.readLong();
+        rxJitterMeanUsec = in.readLong();
+        txLoss = in.readLong();
+        txJitterMeanUsec = in.readLong();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+    /*          Parcelable overrides end        */
+
+    /**
+     * @return true if the probe call got connected and received audio
+     */
+    public boolean isSuccessful() {
+        return registrationActive && connected && rxPackets > 0;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getAccountID() {
+        return accountID;
+    }
+
+    public boolean isRegistrationActive() {
+        return registrationActive;
+    }
+
+    public int getRegistrationStatus() {
+        return registrationStatus;
+    }
+
+    void setRegistration(boolean active, int status) {
+        this.registrationActive = active;
+        this.registrationStatus = status;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @return true if the probe has been hung up early because of a real call
+     */
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    void setAborted(boolean aborted) {
+        this.aborted = aborted;
+    }
+
+    public int getCallStatus() {
+        return callStatus;
+    }
+
+    void setCall(boolean connected, int callStatus, long postDialDelay) {
+        this.connected = connected;
+        this.callStatus = callStatus;
+        this.postDialDelay = postDialDelay;
+    }
+
+    public long getPostDialDelay() {
+        return postDialDelay;
+    }
+
+    /**
+     * @return time from the hangup to the call disconnection
+     */
+    public long getTeardownTime() {
+        return teardownTime;
+    }
+
+    void setTeardownTime(long teardownTime) {
+        this.teardownTime = teardownTime;
+    }
+
+    public long getRxPackets() {
+        return rxPackets;
+    }
+
+    public long getRxLoss() {
+        return rxLoss;
+    }
+
+    public long getRxJitterMeanUsec() {
+        return rxJitterMeanUsec;
+    }
+
+    void setRx(long packets, long loss, long jitterMeanUsec) {
+        this.rxPackets = packets;
+        this.rxLoss = loss;
+        this.rxJitterMeanUsec = jitterMeanUsec;
+    }
+
+    /**
+     * @return packets lost towards the remote party, as reported by its RTCP
+     */
+    public long getTxLoss() {
+        return txLoss;
+    }
+
+    public long getTxJitterMeanUsec() {
+        return txJitterMeanUsec;
+    }
+
+    void setTx(long loss, long jitterMeanUsec) {
+        this.txLoss = loss;
+        this.txJitterMeanUsec = jitterMeanUsec;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Successful: " + isSuccessful() +
+                ", Registered: " + registrationActive + " (" + registrationStatus + ")" +
+                ", Connected: " + connected +
+                ", Aborted: " + aborted +
+                ", CallStatus: " + callStatus +
+                ", PostDialDelay: " + postDialDelay +
+                ", Teardown: " + teardownTime +
+                ", RxPackets: " + rxPackets +
+                ", RxLoss: " + rxLoss +
+                ", RxJitter: " + rxJitterMeanUsec +
+                ", TxLoss: " + txLoss +
+                ", TxJitter: " + txJitterMeanUsec;
+    }
+}
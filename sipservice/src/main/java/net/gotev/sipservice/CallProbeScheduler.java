@@ -0,0 +1,209 @@
+package net.gotev.sipservice;
+
+import org.pjsip.pjsua2.AccountInfo;
+import org.pjsip.pjsua2.RtcpStreamStat;
+import org.pjsip.pjsua2.StreamStat;
+
+import static net.gotev.sipservice.ObfuscationHelper.getValue;
+
+/**
+ * Periodically places silent calls to an echo or test extension and measures them.
+ * Every probe checks the account registration, then measures post dial delay, RTP loss
+ * and jitter and teardown time, and hangs up by itself.
+ * Probes never compete with real calls: a probe due while a real call is active is
+ * postponed with an exponential back off, and a running probe is hung up as soon as
+ * a real call starts.
+ * The probe state is only accessed on the service thread, so that no lock is held while
+ * calling into pjsua.
+ */
+class CallProbeScheduler {
+
+    private static final String TAG = CallProbeScheduler.class.getSimpleName();
+    private static final long BACKOFF_MIN_MS = 30 * 1000;
+    // longer than a BYE transaction timeout, 32 s
+    private static final long WATCHDOG_GRACE_MS = 40 * 1000;
+
+    private final SipService service;
+    private final CallProbeStore store;
+    private CallProbeConfig config = new CallProbeConfig();
+    private int backoffAttempts = 0;
+
+    private SipCall probeCall;
+    private CallProbeResult probeResult;
+    private long hangupTimestamp = 0;
+
+    private final Runnable probeJob = this::runProbe;
+    private final Runnable hangupJob = this::hangupProbe;
+    private final Runnable watchdogJob = this::onProbeTimeout;
+
+    CallProbeScheduler(SipService service, CallProbeStore store) {
+        this.service = service;
+        this.store = store;
+    }
+
+    /**
+     * Applies a new configuration, rescheduling the next probe.
+     */
+    void setConfig(CallProbeConfig config) {
+        this.config = config;
+        backoffAttempts = 0;
+        service.dequeueJob(probeJob);
+        if (config.isEnabled() && config.isValid()) {
+            scheduleNext(config.getInterval() * 1000L);
+        }
+    }
+
+    /**
+     * Hangs up the running probe, if any, to leave room to a real call.
+     * To be called on the service thread, before the real call is placed or answered.
+     */
+    void onRealCall() {
+        if (probeCall == null || hangupTimestamp != 0) return;
+
+        Logger.debug(TAG, "Real call started, aborting call probe");
+        probeResult.setAborted(true);
+        service.dequeueJob(hangupJob);
+        hangupProbe();
+    }
+
+    /**
+     * Collects the outcome of the probe call. Called from the call state callback,
+     * before the call gets deleted, so the stream stats are read right away.
+     */
+    void onProbeDisconnected(SipCall call, boolean connected, int callStatus,
+                             long postDialDelay, StreamStat streamStat) {
+        long disconnectTimestamp = System.nanoTime();
+        // the call is deleted right after, it must not be hung up anymore
+        service.dequeueJob(hangupJob);
+        long[] rx = null;
+        long[] tx = null;
+        if (streamStat != null) {
+            RtcpStreamStat rxStat = streamStat.getRtcp().getRxStat();
+            RtcpStreamStat txStat = streamStat.getRtcp().getTxStat();
+            rx = new long[] {rxStat.getPkt(), rxStat.getLoss(), rxStat.getJitterUsec().getMean()};
+            tx = new long[] {txStat.getLoss(), txStat.getJitterUsec().getMean()};
+        }
+
+        final long[] rxValues = rx;
+        final long[] txValues = tx;
+        service.enqueueJob(() -> {
+            if (call != probeCall) return;
+
+            CallProbeResult result = probeResult;
+            result.setCall(connected, callStatus, postDialDelay);
+            if (hangupTimestamp != 0) {
+                result.setTeardownTime((disconnectTimestamp - hangupTimestamp) / 1000000);
+            }
+            if (rxValues != null) {
+                result.setRx(rxValues[0], rxValues[1], rxValues[2]);
+                result.setTx(txValues[0], txValues[1]);
+            }
+
+            clearProbe();
+            finish(result);
+        });
+    }
+
+    void stop() {
+        service.dequeueJob(probeJob);
+        service.dequeueJob(hangupJob);
+        clearProbe();
+        store.shutdown();
+    }
+
+    private void runProbe() {
+        if (!config.isEnabled() || probeCall != null) return;
+
+        if (getActiveCallsCount() > 0) {
+            long delay = Math.min(BACKOFF_MIN_MS << Math.min(backoffAttempts, 10),
+                    config.getInterval() * 1000L);
+            backoffAttempts++;
+            Logger.debug(TAG, "Real call active, call probe postponed by " + delay + " ms");
+            scheduleNext(delay);
+            return;
+        }
+        backoffAttempts = 0;
+
+        CallProbeResult result = new CallProbeResult(config.getAccountID());
+        SipAccount account = SipService.getActiveSipAccounts().get(config.getAccountID());
+        if (account == null) {
+            Logger.debug(TAG, "Call probe account not active: "
+                    + getValue(service.getApplicationContext(), config.getAccountID()));
+            finish(result);
+            return;
+        }
+
+        try {
+            AccountInfo info = account.getInfo();
+            result.setRegistration(info.getRegIsActive(), info.getRegStatus());
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while getting call probe account info", exc);
+        }
+        if (!result.isRegistrationActive()) {
+            finish(result);
+            return;
+        }
+
+        SipCall call = account.addProbeCall(config.getNumber(), this);
+        if (call == null) {
+            finish(result);
+            return;
+        }
+
+        Logger.debug(TAG, "Call probe started to " + getValue(service.getApplicationContext(), config.getNumber()));
+        probeCall = call;
+        probeResult = result;
+        service.enqueueDelayedJob(hangupJob, config.getCallDuration() * 1000L);
+        service.enqueueDelayedJob(watchdogJob, config.getCallDuration() * 1000L + WATCHDOG_GRACE_MS);
+    }
+
+    /**
+     * The probe has not disconnected in time, because the hangup failed or its state change
+     * got lost: it is given up as failed, so that the next probes still run.
+     */
+    private void onProbeTimeout() {
+        if (probeCall == null) return;
+
+        Logger.error(TAG, "Call probe not disconnected in time, giving up");
+        CallProbeResult result = probeResult;
+        clearProbe();
+        finish(result);
+    }
+
+    private void clearProbe() {
+        service.dequeueJob(watchdogJob);
+        probeCall = null;
+        probeResult = null;
+        hangupTimestamp = 0;
+    }
+
+    private void hangupProbe() {
+        if (probeCall == null) return;
+
+        hangupTimestamp = System.nanoTime();
+        probeCall.hangUp();
+    }
+
+    private void finish(CallProbeResult result) {
+        Logger.debug(TAG, "Call probe result - " + result);
+        store.add(result, config.getMaxResults());
+        service.getBroadcastEmitter().callProbeResult(result);
+
+        if (config.isEnabled() && config.isValid()) {
+            scheduleNext(config.getInterval() * 1000L);
+        }
+    }
+
+    private void scheduleNext(long delay) {
+        service.dequeueJob(probeJob);
+        service.enqueueDelayedJob(probeJob, delay);
+    }
+
+    private int getActiveCallsCount() {
+        int totalCalls = 0;
+        for (SipAccount account : SipService.getActiveSipAccounts().values()) {
+            totalCalls += account.getActiveCallsCount();
+        }
+        return totalCalls;
+    }
+}
@@ -0,0 +1,109 @@
+package net.gotev.sipservice;
+
+import com.google.gson.Gson;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Rolling store of the call probe results, one json line per probe.
+ * Results are appended on a background thread. When the file holds twice the
+ * configured results, it's rewritten with the most recent ones only.
+ */
+class CallProbeStore {
+
+    private static final String TAG = CallProbeStore.class.getSimpleName();
+    static final String FILE_NAME = "call_probes.jsonl";
+
+    private final File file;
+    private final Gson gson = new Gson();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "SipCallProbeStore"));
+    private final ArrayDeque<String> lines = new ArrayDeque<>();
+    private boolean loaded = false;
+    private int fileLines = 0;
+
+    CallProbeStore(File directory) {
+        this.file = new File(directory, FILE_NAME);
+    }
+
+    /**
+     * Appends a result, compacting the store if needed.
+     * @param result probe result
+     * @param maxResults number of results to keep
+     */
+    void add(CallProbeResult result, int maxResults) {
+        executor.execute(() -> {
+            load();
+            String line = gson.toJson(result);
+            lines.addLast(line);
+            while (lines.size() > maxResults) {
+                lines.removeFirst();
+            }
+
+            if (fileLines + 1 >= maxResults * 2) {
+                rewrite();
+                return;
+            }
+
+            try (Writer writer = new FileWriter(file, true)) {
+                writer.write(line);
+                writer.write('\n');
+                fileLines++;
+            } catch (IOException exc) {
+                Logger.error(TAG, "Error while storing call probe result", exc);
+            }
+        });
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        if (!file.exists()) return;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                lines.addLast(line);
+                fileLines++;
+            }
+        } catch (IOException exc) {
+            Logger.error(TAG, "Error while loading call probe results", exc);
+        }
+    }
+
+    private void rewrite() {
+        File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+        try (Writer writer = new FileWriter(tmpFile, false)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } catch (IOException exc) {
+            Logger.error(TAG, "Error while compacting call probe results", exc);
+            return;
+        }
+
+        if (tmpFile.renameTo(file)) {
+            fileLines = lines.size();
+        } else {
+            Logger.error(TAG, "Error while replacing call probe results file");
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package net.gotev.sipservice;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregates the quality of the connected calls into quantile sketches of jitter, loss,
+ * RTT and estimated MOS, keyed by network type, codec and account.
+ * Sketches are mergeable, so the summaries of any combination of keys are computed by
+ * merging them. At most {@link #MAX_KEYS} keys are kept, dropping the least recently
+ * updated one, so that memory is bounded whatever the call volume.
+ * A compact snapshot is saved a few seconds after each update, on a background thread.
+ */
+class CallQualityAggregator {
+
+    private static final String TAG = CallQualityAggregator.class.getSimpleName();
+    static final String FILE_NAME = "call_quality.json";
+    static final int MAX_KEYS = 32;
+    private static final long SAVE_DELAY_MS = 5000;
+
+    // sketch units: microseconds for times, hundredths of percent for loss, MOS x 100
+    private static final double USEC_PER_MS = 1000;
+    private static final double LOSS_SCALE = 100;
+    private static final double MOS_SCALE = 100;
+
+    interface QueryCallback {
+        void onResult(ArrayList<CallQualitySummary> summaries, CallQualitySummary total);
+    }
+
+    private final File file;
+    private final Gson gson = new Gson();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "SipCallQuality"));
+
+    // accessed only from the executor thread, in least recently updated order
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_KEYS;
+        }
+    };
+    private boolean loaded = false;
+    private ScheduledFuture<?> saveJob;
+
+    CallQualityAggregator(File directory) {
+        this.file = new File(directory, FILE_NAME);
+    }
+
+    /**
+     * Adds the quality of a call.
+     * @param networkType network type the call has been made on
+     * @param accountID account which owned the call
+     * @param stats audio stream statistics at hangup
+     */
+    void record(String networkType, String accountID, CallStreamStats stats) {
+        long expected = stats.getRxPackets() + stats.getRxLoss();
+        if (expected <= 0) return;
+
+        double lossPercent = 100.0 * stats.getRxLoss() / expected;
+        double jitterUsec = stats.getRxJitterMean();
+        double rttUsec = stats.getRttMean();
+        double mos = estimateMos(lossPercent, jitterUsec / USEC_PER_MS, rttUsec / USEC_PER_MS);
+        String codec = stats.getCodec() == null ? null : stats.getCodec() + "_" + stats.getClockRate();
+
+        executor.execute(() -> {
+            load();
+            String key = networkType + "|" + codec + "|" + accountID;
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(networkType, codec, accountID);
+                entries.put(key, entry);
+            }
+            entry.jitter.add(jitterUsec);
+            entry.loss.add(lossPercent * LOSS_SCALE);
+            entry.rtt.add(rttUsec);
+            entry.mos.add(mos * MOS_SCALE);
+
+            if (saveJob == null) {
+                saveJob = executor.schedule(this::save, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    /**
+     * Gets the summaries of the keys matching the filters. Null filters match every value.
+     * @param callback invoked on the aggregator thread with the summary of each matching key
+     *                 and the summary of all of them merged together
+     */
+    void query(String networkType, String codec, String accountID, QueryCallback callback) {
+        executor.execute(() -> {
+            load();
+            ArrayList<CallQualitySummary> summaries = new ArrayList<>();
+            Entry total = new Entry(networkType, codec, accountID);
+            for (Entry entry : entries.values()) {
+                if (networkType != null && !networkType.equals(entry.networkType)) continue;
+                if (codec != null && !codec.equals(entry.codec)) continue;
+                if (accountID != null && !accountID.equals(entry.accountID)) continue;
+
+                summaries.add(entry.toSummary());
+                total.merge(entry);
+            }
+            callback.onResult(summaries, total.toSummary());
+        });
+    }
+
+    void shutdown() {
+        executor.execute(() -> {
+            if (saveJob != null) save();
+        });
+        executor.shutdown();
+    }
+
+    /**
+     * Estimates the MOS with the simplified ITU-T G.107 E-model.
+     * @param lossPercent packet loss in percent
+     * @param jitterMs mean jitter in milliseconds
+     * @param rttMs mean round trip time in milliseconds
+     * @return MOS between 1 and 4.5
+     */
+    static double estimateMos(double lossPercent, double jitterMs, double rttMs) {
+        double latency = rttMs / 2 + jitterMs * 2 + 10;
+        double r = latency < 160 ? 93.2 - latency / 40 : 93.2 - (latency - 120) / 10;
+        r -= lossPercent * 2.5;
+
+        if (r <= 0) return 1;
+        if (r >= 100) return 4.5;
+        return 1 + 0.035 * r + 0.000007 * r * (r - 60) * (100 - r);
+    }
+
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        if (!file.exists()) return;
+
+        try (Reader reader = new FileReader(file)) {
+            ArrayList<Entry> saved = gson.fromJson(reader, new TypeToken<ArrayList<Entry>>(){}.getType());
+            if (saved == null) return;
+            for (Entry entry : saved) {
+                if (entry.isValid()) {
+                    entries.put(entry.networkType + "|" + entry.codec + "|" + entry.accountID, entry);
+                }
+            }
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while loading call quality snapshot", exc);
+        }
+    }
+
+    private void save() {
+        saveJob = null;
+        ArrayList<Entry> snapshot = new ArrayList<>(entries.values());
+        for (Entry entry : snapshot) {
+            entry.compact();
+        }
+
+        File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+        try (Writer writer = new FileWriter(tmpFile, false)) {
+            gson.toJson(snapshot, writer);
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while saving call quality snapshot", exc);
+            return;
+        }
+
+        if (!tmpFile.renameTo(file)) {
+            Logger.error(TAG, "Error while replacing call quality snapshot");
+        }
+    }
+
+    private static class Entry {
+        String networkType;
+        String codec;
+        String accountID;
+        QuantileSketch jitter = new QuantileSketch();
+        QuantileSketch loss = new QuantileSketch();
+        QuantileSketch rtt = new QuantileSketch();
+        QuantileSketch mos = new QuantileSketch();
+
+        Entry(String networkType, String codec, String accountID) {
+            this.networkType = networkType;
+            this.codec = codec;
+            this.accountID = accountID;
+        }
+
+        boolean isValid() {
+            return jitter != null && loss != null && rtt != null && mos != null;
+        }
+
+        void merge(Entry other) {
+            jitter.merge(other.jitter);
+            loss.merge(other.loss);
+            rtt.merge(other.rtt);
+            mos.merge(other.mos);
+        }
+
+        void compact() {
+            jitter.compact();
+            loss.compact();
+            rtt.compact();
+            mos.compact();
+        }
+
+        CallQualitySummary toSummary() {
+            return new CallQualitySummary(networkType, codec, accountID, mos.getCount(),
+                    new QualityPercentiles(jitter, USEC_PER_MS),
+                    new QualityPercentiles(loss, LOSS_SCALE),
+                    new QualityPercentiles(rtt, USEC_PER_MS),
+                    new QualityPercentiles(mos, MOS_SCALE));
+        }
+    }
+}
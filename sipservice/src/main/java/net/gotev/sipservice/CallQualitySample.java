@@ -0,0 +1,93 @@
+package net.gotev.sipservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Receive quality of a call at a point in time. Loss and packets are cumulative since the
+ * start of the stream.
+ */
+@SuppressWarnings("unused")
+public class CallQualitySample implements Parcelable {
+
+    private final long timestamp;
+    private final long rxPackets;
+    private final long rxLoss;
+    private final long rxJitterMeanUsec;
+    private final long rttMeanUsec;
+
+    CallQualitySample(long timestamp, long rxPackets, long rxLoss, long rxJitterMeanUsec, long rttMeanUsec) {
+        this.timestamp = timestamp;
+        this.rxPackets = rxPackets;
+        this.rxLoss = rxLoss;
+        this.rxJitterMeanUsec = rxJitterMeanUsec;
+        this.rttMeanUsec = rttMeanUsec;
+    }
+
+    public static final Parcelable.Creator<CallQualitySample> CREATOR =
+            new Parcelable.Creator<CallQualitySample>() {
+                @Override
+                public CallQualitySample createFromParcel(final Parcel in) {
+                    return new CallQualitySample(in);
+                }
+
+                @Override
+                public CallQualitySample[] newArray(final int size) {
+                    return new CallQualitySample[size];
+                }
+            };
+
+    private CallQualitySample(Parcel in) {
+        this.timestamp = in.readLong();
+        this.rxPackets = in.readLong();
+        this.rxLoss = in.readLong();
+        this.rxJitterMeanUsec = in.readLong();
+        this.rttMeanUsec = in.readLong();
+    }
+
+    @Override
+    public void writeToParcel(Parcel parcel, int arg1) {
+        parcel.writeLong(timestamp);
+        parcel.writeLong(rxPackets);
+        parcel.writeLong(rxLoss);
+        parcel.writeLong(rxJitterMeanUsec);
+        parcel.writeLong(rttMeanUsec);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getRxPackets() {
+        return rxPackets;
+    }
+
+    public long getRxLoss() {
+        return rxLoss;
+    }
+
+    public long getRxJitterMeanUsec() {
+        return rxJitterMeanUsec;
+    }
+
+    public long getRttMeanUsec() {
+        return rttMeanUsec;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Timestamp: " + timestamp +
+                ", RxPackets: " + rxPackets +
+                ", RxLoss: " + rxLoss +
+                ", RxJitter: " + rxJitterMeanUsec +
+                ", Rtt: " + rttMeanUsec;
+    }
+}
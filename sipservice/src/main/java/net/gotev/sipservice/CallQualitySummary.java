@@ -0,0 +1,123 @@
+package net.gotev.sipservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Aggregated call quality for a network type, codec and account. A null dimension means
+ * that the summary covers every value of it.
+ * Jitter and RTT are in milliseconds, loss in percent and MOS is estimated with the E-model.
+ */
+@SuppressWarnings("unused")
+public class CallQualitySummary implements Parcelable {
+
+    private final String networkType;
+    private final String codec;
+    private final String accountID;
+    private final long calls;
+    private final QualityPercentiles jitter;
+    private final QualityPercentiles loss;
+    private final QualityPercentiles rtt;
+    private final QualityPercentiles mos;
+
+    CallQualitySummary(String networkType, String codec, String accountID, long calls,
+                       QualityPercentiles jitter, QualityPercentiles loss,
+                       QualityPercentiles rtt, QualityPercentiles mos) {
+        this.networkType = networkType;
+        this.codec = codec;
+        this.accountID = accountID;
+        this.calls = calls;
+        this.jitter = jitter;
+        this.loss = loss;
+        this.rtt = rtt;
+        this.mos = mos;
+    }
+
+    public static final Parcelable.Creator<CallQualitySummary> CREATOR =
+            new Parcelable.Creator<CallQualitySummary>() {
+                @Override
+                public CallQualitySummary createFromParcel(final Parcel in) {
+                    return new CallQualitySummary(in);
+                }
+
+                @Override
+                public CallQualitySummary[] newArray(final int size) {
+                    return new CallQualitySummary[size];
+                }
+            };
+
+    private CallQualitySummary(Parcel in) {
+        this.networkType = in.readString();
+        this.codec = in.readString();
+        this.accountID = in.readString();
+        this.calls = in.readLong();
+        this.jitter = in.readParcelable(QualityPercentiles.class.getClassLoader());
+        this.loss = in.readParcelable(QualityPercentiles.class.getClassLoader());
+        this.rtt = in.readParcelable(QualityPercentiles.class.getClassLoader());
+        this.mos = in.readParcelable(QualityPercentiles.class.getClassLoader());
+    }
+
+    @Override
+    public void writeToParcel(Parcel parcel, int arg1) {
+        parcel.writeString(networkType);
+        parcel.writeString(codec);
+        parcel.writeString(accountID);
+        parcel.writeLong(calls);
+        parcel.writeParcelable(jitter, 0);
+        parcel.writeParcelable(loss, 0);
+        parcel.writeParcelable(rtt, 0);
+        parcel.writeParcelable(mos, 0);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Network: " + networkType +
+                ", Codec: " + codec +
+                ", Account: " + accountID +
+                ", Calls: " + calls +
+                ", Jitter ms " + jitter +
+                ", Loss % " + loss +
+                ", RTT ms " + rtt +
+                ", MOS " + mos;
+    }
+
+    public String getNetworkType() {
+        return networkType;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public String getAccountID() {
+        return accountID;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public QualityPercentiles getJitter() {
+        return jitter;
+    }
+
+    public QualityPercentiles getLoss() {
+        return loss;
+    }
+
+    public QualityPercentiles getRtt() {
+        return rtt;
+    }
+
+    public QualityPercentiles getMos() {
+        return mos;
+    }
+}
@@ -0,0 +1,50 @@
+package net.gotev.sipservice;
+
+/**
+ * Duration and success rate of the call reconnections after an IP change.
+ */
+class CallReconnectionStats {
+
+    /**
+     * Time after which a reconnection without outcome is considered failed.
+     */
+    static final long TIMEOUT_MS = 30000;
+
+    private long startTimestamp = 0;
+    private int attempts = 0;
+    private int successes = 0;
+
+    synchronized void onStarted() {
+        startTimestamp = System.nanoTime();
+        attempts++;
+    }
+
+    /**
+     * @param success whether the reconnection completed successfully
+     * @return the reconnection duration in milliseconds, -1 if no reconnection was in progress
+     */
+    synchronized long onFinished(boolean success) {
+        if (startTimestamp == 0) return -1;
+
+        if (success) successes++;
+        long duration = (System.nanoTime() - startTimestamp) / 1000000;
+        startTimestamp = 0;
+        return duration;
+    }
+
+    synchronized boolean isInProgress() {
+        return startTimestamp != 0;
+    }
+
+    /**
+     * @return successful reconnections over the attempted ones, between 0 and 1
+     */
+    synchronized float getSuccessRate() {
+        return attempts == 0 ? 0 : (float) successes / attempts;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Reconnections: " + attempts + ", successful: " + successes;
+    }
+}
@@ -0,0 +1,192 @@
+package net.gotev.sipservice;
+
+import android.os.Process;
+
+import org.pjsip.pjsua2.AudioMedia;
+import org.pjsip.pjsua2.AudioMediaRecorder;
+import org.pjsip.pjsua2.MediaFormatAudio;
+
+import java.io.File;
+
+/**
+ * Records both directions of a call by connecting the call audio and the capture device
+ * to a pjsua2 {@link AudioMediaRecorder} on the conference bridge.
+ * Samples are written by the bridge clock thread, so the SIP worker never blocks on disk I/O.
+ * When a segment reaches its size or time limit, a new recorder is connected before the
+ * old one is closed, so that rotation does not drop audio.
+ */
+class CallRecorder {
+
+    private static final String LOG_TAG = CallRecorder.class.getSimpleName();
+    static final int WAV_HEADER_SIZE = 44;
+
+    private final SipService service;
+    private final CallRecordingConfig config;
+    private final File directory;
+    private final String filePrefix;
+    private final CallRecordingInfo info;
+    private final Runnable segmentLimitJob = this::onSegmentLimitReached;
+
+    private AudioMedia callMedia;
+    private AudioMedia captureMedia;
+    private AudioMediaRecorder recorder;
+    private long cpuTimeAtStart;
+    private boolean stopped = false;
+
+    CallRecorder(SipService service, CallRecordingConfig config, File directory, String filePrefix,
+                 CallRecordingInfo info) {
+        this.service = service;
+        this.config = config;
+        this.directory = directory;
+        this.filePrefix = filePrefix;
+        this.info = info;
+    }
+
+    /**
+     * Starts recording. Calling it again while recording only follows the call audio to its
+     * new conference port, if a re-INVITE or a transport handover has changed it.
+     * @param callMedia call audio media (remote party)
+     * @param captureMedia capture device media (local party)
+     * @throws Exception if the recorder can't be created or connected
+     */
+    synchronized void start(AudioMedia callMedia, AudioMedia captureMedia) throws Exception {
+        if (stopped) return;
+        if (recorder != null) {
+            if (callMedia.getPortId() != this.callMedia.getPortId()) reconnect(callMedia);
+            return;
+        }
+        // the max recording duration has been reached
+        if (!info.getSegments().isEmpty()) return;
+
+        this.callMedia = callMedia;
+        this.captureMedia = captureMedia;
+        info.setStartTimestamp(System.currentTimeMillis());
+        cpuTimeAtStart = Process.getElapsedCpuTime();
+        openSegment();
+        Logger.debug(LOG_TAG, "Recording started for call " + info.getCallId() + " " + config);
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    boolean isRecording() {
+        return recorder != null;
+    }
+
+    /**
+     * Stops recording and closes the current file.
+     * @return the recording info to finalise, or null if nothing has been recorded
+     */
+    synchronized CallRecordingInfo stop() {
+        if (stopped) return null;
+        stopped = true;
+        service.dequeueJob(segmentLimitJob);
+
+        if (recorder != null) {
+            closeRecorder(recorder);
+            recorder = null;
+        }
+
+        if (info.getSegments().isEmpty()) return null;
+
+        info.setEndTimestamp(System.currentTimeMillis());
+        info.setProcessCpuMillis(Process.getElapsedCpuTime() - cpuTimeAtStart);
+        return info;
+    }
+
+    private void openSegment() throws Exception {
+        int index = info.getSegments().size();
+        File file = new File(directory, filePrefix + "_" + index + CallRecordingFormat.FILE_EXTENSION);
+
+        AudioMediaRecorder newRecorder = new AudioMediaRecorder();
+        NativeObjectTracker.getInstance().register(NativeObjectTracker.Kind.RECORDER, newRecorder,
+                newRecorder::delete);
+        newRecorder.createRecorder(file.getAbsolutePath(), config.getFormat().getEncType(),
+                config.getMaxSegmentSize());
+        MediaGraphManager mediaGraph = service.getMediaGraph();
+        mediaGraph.connect(info.getCallId(), callMedia, newRecorder);
+        mediaGraph.connect(info.getCallId(), captureMedia, newRecorder);
+
+        AudioMediaRecorder oldRecorder = recorder;
+        recorder = newRecorder;
+        if (oldRecorder != null) {
+            closeRecorder(oldRecorder);
+        }
+
+        if (info.getBytesPerSecond() == 0) {
+            info.setBytesPerSecond(getBytesPerSecond(newRecorder));
+        }
+        info.getSegments().add(new CallRecordingInfo.Segment(file.getAbsolutePath(), System.currentTimeMillis()));
+        scheduleSegmentLimit();
+    }
+
+    private void reconnect(AudioMedia newCallMedia) throws Exception {
+        // the bridge has removed the connections of the old port along with it
+        int oldPortId = callMedia.getPortId();
+        callMedia = newCallMedia;
+        service.getMediaGraph().connect(info.getCallId(), callMedia, recorder);
+        Logger.debug(LOG_TAG, "Recording of call {} moved from port {} to {}",
+                info.getCallId(), oldPortId, newCallMedia.getPortId());
+    }
+
+    private void scheduleSegmentLimit() {
+        long delay = Long.MAX_VALUE;
+
+        if (config.getMaxSegmentDuration() > 0) {
+            delay = config.getMaxSegmentDuration() * 1000L;
+        }
+        if (config.getMaxSegmentSize() > WAV_HEADER_SIZE && info.getBytesPerSecond() > 0) {
+            delay = Math.min(delay,
+                    (config.getMaxSegmentSize() - WAV_HEADER_SIZE) * 1000L / info.getBytesPerSecond());
+        }
+        if (config.getMaxCallDuration() > 0) {
+            long elapsed = System.currentTimeMillis() - info.getStartTimestamp();
+            delay = Math.min(delay, Math.max(config.getMaxCallDuration() * 1000L - elapsed, 0));
+        }
+
+        if (delay != Long.MAX_VALUE) {
+            service.enqueueDelayedJob(segmentLimitJob, delay);
+        }
+    }
+
+    private synchronized void onSegmentLimitReached() {
+        if (stopped || recorder == null) return;
+
+        long elapsed = System.currentTimeMillis() - info.getStartTimestamp();
+        if (config.getMaxCallDuration() > 0 && elapsed >= config.getMaxCallDuration() * 1000L) {
+            Logger.info(LOG_TAG, "Max recording duration reached for call " + info.getCallId());
+            closeRecorder(recorder);
+            recorder = null;
+            return;
+        }
+
+        try {
+            openSegment();
+            Logger.debug(LOG_TAG, "Recording rotated for call " + info.getCallId()
+                    + ", segment " + (info.getSegments().size() - 1));
+        } catch (Exception exc) {
+            Logger.error(LOG_TAG, "Error while rotating call recording", exc);
+        }
+    }
+
+    private void closeRecorder(AudioMediaRecorder mediaRecorder) {
+        // the call media may already be gone at disconnection, the bridge has disconnected it then
+        MediaGraphManager mediaGraph = service.getMediaGraph();
+        mediaGraph.disconnect(info.getCallId(), callMedia, mediaRecorder);
+        mediaGraph.disconnect(info.getCallId(), captureMedia, mediaRecorder);
+        NativeObjectTracker.getInstance().unregister(mediaRecorder);
+        mediaRecorder.delete();
+    }
+
+    private int getBytesPerSecond(AudioMediaRecorder mediaRecorder) {
+        try {
+            MediaFormatAudio format = mediaRecorder.getPortInfo().getFormat();
+            return (int) (format.getClockRate() * format.getChannelCount())
+                    * config.getFormat().getBytesPerSample();
+        } catch (Exception exc) {
+            Logger.error(LOG_TAG, "Error while getting recorder port format", exc);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package net.gotev.sipservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Contains the call recording configuration.
+ * Every recorded call is split into segments bounded by {@link #getMaxSegmentSize()} and
+ * {@link #getMaxSegmentDuration()}, while {@link #getMaxCallDuration()} bounds the whole call.
+ */
+@SuppressWarnings("unused")
+public class CallRecordingConfig implements Parcelable {
+
+    public static final int DEFAULT_MAX_SEGMENT_SIZE = 10 * 1024 * 1024;   // 10 MB
+    public static final int DEFAULT_MAX_SEGMENT_DURATION = 15 * 60;        // 15 min
+    public static final int UNLIMITED = 0;
+
+    private boolean enabled = false;
+    private CallRecordingFormat format = CallRecordingFormat.WAV_PCM;
+    private int maxSegmentSize = DEFAULT_MAX_SEGMENT_SIZE;
+    private int maxSegmentDuration = DEFAULT_MAX_SEGMENT_DURATION;
+    private int maxCallDuration = UNLIMITED;
+    private String directory = "";
+
+    public CallRecordingConfig() { }
+
+    /*****          Parcelable overrides        ******/
+    public static final Parcelable.Creator<CallRecordingConfig> CREATOR =
+            new Parcelable.Creator<CallRecordingConfig>() {
+                @Override
+                public CallRecordingConfig createFromParcel(final Parcel in) {
+                    return new CallRecordingConfig(in);
+                }
+
+                @Override
+                public CallRecordingConfig[] newArray(final int size) {
+                    return new CallRecordingConfig[size];
+                }
+            };
+
+    @Override
+    public void writeToParcel(Parcel parcel, int arg1) {
+        parcel.writeByte((byte) (enabled ? 1 : 0));
+        parcel.writeInt(format.ordinal());
+        parcel.writeInt(maxSegmentSize);
+        parcel.writeInt(maxSegmentDuration);
+        parcel.writeInt(maxCallDuration);
+        parcel.writeString(directory);
+    }
+
+    private CallRecordingConfig(Parcel in) {
+        enabled = in.readByte() == 1;
+        format = CallRecordingFormat.getFormatByCode(in.readInt());
+        maxSegmentSize = in.readInt();
+        maxSegmentDuration = in.readInt();
+        maxCallDuration = in.readInt();
+        directory = in.readString();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+    /*          Parcelable overrides end        */
+
+    CallRecordingConfig getDeepCopy() {
+        Parcel parcel = Parcel.obtain();
+        this.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        CallRecordingConfig temp = CallRecordingConfig.CREATOR.createFromParcel(parcel);
+        parcel.recycle();
+        return temp;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public CallRecordingConfig setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        return this;
+    }
+
+    public CallRecordingFormat getFormat() {
+        return format;
+    }
+
+    public CallRecordingConfig setFormat(CallRecordingFormat format) {
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * @return maximum size in bytes of a single recording file, passed to pjsip as max_size
+     */
+    public int getMaxSegmentSize() {
+        return maxSegmentSize;
+    }
+
+    public CallRecordingConfig setMaxSegmentSize(int maxSegmentSize) {
+        this.maxSegmentSize = Math.max(maxSegmentSize, UNLIMITED);
+        return this;
+    }
+
+    /**
+     * @return maximum duration in seconds of a single recording file
+     */
+    public int getMaxSegmentDuration() {
+        return maxSegmentDuration;
+    }
+
+    public CallRecordingConfig setMaxSegmentDuration(int maxSegmentDuration) {
+        this.maxSegmentDuration = Math.max(maxSegmentDuration, UNLIMITED);
+        return this;
+    }
+
+    /**
+     * @return maximum recorded duration in seconds for a call, after which recording stops
+     */
+    public int getMaxCallDuration() {
+        return maxCallDuration;
+    }
+
+    public CallRecordingConfig setMaxCallDuration(int maxCallDuration) {
+        this.maxCallDuration = Math.max(maxCallDuration, UNLIMITED);
+        return this;
+    }
+
+    /**
+     * @return absolute path of the recordings directory, or empty to use the app files dir
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    public CallRecordingConfig setDirectory(String directory) {
+        this.directory = directory == null ? "" : directory;
+        return this;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Enabled: " + enabled +
+                ", Format: " + format +
+                ", MaxSegmentSize: " + maxSegmentSize +
+                ", MaxSegmentDuration: " + maxSegmentDuration +
+                ", MaxCallDuration: " + maxCallDuration;
+    }
+}
@@ -0,0 +1,40 @@
+package net.gotev.sipservice;
+
+import org.pjsip.pjsua2.pjmedia_file_writer_option;
+
+/**
+ * Output formats supported by the call recorder.
+ * PCM is lossless, A-law and u-law halve the file size at telephony quality.
+ */
+public enum CallRecordingFormat {
+    WAV_PCM(pjmedia_file_writer_option.PJMEDIA_FILE_WRITE_PCM, 2),
+    WAV_ALAW(pjmedia_file_writer_option.PJMEDIA_FILE_WRITE_ALAW, 1),
+    WAV_ULAW(pjmedia_file_writer_option.PJMEDIA_FILE_WRITE_ULAW, 1);
+
+    public static final String FILE_EXTENSION = ".wav";
+
+    private final int encType;
+    private final int bytesPerSample;
+
+    CallRecordingFormat(int encType, int bytesPerSample) {
+        this.encType = encType;
+        this.bytesPerSample = bytesPerSample;
+    }
+
+    int getEncType() {
+        return encType;
+    }
+
+    int getBytesPerSample() {
+        return bytesPerSample;
+    }
+
+    public static CallRecordingFormat getFormatByCode(int code) {
+        switch (code) {
+            case 1: return WAV_ALAW;
+            case 2: return WAV_ULAW;
+            case 0:
+            default: return WAV_PCM;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package net.gotev.sipservice;
+
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Finalises call recordings after hangup on a background thread.
+ * Empty segments are removed and each recorded call is appended as a json line
+ * to the index file in the recordings directory.
+ */
+class CallRecordingIndex {
+
+    private static final String TAG = CallRecordingIndex.class.getSimpleName();
+    static final String INDEX_FILE_NAME = "index.jsonl";
+
+    private final BroadcastEventEmitter emitter;
+    private final Gson gson = new Gson();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "SipCallRecordingIndex"));
+
+    CallRecordingIndex(BroadcastEventEmitter emitter) {
+        this.emitter = emitter;
+    }
+
+    void finalise(File directory, CallRecordingInfo info) {
+        executor.execute(() -> {
+            long start = System.nanoTime();
+            long bytesWritten = 0;
+
+            Iterator<CallRecordingInfo.Segment> iterator = info.getSegments().iterator();
+            while (iterator.hasNext()) {
+                CallRecordingInfo.Segment segment = iterator.next();
+                File file = new File(segment.getPath());
+                long size = file.length();
+                if (size <= CallRecorder.WAV_HEADER_SIZE) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                    iterator.remove();
+                    continue;
+                }
+                segment.setSize(size);
+                if (info.getBytesPerSecond() > 0) {
+                    segment.setDurationMillis((size - CallRecorder.WAV_HEADER_SIZE) * 1000L / info.getBytesPerSecond());
+                }
+                bytesWritten += size;
+            }
+            info.setBytesWritten(bytesWritten);
+            info.setFinaliseMillis((System.nanoTime() - start) / 1000000);
+
+            if (info.getSegments().isEmpty()) return;
+
+            try (Writer writer = new FileWriter(new File(directory, INDEX_FILE_NAME), true)) {
+                writer.write(gson.toJson(info));
+                writer.write('\n');
+            } catch (IOException exc) {
+                Logger.error(TAG, "Error while indexing call recording", exc);
+            }
+
+            long durationSec = Math.max((info.getEndTimestamp() - info.getStartTimestamp()) / 1000, 1);
+            Logger.debug(TAG, "Recording cost for call " + info.getCallId()
+                    + " - Bytes: " + bytesWritten
+                    + ", Bytes/s: " + bytesWritten / durationSec
+                    + ", Process CPU ms/s: " + info.getProcessCpuMillis() / durationSec
+                    + ", Finalise ms: " + info.getFinaliseMillis());
+
+            emitter.callRecording(info.getCallId(), info.getFilePaths());
+        });
+    }
+
+    /**
+     * Stops accepting new recordings; pending ones are finalised anyway.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,161 @@
+package net.gotev.sipservice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes a recorded call. One entry per call is appended to the recordings index.
+ * The cost fields allow to measure the CPU and I/O overhead of recording per call.
+ */
+@SuppressWarnings("unused")
+public class CallRecordingInfo {
+
+    private final int callId;
+    private final String sipCallId;
+    private final String accountId;
+    private final String remoteUri;
+    private final CallRecordingFormat format;
+    private final List<Segment> segments = new ArrayList<>();
+    private long startTimestamp;
+    private long endTimestamp;
+    private int bytesPerSecond;
+    private long bytesWritten;
+    private long processCpuMillis;
+    private long finaliseMillis;
+
+    CallRecordingInfo(int callId, String sipCallId, String accountId, String remoteUri, CallRecordingFormat format) {
+        this.callId = callId;
+        this.sipCallId = sipCallId;
+        this.accountId = accountId;
+        this.remoteUri = remoteUri;
+        this.format = format;
+    }
+
+    public int getCallId() {
+        return callId;
+    }
+
+    public String getSipCallId() {
+        return sipCallId;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public String getRemoteUri() {
+        return remoteUri;
+    }
+
+    public CallRecordingFormat getFormat() {
+        return format;
+    }
+
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    void setStartTimestamp(long startTimestamp) {
+        this.startTimestamp = startTimestamp;
+    }
+
+    public long getEndTimestamp() {
+        return endTimestamp;
+    }
+
+    void setEndTimestamp(long endTimestamp) {
+        this.endTimestamp = endTimestamp;
+    }
+
+    public int getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    void setBytesPerSecond(int bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * @return total bytes written on disk for this call, known once the recording is finalised
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    void setBytesWritten(long bytesWritten) {
+        this.bytesWritten = bytesWritten;
+    }
+
+    /**
+     * @return process CPU time spent while the call was being recorded
+     */
+    public long getProcessCpuMillis() {
+        return processCpuMillis;
+    }
+
+    void setProcessCpuMillis(long processCpuMillis) {
+        this.processCpuMillis = processCpuMillis;
+    }
+
+    /**
+     * @return time spent by the background finalisation (file stat and indexing)
+     */
+    public long getFinaliseMillis() {
+        return finaliseMillis;
+    }
+
+    void setFinaliseMillis(long finaliseMillis) {
+        this.finaliseMillis = finaliseMillis;
+    }
+
+    public ArrayList<String> getFilePaths() {
+        ArrayList<String> paths = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            paths.add(segment.getPath());
+        }
+        return paths;
+    }
+
+    /**
+     * A single recording file of the call.
+     */
+    public static class Segment {
+        private final String path;
+        private final long startTimestamp;
+        private long size;
+        private long durationMillis;
+
+        Segment(String path, long startTimestamp) {
+            this.path = path;
+            this.startTimestamp = startTimestamp;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getStartTimestamp() {
+            return startTimestamp;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        void setSize(long size) {
+            this.size = size;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        void setDurationMillis(long durationMillis) {
+            this.durationMillis = durationMillis;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package net.gotev.sipservice;
+
+/**
+ * Milestones of the call setup timeline. The ordinal is the index of the milestone
+ * in the timeline delivered at hangup.
+ */
+public enum CallSetupMilestone {
+    COMMAND,
+    MAKE_CALL,
+    INVITE,
+    TRYING,
+    RINGING,
+    SESSION_PROGRESS,
+    OK,
+    ACK,
+    MEDIA_ACTIVE,
+    FIRST_RTP
+}
@@ -0,0 +1,162 @@
+package net.gotev.sipservice;
+
+import org.pjsip.pjsua2.SipTransaction;
+import org.pjsip.pjsua2.pjsip_status_code;
+
+/**
+ * Monotonic timeline of the setup of a call, from the make call command to the first
+ * RTP packet received. Only the first occurrence of each milestone is kept.
+ * The first RTP packet is detected by polling the stream receive counter once the
+ * media is active, as pjsua2 has no callback for it. The same poller samples the first
+ * played frame for the {@link AudioLatencyTrace} of the call.
+ */
+class CallSetupTimeline {
+
+    private static final String LOG_TAG = CallSetupTimeline.class.getSimpleName();
+    private static final long POLL_INTERVAL_MS = 10;
+    private static final long POLL_TIMEOUT_MS = 5000;
+    private static final String METHOD_INVITE = "INVITE";
+
+    private final SipCall call;
+    private final SipService service;
+    private final AudioLatencyTrace latencyTrace;
+    private final long[] timestamps = new long[CallSetupMilestone.values().length];
+    private int mediaIndex = -1;
+
+    private final Runnable pollJob = this::poll;
+
+    CallSetupTimeline(SipCall call, SipService service, AudioLatencyTrace latencyTrace) {
+        this.call = call;
+        this.service = service;
+        this.latencyTrace = latencyTrace;
+    }
+
+    synchronized void mark(CallSetupMilestone milestone) {
+        mark(milestone, System.nanoTime());
+    }
+
+    synchronized void mark(CallSetupMilestone milestone, long timestamp) {
+        if (timestamps[milestone.ordinal()] == 0) {
+            timestamps[milestone.ordinal()] = timestamp;
+        }
+    }
+
+    /**
+     * Marks the INVITE and its responses, either sent or received.
+     * @param tsx transaction which changed state
+     */
+    void onTransaction(SipTransaction tsx) {
+        if (!METHOD_INVITE.equals(tsx.getMethod())) return;
+
+        int statusCode = tsx.getStatusCode();
+        if (statusCode == 0) {
+            mark(CallSetupMilestone.INVITE);
+        } else if (statusCode == pjsip_status_code.PJSIP_SC_TRYING) {
+            mark(CallSetupMilestone.TRYING);
+        } else if (statusCode == pjsip_status_code.PJSIP_SC_RINGING) {
+            mark(CallSetupMilestone.RINGING);
+        } else if (statusCode == pjsip_status_code.PJSIP_SC_PROGRESS) {
+            mark(CallSetupMilestone.SESSION_PROGRESS);
+        } else if (statusCode >= 200 && statusCode < 300) {
+            mark(CallSetupMilestone.OK);
+        }
+    }
+
+    /**
+     * Marks the media as active and starts waiting for the first RTP packet and, if the
+     * audio has been connected to the playback device, for the first played frame.
+     * @param mediaIndex index of the audio media in the call
+     */
+    synchronized void onMediaActive(int mediaIndex) {
+        if (timestamps[CallSetupMilestone.MEDIA_ACTIVE.ordinal()] != 0) return;
+        mark(CallSetupMilestone.MEDIA_ACTIVE);
+        this.mediaIndex = mediaIndex;
+        service.enqueueJob(pollJob);
+    }
+
+    /**
+     * Stops waiting for the first RTP packet, and records the setup latencies.
+     * To be called at hangup, before the call gets deleted.
+     * @return milliseconds elapsed from the first milestone, indexed by milestone ordinal,
+     * -1 for the milestones which have not been reached
+     */
+    synchronized long[] finish() {
+        service.dequeueJob(pollJob);
+        mediaIndex = -1;
+
+        long postDialDelay = getPostDialDelay();
+        service.getPostDialDelayHistogram().observeMillis(postDialDelay);
+        long answerLatency = elapsed(CallSetupMilestone.OK, CallSetupMilestone.FIRST_RTP);
+        service.getAnswerLatencyHistogram().observeMillis(answerLatency);
+
+        long origin = 0;
+        for (long timestamp : timestamps) {
+            if (timestamp != 0 && (origin == 0 || timestamp < origin)) origin = timestamp;
+        }
+
+        long[] timeline = new long[timestamps.length];
+        for (int i = 0; i < timestamps.length; i++) {
+            timeline[i] = timestamps[i] == 0 ? -1 : (timestamps[i] - origin) / 1000000;
+        }
+
+        Logger.debug(LOG_TAG, () -> "Call " + call.getId() + " setup - post dial delay ms: " + postDialDelay
+                + ", answer latency ms: " + answerLatency + "\n"
+                + "Post dial delay - " + service.getPostDialDelayHistogram() + "\n"
+                + "Answer latency - " + service.getAnswerLatencyHistogram());
+        return timeline;
+    }
+
+    /**
+     * Post dial delay of outgoing calls, from make call to the first ringing indication.
+     */
+    synchronized long getPostDialDelay() {
+        if (timestamps[CallSetupMilestone.MAKE_CALL.ordinal()] == 0) return -1;
+
+        long ringback = elapsed(CallSetupMilestone.MAKE_CALL, CallSetupMilestone.RINGING);
+        long progress = elapsed(CallSetupMilestone.MAKE_CALL, CallSetupMilestone.SESSION_PROGRESS);
+        if (ringback >= 0 && progress >= 0) return Math.min(ringback, progress);
+        if (ringback >= 0) return ringback;
+        if (progress >= 0) return progress;
+        return elapsed(CallSetupMilestone.MAKE_CALL, CallSetupMilestone.OK);
+    }
+
+    private long elapsed(CallSetupMilestone from, CallSetupMilestone to) {
+        long start = timestamps[from.ordinal()];
+        long end = timestamps[to.ordinal()];
+        if (start == 0 || end == 0) return -1;
+        return (end - start) / 1000000;
+    }
+
+    private synchronized void poll() {
+        boolean waitingRtp = mediaIndex >= 0 && !pollFirstRtp();
+        boolean waitingPlayback = latencyTrace.sample();
+        if (!waitingRtp && !waitingPlayback) return;
+
+        long waited = (System.nanoTime() - timestamps[CallSetupMilestone.MEDIA_ACTIVE.ordinal()]) / 1000000;
+        if (waited < POLL_TIMEOUT_MS) {
+            service.enqueueDelayedJob(pollJob, POLL_INTERVAL_MS);
+        } else {
+            mediaIndex = -1;
+            latencyTrace.cancel();
+            Logger.debug(LOG_TAG, "Call " + call.getId() + " - RTP received: " + !waitingRtp
+                    + ", audio played: " + !waitingPlayback);
+        }
+    }
+
+    /**
+     * @return true if the first RTP packet has been received, or can't be waited for
+     */
+    private boolean pollFirstRtp() {
+        try {
+            if (call.getStreamStat(mediaIndex).getRtcp().getRxStat().getPkt() > 0) {
+                mark(CallSetupMilestone.FIRST_RTP);
+                mediaIndex = -1;
+                return true;
+            }
+        } catch (Exception exc) {
+            mediaIndex = -1;
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,556 @@
+package net.gotev.sipservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+
+import org.pjsip.pjsua2.JbufState;
+import org.pjsip.pjsua2.LossType;
+import org.pjsip.pjsua2.MathStat;
+import org.pjsip.pjsua2.RtcpStat;
+import org.pjsip.pjsua2.RtcpStreamStat;
+import org.pjsip.pjsua2.StreamInfo;
+import org.pjsip.pjsua2.StreamStat;
+
+/**
+ * Complete RTP/RTCP statistics of a media stream: packet counters, loss types, jitter,
+ * RTT, IPDV and jitter buffer state. The model is flat, every value is a 64-bit primitive,
+ * so that it's written to a parcel or to json without nested objects.
+ * Times are in microseconds, unless the name says otherwise.
+ */
+@SuppressWarnings("unused")
+public class CallStreamStats implements Parcelable {
+
+    private String codec;
+    private long clockRate;
+
+    private long rxPackets;
+    private long rxBytes;
+    private long rxDiscard;
+    private long rxLoss;
+    private long rxReorder;
+    private long rxDup;
+    private long rxLossBurst;
+    private long rxLossRandom;
+    private long rxLossPeriodMean;
+    private long rxLossPeriodMax;
+    private long rxJitterMin;
+    private long rxJitterMean;
+    private long rxJitterMax;
+    private long rxJitterLast;
+
+    private long txPackets;
+    private long txBytes;
+    private long txDiscard;
+    private long txLoss;
+    private long txReorder;
+    private long txDup;
+    private long txLossBurst;
+    private long txLossRandom;
+    private long txLossPeriodMean;
+    private long txLossPeriodMax;
+    private long txJitterMin;
+    private long txJitterMean;
+    private long txJitterMax;
+    private long txJitterLast;
+
+    private long rttMin;
+    private long rttMean;
+    private long rttMax;
+    private long rttLast;
+    private long rxIpdvMin;
+    private long rxIpdvMean;
+    private long rxIpdvMax;
+    private long rxRawJitterMin;
+    private long rxRawJitterMean;
+    private long rxRawJitterMax;
+
+    private long jbufFrameSize;
+    private long jbufPrefetch;
+    private long jbufMinPrefetch;
+    private long jbufMaxPrefetch;
+    private long jbufSize;
+    private long jbufBurst;
+    private long jbufAvgBurst;
+    private long jbufAvgDelayMsec;
+    private long jbufMinDelayMsec;
+    private long jbufMaxDelayMsec;
+    private long jbufDevDelayMsec;
+    private long jbufLost;
+    private long jbufDiscard;
+    private long jbufEmpty;
+
+    private CallStreamStats() { }
+
+    /**
+     * Reads all the statistics of a stream. Every pjsua2 getter of a struct allocates a new
+     * proxy, so each nested struct is fetched exactly once.
+     * @param info stream info, may be null if the codec is not needed
+     * @param stat stream statistics
+     * @return stream statistics
+     */
+    static CallStreamStats from(StreamInfo info, StreamStat stat) {
+        CallStreamStats stats = new CallStreamStats();
+
+        if (info != null) {
+            stats.codec = info.getCodecName().toLowerCase();
+            stats.clockRate = info.getCodecClockRate();
+        }
+
+        RtcpStat rtcp = stat.getRtcp();
+
+        RtcpStreamStat rx = rtcp.getRxStat();
+        stats.rxPackets = rx.getPkt();
+        stats.rxBytes = rx.getBytes();
+        stats.rxDiscard = rx.getDiscard();
+        stats.rxLoss = rx.getLoss();
+        stats.rxReorder = rx.getReorder();
+        stats.rxDup = rx.getDup();
+        LossType lossType = rx.getLossType();
+        stats.rxLossBurst = lossType.getBurst();
+        stats.rxLossRandom = lossType.getRandom();
+        MathStat math = rx.getLossPeriodUsec();
+        stats.rxLossPeriodMean = math.getMean();
+        stats.rxLossPeriodMax = math.getMax();
+        math = rx.getJitterUsec();
+        stats.rxJitterMin = math.getMin();
+        stats.rxJitterMean = math.getMean();
+        stats.rxJitterMax = math.getMax();
+        stats.rxJitterLast = math.getLast();
+
+        RtcpStreamStat tx = rtcp.getTxStat();
+        stats.txPackets = tx.getPkt();
+        stats.txBytes = tx.getBytes();
+        stats.txDiscard = tx.getDiscard();
+        stats.txLoss = tx.getLoss();
+        stats.txReorder = tx.getReorder();
+        stats.txDup = tx.getDup();
+        lossType = tx.getLossType();
+        stats.txLossBurst = lossType.getBurst();
+        stats.txLossRandom = lossType.getRandom();
+        math = tx.getLossPeriodUsec();
+        stats.txLossPeriodMean = math.getMean();
+        stats.txLossPeriodMax = math.getMax();
+        math = tx.getJitterUsec();
+        stats.txJitterMin = math.getMin();
+        stats.txJitterMean = math.getMean();
+        stats.txJitterMax = math.getMax();
+        stats.txJitterLast = math.getLast();
+
+        math = rtcp.getRttUsec();
+        stats.rttMin = math.getMin();
+        stats.rttMean = math.getMean();
+        stats.rttMax = math.getMax();
+        stats.rttLast = math.getLast();
+        math = rtcp.getRxIpdvUsec();
+        stats.rxIpdvMin = math.getMin();
+        stats.rxIpdvMean = math.getMean();
+        stats.rxIpdvMax = math.getMax();
+        math = rtcp.getRxRawJitterUsec();
+        stats.rxRawJitterMin = math.getMin();
+        stats.rxRawJitterMean = math.getMean();
+        stats.rxRawJitterMax = math.getMax();
+
+        JbufState jbuf = stat.getJbuf();
+        stats.jbufFrameSize = jbuf.getFrameSize();
+        stats.jbufPrefetch = jbuf.getPrefetch();
+        stats.jbufMinPrefetch = jbuf.getMinPrefetch();
+        stats.jbufMaxPrefetch = jbuf.getMaxPrefetch();
+        stats.jbufSize = jbuf.getSize();
+        stats.jbufBurst = jbuf.getBurst();
+        stats.jbufAvgBurst = jbuf.getAvgBurst();
+        stats.jbufAvgDelayMsec = jbuf.getAvgDelayMsec();
+        stats.jbufMinDelayMsec = jbuf.getMinDelayMsec();
+        stats.jbufMaxDelayMsec = jbuf.getMaxDelayMsec();
+        stats.jbufDevDelayMsec = jbuf.getDevDelayMsec();
+        stats.jbufLost = jbuf.getLost();
+        stats.jbufDiscard = jbuf.getDiscard();
+        stats.jbufEmpty = jbuf.getEmpty();
+
+        return stats;
+    }
+
+    /*****          Parcelable overrides        ******/
+    public static final Parcelable.Creator<CallStreamStats> CREATOR =
+            new Parcelable.Creator<CallStreamStats>() {
+                @Override
+                public CallStreamStats createFromParcel(final Parcel in) {
+                    return new CallStreamStats(in);
+                }
+
+                @Override
+                public CallStreamStats[] newArray(final int size) {
+                    return new CallStreamStats[size];
+                }
+            };
+
+    private CallStreamStats(Parcel in) {
+        codec = in.readString();
+        clockRate = in.readLong();
+
+        rxPackets = in.readLong();
+        rxBytes = in.readLong();
+        rxDiscard = in.readLong();
+        rxLoss = in.readLong();
+        rxReorder = in.readLong();
+        rxDup = in.readLong();
+        rxLossBurst = in.readLong();
+        rxLossRandom = in.readLong();
+        rxLossPeriodMean = in.readLong();
+        rxLossPeriodMax = in.readLong();
+        rxJitterMin = in.readLong();
+        rxJitterMean = in.readLong();
+        rxJitterMax = in.readLong();
+        rxJitterLast = in.readLong();
+
+        txPackets = in.readLong();
+        txBytes = in.readLong();
+        txDiscard = in.readLong();
+        txLoss = in.readLong();
+        txReorder = in.readLong();
+        txDup = in.readLong();
+        txLossBurst = in.readLong();
+        txLossRandom = in.readLong();
+        txLossPeriodMean = in.readLong();
+        txLossPeriodMax = in.readLong();
+        txJitterMin = in.readLong();
+        txJitterMean = in.readLong();
+        txJitterMax = in.readLong();
+        txJitterLast = in.readLong();
+
+        rttMin = in.readLong();
+        rttMean = in.readLong();
+        rttMax = in.readLong();
+        rttLast = in.readLong();
+        rxIpdvMin = in.readLong();
+        rxIpdvMean = in.readLong();
+        rxIpdvMax = in.readLong();
+        rxRawJitterMin = in.readLong();
+        rxRawJitterMean = in.readLong();
+        rxRawJitterMax = in.readLong();
+
+        jbufFrameSize = in.readLong();
+        jbufPrefetch = in.readLong();
+        jbufMinPrefetch = in.readLong();
+        jbufMaxPrefetch = in.readLong();
+        jbufSize = in.readLong();
+        jbufBurst = in.readLong();
+        jbufAvgBurst = in.readLong();
+        jbufAvgDelayMsec = in.readLong();
+        jbufMinDelayMsec = in.readLong();
+        jbufMaxDelayMsec = in.readLong();
+        jbufDevDelayMsec = in.readLong();
+        jbufLost = in.readLong();
+        jbufDiscard = in.readLong();
+        jbufEmpty = in.readLong();
+    }
+
+    @Override
+    public void writeToParcel(Parcel parcel, int arg1) {
+        parcel.writeString(codec);
+        parcel.writeLong(clockRate);
+
+        parcel.writeLong(rxPackets);
+        parcel.writeLong(rxBytes);
+        parcel.writeLong(rxDiscard);
+        parcel.writeLong(rxLoss);
+        parcel.writeLong(rxReorder);
+        parcel.writeLong(rxDup);
+        parcel.writeLong(rxLossBurst);
+        parcel.writeLong(rxLossRandom);
+        parcel.writeLong(rxLossPeriodMean);
+        parcel.writeLong(rxLossPeriodMax);
+        parcel.writeLong(rxJitterMin);
+        parcel.writeLong(rxJitterMean);
+        parcel.writeLong(rxJitterMax);
+        parcel.writeLong(rxJitterLast);
+
+        parcel.writeLong(txPackets);
+        parcel.writeLong(txBytes);
+        parcel.writeLong(txDiscard);
+        parcel.writeLong(txLoss);
+        parcel.writeLong(txReorder);
+        parcel.writeLong(txDup);
+        parcel.writeLong(txLossBurst);
+        parcel.writeLong(txLossRandom);
+        parcel.writeLong(txLossPeriodMean);
+        parcel.writeLong(txLossPeriodMax);
+        parcel.writeLong(txJitterMin);
+        parcel.writeLong(txJitterMean);
+        parcel.writeLong(txJitterMax);
+        parcel.writeLong(txJitterLast);
+
+        parcel.writeLong(rttMin);
+        parcel.writeLong(rttMean);
+        parcel.writeLong(rttMax);
+        parcel.writeLong(rttLast);
+        parcel.writeLong(rxIpdvMin);
+        parcel.writeLong(rxIpdvMean);
+        parcel.writeLong(rxIpdvMax);
+        parcel.writeLong(rxRawJitterMin);
+        parcel.writeLong(rxRawJitterMean);
+        parcel.writeLong(rxRawJitterMax);
+
+        parcel.writeLong(jbufFrameSize);
+        parcel.writeLong(jbufPrefetch);
+        parcel.writeLong(jbufMinPrefetch);
+        parcel.writeLong(jbufMaxPrefetch);
+        parcel.writeLong(jbufSize);
+        parcel.writeLong(jbufBurst);
+        parcel.writeLong(jbufAvgBurst);
+        parcel.writeLong(jbufAvgDelayMsec);
+        parcel.writeLong(jbufMinDelayMsec);
+        parcel.writeLong(jbufMaxDelayMsec);
+        parcel.writeLong(jbufDevDelayMsec);
+        parcel.writeLong(jbufLost);
+        parcel.writeLong(jbufDiscard);
+        parcel.writeLong(jbufEmpty);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+    /*          Parcelable overrides end        */
+
+    /**
+     * @return codec name in lower case, null if unknown
+     */
+    public String getCodec() {
+        return codec;
+    }
+
+    public long getClockRate() {
+        return clockRate;
+    }
+
+    public long getRxPackets() {
+        return rxPackets;
+    }
+
+    public long getRxBytes() {
+        return rxBytes;
+    }
+
+    public long getRxDiscard() {
+        return rxDiscard;
+    }
+
+    public long getRxLoss() {
+        return rxLoss;
+    }
+
+    public long getRxReorder() {
+        return rxReorder;
+    }
+
+    public long getRxDup() {
+        return rxDup;
+    }
+
+    public long getRxLossBurst() {
+        return rxLossBurst;
+    }
+
+    public long getRxLossRandom() {
+        return rxLossRandom;
+    }
+
+    public long getRxLossPeriodMean() {
+        return rxLossPeriodMean;
+    }
+
+    public long getRxLossPeriodMax() {
+        return rxLossPeriodMax;
+    }
+
+    public long getRxJitterMin() {
+        return rxJitterMin;
+    }
+
+    public long getRxJitterMean() {
+        return rxJitterMean;
+    }
+
+    public long getRxJitterMax() {
+        return rxJitterMax;
+    }
+
+    public long getRxJitterLast() {
+        return rxJitterLast;
+    }
+
+    public long getTxPackets() {
+        return txPackets;
+    }
+
+    public long getTxBytes() {
+        return txBytes;
+    }
+
+    public long getTxDiscard() {
+        return txDiscard;
+    }
+
+    /**
+     * @return packets lost in the sending direction, as reported by the remote party RTCP
+     */
+    public long getTxLoss() {
+        return txLoss;
+    }
+
+    public long getTxReorder() {
+        return txReorder;
+    }
+
+    public long getTxDup() {
+        return txDup;
+    }
+
+    public long getTxLossBurst() {
+        return txLossBurst;
+    }
+
+    public long getTxLossRandom() {
+        return txLossRandom;
+    }
+
+    public long getTxLossPeriodMean() {
+        return txLossPeriodMean;
+    }
+
+    public long getTxLossPeriodMax() {
+        return txLossPeriodMax;
+    }
+
+    public long getTxJitterMin() {
+        return txJitterMin;
+    }
+
+    public long getTxJitterMean() {
+        return txJitterMean;
+    }
+
+    public long getTxJitterMax() {
+        return txJitterMax;
+    }
+
+    public long getTxJitterLast() {
+        return txJitterLast;
+    }
+
+    public long getRttMin() {
+        return rttMin;
+    }
+
+    public long getRttMean() {
+        return rttMean;
+    }
+
+    public long getRttMax() {
+        return rttMax;
+    }
+
+    public long getRttLast() {
+        return rttLast;
+    }
+
+    public long getRxIpdvMin() {
+        return rxIpdvMin;
+    }
+
+    public long getRxIpdvMean() {
+        return rxIpdvMean;
+    }
+
+    public long getRxIpdvMax() {
+        return rxIpdvMax;
+    }
+
+    public long getRxRawJitterMin() {
+        return rxRawJitterMin;
+    }
+
+    public long getRxRawJitterMean() {
+        return rxRawJitterMean;
+    }
+
+    public long getRxRawJitterMax() {
+        return rxRawJitterMax;
+    }
+
+    public long getJbufFrameSize() {
+        return jbufFrameSize;
+    }
+
+    public long getJbufPrefetch() {
+        return jbufPrefetch;
+    }
+
+    public long getJbufMinPrefetch() {
+        return jbufMinPrefetch;
+    }
+
+    public long getJbufMaxPrefetch() {
+        return jbufMaxPrefetch;
+    }
+
+    /**
+     * @return frames currently in the jitter buffer
+     */
+    public long getJbufSize() {
+        return jbufSize;
+    }
+
+    public long getJbufBurst() {
+        return jbufBurst;
+    }
+
+    public long getJbufAvgBurst() {
+        return jbufAvgBurst;
+    }
+
+    public long getJbufAvgDelayMsec() {
+        return jbufAvgDelayMsec;
+    }
+
+    public long getJbufMinDelayMsec() {
+        return jbufMinDelayMsec;
+    }
+
+    public long getJbufMaxDelayMsec() {
+        return jbufMaxDelayMsec;
+    }
+
+    public long getJbufDevDelayMsec() {
+        return jbufDevDelayMsec;
+    }
+
+    public long getJbufLost() {
+        return jbufLost;
+    }
+
+    public long getJbufDiscard() {
+        return jbufDiscard;
+    }
+
+    public long getJbufEmpty() {
+        return jbufEmpty;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Codec: " + codec + "/" + clockRate +
+                ", Rx pkt: " + rxPackets + " loss: " + rxLoss +
+                " (burst " + rxLossBurst + ", random " + rxLossRandom + ")" +
+                " jitter: " + rxJitterMean + "/" + rxJitterMax +
+                ", Tx pkt: " + txPackets + " loss: " + txLoss +
+                " jitter: " + txJitterMean + "/" + txJitterMax +
+                ", RTT: " + rttMean + "/" + rttMax +
+                ", IPDV: " + rxIpdvMean +
+                ", Jbuf: " + jbufSize + " frames, delay " + jbufAvgDelayMsec + "ms" +
+                " lost " + jbufLost + " discard " + jbufDiscard + " empty " + jbufEmpty;
+    }
+}
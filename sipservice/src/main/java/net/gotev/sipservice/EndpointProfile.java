@@ -0,0 +1,140 @@
+package net.gotev.sipservice;
+
+import org.pjsip.pjsua2.EpConfig;
+import org.pjsip.pjsua2.MediaConfig;
+import org.pjsip.pjsua2.UaConfig;
+
+/**
+ * Named performance profiles of the endpoint media and user agent configuration,
+ * selected with {@link SipServiceCommand#setEndpointProfile(EndpointProfile)} before the
+ * stack starts. Values not listed by a profile are the pjsua defaults.
+ */
+public enum EndpointProfile {
+    /**
+     * Narrowband bridge, lower resampling quality, 40 ms packets and VAD, a single media
+     * thread and a bridge sized for one call. The least CPU and radio wake-ups.
+     */
+    LOW_POWER("low-power", 8000, 4, 100, 20, 40, false, 0, 100, 140, 1, 1),
+    /**
+     * The configuration used before profiles existed: wideband bridge, best resampling
+     * quality and pjsua defaults for the rest.
+     */
+    BALANCED("balanced", 16000, 10, 200, 20, 0, false, 254, 100, 140, 2, 1),
+    /**
+     * Fullband bridge for Opus, 10 ms bridge frames, no VAD and lower sound device latencies.
+     * The best audio quality and latency, at the highest CPU cost.
+     */
+    HD_VOICE("hd-voice", 48000, 10, 200, 10, 20, true, 254, 60, 80, 2, 1),
+    /**
+     * Narrowband bridge with medium quality and VAD, more media threads and up to 30 calls
+     * at once, for gateways and attendant consoles.
+     */
+    MANY_CALLS("many-calls", 8000, 6, 100, 20, 20, false, 254, 100, 140, 4, 30);
+
+    private static final int ECHO_CANCELLER = 1;
+    private static final int CHANNEL_COUNT = 1;
+    // account and call callbacks are not thread safe, so SIP events are handled by one thread
+    private static final int UA_THREAD_COUNT = 1;
+    // pjsua default
+    private static final int MIN_MAX_CALLS = 4;
+    // the transfer target and an incoming call answered with busy, on top of the active calls
+    private static final int EXTRA_CALLS = 2;
+    // call audio, a recorder and the next one while it's rotated, and an uncached prompt
+    private static final int MEDIA_PORTS_PER_CALL = 4;
+    // the sound device and the cached prompts
+    private static final int SHARED_MEDIA_PORTS = 1 + SipServiceConstants.AUDIO_PROMPT_CACHE_SIZE;
+
+    private final String id;
+    private final int clockRate;
+    private final int quality;
+    private final int ecTailLen;
+    private final int audioFramePtime;
+    private final int ptime;
+    private final boolean noVad;
+    private final int maxMediaPorts;
+    private final int sndRecLatency;
+    private final int sndPlayLatency;
+    private final int mediaThreadCnt;
+    private final int maxActiveCalls;
+    private final int maxCalls;
+
+    /**
+     * @param maxMediaPorts conference bridge ports, raised to those used by the calls
+     * @param maxActiveCalls calls allowed at once, besides a transfer target
+     */
+    EndpointProfile(String id, int clockRate, int quality, int ecTailLen, int audioFramePtime,
+                    int ptime, boolean noVad, int maxMediaPorts, int sndRecLatency,
+                    int sndPlayLatency, int mediaThreadCnt, int maxActiveCalls) {
+        this.id = id;
+        this.clockRate = clockRate;
+        this.quality = quality;
+        this.ecTailLen = ecTailLen;
+        this.audioFramePtime = audioFramePtime;
+        this.ptime = ptime;
+        this.noVad = noVad;
+        this.maxCalls = Math.max(MIN_MAX_CALLS, maxActiveCalls + EXTRA_CALLS);
+        this.maxMediaPorts = Math.max(maxMediaPorts,
+                SHARED_MEDIA_PORTS + maxCalls * MEDIA_PORTS_PER_CALL);
+        this.sndRecLatency = sndRecLatency;
+        this.sndPlayLatency = sndPlayLatency;
+        this.mediaThreadCnt = mediaThreadCnt;
+        this.maxActiveCalls = maxActiveCalls;
+    }
+
+    /**
+     * @return name of the profile, also used as metric label
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @param id profile name, as returned by {@link #getId()}
+     * @return the profile, or {@link #BALANCED} if the name is unknown
+     */
+    public static EndpointProfile fromId(String id) {
+        for (EndpointProfile profile : values()) {
+            if (profile.id.equals(id)) return profile;
+        }
+        return BALANCED;
+    }
+
+    /**
+     * @return calls allowed at once, besides the target of a transfer
+     */
+    int getMaxActiveCalls() {
+        return maxActiveCalls;
+    }
+
+    /**
+     * Sets the profile values on the endpoint configuration.
+     */
+    void apply(EpConfig epConfig) {
+        MediaConfig medConfig = epConfig.getMedConfig();
+        medConfig.setHasIoqueue(true);
+        medConfig.setClockRate(clockRate);
+        medConfig.setQuality(quality);
+        medConfig.setEcOptions(ECHO_CANCELLER);
+        medConfig.setEcTailLen(ecTailLen);
+        medConfig.setAudioFramePtime(audioFramePtime);
+        medConfig.setPtime(ptime);
+        medConfig.setNoVad(noVad);
+        medConfig.setChannelCount(CHANNEL_COUNT);
+        medConfig.setMaxMediaPorts(maxMediaPorts);
+        medConfig.setSndRecLatency(sndRecLatency);
+        medConfig.setSndPlayLatency(sndPlayLatency);
+        medConfig.setThreadCnt(mediaThreadCnt);
+
+        UaConfig uaConfig = epConfig.getUaConfig();
+        uaConfig.setThreadCnt(UA_THREAD_COUNT);
+        uaConfig.setMaxCalls(maxCalls);
+    }
+
+    @Override
+    public String toString() {
+        return id + " (clock " + clockRate + " Hz, quality " + quality + ", frame " + audioFramePtime
+                + " ms, ptime " + ptime + " ms, vad " + !noVad + ", media threads " + mediaThreadCnt
+                + ", active calls " + maxActiveCalls + ", max calls " + maxCalls
+                + ", media ports " + maxMediaPorts + ")";
+    }
+}
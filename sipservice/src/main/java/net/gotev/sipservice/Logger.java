@@ -1,10 +1,16 @@
 package net.gotev.sipservice;
 
+import java.util.function.Supplier;
+
 /**
  * SipService library logger.
  * You can provide your own logger delegate implementation, to be able to log in a different way.
  * By default the log level is set to DEBUG when the build type is debug, and OFF in release.
  * The default logger implementation logs in Android's LogCat.
+ * <p>
+ * Messages which are expensive to build should be logged with a template or a supplier, so
+ * that nothing is formatted when the level is disabled, or guarded by
+ * {@link #isLoggable(LogLevel)}. Templates use {} as placeholder for each argument.
  * @author gotev (Aleksandar Gotev)
  */
 @SuppressWarnings("unused")
@@ -30,7 +36,7 @@ public class Logger {
      * Log everything unless otherwise specified by either setLogLevel
      * or by the delegate specified in setLoggerDelegate
      */
-    private LogLevel mLogLevel = LogLevel.DEBUG;
+    private volatile LogLevel mLogLevel = LogLevel.DEBUG;
 
     private LoggerDelegate mDelegate = new DefaultLoggerDelegate();
 
@@ -61,6 +67,14 @@ public class Logger {
         }
     }
 
+    /**
+     * @param level message level, OFF is never loggable
+     * @return true if messages of the given level are logged
+     */
+    public static boolean isLoggable(LogLevel level) {
+        return SingletonHolder.instance.mLogLevel.ordinal() <= level.ordinal() && level != LogLevel.OFF;
+    }
+
     public static void error(String tag, String message) {
         if (SingletonHolder.instance.mLogLevel.compareTo(LogLevel.ERROR) <= 0) {
             SingletonHolder.instance.mDelegate.error(tag, message);
@@ -90,4 +104,86 @@ public class Logger {
             SingletonHolder.instance.mDelegate.debug(tag, message);
         }
     }
+
+    public static void info(String tag, Supplier<String> message) {
+        if (isLoggable(LogLevel.INFO)) {
+            SingletonHolder.instance.mDelegate.info(tag, message.get());
+        }
+    }
+
+    public static void info(String tag, String template, long arg) {
+        if (isLoggable(LogLevel.INFO)) {
+            SingletonHolder.instance.mDelegate.info(tag, format(template, arg));
+        }
+    }
+
+    public static void info(String tag, String template, Object arg) {
+        if (isLoggable(LogLevel.INFO)) {
+            SingletonHolder.instance.mDelegate.info(tag, format(template, arg));
+        }
+    }
+
+    public static void info(String tag, String template, Object arg1, Object arg2) {
+        if (isLoggable(LogLevel.INFO)) {
+            SingletonHolder.instance.mDelegate.info(tag, format(template, arg1, arg2));
+        }
+    }
+
+    public static void info(String tag, String template, Object... args) {
+        if (isLoggable(LogLevel.INFO)) {
+            SingletonHolder.instance.mDelegate.info(tag, format(template, args));
+        }
+    }
+
+    public static void debug(String tag, Supplier<String> message) {
+        if (isLoggable(LogLevel.DEBUG)) {
+            SingletonHolder.instance.mDelegate.debug(tag, message.get());
+        }
+    }
+
+    public static void debug(String tag, String template, long arg) {
+        if (isLoggable(LogLevel.DEBUG)) {
+            SingletonHolder.instance.mDelegate.debug(tag, format(template, arg));
+        }
+    }
+
+    public static void debug(String tag, String template, Object arg) {
+        if (isLoggable(LogLevel.DEBUG)) {
+            SingletonHolder.instance.mDelegate.debug(tag, format(template, arg));
+        }
+    }
+
+    public static void debug(String tag, String template, Object arg1, Object arg2) {
+        if (isLoggable(LogLevel.DEBUG)) {
+            SingletonHolder.instance.mDelegate.debug(tag, format(template, arg1, arg2));
+        }
+    }
+
+    public static void debug(String tag, String template, Object... args) {
+        if (isLoggable(LogLevel.DEBUG)) {
+            SingletonHolder.instance.mDelegate.debug(tag, format(template, args));
+        }
+    }
+
+    private static String format(String template, long arg) {
+        int index = template.indexOf("{}");
+        if (index < 0) return template;
+        return template.substring(0, index) + arg + template.substring(index + 2);
+    }
+
+    /**
+     * Replaces each {} in the template with the next argument. Placeholders without an
+     * argument are left as they are, arguments without a placeholder are ignored.
+     */
+    static String format(String template, Object... args) {
+        StringBuilder out = new StringBuilder(template.length() + 16 * args.length);
+        int start = 0;
+        for (Object arg : args) {
+            int index = template.indexOf("{}", start);
+            if (index < 0) break;
+            out.append(template, start, index).append(arg);
+            start = index + 2;
+        }
+        return out.append(template, start, template.length()).toString();
+    }
 }
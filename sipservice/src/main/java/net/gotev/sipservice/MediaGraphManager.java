@@ -0,0 +1,196 @@
+package net.gotev.sipservice;
+
+import org.pjsip.pjsua2.AudioMedia;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of the conference bridge connections made for each call, so that
+ * every media state change only applies the connections which are missing or stale
+ * instead of wiring the call audio again.
+ * Mute only disconnects the capture device from the call port, so that the audio prompts
+ * played into the call still reach the remote party.
+ */
+class MediaGraphManager {
+
+    private static final String TAG = MediaGraphManager.class.getSimpleName();
+
+    private final HashMap<Integer, CallGraph> graphs = new HashMap<>();
+
+    /**
+     * Connects the call audio to the sound device, in both directions. The capture device
+     * is left disconnected while the call is muted.
+     * @param callId call ID
+     * @param callMedia current call audio media
+     * @param playback playback device media
+     * @param capture capture device media
+     * @throws Exception if a connection can't be made
+     */
+    synchronized void connectCallAudio(int callId, AudioMedia callMedia, AudioMedia playback,
+                                       AudioMedia capture) throws Exception {
+        CallGraph graph = getGraph(callId);
+
+        // after a re-INVITE the call may have a new conference port
+        int portId = callMedia.getPortId();
+        if (graph.callPortId != portId) {
+            if (graph.callPortId != CallGraph.NO_PORT) {
+                if (Logger.isLoggable(Logger.LogLevel.DEBUG)) {
+                    Logger.debug(TAG, "Call {} port changed from {} to {}", callId, graph.callPortId, portId);
+                }
+                graph.dropPort(graph.callPortId);
+            }
+            graph.callPortId = portId;
+            graph.callMedia = callMedia;
+        }
+        graph.capture = capture;
+
+        connect(graph, callMedia, playback);
+        if (!graph.mute) connect(graph, capture, callMedia);
+    }
+
+    /**
+     * Connects two ports on behalf of a call. Does nothing if they are already connected.
+     */
+    synchronized void connect(int callId, AudioMedia source, AudioMedia sink) throws Exception {
+        connect(getGraph(callId), source, sink);
+    }
+
+    /**
+     * Disconnects two ports on behalf of a call. Does nothing if they are not connected.
+     */
+    synchronized void disconnect(int callId, AudioMedia source, AudioMedia sink) {
+        CallGraph graph = graphs.get(callId);
+        if (graph != null) disconnect(graph, source, sink);
+    }
+
+    /**
+     * Mutes or un-mutes the audio sent to the remote party of a call.
+     * @return true if applied, false if the call audio is not connected yet or on error
+     */
+    synchronized boolean setMute(int callId, boolean mute) {
+        CallGraph graph = getGraph(callId);
+        graph.mute = mute;
+        if (graph.callMedia == null || graph.capture == null) return false;
+
+        try {
+            if (mute) {
+                disconnect(graph, graph.capture, graph.callMedia);
+            } else {
+                connect(graph, graph.capture, graph.callMedia);
+            }
+            return true;
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while connecting the capture device", exc);
+            return false;
+        }
+    }
+
+    /**
+     * Forgets the connections of a call. The bridge removes them along with the call port.
+     */
+    synchronized void removeCall(int callId) {
+        graphs.remove(callId);
+    }
+
+    synchronized void clear() {
+        graphs.clear();
+    }
+
+    /**
+     * @return a printable description of the connections of every call
+     */
+    synchronized String dump() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<Integer, CallGraph> entry : graphs.entrySet()) {
+            CallGraph graph = entry.getValue();
+            builder.append("Call ").append(entry.getKey())
+                    .append(" - port: ").append(graph.callPortId)
+                    .append(", mute: ").append(graph.mute)
+                    .append('\n');
+            for (Edge edge : graph.edges) {
+                builder.append("  ").append(edge).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
+    private CallGraph getGraph(int callId) {
+        CallGraph graph = graphs.get(callId);
+        if (graph == null) {
+            graph = new CallGraph();
+            graphs.put(callId, graph);
+        }
+        return graph;
+    }
+
+    private void connect(CallGraph graph, AudioMedia source, AudioMedia sink) throws Exception {
+        int sourcePortId = source.getPortId();
+        int sinkPortId = sink.getPortId();
+
+        for (Edge edge : graph.edges) {
+            if (edge.matches(sourcePortId, sinkPortId)) return;
+        }
+
+        source.startTransmit(sink);
+        graph.edges.add(new Edge(sourcePortId, sinkPortId));
+    }
+
+    private void disconnect(CallGraph graph, AudioMedia source, AudioMedia sink) {
+        Iterator<Edge> iterator = graph.edges.iterator();
+        while (iterator.hasNext()) {
+            Edge edge = iterator.next();
+            if (edge.matches(source.getPortId(), sink.getPortId())) {
+                iterator.remove();
+                try {
+                    source.stopTransmit(sink);
+                } catch (Exception exc) {
+                    Logger.debug(TAG, "Ports already disconnected: " + edge);
+                }
+                return;
+            }
+        }
+    }
+
+    private static class CallGraph {
+        static final int NO_PORT = -1;
+
+        final List<Edge> edges = new ArrayList<>();
+        int callPortId = NO_PORT;
+        AudioMedia callMedia;
+        AudioMedia capture;
+        boolean mute = false;
+
+        void dropPort(int portId) {
+            Iterator<Edge> iterator = edges.iterator();
+            while (iterator.hasNext()) {
+                Edge edge = iterator.next();
+                if (edge.source == portId || edge.sink == portId) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private static class Edge {
+        final int source;
+        final int sink;
+
+        Edge(int source, int sink) {
+            this.source = source;
+            this.sink = sink;
+        }
+
+        boolean matches(int source, int sink) {
+            return this.source == source && this.sink == sink;
+        }
+
+        @Override
+        public String toString() {
+            return source + " -> " + sink;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package net.gotev.sipservice;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process wide registry of counters, gauges and histograms, exposed in the Prometheus
+ * text format. Counters and histogram buckets are striped {@link LongAdder}s, so updates from
+ * the pjsip threads never contend on a single lock. Series are created on first use and
+ * never removed, labels must therefore have a bounded set of values.
+ */
+final class MetricsRegistry {
+
+    private static final String TAG = MetricsRegistry.class.getSimpleName();
+
+    /**
+     * Latency buckets in seconds, from 1ms to 10s.
+     */
+    static final double[] LATENCY_BUCKETS = {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private static final String JNI_CALL_DURATION = "sip_jni_call_duration_seconds";
+    private static final String JNI_CALL_DURATION_HELP = "Duration of the heavy calls into the native stack";
+
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    private final ConcurrentHashMap<String, Family> families = new ConcurrentHashMap<>();
+
+    private MetricsRegistry() { }
+
+    static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param name metric name, ending in _total
+     * @param help description
+     * @param labels label names and values, alternated
+     * @return the counter of the given labels
+     */
+    Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, "counter").series(labels, Counter::new);
+    }
+
+    /**
+     * @param name metric name, ending in the unit
+     * @param help description
+     * @param buckets upper bounds of the buckets, in increasing order
+     * @param labels label names and values, alternated
+     * @return the histogram of the given labels
+     */
+    Histogram histogram(String name, String help, double[] buckets, String... labels) {
+        return (Histogram) family(name, help, "histogram").series(labels, () -> new Histogram(buckets));
+    }
+
+    /**
+     * @param operation native operation, e.g. start_stack or make_call
+     * @return the histogram of the native operation duration
+     */
+    Histogram jniCall(String operation) {
+        return histogram(JNI_CALL_DURATION, JNI_CALL_DURATION_HELP, LATENCY_BUCKETS, "op", operation);
+    }
+
+    /**
+     * Registers a gauge whose value is read at exposition time, replacing the previous one
+     * with the same labels.
+     * @param name metric name
+     * @param help description
+     * @param supplier supplier of the value, called from the exposition thread
+     * @param labels label names and values, alternated
+     */
+    void gauge(String name, String help, LongSupplier supplier, String... labels) {
+        family(name, help, "gauge").replace(labels, new Gauge(supplier));
+    }
+
+    /**
+     * @return every metric in the Prometheus text exposition format, version 0.0.4
+     */
+    String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        ArrayList<String> names = new ArrayList<>(families.keySet());
+        Collections.sort(names);
+        for (String name : names) {
+            families.get(name).write(out);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes the metrics to a file, replacing it atomically.
+     * @param file destination file
+     * @return true if the file has been written
+     */
+    boolean writeTo(File file) {
+        File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+        try (Writer writer = new FileWriter(tmpFile, false)) {
+            writer.write(scrape());
+        } catch (IOException exc) {
+            Logger.error(TAG, "Error while writing metrics", exc);
+            return false;
+        }
+        return tmpFile.renameTo(file);
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+        }
+        return family;
+    }
+
+    private interface Series {
+        void write(StringBuilder out, String name, String labels);
+    }
+
+    private interface SeriesFactory {
+        Series create();
+    }
+
+    private static class Family {
+        final String name;
+        final String help;
+        final String type;
+        final ConcurrentHashMap<String, Series> series = new ConcurrentHashMap<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        Series series(String[] labels, SeriesFactory factory) {
+            String key = formatLabels(labels);
+            Series result = series.get(key);
+            if (result == null) {
+                result = series.computeIfAbsent(key, k -> factory.create());
+            }
+            return result;
+        }
+
+        void replace(String[] labels, Series value) {
+            series.put(formatLabels(labels), value);
+        }
+
+        void write(StringBuilder out) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            ArrayList<String> keys = new ArrayList<>(series.keySet());
+            Collections.sort(keys);
+            for (String key : keys) {
+                series.get(key).write(out, name, key);
+            }
+        }
+
+        private static String formatLabels(String[] labels) {
+            if (labels.length == 0) return "";
+
+            StringBuilder out = new StringBuilder();
+            for (int i = 0; i + 1 < labels.length; i += 2) {
+                if (out.length() > 0) out.append(',');
+                out.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+            }
+            return out.toString();
+        }
+
+        private static String escape(String value) {
+            if (value == null) return "";
+            return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        }
+    }
+
+    private static void appendSample(StringBuilder out, String name, String labels, String value) {
+        out.append(name);
+        if (!labels.isEmpty()) out.append('{').append(labels).append('}');
+        out.append(' ').append(value).append('\n');
+    }
+
+    static class Counter implements Series {
+        private final LongAdder value = new LongAdder();
+
+        void inc() {
+            value.increment();
+        }
+
+        void inc(long amount) {
+            value.add(amount);
+        }
+
+        long get() {
+            return value.sum();
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            appendSample(out, name, labels, Long.toString(value.sum()));
+        }
+    }
+
+    private static class Gauge implements Series {
+        private final LongSupplier supplier;
+
+        Gauge(LongSupplier supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            long value;
+            try {
+                value = supplier.getAsLong();
+            } catch (Exception exc) {
+                return;
+            }
+            appendSample(out, name, labels, Long.toString(value));
+        }
+    }
+
+    static class Histogram implements Series {
+        private final double[] bounds;
+        private final LongAdder[] buckets;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        Histogram(double[] bounds) {
+            this.bounds = bounds;
+            this.buckets = new LongAdder[bounds.length];
+            for (int i = 0; i < bounds.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * @param nanos observed duration in nanoseconds, exposed in seconds
+         */
+        void observeNanos(long nanos) {
+            double seconds = nanos / 1e9;
+            for (int i = 0; i < bounds.length; i++) {
+                if (seconds <= bounds[i]) {
+                    buckets[i].increment();
+                    break;
+                }
+            }
+            count.increment();
+            sumNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        /**
+         * @param millis observed duration in milliseconds, ignored if negative
+         */
+        void observeMillis(long millis) {
+            if (millis >= 0) observeNanos(millis * 1000000);
+        }
+
+        /**
+         * @param startNanos {@link System#nanoTime()} at the start of the operation
+         */
+        void observeSince(long startNanos) {
+            observeNanos(System.nanoTime() - startNanos);
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * Estimates a percentile as the upper bound of the bucket which contains it, capped to
+         * the highest observed value.
+         * @param percentile between 0 and 100
+         * @return the estimated value in milliseconds, or -1 if nothing has been observed
+         */
+        long getPercentileMillis(double percentile) {
+            long total = count.sum();
+            if (total == 0) return -1;
+
+            long maxMillis = maxNanos.get() / 1000000;
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank) return Math.min(Math.round(bounds[i] * 1000), maxMillis);
+            }
+            return maxMillis;
+        }
+
+        @Override
+        public String toString() {
+            long total = count.sum();
+            return "count: " + total
+                    + ", mean ms: " + (total == 0 ? -1 : sumNanos.sum() / total / 1000000)
+                    + ", p50 ms: " + getPercentileMillis(50)
+                    + ", p95 ms: " + getPercentileMillis(95)
+                    + ", max ms: " + maxNanos.get() / 1000000;
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += buckets[i].sum();
+                appendSample(out, name + "_bucket", prefix + "le=\"" + formatDouble(bounds[i]) + "\"",
+                        Long.toString(cumulative));
+            }
+            long total = count.sum();
+            appendSample(out, name + "_bucket", prefix + "le=\"+Inf\"", Long.toString(total));
+            appendSample(out, name + "_sum", labels, formatDouble(sumNanos.sum() / 1e9));
+            appendSample(out, name + "_count", labels, Long.toString(total));
+        }
+    }
+
+    private static String formatDouble(double value) {
+        if (value == Math.rint(value)) return Long.toString((long) value);
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,103 @@
+package net.gotev.sipservice;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal HTTP endpoint serving the metrics in the Prometheus text format on GET /metrics.
+ * It's bound to the loopback address only, so it's reachable through adb forward but never
+ * from the network. Requests are served one at a time on a dedicated thread.
+ */
+class MetricsServer {
+
+    private static final String TAG = MetricsServer.class.getSimpleName();
+    private static final int SOCKET_TIMEOUT_MS = 5000;
+
+    private final MetricsRegistry registry;
+    private ServerSocket serverSocket;
+    private Thread thread;
+
+    MetricsServer(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    synchronized boolean isRunning() {
+        return serverSocket != null;
+    }
+
+    /**
+     * @param port loopback port to listen on
+     * @throws Exception if the port can't be bound
+     */
+    synchronized void start(int port) throws Exception {
+        stop();
+        final ServerSocket socket = new ServerSocket(port, 4, InetAddress.getByName("127.0.0.1"));
+        serverSocket = socket;
+        thread = new Thread(() -> serve(socket), "SipMetricsServer");
+        thread.setDaemon(true);
+        thread.start();
+        Logger.info(TAG, "Metrics endpoint listening on 127.0.0.1:" + socket.getLocalPort());
+    }
+
+    synchronized void stop() {
+        if (serverSocket == null) return;
+
+        try {
+            serverSocket.close();
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while closing metrics endpoint", exc);
+        }
+        serverSocket = null;
+        thread = null;
+    }
+
+    private void serve(ServerSocket socket) {
+        while (!socket.isClosed()) {
+            try (Socket client = socket.accept()) {
+                client.setSoTimeout(SOCKET_TIMEOUT_MS);
+                handle(client);
+            } catch (Exception exc) {
+                if (!socket.isClosed()) {
+                    Logger.error(TAG, "Error while serving metrics", exc);
+                }
+            }
+        }
+    }
+
+    private void handle(Socket client) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                client.getInputStream(), StandardCharsets.US_ASCII));
+        String requestLine = reader.readLine();
+        if (requestLine == null) return;
+
+        // request headers are not needed
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) { }
+
+        String[] parts = requestLine.split(" ");
+        String status;
+        String body;
+        if (parts.length >= 2 && "GET".equals(parts[0])
+                && ("/metrics".equals(parts[1]) || "/".equals(parts[1]))) {
+            status = "200 OK";
+            body = registry.scrape();
+        } else {
+            status = "404 Not Found";
+            body = "";
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        OutputStream out = client.getOutputStream();
+        out.write(("HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: text/plain; version=0.0.4; charset=utf-8\r\n"
+                + "Content-Length: " + bytes.length + "\r\n"
+                + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(bytes);
+        out.flush();
+    }
+}
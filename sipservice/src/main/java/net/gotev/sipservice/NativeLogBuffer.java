@@ -0,0 +1,145 @@
+package net.gotev.sipservice;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded lock-free ring buffer of native log entries, with many producers (the pjsip
+ * threads) and a single consumer (the drainer).
+ * <p>
+ * Each slot has a sequence number telling whether it is free for the producer of a given
+ * position or filled for the consumer, as in Vyukov's bounded queue. Producers claim a
+ * position with a CAS and never wait: when the buffer is full, or past the high watermark
+ * with {@link OverflowPolicy#DROP_VERBOSE}, the entry is dropped and counted.
+ * Slots are preallocated, so enqueueing allocates nothing.
+ */
+final class NativeLogBuffer {
+
+    enum OverflowPolicy {
+        /**
+         * Entries are dropped only when the buffer is full.
+         */
+        DROP_NEWEST,
+        /**
+         * Past three quarters of the capacity, debug and trace entries are dropped to leave
+         * room for info, warnings and errors.
+         */
+        DROP_VERBOSE
+    }
+
+    static final class Entry {
+        int level;
+        String threadName;
+        String message;
+        long timestamp;
+    }
+
+    private static final int VERBOSE_LEVEL = 4;
+
+    private final Entry[] entries;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final int highWatermark;
+    private final OverflowPolicy policy;
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    // written only by the consumer, read by producers for the watermark
+    private volatile long head = 0;
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two
+     */
+    NativeLogBuffer(int capacity, OverflowPolicy policy) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.entries = new Entry[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Entry();
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.highWatermark = size - size / 4;
+        this.policy = policy;
+    }
+
+    /**
+     * Adds an entry without ever blocking.
+     * @return false if the entry has been dropped
+     */
+    boolean offer(int level, String threadName, String message, long timestamp) {
+        long position = tail.get();
+        while (true) {
+            if (policy == OverflowPolicy.DROP_VERBOSE && level >= VERBOSE_LEVEL
+                    && position - head >= highWatermark) {
+                dropped.increment();
+                return false;
+            }
+
+            int index = (int) position & mask;
+            long sequence = sequences.get(index);
+            long difference = sequence - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    Entry entry = entries[index];
+                    entry.level = level;
+                    entry.threadName = threadName;
+                    entry.message = message;
+                    entry.timestamp = timestamp;
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // the consumer has not freed the slot yet: full
+                dropped.increment();
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Removes up to max entries, called only by the consumer thread.
+     * @param consumer invoked with each entry, which must not be kept after returning
+     * @return number of entries consumed
+     */
+    int drain(EntryConsumer consumer, int max) {
+        long position = head;
+        int count = 0;
+        while (count < max) {
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) break;
+
+            Entry entry = entries[index];
+            consumer.accept(entry);
+            entry.threadName = null;
+            entry.message = null;
+            sequences.lazySet(index, position + entries.length);
+            position++;
+            head = position;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return approximate number of entries waiting
+     */
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    int capacity() {
+        return entries.length;
+    }
+
+    interface EntryConsumer {
+        void accept(Entry entry);
+    }
+}
@@ -0,0 +1,316 @@
+package net.gotev.sipservice;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Process wide pipeline of the pjsip native logs. {@link SipLogger} enqueues the entries
+ * in a {@link NativeLogBuffer} from the pjsip threads, and a background thread drains them
+ * in batches to the {@link Logger} delegate (logcat by default) and optionally to a
+ * rotating file in the application files directory.
+ * <p>
+ * The drainer thread parks while the buffer is empty, and producers unpark it only when it
+ * is parked, so an idle stack costs no wake-ups. It runs from the stack start to its
+ * destruction.
+ */
+final class NativeLogDrainer {
+
+    private static final String TAG = NativeLogDrainer.class.getSimpleName();
+    static final int BUFFER_CAPACITY = 4096;
+    /**
+     * Level configured in pjsip when native logging is enabled. Since pjsua2 cannot change it
+     * after libInit, the levels set at runtime are applied here, within this ceiling.
+     */
+    static final int MAX_LEVEL = 5;
+    private static final int BATCH_SIZE = 256;
+    private static final long STOP_TIMEOUT_MS = 1000;
+
+    static final String LOG_FILE_NAME = "pjsip.log";
+    static final long MAX_LOG_FILE_SIZE = 2 * 1024 * 1024;
+    static final int MAX_LOG_FILES = 3;
+
+    private static final NativeLogDrainer INSTANCE = new NativeLogDrainer();
+
+    private final NativeLogBuffer buffer =
+            new NativeLogBuffer(BUFFER_CAPACITY, NativeLogBuffer.OverflowPolicy.DROP_VERBOSE);
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+    private final Date date = new Date();
+    private final StringBuilder line = new StringBuilder(256);
+    private volatile Thread thread;
+    private volatile boolean waiting = false;
+    private volatile boolean logcatEnabled = true;
+    private volatile File logDirectory = null;
+    private volatile int level = MAX_LEVEL;
+    private volatile int consoleLevel = MAX_LEVEL;
+    private volatile NativeLogFilter senderFilter = NativeLogFilter.NONE;
+
+    // held while draining, so that a stopping drainer thread and the next one never overlap
+    private final Object drainLock = new Object();
+
+    // accessed only by the drainer thread, holding the drain lock
+    private File currentDirectory = null;
+    private Writer fileWriter = null;
+    private long fileSize = 0;
+
+    private NativeLogDrainer() {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.gauge("sip_native_log_dropped_entries", "Native log entries dropped on buffer overflow",
+                buffer::getDropped);
+        registry.gauge("sip_native_log_buffered", "Native log entries waiting to be drained",
+                buffer::size);
+    }
+
+    static NativeLogDrainer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts the drainer thread, if not already started.
+     */
+    synchronized void start() {
+        if (thread != null) return;
+        Thread drainer = new Thread(this::run, "SipLogDrainer");
+        drainer.setDaemon(true);
+        drainer.setPriority(Thread.MIN_PRIORITY);
+        thread = drainer;
+        drainer.start();
+    }
+
+    /**
+     * Stops the drainer thread once the entries already enqueued are written and the log
+     * file is flushed and closed, waiting for it up to a second.
+     */
+    synchronized void stop() {
+        Thread drainer = thread;
+        if (drainer == null) return;
+        thread = null;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param level pjsip log level
+     * @return false if the entry would be discarded by every sink
+     */
+    boolean accepts(int level) {
+        return (logDirectory != null && level <= this.level) || acceptsConsole(level);
+    }
+
+    private boolean acceptsConsole(int level) {
+        return logcatEnabled && level <= consoleLevel && Logger.isLoggable(toLogLevel(level));
+    }
+
+    /**
+     * Enqueues an entry, never blocking the calling thread.
+     */
+    void enqueue(int level, String threadName, String message) {
+        if (buffer.offer(level, threadName, message, System.currentTimeMillis()) && waiting) {
+            wakeUp();
+        }
+    }
+
+    /**
+     * @param enabled whether entries are written with the {@link Logger} delegate
+     */
+    void setLogcatEnabled(boolean enabled) {
+        logcatEnabled = enabled;
+    }
+
+    /**
+     * @param directory directory of the rotating log files, null to stop writing them
+     */
+    void setLogDirectory(File directory) {
+        logDirectory = directory;
+        wakeUp();
+    }
+
+    /**
+     * @param level maximum level of the entries written to the log file
+     * @param consoleLevel maximum level of the entries written with the {@link Logger} delegate
+     */
+    void setLevels(int level, int consoleLevel) {
+        this.level = Math.max(0, Math.min(level, MAX_LEVEL));
+        this.consoleLevel = Math.max(0, Math.min(consoleLevel, MAX_LEVEL));
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    int getConsoleLevel() {
+        return consoleLevel;
+    }
+
+    void setSenderFilter(NativeLogFilter filter) {
+        senderFilter = filter == null ? NativeLogFilter.NONE : filter;
+    }
+
+    NativeLogFilter getSenderFilter() {
+        return senderFilter;
+    }
+
+    long getDropped() {
+        return buffer.getDropped();
+    }
+
+    private void wakeUp() {
+        Thread drainer = thread;
+        if (drainer != null) LockSupport.unpark(drainer);
+    }
+
+    private void run() {
+        NativeLogBuffer.EntryConsumer consumer = this::write;
+        Thread current = Thread.currentThread();
+        while (thread == current) {
+            int drained;
+            synchronized (drainLock) {
+                updateFile();
+                drained = buffer.drain(consumer, BATCH_SIZE);
+                if (drained > 0) flushFile();
+            }
+            if (drained > 0) continue;
+
+            // the flag is raised before looking at the buffer again: a producer either
+            // sees it and unparks this thread, or its entry is seen here
+            waiting = true;
+            if (buffer.size() == 0 && thread == current) LockSupport.park(this);
+            waiting = false;
+        }
+
+        synchronized (drainLock) {
+            updateFile();
+            buffer.drain(consumer, buffer.capacity());
+            closeFile();
+            currentDirectory = null;
+        }
+    }
+
+    private static Logger.LogLevel toLogLevel(int level) {
+        switch (level) {
+            case 0:
+            case 1:
+                return Logger.LogLevel.ERROR;
+            case 2:
+                return Logger.LogLevel.WARNING;
+            case 3:
+                return Logger.LogLevel.INFO;
+            case 4:
+            default:
+                return Logger.LogLevel.DEBUG;
+        }
+    }
+
+    private void write(NativeLogBuffer.Entry entry) {
+        if (acceptsConsole(entry.level)) {
+            String tag = "PJSIP " + entry.threadName;
+            switch (toLogLevel(entry.level)) {
+                case ERROR:
+                    Logger.error(tag, entry.message);
+                    break;
+                case WARNING:
+                    Logger.warning(tag, entry.message);
+                    break;
+                case INFO:
+                    Logger.info(tag, entry.message);
+                    break;
+                default:
+                    Logger.debug(tag, entry.message);
+                    break;
+            }
+        }
+
+        if (fileWriter != null && entry.level <= level) {
+            date.setTime(entry.timestamp);
+            line.setLength(0);
+            line.append(timeFormat.format(date)).append(' ').append(entry.level).append(' ')
+                    .append(entry.threadName).append(' ').append(entry.message);
+            if (line.charAt(line.length() - 1) != '\n') line.append('\n');
+            try {
+                fileWriter.write(line.toString());
+                fileSize += line.length();
+                if (fileSize >= MAX_LOG_FILE_SIZE) rotate();
+            } catch (IOException exc) {
+                Logger.error(TAG, "Error while writing native log file", exc);
+                closeFileOnError();
+            }
+        }
+    }
+
+    private void updateFile() {
+        File directory = logDirectory;
+        if (directory == currentDirectory) return;
+
+        closeFile();
+        currentDirectory = directory;
+        if (directory != null) openFile();
+    }
+
+    private void openFile() {
+        File file = new File(currentDirectory, LOG_FILE_NAME);
+        try {
+            fileWriter = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(file, true), StandardCharsets.UTF_8), 16 * 1024);
+            fileSize = file.length();
+        } catch (IOException exc) {
+            Logger.error(TAG, "Error while opening native log file", exc);
+            fileWriter = null;
+        }
+    }
+
+    /**
+     * Shifts pjsip.log to pjsip.log.1 and so on, deleting the oldest one.
+     */
+    private void rotate() {
+        closeFile();
+        for (int i = MAX_LOG_FILES - 1; i >= 1; i--) {
+            File from = new File(currentDirectory, i == 1 ? LOG_FILE_NAME : LOG_FILE_NAME + "." + (i - 1));
+            File to = new File(currentDirectory, LOG_FILE_NAME + "." + i);
+            //noinspection ResultOfMethodCallIgnored
+            to.delete();
+            //noinspection ResultOfMethodCallIgnored
+            from.renameTo(to);
+        }
+        openFile();
+    }
+
+    private void flushFile() {
+        if (fileWriter == null) return;
+        try {
+            fileWriter.flush();
+        } catch (IOException exc) {
+            Logger.error(TAG, "Error while flushing native log file", exc);
+            closeFileOnError();
+        }
+    }
+
+    /**
+     * Closes the file after a write error, it's opened again with the next batch.
+     */
+    private void closeFileOnError() {
+        closeFile();
+        currentDirectory = null;
+    }
+
+    private void closeFile() {
+        if (fileWriter == null) return;
+        try {
+            fileWriter.close();
+        } catch (IOException exc) {
+            Logger.error(TAG, "Error while closing native log file", exc);
+        }
+        fileWriter = null;
+    }
+}
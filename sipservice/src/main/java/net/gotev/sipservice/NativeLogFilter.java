@@ -0,0 +1,77 @@
+package net.gotev.sipservice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable per-sender filter of the pjsip native logs, applied by {@link SipLogger} before
+ * an entry is enqueued.
+ * <p>
+ * The sender is the pjsip module or object which wrote the entry (e.g. pjsua_call.c,
+ * sip_endpoint.c, tsx0x7a8b...), printed right aligned at the beginning of the message.
+ * It's matched by prefix, so "tsx" matches every transaction. An entry is rejected if its
+ * sender matches an excluded prefix, or if included prefixes are set and none matches.
+ * Errors and warnings are never filtered.
+ */
+final class NativeLogFilter {
+
+    static final NativeLogFilter NONE = new NativeLogFilter(null, null);
+
+    private static final int ALWAYS_ACCEPTED_LEVEL = 2;
+
+    private final String[] include;
+    private final String[] exclude;
+
+    /**
+     * @param include sender prefixes to keep, null or empty to keep every sender
+     * @param exclude sender prefixes to discard, null or empty to discard none
+     */
+    NativeLogFilter(List<String> include, List<String> exclude) {
+        this.include = toArray(include);
+        this.exclude = toArray(exclude);
+    }
+
+    boolean isEmpty() {
+        return include.length == 0 && exclude.length == 0;
+    }
+
+    /**
+     * @param level pjsip log level
+     * @param message message decorated with the sender
+     * @return true if the entry has to be logged
+     */
+    boolean accepts(int level, String message) {
+        if (level <= ALWAYS_ACCEPTED_LEVEL || isEmpty() || message == null) return true;
+
+        int start = 0;
+        while (start < message.length() && Character.isWhitespace(message.charAt(start))) {
+            start++;
+        }
+
+        if (matches(exclude, message, start)) return false;
+        return include.length == 0 || matches(include, message, start);
+    }
+
+    private static boolean matches(String[] prefixes, String message, int start) {
+        for (String prefix : prefixes) {
+            if (message.startsWith(prefix, start)) return true;
+        }
+        return false;
+    }
+
+    private static String[] toArray(List<String> prefixes) {
+        List<String> out = new ArrayList<>();
+        if (prefixes != null) {
+            for (String prefix : prefixes) {
+                if (prefix != null && !prefix.trim().isEmpty()) out.add(prefix.trim());
+            }
+        }
+        return out.toArray(new String[0]);
+    }
+
+    @Override
+    public String toString() {
+        return "include=" + Arrays.toString(include) + ", exclude=" + Arrays.toString(exclude);
+    }
+}
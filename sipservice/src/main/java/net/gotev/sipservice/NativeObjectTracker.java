@@ -0,0 +1,138 @@
+package net.gotev.sipservice;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Keeps track of the long-lived native objects created by the service (pjsua2 accounts,
+ * calls, video windows and previews, players and recorders, and the ringback tone
+ * generators), so that they are deleted in a deterministic order when the stack is stopped,
+ * instead of by their finalizers after a forced garbage collection.
+ * <p>
+ * Objects are registered when created, with the action which deletes them, and unregistered
+ * when their owner deletes them. Those still registered at shutdown are deleted by
+ * {@link Kind}, and within the same kind from the newest to the oldest.
+ */
+final class NativeObjectTracker {
+
+    private static final String TAG = NativeObjectTracker.class.getSimpleName();
+
+    /**
+     * Kinds of the tracked objects, in deletion order.
+     */
+    enum Kind {
+        TONE_GENERATOR(false),
+        PLAYER(false),
+        RECORDER(false),
+        VIDEO_PREVIEW(false),
+        VIDEO_WINDOW(false),
+        // pjsua2 hangs up the call if the library is still running, which sends a BYE, while
+        // destroying the library hangs calls up without network; calls are deleted after it
+        CALL(true),
+        // pjsua2 deletes the account in pjsua too if the library is still running, which
+        // unregisters it, so accounts are deleted once the library is destroyed
+        ACCOUNT(true);
+
+        private final boolean afterLibDestroy;
+
+        Kind(boolean afterLibDestroy) {
+            this.afterLibDestroy = afterLibDestroy;
+        }
+    }
+
+    private static final class Registration {
+        private final Kind kind;
+        private final long sequence;
+        private final Runnable deleter;
+
+        private Registration(Kind kind, long sequence, Runnable deleter) {
+            this.kind = kind;
+            this.sequence = sequence;
+            this.deleter = deleter;
+        }
+    }
+
+    private static final NativeObjectTracker INSTANCE = new NativeObjectTracker();
+
+    // guarded by this
+    private final IdentityHashMap<Object, Registration> objects = new IdentityHashMap<>();
+    private long sequence = 0;
+
+    private NativeObjectTracker() {
+        MetricsRegistry.getInstance().gauge("sip_native_objects",
+                "Native objects waiting to be deleted", this::size);
+    }
+
+    static NativeObjectTracker getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param kind kind of the object, which sets when it's deleted at shutdown
+     * @param object object to track
+     * @param deleter deletes the object
+     * @return the object
+     */
+    synchronized <T> T register(Kind kind, T object, Runnable deleter) {
+        objects.put(object, new Registration(kind, sequence++, deleter));
+        return object;
+    }
+
+    /**
+     * Stops tracking an object, which has been or is going to be deleted by its owner.
+     */
+    synchronized void unregister(Object object) {
+        if (object != null) objects.remove(object);
+    }
+
+    synchronized int size() {
+        return objects.size();
+    }
+
+    /**
+     * Deletes the objects which have to be deleted before destroying the library.
+     * To be called on a thread registered in pjlib.
+     * @return number of deleted objects
+     */
+    int deleteBeforeLibDestroy() {
+        return delete(false);
+    }
+
+    /**
+     * Deletes the objects which have to be deleted after destroying the library.
+     * @return number of deleted objects
+     */
+    int deleteAfterLibDestroy() {
+        return delete(true);
+    }
+
+    private int delete(boolean afterLibDestroy) {
+        List<Registration> registrations = new ArrayList<>();
+        synchronized (this) {
+            objects.values().removeIf(registration -> {
+                if (registration.kind.afterLibDestroy != afterLibDestroy) return false;
+                registrations.add(registration);
+                return true;
+            });
+        }
+
+        registrations.sort((first, second) -> first.kind != second.kind
+                ? first.kind.compareTo(second.kind)
+                : Long.compare(second.sequence, first.sequence));
+
+        long start = System.nanoTime();
+        for (Registration registration : registrations) {
+            try {
+                registration.deleter.run();
+            } catch (Exception exc) {
+                Logger.error(TAG, "Error while deleting " + registration.kind, exc);
+            }
+        }
+        if (!registrations.isEmpty()) {
+            Logger.debug(TAG, "Deleted {} native objects in {} us", registrations.size(),
+                    (System.nanoTime() - start) / 1000);
+        }
+        return registrations.size();
+    }
+}
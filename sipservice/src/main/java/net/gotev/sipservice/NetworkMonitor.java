@@ -0,0 +1,180 @@
+package net.gotev.sipservice;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.LinkAddress;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.system.OsConstants;
+
+import androidx.annotation.NonNull;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+
+/**
+ * Follows the default network through ConnectivityManager callbacks and triggers the
+ * IP change handling when the interface or the address the transports bind change.
+ * Callbacks are debounced, so that a flapping network triggers a single reconnection,
+ * and a network which comes back to the same address triggers none. Temporary IPv6
+ * addresses are ignored, so that their rotation triggers nothing either.
+ */
+class NetworkMonitor {
+
+    private static final String TAG = NetworkMonitor.class.getSimpleName();
+    static final long DEBOUNCE_MS = 500;
+
+    private final SipService service;
+    private ConnectivityManager connectivityManager;
+    private Network pendingNetwork;
+    private String currentKey;
+    private String localAddress;
+
+    private final Runnable debounceJob = this::onNetworkSettled;
+
+    private final ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onAvailable(@NonNull Network network) {
+            service.enqueueJob(() -> onNetworkEvent(network));
+        }
+
+        @Override
+        public void onLinkPropertiesChanged(@NonNull Network network, @NonNull LinkProperties linkProperties) {
+            service.enqueueJob(() -> onNetworkEvent(network));
+        }
+    };
+
+    NetworkMonitor(SipService service) {
+        this.service = service;
+    }
+
+    void start() {
+        if (connectivityManager != null) return;
+
+        connectivityManager = (ConnectivityManager) service.getSystemService(Context.CONNECTIVITY_SERVICE);
+        try {
+            connectivityManager.registerDefaultNetworkCallback(callback);
+            Logger.debug(TAG, "Network monitor started");
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while registering network callback", exc);
+            connectivityManager = null;
+        }
+    }
+
+    void stop() {
+        if (connectivityManager == null) return;
+
+        service.dequeueJob(debounceJob);
+        try {
+            connectivityManager.unregisterNetworkCallback(callback);
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while unregistering network callback", exc);
+        }
+        connectivityManager = null;
+        pendingNetwork = null;
+        currentKey = null;
+        localAddress = null;
+    }
+
+    /**
+     * @return IPv4 address of the default network, or null if unknown or if it has none
+     */
+    String getLocalAddress() {
+        return localAddress;
+    }
+
+    private void onNetworkEvent(Network network) {
+        if (connectivityManager == null) return;
+
+        pendingNetwork = network;
+        service.dequeueJob(debounceJob);
+        service.enqueueDelayedJob(debounceJob, DEBOUNCE_MS);
+    }
+
+    private void onNetworkSettled() {
+        if (connectivityManager == null || pendingNetwork == null) return;
+
+        LinkProperties linkProperties = connectivityManager.getLinkProperties(pendingNetwork);
+        String key = getKey(linkProperties);
+        localAddress = getIpv4Address(linkProperties);
+        if (currentKey == null) {
+            // first callback after registration, this is the network the stack started with
+            currentKey = key;
+            return;
+        }
+        if (key.equals(currentKey)) return;
+
+        Logger.info(TAG, "Network changed, from: " + currentKey + " to: " + key);
+        currentKey = key;
+        service.onNetworkChanged();
+    }
+
+    /**
+     * @param context context
+     * @return transport of the default network: wifi, cellular, ethernet, vpn, other or none
+     */
+    static String getNetworkType(Context context) {
+        try {
+            ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            NetworkCapabilities capabilities = manager.getNetworkCapabilities(manager.getActiveNetwork());
+            if (capabilities == null) return "none";
+            if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_VPN)) return "vpn";
+            if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) return "wifi";
+            if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) return "cellular";
+            if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) return "ethernet";
+            return "other";
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while getting network type", exc);
+            return "other";
+        }
+    }
+
+    private static String getIpv4Address(LinkProperties linkProperties) {
+        if (linkProperties == null || linkProperties.getLinkAddresses() == null) return null;
+
+        for (LinkAddress linkAddress : linkProperties.getLinkAddresses()) {
+            InetAddress address = linkAddress.getAddress();
+            if (address instanceof Inet4Address && !address.isLoopbackAddress()
+                    && !address.isLinkLocalAddress()) {
+                return address.getHostAddress();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the lowest global IPv6 address which is neither temporary nor deprecated,
+     * or null if there is none
+     */
+    private static String getStableIpv6Address(LinkProperties linkProperties) {
+        if (linkProperties == null || linkProperties.getLinkAddresses() == null) return null;
+
+        String stable = null;
+        for (LinkAddress linkAddress : linkProperties.getLinkAddresses()) {
+            InetAddress address = linkAddress.getAddress();
+            if (!(address instanceof Inet6Address) || address.isLoopbackAddress()
+                    || address.isLinkLocalAddress() || address.isSiteLocalAddress()) {
+                continue;
+            }
+            if ((linkAddress.getFlags() & (OsConstants.IFA_F_TEMPORARY | OsConstants.IFA_F_DEPRECATED)) != 0) {
+                continue;
+            }
+            String host = address.getHostAddress();
+            if (stable == null || host.compareTo(stable) < 0) stable = host;
+        }
+        return stable;
+    }
+
+    /**
+     * @return interface name and the address the transports bind, the IPv4 one if any
+     */
+    private static String getKey(LinkProperties linkProperties) {
+        if (linkProperties == null) return "unknown";
+
+        String address = getIpv4Address(linkProperties);
+        if (address == null) address = getStableIpv6Address(linkProperties);
+        return linkProperties.getInterfaceName() + " " + address;
+    }
+}
@@ -2,6 +2,10 @@ package net.gotev.sipservice;
 
 import android.content.Context;
 
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /**
  * connect
  *
@@ -9,14 +13,62 @@ import android.content.Context;
  * Copyright © 2021 VoiSmart S.r.l. All rights reserved.
  */
 public class ObfuscationHelper {
+
+    // user part of SIP and tel URIs
+    private static final Pattern URI_USER = Pattern.compile("(?:sips?:([^@\\s;>:]+)@)|(?:tel:([^;>\\s]+))");
+    // quoted values of the authentication headers and quoted display names
+    private static final Pattern QUOTED_VALUE = Pattern.compile(
+            "(?im)^(?:proxy-)?(?:authorization|authenticate|www-authenticate|proxy-authenticate):.*$|\"([^\"]*)\"\\s*<");
+    private static final Pattern AUTH_PARAM = Pattern.compile("\"([^\"]*)\"");
+
     public static String getValue(Context context, String string) {
-        return SharedPreferencesHelper.getInstance(context).isObfuscationEnabled() ? obfuscate(string) : string;
+        return SharedPreferencesHelper.currentSnapshot(context).isObfuscationEnabled() ? obfuscate(string) : string;
+    }
+
+    /**
+     * Obfuscates the user part of the URIs, the display names and the authentication
+     * parameters of a SIP message, if obfuscation is enabled.
+     */
+    static String getSipMessage(Context context, String message) {
+        if (!SharedPreferencesHelper.currentSnapshot(context).isObfuscationEnabled()) return message;
+        return obfuscateSipMessage(message);
+    }
+
+    /**
+     * Lengths in UTF-8 bytes are preserved, so the Content-Length header stays valid.
+     */
+    static String obfuscateSipMessage(String message) {
+        StringBuilder out = new StringBuilder(message);
+        Matcher uri = URI_USER.matcher(message);
+        while (uri.find()) {
+            int group = uri.start(1) >= 0 ? 1 : 2;
+            replace(out, uri.start(group), uri.end(group));
+        }
+
+        Matcher quoted = QUOTED_VALUE.matcher(message);
+        while (quoted.find()) {
+            if (quoted.start(1) >= 0) {
+                replace(out, quoted.start(1), quoted.end(1));
+                continue;
+            }
+            Matcher param = AUTH_PARAM.matcher(message).region(quoted.start(), quoted.end());
+            while (param.find()) {
+                replace(out, param.start(1), param.end(1));
+            }
+        }
+        return out.toString();
+    }
+
+    private static void replace(StringBuilder out, int start, int end) {
+        if (end <= start) return;
+        out.replace(start, end, obfuscate(out.substring(start, end)));
     }
 
     private static String obfuscate(String string) {
-        return string.length() > 5
-                ? repeat(string.length() - 3) + string.substring(string.length() - 3)
-                : repeat(string.length() - 1) + string.substring(string.length() - 1);
+        int visible = string.length() > 5 ? 3 : 1;
+        String hidden = string.substring(0, string.length() - visible);
+        return repeat(hidden.getBytes(StandardCharsets.UTF_8).length)
+                + string.substring(string.length() - visible);
     }
 
     private static String repeat(int n) {
@@ -0,0 +1,92 @@
+package net.gotev.sipservice;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces the writes of persisted values on a background thread.
+ * A key is marked dirty with the write which persists its latest value, and every key
+ * dirtied within the coalescing window is written once when the window expires, so a burst
+ * of changes costs a single serialisation and encryption per key. The window starts at the
+ * first change, so a write is never delayed by more than the window. The owner starts
+ * the writes early with {@link #flushAsync()} when the process may be killed.
+ */
+class PersistenceWriter {
+
+    private static final String TAG = PersistenceWriter.class.getSimpleName();
+    private static final long FLUSH_TIMEOUT_MS = 2000;
+
+    private final long windowMillis;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "SipPrefsWriter"));
+
+    // guarded by this
+    private final LinkedHashMap<String, Runnable> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> writeJob;
+
+    PersistenceWriter(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Marks a key dirty.
+     * @param key persisted key, also used as metric label
+     * @param write writes the current value of the key, invoked on the writer thread
+     */
+    synchronized void markDirty(String key, Runnable write) {
+        if (pending.put(key, write) != null) {
+            MetricsRegistry.getInstance().counter("sip_prefs_writes_coalesced_total",
+                    "Preference writes avoided by coalescing, by key", "key", key).inc();
+        }
+        if (writeJob == null) {
+            writeJob = executor.schedule(this::writePending, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes the dirty keys now and waits for them to be persisted.
+     */
+    void flush() {
+        Future<?> job = executor.submit(this::writePending);
+        try {
+            job.get(FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while flushing pending writes", exc);
+        }
+    }
+
+    /**
+     * Writes the dirty keys now, without waiting for them to be persisted.
+     */
+    void flushAsync() {
+        executor.execute(this::writePending);
+    }
+
+    private void writePending() {
+        LinkedHashMap<String, Runnable> writes;
+        synchronized (this) {
+            if (writeJob != null) {
+                writeJob.cancel(false);
+                writeJob = null;
+            }
+            if (pending.isEmpty()) return;
+            writes = new LinkedHashMap<>(pending);
+            pending.clear();
+        }
+
+        for (Map.Entry<String, Runnable> write : writes.entrySet()) {
+            try {
+                write.getValue().run();
+                MetricsRegistry.getInstance().counter("sip_prefs_writes_total",
+                        "Preference writes by key", "key", write.getKey()).inc();
+            } catch (Exception exc) {
+                Logger.error(TAG, "Error while writing " + write.getKey(), exc);
+            }
+        }
+    }
+}
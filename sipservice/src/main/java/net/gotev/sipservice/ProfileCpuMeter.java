@@ -0,0 +1,128 @@
+package net.gotev.sipservice;
+
+import android.os.Process;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.function.IntSupplier;
+
+/**
+ * Measures the process CPU time per active call under each {@link EndpointProfile}.
+ * <p>
+ * While the stack runs, the process CPU time and the number of active calls are sampled
+ * periodically on the service thread. Intervals without calls give the idle CPU rate of the
+ * profile, which is subtracted from the rate of the intervals with calls before dividing it
+ * by the number of calls. Samples accumulate across stack restarts, so running the same
+ * calls under each profile gives comparable results.
+ */
+final class ProfileCpuMeter {
+
+    private static final String TAG = ProfileCpuMeter.class.getSimpleName();
+    static final long SAMPLE_INTERVAL_MS = 5000;
+
+    private static final class Totals {
+        long idleCpuMillis;
+        long idleMillis;
+        long callsCpuMillis;
+        long callsMillis;
+        // wall time multiplied by the active calls
+        long callMillis;
+    }
+
+    private final SipService service;
+    private final IntSupplier activeCalls;
+    private final Runnable sampleJob = this::sample;
+    // accessed only by the service thread
+    private final EnumMap<EndpointProfile, Totals> totals = new EnumMap<>(EndpointProfile.class);
+    private EndpointProfile profile;
+    private long lastCpuMillis;
+    private long lastTimestamp;
+    private int lastCalls;
+
+    ProfileCpuMeter(SipService service, IntSupplier activeCalls) {
+        this.service = service;
+        this.activeCalls = activeCalls;
+    }
+
+    /**
+     * Starts sampling, when the stack starts with the given profile.
+     */
+    void start(EndpointProfile profile) {
+        this.profile = profile;
+        lastCpuMillis = Process.getElapsedCpuTime();
+        lastTimestamp = System.currentTimeMillis();
+        lastCalls = activeCalls.getAsInt();
+        service.enqueueDelayedJob(sampleJob, SAMPLE_INTERVAL_MS);
+    }
+
+    /**
+     * Takes a last sample and stops sampling, when the stack stops.
+     */
+    void stop() {
+        if (profile == null) return;
+        service.dequeueJob(sampleJob);
+        record();
+        profile = null;
+    }
+
+    private void sample() {
+        if (profile == null) return;
+        record();
+        service.enqueueDelayedJob(sampleJob, SAMPLE_INTERVAL_MS);
+    }
+
+    private void record() {
+        long cpuMillis = Process.getElapsedCpuTime();
+        long timestamp = System.currentTimeMillis();
+        long cpuDelta = cpuMillis - lastCpuMillis;
+        long elapsed = timestamp - lastTimestamp;
+
+        // calls which started or ended within the interval are counted for half of it
+        int calls = activeCalls.getAsInt();
+        double meanCalls = (lastCalls + calls) / 2.0;
+
+        Totals profileTotals = totals.get(profile);
+        if (profileTotals == null) {
+            profileTotals = new Totals();
+            totals.put(profile, profileTotals);
+        }
+        if (lastCalls == 0 && calls == 0) {
+            profileTotals.idleCpuMillis += cpuDelta;
+            profileTotals.idleMillis += elapsed;
+        } else {
+            profileTotals.callsCpuMillis += cpuDelta;
+            profileTotals.callsMillis += elapsed;
+            profileTotals.callMillis += (long) (elapsed * meanCalls);
+        }
+
+        lastCpuMillis = cpuMillis;
+        lastTimestamp = timestamp;
+        lastCalls = calls;
+    }
+
+    /**
+     * Logs the CPU per call of every profile measured so far.
+     * @return the results, one line per profile
+     */
+    String report() {
+        if (profile != null) record();
+
+        StringBuilder out = new StringBuilder();
+        for (EndpointProfile measured : EndpointProfile.values()) {
+            Totals profileTotals = totals.get(measured);
+            if (profileTotals == null || profileTotals.callMillis == 0) continue;
+
+            double idleRate = profileTotals.idleMillis == 0
+                    ? 0 : (double) profileTotals.idleCpuMillis / profileTotals.idleMillis;
+            double callsCpu = profileTotals.callsCpuMillis - idleRate * profileTotals.callsMillis;
+            double perCall = Math.max(0, callsCpu) / profileTotals.callMillis;
+            out.append(String.format(Locale.US,
+                    "%s: %.2f%% of a core per call, idle %.2f%%, %d call seconds measured%n",
+                    measured.getId(), perCall * 100, idleRate * 100, profileTotals.callMillis / 1000));
+        }
+
+        String result = out.length() == 0 ? "No call measured yet\n" : out.toString();
+        Logger.info(TAG, "CPU per active call by endpoint profile\n" + result);
+        return result;
+    }
+}
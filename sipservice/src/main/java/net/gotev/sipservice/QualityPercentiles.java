@@ -0,0 +1,77 @@
+package net.gotev.sipservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * 50th, 95th and 99th percentiles of a quality metric.
+ */
+@SuppressWarnings("unused")
+public class QualityPercentiles implements Parcelable {
+    private final double p50;
+    private final double p95;
+    private final double p99;
+
+    /**
+     * @param sketch sketch of the metric
+     * @param scale divisor from the sketch unit to the exposed unit
+     */
+    QualityPercentiles(QuantileSketch sketch, double scale) {
+        this.p50 = sketch.getQuantile(0.5) / scale;
+        this.p95 = sketch.getQuantile(0.95) / scale;
+        this.p99 = sketch.getQuantile(0.99) / scale;
+    }
+
+    public static final Parcelable.Creator<QualityPercentiles> CREATOR =
+            new Parcelable.Creator<QualityPercentiles>() {
+                @Override
+                public QualityPercentiles createFromParcel(final Parcel in) {
+                    return new QualityPercentiles(in);
+                }
+
+                @Override
+                public QualityPercentiles[] newArray(final int size) {
+                    return new QualityPercentiles[size];
+                }
+            };
+
+    private QualityPercentiles(Parcel in) {
+        this.p50 = in.readDouble();
+        this.p95 = in.readDouble();
+        this.p99 = in.readDouble();
+    }
+
+    @Override
+    public void writeToParcel(Parcel parcel, int arg1) {
+        parcel.writeDouble(p50);
+        parcel.writeDouble(p95);
+        parcel.writeDouble(p99);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "p50: %.2f p95: %.2f p99: %.2f", p50, p95, p99);
+    }
+
+    public double getP50() {
+        return p50;
+    }
+
+    public double getP95() {
+        return p95;
+    }
+
+    public double getP99() {
+        return p99;
+    }
+}
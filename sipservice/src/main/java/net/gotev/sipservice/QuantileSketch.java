@@ -0,0 +1,138 @@
+package net.gotev.sipservice;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch with logarithmic buckets and 2% relative accuracy.
+ * Bucket boundaries are the same for every sketch, so two sketches are merged by adding
+ * their counts, and the memory is bounded by the value range, not by the number of values.
+ * Values must be non negative, values below 1 are counted in a dedicated zero bucket and
+ * values above {@link #MAX_VALUE} in the last bucket.
+ * The bucket array grows up to the highest bucket used, and counts are kept sparse when
+ * serialised with Gson, see {@link #compact()}.
+ */
+class QuantileSketch {
+
+    static final long MAX_VALUE = 10000000L;
+    private static final double RELATIVE_ACCURACY = 0.02;
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    private static final int BUCKETS = (int) Math.ceil(Math.log(MAX_VALUE) / LOG_GAMMA) + 1;
+
+    private transient long[] counts;
+    private long zeroCount;
+    private long count;
+    private double min = Double.MAX_VALUE;
+    private double max = 0;
+
+    // sparse representation used for persistence
+    private int[] indexes;
+    private long[] values;
+
+    void add(double value) {
+        if (value < 0 || Double.isNaN(value)) return;
+
+        count++;
+        if (value < min) min = value;
+        if (value > max) max = value;
+
+        if (value < 1) {
+            zeroCount++;
+        } else {
+            int bucket = bucket(value);
+            buckets(bucket + 1)[bucket]++;
+        }
+    }
+
+    void merge(QuantileSketch other) {
+        if (other.count == 0) return;
+
+        long[] otherCounts = other.buckets(0);
+        long[] counts = buckets(otherCounts.length);
+        for (int i = 0; i < otherCounts.length; i++) {
+            counts[i] += otherCounts[i];
+        }
+        zeroCount += other.zeroCount;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * @param quantile quantile between 0 and 1
+     * @return estimated value at the given quantile, 0 if the sketch is empty
+     */
+    double getQuantile(double quantile) {
+        if (count == 0) return 0;
+
+        long rank = (long) Math.ceil(quantile * count);
+        if (rank <= zeroCount) return min;
+
+        long seen = zeroCount;
+        long[] counts = buckets(0);
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // geometric center of the bucket, clamped to the observed range
+                double value = 2 * Math.pow(GAMMA, i) / (1 + GAMMA);
+                return Math.max(min, Math.min(max, value));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Moves the counts to the sparse representation, before serialisation.
+     */
+    void compact() {
+        long[] counts = buckets(0);
+        int used = 0;
+        for (long bucketCount : counts) {
+            if (bucketCount > 0) used++;
+        }
+
+        indexes = new int[used];
+        values = new long[used];
+        int position = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) continue;
+            indexes[position] = i;
+            values[position] = counts[i];
+            position++;
+        }
+    }
+
+    /**
+     * @param size minimum number of buckets needed
+     * @return the bucket counts, restored from the sparse representation if needed
+     */
+    private long[] buckets(int size) {
+        if (counts == null) {
+            counts = new long[0];
+            if (indexes != null && values != null) {
+                for (int i = 0; i < indexes.length && i < values.length; i++) {
+                    int index = indexes[i];
+                    if (index < 0 || index >= BUCKETS) continue;
+                    if (index >= counts.length) counts = Arrays.copyOf(counts, index + 1);
+                    counts[index] = values[i];
+                }
+            }
+            indexes = null;
+            values = null;
+        }
+
+        if (counts.length < size) {
+            counts = Arrays.copyOf(counts, size);
+        }
+        return counts;
+    }
+
+    private static int bucket(double value) {
+        int index = (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+        return Math.max(0, Math.min(BUCKETS - 1, index));
+    }
+}
@@ -0,0 +1,332 @@
+package net.gotev.sipservice;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Compact binary encoding of the persisted accounts and codec priorities, written by hand
+ * so that no reflection is involved.
+ * <p>
+ * A blob is a format version byte followed by the number of records and by each record,
+ * prefixed with its length. Records are sequences of fields, each one starting with a key
+ * holding the field tag and its wire type: zigzag varints for numbers and booleans,
+ * length prefixed UTF-8 for strings. Readers skip the fields they don't know, and fields
+ * missing from a record keep their default value, so tags can be added in any version as
+ * long as existing ones are never reused. Null strings are not written.
+ * <p>
+ * Blobs are stored in the preferences as Base64 strings.
+ */
+final class SettingsCodec {
+
+    static final int FORMAT_VERSION = 1;
+
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_BYTES = 2;
+
+    // SipAccountData tags
+    private static final int ACCOUNT_USERNAME = 1;
+    private static final int ACCOUNT_PASSWORD = 2;
+    private static final int ACCOUNT_REALM = 3;
+    private static final int ACCOUNT_HOST = 4;
+    private static final int ACCOUNT_PORT = 5;
+    private static final int ACCOUNT_TCP_TRANSPORT = 6;
+    private static final int ACCOUNT_AUTHENTICATION_TYPE = 7;
+    private static final int ACCOUNT_CONTACT_URI_PARAMS = 8;
+    private static final int ACCOUNT_REG_EXPIRATION_TIMEOUT = 9;
+    private static final int ACCOUNT_GUEST_DISPLAY_NAME = 10;
+    private static final int ACCOUNT_CALL_ID = 11;
+    private static final int ACCOUNT_SRTP_USE = 12;
+    private static final int ACCOUNT_SRTP_SECURE_SIGNALLING = 13;
+    private static final int ACCOUNT_TRANSPORT = 14;
+
+    // CodecPriority tags
+    private static final int CODEC_ID = 1;
+    private static final int CODEC_PRIORITY = 2;
+
+    private SettingsCodec() { }
+
+    static byte[] encodeAccounts(List<SipAccountData> accounts) {
+        Writer out = new Writer(64 + accounts.size() * 128);
+        out.writeHeader(accounts.size());
+        Writer record = new Writer(128);
+        for (SipAccountData account : accounts) {
+            record.reset();
+            record.writeString(ACCOUNT_USERNAME, account.getUsername());
+            record.writeString(ACCOUNT_PASSWORD, account.getPassword());
+            record.writeString(ACCOUNT_REALM, account.getRealm());
+            record.writeString(ACCOUNT_HOST, account.getHost());
+            record.writeLong(ACCOUNT_PORT, account.getPort());
+            record.writeLong(ACCOUNT_TCP_TRANSPORT, isTcpTransport(account) ? 1 : 0);
+            record.writeString(ACCOUNT_AUTHENTICATION_TYPE, account.getAuthenticationType());
+            record.writeString(ACCOUNT_CONTACT_URI_PARAMS, account.getContactUriParams());
+            record.writeLong(ACCOUNT_REG_EXPIRATION_TIMEOUT, account.getRegExpirationTimeout());
+            record.writeString(ACCOUNT_GUEST_DISPLAY_NAME, account.getGuestDisplayName());
+            record.writeString(ACCOUNT_CALL_ID, account.getCallId());
+            record.writeLong(ACCOUNT_SRTP_USE, account.getSrtpUse());
+            record.writeLong(ACCOUNT_SRTP_SECURE_SIGNALLING, account.getSrtpSecureSignalling());
+            record.writeLong(ACCOUNT_TRANSPORT, account.getTransport().ordinal());
+            out.writeRecord(record);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the blob is malformed or of a newer format
+     */
+    @SuppressWarnings("deprecation")
+    static List<SipAccountData> decodeAccounts(byte[] data) {
+        Reader in = new Reader(data);
+        int count = in.readHeader();
+        ArrayList<SipAccountData> accounts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Reader record = in.readRecord();
+            SipAccountData account = new SipAccountData();
+            boolean tcpTransport = false;
+            while (record.hasRemaining()) {
+                int key = record.readKey();
+                switch (key >>> 3) {
+                    case ACCOUNT_USERNAME: account.setUsername(record.readString(key)); break;
+                    case ACCOUNT_PASSWORD: account.setPassword(record.readString(key)); break;
+                    case ACCOUNT_REALM: account.setRealm(record.readString(key)); break;
+                    case ACCOUNT_HOST: account.setHost(record.readString(key)); break;
+                    case ACCOUNT_PORT: account.setPort(record.readLong(key)); break;
+                    case ACCOUNT_TCP_TRANSPORT: tcpTransport = record.readLong(key) != 0; break;
+                    case ACCOUNT_AUTHENTICATION_TYPE: account.setAuthenticationType(record.readString(key)); break;
+                    case ACCOUNT_CONTACT_URI_PARAMS: account.setContactUriParams(record.readString(key)); break;
+                    case ACCOUNT_REG_EXPIRATION_TIMEOUT:
+                        account.setRegExpirationTimeout((int) record.readLong(key));
+                        break;
+                    case ACCOUNT_GUEST_DISPLAY_NAME: account.setGuestDisplayName(record.readString(key)); break;
+                    case ACCOUNT_CALL_ID: account.setCallId(record.readString(key)); break;
+                    case ACCOUNT_SRTP_USE: account.setSrtpUse((int) record.readLong(key)); break;
+                    case ACCOUNT_SRTP_SECURE_SIGNALLING:
+                        account.setSrtpSecureSignalling((int) record.readLong(key));
+                        break;
+                    case ACCOUNT_TRANSPORT:
+                        account.setTransport(SipAccountTransport.getTransportByCode((int) record.readLong(key)));
+                        break;
+                    default: record.skip(key);
+                }
+            }
+            // setTransport clears the legacy flag, so it's restored last
+            if (tcpTransport) account.setTcpTransport(true);
+            accounts.add(account);
+        }
+        return accounts;
+    }
+
+    static byte[] encodeCodecPriorities(List<CodecPriority> codecPriorities) {
+        Writer out = new Writer(16 + codecPriorities.size() * 24);
+        out.writeHeader(codecPriorities.size());
+        Writer record = new Writer(32);
+        for (CodecPriority codecPriority : codecPriorities) {
+            record.reset();
+            record.writeString(CODEC_ID, codecPriority.getCodecId());
+            record.writeLong(CODEC_PRIORITY, codecPriority.getPriority());
+            out.writeRecord(record);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the blob is malformed or of a newer format
+     */
+    static ArrayList<CodecPriority> decodeCodecPriorities(byte[] data) {
+        Reader in = new Reader(data);
+        int count = in.readHeader();
+        ArrayList<CodecPriority> codecPriorities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Reader record = in.readRecord();
+            String codecId = null;
+            int priority = CodecPriority.PRIORITY_DISABLED;
+            while (record.hasRemaining()) {
+                int key = record.readKey();
+                switch (key >>> 3) {
+                    case CODEC_ID: codecId = record.readString(key); break;
+                    case CODEC_PRIORITY: priority = (int) record.readLong(key); break;
+                    default: record.skip(key);
+                }
+            }
+            if (codecId != null) {
+                codecPriorities.add(new CodecPriority(codecId, (short) priority));
+            }
+        }
+        return codecPriorities;
+    }
+
+    static String toBase64(byte[] data) {
+        return Base64.getEncoder().encodeToString(data);
+    }
+
+    static byte[] fromBase64(String data) {
+        return Base64.getDecoder().decode(data);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static boolean isTcpTransport(SipAccountData account) {
+        return account.isTcpTransport();
+    }
+
+    private static final class Writer {
+        private byte[] buffer;
+        private int size = 0;
+
+        Writer(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        void writeHeader(int count) {
+            ensure(1);
+            buffer[size++] = (byte) FORMAT_VERSION;
+            writeVarint(count);
+        }
+
+        void writeRecord(Writer record) {
+            writeVarint(record.size);
+            ensure(record.size);
+            System.arraycopy(record.buffer, 0, buffer, size, record.size);
+            size += record.size;
+        }
+
+        void writeLong(int tag, long value) {
+            writeVarint((long) tag << 3 | WIRE_VARINT);
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(int tag, String value) {
+            if (value == null) return;
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint((long) tag << 3 | WIRE_BYTES);
+            writeVarint(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        private void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        private void ensure(int length) {
+            if (size + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buffer;
+        private int position;
+        private final int limit;
+
+        Reader(byte[] buffer) {
+            this(buffer, 0, buffer.length);
+        }
+
+        private Reader(byte[] buffer, int offset, int limit) {
+            this.buffer = buffer;
+            this.position = offset;
+            this.limit = limit;
+        }
+
+        int readHeader() {
+            require(1);
+            int version = buffer[position++];
+            if (version < 1 || version > FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported settings format version " + version);
+            }
+            return readLength();
+        }
+
+        Reader readRecord() {
+            int length = readLength();
+            require(length);
+            Reader record = new Reader(buffer, position, position + length);
+            position += length;
+            return record;
+        }
+
+        boolean hasRemaining() {
+            return position < limit;
+        }
+
+        int readKey() {
+            return (int) readVarint();
+        }
+
+        long readLong(int key) {
+            if ((key & 7) != WIRE_VARINT) {
+                throw new IllegalArgumentException("Field " + (key >>> 3) + " is not a number");
+            }
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String readString(int key) {
+            if ((key & 7) != WIRE_BYTES) {
+                throw new IllegalArgumentException("Field " + (key >>> 3) + " is not a string");
+            }
+            int length = readLength();
+            require(length);
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        void skip(int key) {
+            switch (key & 7) {
+                case WIRE_VARINT:
+                    readVarint();
+                    break;
+                case WIRE_BYTES:
+                    int length = readLength();
+                    require(length);
+                    position += length;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown wire type " + (key & 7));
+            }
+        }
+
+        private int readLength() {
+            long length = readVarint();
+            if (length < 0 || length > limit - position) {
+                throw new IllegalArgumentException("Invalid length " + length);
+            }
+            return (int) length;
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                require(1);
+                byte b = buffer[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        private void require(int length) {
+            if (limit - position < length) {
+                throw new IllegalArgumentException("Truncated settings blob");
+            }
+        }
+    }
+}
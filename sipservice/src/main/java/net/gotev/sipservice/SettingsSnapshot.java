@@ -0,0 +1,155 @@
+package net.gotev.sipservice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable copy of the persisted settings, kept in memory by {@link SharedPreferencesHelper}.
+ * Every write replaces the snapshot with an updated copy, so reads never touch the disk
+ * nor parse JSON and can be done from any thread.
+ * The mutable accounts and call recording configuration are copied when they enter the
+ * snapshot and by the helper when they leave it, so changes made by callers never leak in.
+ */
+final class SettingsSnapshot {
+
+    private final List<SipAccountData> accounts;
+    private final List<CodecPriority> codecPriorities;
+    private final CallRecordingConfig callRecordingConfig;
+    private final CallProbeConfig callProbeConfig;
+    private final boolean dnd;
+    private final boolean audioPrewarm;
+    private final int sndAutoCloseTime;
+    private final CallHandoverMode callHandoverMode;
+    private final boolean obfuscationEnabled;
+    private final boolean verifySipServerCert;
+
+    SettingsSnapshot(List<SipAccountData> accounts, List<CodecPriority> codecPriorities,
+                     CallRecordingConfig callRecordingConfig, CallProbeConfig callProbeConfig,
+                     boolean dnd, boolean audioPrewarm, int sndAutoCloseTime,
+                     CallHandoverMode callHandoverMode, boolean obfuscationEnabled,
+                     boolean verifySipServerCert) {
+        this.accounts = accounts == null ? null : Collections.unmodifiableList(new ArrayList<>(accounts));
+        this.codecPriorities = codecPriorities == null
+                ? null : Collections.unmodifiableList(new ArrayList<>(codecPriorities));
+        this.callRecordingConfig = callRecordingConfig;
+        this.callProbeConfig = callProbeConfig;
+        this.dnd = dnd;
+        this.audioPrewarm = audioPrewarm;
+        this.sndAutoCloseTime = sndAutoCloseTime;
+        this.callHandoverMode = callHandoverMode;
+        this.obfuscationEnabled = obfuscationEnabled;
+        this.verifySipServerCert = verifySipServerCert;
+    }
+
+    /**
+     * @return the configured accounts, or null if the encrypted preferences holding them
+     * have not been loaded yet. Must not be modified.
+     */
+    List<SipAccountData> getAccounts() {
+        return accounts;
+    }
+
+    /**
+     * @return the configured codec priorities, or null if they have never been set
+     */
+    List<CodecPriority> getCodecPriorities() {
+        return codecPriorities;
+    }
+
+    /**
+     * @return the call recording configuration, which must not be modified
+     */
+    CallRecordingConfig getCallRecordingConfig() {
+        return callRecordingConfig;
+    }
+
+    CallProbeConfig getCallProbeConfig() {
+        return callProbeConfig;
+    }
+
+    boolean isDND() {
+        return dnd;
+    }
+
+    boolean isAudioPrewarmEnabled() {
+        return audioPrewarm;
+    }
+
+    int getSndAutoCloseTime() {
+        return sndAutoCloseTime;
+    }
+
+    CallHandoverMode getCallHandoverMode() {
+        return callHandoverMode;
+    }
+
+    boolean isObfuscationEnabled() {
+        return obfuscationEnabled;
+    }
+
+    boolean isVerifySipServerCert() {
+        return verifySipServerCert;
+    }
+
+    SettingsSnapshot withAccounts(List<SipAccountData> accounts) {
+        return new SettingsSnapshot(copyAccounts(accounts), codecPriorities, callRecordingConfig, callProbeConfig,
+                dnd, audioPrewarm, sndAutoCloseTime, callHandoverMode, obfuscationEnabled, verifySipServerCert);
+    }
+
+    SettingsSnapshot withCodecPriorities(List<CodecPriority> codecPriorities) {
+        return new SettingsSnapshot(accounts, codecPriorities, callRecordingConfig, callProbeConfig,
+                dnd, audioPrewarm, sndAutoCloseTime, callHandoverMode, obfuscationEnabled, verifySipServerCert);
+    }
+
+    SettingsSnapshot withCallRecordingConfig(CallRecordingConfig callRecordingConfig) {
+        return new SettingsSnapshot(accounts, codecPriorities, copy(callRecordingConfig), callProbeConfig,
+                dnd, audioPrewarm, sndAutoCloseTime, callHandoverMode, obfuscationEnabled, verifySipServerCert);
+    }
+
+    SettingsSnapshot withCallProbeConfig(CallProbeConfig callProbeConfig) {
+        return new SettingsSnapshot(accounts, codecPriorities, callRecordingConfig, callProbeConfig,
+                dnd, audioPrewarm, sndAutoCloseTime, callHandoverMode, obfuscationEnabled, verifySipServerCert);
+    }
+
+    SettingsSnapshot withDND(boolean dnd) {
+        return new SettingsSnapshot(accounts, codecPriorities, callRecordingConfig, callProbeConfig,
+                dnd, audioPrewarm, sndAutoCloseTime, callHandoverMode, obfuscationEnabled, verifySipServerCert);
+    }
+
+    SettingsSnapshot withAudioPrewarm(boolean audioPrewarm, int sndAutoCloseTime) {
+        return new SettingsSnapshot(accounts, codecPriorities, callRecordingConfig, callProbeConfig,
+                dnd, audioPrewarm, sndAutoCloseTime, callHandoverMode, obfuscationEnabled, verifySipServerCert);
+    }
+
+    SettingsSnapshot withCallHandoverMode(CallHandoverMode callHandoverMode) {
+        return new SettingsSnapshot(accounts, codecPriorities, callRecordingConfig, callProbeConfig,
+                dnd, audioPrewarm, sndAutoCloseTime, callHandoverMode, obfuscationEnabled, verifySipServerCert);
+    }
+
+    SettingsSnapshot withObfuscationEnabled(boolean obfuscationEnabled) {
+        return new SettingsSnapshot(accounts, codecPriorities, callRecordingConfig, callProbeConfig,
+                dnd, audioPrewarm, sndAutoCloseTime, callHandoverMode, obfuscationEnabled, verifySipServerCert);
+    }
+
+    SettingsSnapshot withVerifySipServerCert(boolean verifySipServerCert) {
+        return new SettingsSnapshot(accounts, codecPriorities, callRecordingConfig, callProbeConfig,
+                dnd, audioPrewarm, sndAutoCloseTime, callHandoverMode, obfuscationEnabled, verifySipServerCert);
+    }
+
+    /**
+     * @return deep copies of the accounts, null if the list is null
+     */
+    static List<SipAccountData> copyAccounts(List<SipAccountData> accounts) {
+        if (accounts == null) return null;
+        List<SipAccountData> copies = new ArrayList<>(accounts.size());
+        for (SipAccountData account : accounts) {
+            copies.add(account == null ? null : account.getDeepCopy());
+        }
+        return copies;
+    }
+
+    static CallRecordingConfig copy(CallRecordingConfig config) {
+        return config == null ? null : config.getDeepCopy();
+    }
+}
@@ -14,6 +14,8 @@ import com.voismart.crypto.EncryptionHelper;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.FutureTask;
+import java.util.function.Function;
 
 /**
  * connect
@@ -31,63 +33,218 @@ public class SharedPreferencesHelper {
 
     private final String PREFS_KEY_ACCOUNTS = "accounts";
     private final String PREFS_KEY_CODEC_PRIORITIES = "codec_priorities";
+    private final String PREFS_KEY_CALL_RECORDING = "call_recording";
+    private final String PREFS_KEY_CALL_PROBE = "call_probe";
     private final String PREFS_KEY_DND = "dnd_pref";
+    private final String PREFS_KEY_AUDIO_PREWARM = "audio_prewarm";
+    private final String PREFS_KEY_SND_AUTO_CLOSE_TIME = "snd_auto_close_time";
+    private final String PREFS_KEY_CALL_HANDOVER_MODE = "call_handover_mode";
     private final String PREFS_KEY_ENCRYPTION_ENABLED = "encryption_enabled";
     private final String PREFS_KEY_KEYSTORE_ALIAS = "keystore_alias";
     private final String PREFS_KEY_OBFUSCATION_ENABLED = "obfuscation_enabled";
     private final String PREFS_KEY_VERIFY_SIP_SERVER_CERT = "sip_server_cert_verification_enabled";
+    private final String PREFS_KEY_SCHEMA_VERSION = "schema_version";
+
+    /**
+     * Version of the preferences layout, increase it when adding a migration step.
+     */
+    static final int SCHEMA_VERSION = 2;
+
+    /**
+     * Window in which the writes of accounts and codec priorities are coalesced.
+     */
+    private static final long WRITE_COALESCING_WINDOW_MS = 500;
 
     private final SharedPreferences sharedPreferences;
-    private final SharedPreferences encryptedSharedPreferences;
+    private final FutureTask<SharedPreferences> encryptedSharedPreferences;
+    private volatile long encryptedInitNanos = 0;
     private final Gson gson;
     private EncryptionHelper encryptionHelper = null;
+    private volatile SettingsSnapshot snapshot;
+    private final PersistenceWriter writer = new PersistenceWriter(WRITE_COALESCING_WINDOW_MS);
 
-    private static SharedPreferencesHelper INSTANCE = null;
+    // held here since SharedPreferences keeps listeners with weak references
+    private final SharedPreferences.OnSharedPreferenceChangeListener prefsListener = this::onPreferenceChanged;
+
+    private static volatile SharedPreferencesHelper INSTANCE = null;
     private static final String TAG = "SharedPreferenceHelper";
 
+    /**
+     * The keystore and the encrypted preferences are initialised on a background thread,
+     * only the accounts wait for them. Plain settings are available as soon as the
+     * instance is created.
+     */
     private SharedPreferencesHelper(Context context) {
         gson = new Gson();
+        Context appContext = context.getApplicationContext();
+        encryptedSharedPreferences = new FutureTask<>(() -> {
+            long start = System.nanoTime();
+            SharedPreferences prefs = initializeEncryptedSharedPreferences(appContext);
+            encryptedInitNanos = System.nanoTime() - start;
+            return prefs;
+        });
+        new Thread(encryptedSharedPreferences, "SipKeystoreInit").start();
+
         sharedPreferences = context.getSharedPreferences(PREFS_FILE_NAME, Context.MODE_PRIVATE);
-        encryptedSharedPreferences = initializeEncryptedSharedPreferences(context);
-        migrateFrom(sharedPreferences, context);
+        int version = sharedPreferences.getInt(PREFS_KEY_SCHEMA_VERSION, 0);
+        if (version < SCHEMA_VERSION) {
+            migrate(version, context);
+        }
+        snapshot = loadSnapshot();
+        sharedPreferences.registerOnSharedPreferenceChangeListener(prefsListener);
+    }
+
+    /**
+     * Reads the current settings without locking, for the hot paths which have no
+     * reference to the helper.
+     */
+    static SettingsSnapshot currentSnapshot(Context context) {
+        SharedPreferencesHelper instance = INSTANCE;
+        if (instance == null) {
+            instance = getInstance(context);
+        }
+        return instance.snapshot;
     }
 
+    /**
+     * @return the current settings, read from memory
+     */
+    SettingsSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Blocks until the encrypted preferences are loaded, the first time.
+     */
     List<SipAccountData> retrieveConfiguredAccounts() {
-        String accounts = encryptedSharedPreferences.getString(PREFS_KEY_ACCOUNTS, "");
-        return getAccounts(accounts);
+        List<SipAccountData> accounts = snapshot.getAccounts();
+        if (accounts == null) {
+            accounts = loadAccounts();
+        }
+        return new ArrayList<>(SettingsSnapshot.copyAccounts(accounts));
     }
 
-    void persistConfiguredAccounts(List<SipAccountData> configuredAccounts) {
-        encryptedSharedPreferences
-                .edit()
-                .putString(PREFS_KEY_ACCOUNTS, gson.toJson(configuredAccounts))
-                .apply();
+    /**
+     * @return time spent creating the keystore key and the encrypted preferences,
+     * 0 if they are not ready yet
+     */
+    long getEncryptedInitNanos() {
+        return encryptedInitNanos;
+    }
+
+    /**
+     * Updates the accounts in memory and schedules their write on the background writer.
+     */
+    synchronized void persistConfiguredAccounts(List<SipAccountData> configuredAccounts) {
+        update(snapshot.withAccounts(configuredAccounts));
+        writer.markDirty(PREFS_KEY_ACCOUNTS, () -> {
+            SharedPreferences prefs = getEncryptedPreferences();
+            if (!canOverwrite(prefs, PREFS_KEY_ACCOUNTS, SettingsCodec::decodeAccounts)) return;
+            prefs.edit()
+                    .putString(PREFS_KEY_ACCOUNTS,
+                            SettingsCodec.toBase64(SettingsCodec.encodeAccounts(snapshot.getAccounts())))
+                    .commit();
+        });
     }
 
     ArrayList<CodecPriority> retrieveConfiguredCodecPriorities() {
-        String codecPriorities = sharedPreferences.getString(PREFS_KEY_CODEC_PRIORITIES, "");
-        if (codecPriorities.isEmpty()) return null;
+        List<CodecPriority> codecPriorities = snapshot.getCodecPriorities();
+        return codecPriorities == null ? null : new ArrayList<>(codecPriorities);
+    }
 
-        Type listType = new TypeToken<ArrayList<CodecPriority>>(){}.getType();
-        return gson.fromJson(codecPriorities, listType);
+    /**
+     * Updates the codec priorities in memory and schedules their write on the background writer.
+     */
+    synchronized void persistConfiguredCodecPriorities(ArrayList<CodecPriority> codecPriorities) {
+        update(snapshot.withCodecPriorities(codecPriorities));
+        writer.markDirty(PREFS_KEY_CODEC_PRIORITIES, () -> {
+            if (!canOverwrite(sharedPreferences, PREFS_KEY_CODEC_PRIORITIES,
+                    SettingsCodec::decodeCodecPriorities)) return;
+            sharedPreferences.edit().putString(
+                    PREFS_KEY_CODEC_PRIORITIES,
+                    SettingsCodec.toBase64(SettingsCodec.encodeCodecPriorities(snapshot.getCodecPriorities())))
+                    .commit();
+        });
+    }
+
+    /**
+     * Writes the pending accounts and codec priorities, waiting for them to be persisted.
+     */
+    void flush() {
+        writer.flush();
+    }
+
+    /**
+     * Starts writing the pending accounts and codec priorities, without waiting for the
+     * coalescing window, when the process may be killed.
+     */
+    void flushAsync() {
+        writer.flushAsync();
+    }
+
+    CallRecordingConfig retrieveCallRecordingConfig() {
+        return SettingsSnapshot.copy(snapshot.getCallRecordingConfig());
+    }
+
+    synchronized void persistCallRecordingConfig(CallRecordingConfig config) {
+        update(snapshot.withCallRecordingConfig(config));
+        sharedPreferences.edit().putString(PREFS_KEY_CALL_RECORDING, gson.toJson(config)).apply();
+        countWrite(PREFS_KEY_CALL_RECORDING);
+    }
+
+    CallProbeConfig retrieveCallProbeConfig() {
+        return snapshot.getCallProbeConfig();
     }
 
-    void persistConfiguredCodecPriorities(ArrayList<CodecPriority> codecPriorities) {
-        sharedPreferences.edit().putString(PREFS_KEY_CODEC_PRIORITIES, gson.toJson(codecPriorities)).apply();
+    synchronized void persistCallProbeConfig(CallProbeConfig config) {
+        update(snapshot.withCallProbeConfig(config));
+        sharedPreferences.edit().putString(PREFS_KEY_CALL_PROBE, gson.toJson(config)).apply();
+        countWrite(PREFS_KEY_CALL_PROBE);
     }
 
     boolean isDND() {
-        return sharedPreferences.getBoolean(PREFS_KEY_DND, false);
+        return snapshot.isDND();
     }
 
-    void setDND(boolean dnd) {
+    synchronized void setDND(boolean dnd) {
+        update(snapshot.withDND(dnd));
         sharedPreferences.edit().putBoolean(PREFS_KEY_DND, dnd).apply();
+        countWrite(PREFS_KEY_DND);
+    }
+
+    boolean isAudioPrewarmEnabled() {
+        return snapshot.isAudioPrewarmEnabled();
+    }
+
+    int getSndAutoCloseTime() {
+        return snapshot.getSndAutoCloseTime();
+    }
+
+    synchronized void setAudioPrewarm(boolean prewarm, int sndAutoCloseTime) {
+        update(snapshot.withAudioPrewarm(prewarm, sndAutoCloseTime));
+        sharedPreferences.edit()
+                .putBoolean(PREFS_KEY_AUDIO_PREWARM, prewarm)
+                .putInt(PREFS_KEY_SND_AUTO_CLOSE_TIME, sndAutoCloseTime)
+                .apply();
+        countWrite(PREFS_KEY_AUDIO_PREWARM);
+    }
+
+    CallHandoverMode getCallHandoverMode() {
+        return snapshot.getCallHandoverMode();
+    }
+
+    synchronized void setCallHandoverMode(CallHandoverMode mode) {
+        update(snapshot.withCallHandoverMode(mode));
+        sharedPreferences.edit().putString(PREFS_KEY_CALL_HANDOVER_MODE, mode.name()).apply();
+        countWrite(PREFS_KEY_CALL_HANDOVER_MODE);
     }
 
     void setEncryption(Context context, boolean enableEncryption, String alias) {}
 
-    void setObfuscation(boolean obfuscate) {
+    synchronized void setObfuscation(boolean obfuscate) {
+        update(snapshot.withObfuscationEnabled(obfuscate));
         sharedPreferences.edit().putBoolean(PREFS_KEY_OBFUSCATION_ENABLED, obfuscate).apply();
+        countWrite(PREFS_KEY_OBFUSCATION_ENABLED);
     }
 
     /**
@@ -95,15 +252,39 @@ public class SharedPreferencesHelper {
      * @return what is set in {@link #setObfuscation(boolean)} or true in release builds and false in debug ones
      */
     boolean isObfuscationEnabled() {
-        return sharedPreferences.getBoolean(PREFS_KEY_OBFUSCATION_ENABLED, !BuildConfig.DEBUG);
+        return snapshot.isObfuscationEnabled();
     }
 
-    void setVerifySipServerCert(boolean verify) {
+    synchronized void setVerifySipServerCert(boolean verify) {
+        update(snapshot.withVerifySipServerCert(verify));
         sharedPreferences.edit().putBoolean(PREFS_KEY_VERIFY_SIP_SERVER_CERT, verify).apply();
+        countWrite(PREFS_KEY_VERIFY_SIP_SERVER_CERT);
     }
 
     boolean isVerifySipServerCert() {
-        return sharedPreferences.getBoolean(PREFS_KEY_VERIFY_SIP_SERVER_CERT, false);
+        return snapshot.isVerifySipServerCert();
+    }
+
+    /**
+     * A stored blob which can't be decoded, e.g. written by a newer version of the library,
+     * is kept untouched instead of being replaced by the defaults loaded in its place.
+     * @return true if the stored value is missing or can be decoded
+     */
+    private boolean canOverwrite(SharedPreferences prefs, String key, Function<byte[], ?> decoder) {
+        String blob = prefs.getString(key, "");
+        if (blob.isEmpty()) return true;
+        try {
+            decoder.apply(SettingsCodec.fromBase64(blob));
+            return true;
+        } catch (IllegalArgumentException exc) {
+            Logger.error(TAG, "Not overwriting " + key + ", the stored value can't be decoded");
+            return false;
+        }
+    }
+
+    private void countWrite(String key) {
+        MetricsRegistry.getInstance().counter("sip_prefs_writes_total",
+                "Preference writes by key", "key", key).inc();
     }
 
     /**
@@ -160,6 +341,128 @@ public class SharedPreferencesHelper {
         }
     }
 
+    /**
+     * Must be called holding the lock, or from the constructor.
+     */
+    private void update(SettingsSnapshot next) {
+        snapshot = next;
+    }
+
+    /**
+     * Keeps the snapshot in sync with the plain preferences written bypassing this helper.
+     * Writes made by the helper have already updated the snapshot and are ignored.
+     */
+    private synchronized void onPreferenceChanged(SharedPreferences prefs, String key) {
+        if (key == null) return;
+
+        SettingsSnapshot current = snapshot;
+        SettingsSnapshot next = current;
+        switch (key) {
+            case PREFS_KEY_DND:
+                boolean dnd = prefs.getBoolean(key, false);
+                if (dnd != current.isDND()) next = current.withDND(dnd);
+                break;
+            case PREFS_KEY_OBFUSCATION_ENABLED:
+                boolean obfuscation = prefs.getBoolean(key, !BuildConfig.DEBUG);
+                if (obfuscation != current.isObfuscationEnabled()) next = current.withObfuscationEnabled(obfuscation);
+                break;
+            case PREFS_KEY_VERIFY_SIP_SERVER_CERT:
+                boolean verify = prefs.getBoolean(key, false);
+                if (verify != current.isVerifySipServerCert()) next = current.withVerifySipServerCert(verify);
+                break;
+            default:
+                break;
+        }
+        if (next != current) {
+            Logger.debug(TAG, "Settings changed outside the helper: " + key);
+            update(next);
+        }
+    }
+
+    /**
+     * Reads every setting once, the only place where the stored JSON is parsed.
+     */
+    private SettingsSnapshot loadSnapshot() {
+        ArrayList<CodecPriority> codecPriorities = null;
+        String codecPrioritiesBlob = sharedPreferences.getString(PREFS_KEY_CODEC_PRIORITIES, "");
+        if (!codecPrioritiesBlob.isEmpty()) {
+            try {
+                codecPriorities = SettingsCodec.decodeCodecPriorities(SettingsCodec.fromBase64(codecPrioritiesBlob));
+            } catch (IllegalArgumentException exc) {
+                Logger.error(TAG, "Error while decoding codec priorities", exc);
+            }
+        }
+
+        String callRecording = sharedPreferences.getString(PREFS_KEY_CALL_RECORDING, "");
+        String callProbe = sharedPreferences.getString(PREFS_KEY_CALL_PROBE, "");
+
+        CallHandoverMode handoverMode = CallHandoverMode.BREAK_BEFORE_MAKE;
+        String mode = sharedPreferences.getString(PREFS_KEY_CALL_HANDOVER_MODE, "");
+        try {
+            if (!mode.isEmpty()) handoverMode = CallHandoverMode.valueOf(mode);
+        } catch (IllegalArgumentException exc) {
+            Logger.error(TAG, "Unknown call handover mode " + mode);
+        }
+
+        return new SettingsSnapshot(
+                null,
+                codecPriorities,
+                callRecording.isEmpty()
+                        ? new CallRecordingConfig() : gson.fromJson(callRecording, CallRecordingConfig.class),
+                callProbe.isEmpty()
+                        ? new CallProbeConfig() : gson.fromJson(callProbe, CallProbeConfig.class),
+                sharedPreferences.getBoolean(PREFS_KEY_DND, false),
+                sharedPreferences.getBoolean(PREFS_KEY_AUDIO_PREWARM, false),
+                sharedPreferences.getInt(PREFS_KEY_SND_AUTO_CLOSE_TIME,
+                        SipServiceConstants.DEFAULT_SND_AUTO_CLOSE_TIME),
+                handoverMode,
+                sharedPreferences.getBoolean(PREFS_KEY_OBFUSCATION_ENABLED, !BuildConfig.DEBUG),
+                sharedPreferences.getBoolean(PREFS_KEY_VERIFY_SIP_SERVER_CERT, false));
+    }
+
+    /**
+     * Loads the accounts into the snapshot, unless they have been set in the meantime.
+     * The wait for the encrypted preferences is done without holding the lock, so that
+     * plain settings can be written meanwhile.
+     */
+    private List<SipAccountData> loadAccounts() {
+        SharedPreferences encryptedPrefs = getEncryptedPreferences();
+
+        List<SipAccountData> accounts = new ArrayList<>();
+        String accountsBlob = encryptedPrefs.getString(PREFS_KEY_ACCOUNTS, "");
+        if (!accountsBlob.isEmpty()) {
+            try {
+                accounts = SettingsCodec.decodeAccounts(SettingsCodec.fromBase64(accountsBlob));
+            } catch (IllegalArgumentException exc) {
+                Logger.error(TAG, "Error while decoding accounts", exc);
+            }
+        }
+
+        synchronized (this) {
+            if (snapshot.getAccounts() != null) return snapshot.getAccounts();
+            update(snapshot.withAccounts(accounts));
+        }
+        return accounts;
+    }
+
+    /**
+     * @return the encrypted preferences, waiting for their initialisation if needed
+     */
+    private SharedPreferences getEncryptedPreferences() {
+        boolean done = encryptedSharedPreferences.isDone();
+        long start = System.nanoTime();
+        try {
+            SharedPreferences prefs = encryptedSharedPreferences.get();
+            if (!done) {
+                Logger.debug(TAG, "Waited " + (System.nanoTime() - start) / 1000000
+                        + "ms for the encrypted preferences");
+            }
+            return prefs;
+        } catch (Exception exc) {
+            throw new IllegalStateException("Encrypted preferences initialisation failed", exc);
+        }
+    }
+
     private String decrypt(String data) {
         try {
             return encryptionHelper.decrypt(data);
@@ -169,36 +472,84 @@ public class SharedPreferencesHelper {
         }
     }
 
-    private void migrateFrom(SharedPreferences prefs, Context context) {
+    /**
+     * Runs the migration steps newer than the stored schema version, then stores the
+     * current one, so that they run once per install.
+     * @param fromVersion stored schema version, 0 if it has never been stored
+     */
+    private void migrate(int fromVersion, Context context) {
+        Logger.info(TAG, "Migrating preferences from version " + fromVersion + " to " + SCHEMA_VERSION);
+        SharedPreferences.Editor editor = sharedPreferences.edit();
+        SharedPreferences.Editor encryptedEditor = getEncryptedPreferences().edit();
+        List<SipAccountData> accounts = null;
+
+        if (fromVersion < 1) {
+            accounts = migrateToEncryptedAccounts(editor, encryptedEditor, context);
+        }
+        if (fromVersion < 2) {
+            migrateToBinaryEncoding(editor, encryptedEditor, accounts);
+        }
+
+        // the migrated values are stored before the legacy ones are removed and the version
+        // bumped, so that the migration runs again if the process dies in between
+        if (!encryptedEditor.commit()) {
+            Logger.error(TAG, "Error while storing the migrated encrypted preferences");
+            return;
+        }
+        if (!editor.putInt(PREFS_KEY_SCHEMA_VERSION, SCHEMA_VERSION).commit()) {
+            Logger.error(TAG, "Error while storing the migrated preferences");
+        }
+    }
+
+    /**
+     * Version 1: accounts are moved to the encrypted preferences, decrypting them if the
+     * legacy encryption was enabled.
+     * @return the migrated accounts
+     */
+    private List<SipAccountData> migrateToEncryptedAccounts(SharedPreferences.Editor editor,
+                                                            SharedPreferences.Editor encryptedEditor,
+                                                            Context context) {
         List<SipAccountData> accounts =
-                getAccounts(prefs.getString(PREFS_KEY_ACCOUNTS, ""));
+                getAccounts(sharedPreferences.getString(PREFS_KEY_ACCOUNTS, ""));
         if (!accounts.isEmpty()) {
             if (isEncryptionEnabled()) {
                 initCrypto(context, getAlias());
-                encryptedSharedPreferences
-                        .edit()
-                        .putString(PREFS_KEY_ACCOUNTS, gson.toJson(getDecryptedConfiguredAccounts(accounts)))
-                        .apply();
-            } else {
-                encryptedSharedPreferences
-                        .edit()
-                        .putString(PREFS_KEY_ACCOUNTS, gson.toJson(accounts))
-                        .apply();
+                accounts = getDecryptedConfiguredAccounts(accounts);
             }
+            encryptedEditor.putString(PREFS_KEY_ACCOUNTS, gson.toJson(accounts));
+        }
+        editor.remove(PREFS_KEY_ACCOUNTS)
+                .remove(PREFS_KEY_ENCRYPTION_ENABLED)
+                .remove(PREFS_KEY_KEYSTORE_ALIAS);
+        return accounts;
+    }
+
+    /**
+     * Version 2: accounts and codec priorities are stored with {@link SettingsCodec}
+     * instead of JSON.
+     * @param accounts accounts migrated by the previous step, not stored yet, or null
+     */
+    private void migrateToBinaryEncoding(SharedPreferences.Editor editor,
+                                         SharedPreferences.Editor encryptedEditor,
+                                         List<SipAccountData> accounts) {
+        if (accounts == null) {
+            accounts = getAccounts(getEncryptedPreferences().getString(PREFS_KEY_ACCOUNTS, ""));
+        }
+        if (!accounts.isEmpty()) {
+            encryptedEditor.putString(PREFS_KEY_ACCOUNTS,
+                    SettingsCodec.toBase64(SettingsCodec.encodeAccounts(accounts)));
+        }
+
+        String codecPriorities = sharedPreferences.getString(PREFS_KEY_CODEC_PRIORITIES, "");
+        if (!codecPriorities.isEmpty()) {
+            Type listType = new TypeToken<ArrayList<CodecPriority>>(){}.getType();
+            ArrayList<CodecPriority> list = gson.fromJson(codecPriorities, listType);
+            editor.putString(PREFS_KEY_CODEC_PRIORITIES,
+                    SettingsCodec.toBase64(SettingsCodec.encodeCodecPriorities(list)));
         }
-        encryptedSharedPreferences
-                .edit()
-                .putBoolean(
-                        PREFS_KEY_VERIFY_SIP_SERVER_CERT,
-                        prefs.getBoolean(PREFS_KEY_VERIFY_SIP_SERVER_CERT, false)
-                ).apply();
-        prefs.edit().remove(PREFS_KEY_ACCOUNTS).apply();
-        prefs.edit().remove(PREFS_KEY_ENCRYPTION_ENABLED).apply();
-        prefs.edit().remove(PREFS_KEY_KEYSTORE_ALIAS).apply();
-        prefs.edit().remove(PREFS_KEY_VERIFY_SIP_SERVER_CERT).apply();
     }
 
-    public static SharedPreferencesHelper getInstance(Context context) {
+    public static synchronized SharedPreferencesHelper getInstance(Context context) {
         if (INSTANCE == null) {
             INSTANCE = new SharedPreferencesHelper(context);
         }
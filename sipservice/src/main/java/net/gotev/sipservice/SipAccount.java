@@ -1,14 +1,15 @@
 package net.gotev.sipservice;
 
 import org.pjsip.pjsua2.Account;
+import org.pjsip.pjsua2.AccountConfig;
 import org.pjsip.pjsua2.CallInfo;
 import org.pjsip.pjsua2.CallOpParam;
 import org.pjsip.pjsua2.OnIncomingCallParam;
 import org.pjsip.pjsua2.OnRegStateParam;
 import org.pjsip.pjsua2.pjsip_status_code;
 
-import java.util.HashMap;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static net.gotev.sipservice.ObfuscationHelper.getValue;
 
@@ -20,7 +21,8 @@ public class SipAccount extends Account {
 
     private static final String LOG_TAG = SipAccount.class.getSimpleName();
 
-    private final HashMap<Integer, SipCall> activeCalls = new HashMap<>();
+    // read by the metrics thread too
+    private final ConcurrentHashMap<Integer, SipCall> activeCalls = new ConcurrentHashMap<>();
     private final SipAccountData data;
     private final SipService service;
     private boolean isGuest = false;
@@ -29,6 +31,13 @@ public class SipAccount extends Account {
         super();
         this.service = service;
         this.data = data;
+        NativeObjectTracker.getInstance().register(NativeObjectTracker.Kind.ACCOUNT, this, this::delete);
+    }
+
+    @Override
+    public synchronized void delete() {
+        NativeObjectTracker.getInstance().unregister(this);
+        super.delete();
     }
 
     public SipService getService() {
@@ -40,7 +49,9 @@ public class SipAccount extends Account {
     }
 
     public void create() throws Exception {
+        long start = System.nanoTime();
         create(data.getAccountConfig());
+        MetricsRegistry.getInstance().jniCall("account_create").observeSince(start);
     }
 
     public void createGuest() throws Exception {
@@ -48,12 +59,25 @@ public class SipAccount extends Account {
         create(data.getGuestAccountConfig());
     }
 
+    /**
+     * Binds the account to a transport. The account re-registers through it.
+     * @param transportId transport ID
+     * @throws Exception if the account can't be modified
+     */
+    void bindTransport(int transportId) throws Exception {
+        AccountConfig accountConfig = isGuest ? data.getGuestAccountConfig() : data.getAccountConfig();
+        accountConfig.getSipConfig().setTransportId(transportId);
+        modify(accountConfig);
+    }
+
     protected void removeCall(int callId) {
         SipCall call = activeCalls.get(callId);
 
         if (call != null) {
-            Logger.debug(LOG_TAG, "Removing call with ID: " + callId);
+            Logger.debug(LOG_TAG, "Removing call with ID: {}", callId);
             activeCalls.remove(callId);
+            // the disconnected call is still used after removal in its callback
+            NativeObjectTracker.getInstance().unregister(call);
         }
 
         if (isGuest) {
@@ -70,28 +94,54 @@ public class SipAccount extends Account {
         return activeCalls.keySet();
     }
 
+    /**
+     * Can be called from any thread.
+     * @return number of active calls, excluding the synthetic call probes
+     */
+    public int getActiveCallsCount() {
+        int count = 0;
+        for (SipCall call : activeCalls.values()) {
+            if (!call.isProbe()) count++;
+        }
+        return count;
+    }
+
     public SipCall addIncomingCall(int callId) {
 
         SipCall call = new SipCall(this, callId);
         activeCalls.put(callId, call);
-        Logger.debug(LOG_TAG, "Added incoming call with ID " + callId
+        Logger.debug(LOG_TAG, () -> "Added incoming call with ID " + callId
                 + " to " + getValue(service.getApplicationContext(), data.getIdUri())
         );
         return call;
     }
 
     public SipCall addOutgoingCall(final String numberToDial, boolean isVideo, boolean isVideoConference, boolean isTransfer) {
+        return addOutgoingCall(numberToDial, isVideo, isVideoConference, isTransfer, null);
+    }
+
+    /**
+     * Places a silent audio call which is measured by the given probe scheduler.
+     */
+    SipCall addProbeCall(final String numberToDial, CallProbeScheduler probeScheduler) {
+        return addOutgoingCall(numberToDial, false, false, false, probeScheduler);
+    }
+
+    private SipCall addOutgoingCall(final String numberToDial, boolean isVideo, boolean isVideoConference,
+                                    boolean isTransfer, CallProbeScheduler probeScheduler) {
 
         // check if there's already an ongoing call
         int totalCalls = 0;
         for (SipAccount _sipAccount: SipService.getActiveSipAccounts().values()) {
-            totalCalls += _sipAccount.getCallIDs().size();
+            totalCalls += _sipAccount.getActiveCallsCount();
         }
 
-        // allow calls only if there are no other ongoing calls
-        if (totalCalls <= (isTransfer ? 1 : 0)) {
+        // allow calls up to the limit of the endpoint profile, plus the target of a transfer
+        int maxCalls = service.getEndpointProfile().getMaxActiveCalls() + (isTransfer ? 1 : 0);
+        if (totalCalls < maxCalls) {
             SipCall call = new SipCall(this);
             call.setVideoParams(isVideo, isVideoConference);
+            call.setProbe(probeScheduler);
 
             CallOpParam callOpParam = new CallOpParam(true);
             try {
@@ -106,12 +156,14 @@ public class SipAccount extends Account {
                     }
                 }
                 activeCalls.put(call.getId(), call);
-                Logger.debug(LOG_TAG, "New outgoing call with ID: " + call.getId());
+                Logger.debug(LOG_TAG, () -> "New outgoing call with ID: " + call.getId());
 
                 return call;
 
             } catch (Exception exc) {
                 Logger.error(LOG_TAG, "Error while making outgoing call", exc);
+                // the call never started, so nothing refers to it any more
+                call.delete();
                 return null;
             }
         }
@@ -140,9 +192,11 @@ public class SipAccount extends Account {
 
     @Override
     public void onRegState(OnRegStateParam prm) {
-        Logger.info(LOG_TAG, "Sip Reg Info - Code: " + prm.getCode() +
+        Logger.info(LOG_TAG, () -> "Sip Reg Info - Code: " + prm.getCode() +
                 ", Reason: " + prm.getReason() + ", Exp: " + prm.getExpiration() + ", Status: " + prm.getStatus()
         );
+        MetricsRegistry.getInstance().counter("sip_registrations_total",
+                "Registration results by SIP status code", "code", String.valueOf(prm.getCode())).inc();
         service.getBroadcastEmitter().registrationState(data.getIdUri(), prm.getCode());
     }
 
@@ -157,31 +211,35 @@ public class SipAccount extends Account {
                 CallerInfo contactInfo = new CallerInfo(call.getInfo());
                 service.getBroadcastEmitter().missedCall(contactInfo.getDisplayName(), contactInfo.getRemoteUri());
                 call.declineIncomingCall();
-                Logger.debug(LOG_TAG, "DND - Decline call with ID: " + prm.getCallId());
+                Logger.debug(LOG_TAG, () -> "DND - Decline call with ID: " + prm.getCallId());
             } catch(Exception ex) {
                 Logger.error(LOG_TAG, "Error while getting -missed because declined- call info", ex);
             }
             return;
         }
 
-        // Send 486 Busy Here if there's an already ongoing call
+        // Send 486 Busy Here if the calls allowed by the endpoint profile are ongoing
         int totalCalls = 0;
         for (SipAccount _sipAccount: SipService.getActiveSipAccounts().values()) {
-            totalCalls += _sipAccount.getCallIDs().size();
+            totalCalls += _sipAccount.getActiveCallsCount();
         }
 
-        if (totalCalls > 1) {
+        // the count includes this call
+        if (totalCalls > service.getEndpointProfile().getMaxActiveCalls()) {
             try {
                 CallerInfo contactInfo = new CallerInfo(call.getInfo());
                 service.getBroadcastEmitter().missedCall(contactInfo.getDisplayName(), contactInfo.getRemoteUri());
                 call.sendBusyHereToIncomingCall();
-                Logger.debug(LOG_TAG, "Sending busy to call ID: " + prm.getCallId());
+                Logger.debug(LOG_TAG, () -> "Sending busy to call ID: " + prm.getCallId());
             } catch(Exception ex) {
                 Logger.error(LOG_TAG, "Error while getting missed call info", ex);
             }
             return;
         }
 
+        // the probe state is kept on the service thread, which runs the service creation first
+        service.enqueueJob(service::abortCallProbe);
+
         try {
             // Answer with 180 Ringing
             CallOpParam callOpParam = new CallOpParam();
@@ -189,6 +247,10 @@ public class SipAccount extends Account {
             call.answer(callOpParam);
             Logger.debug(LOG_TAG, "Sending 180 ringing");
 
+            if (service.isAudioPrewarmEnabled()) {
+                call.setAudioPrewarmed(service.prewarmAudioDevice());
+            }
+
             String displayName, remoteUri;
             try {
                 CallerInfo contactInfo = new CallerInfo(call.getInfo());
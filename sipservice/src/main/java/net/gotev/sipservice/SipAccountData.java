@@ -11,6 +11,7 @@ import org.pjsip.pjsua2.StringVector;
 import org.pjsip.pjsua2.pj_constants_;
 import org.pjsip.pjsua2.pj_qos_type;
 import org.pjsip.pjsua2.pjmedia_srtp_use;
+import org.pjsip.pjsua2.pjsua_call_flag;
 
 import java.util.Objects;
 
@@ -313,6 +314,7 @@ public class SipAccountData implements Parcelable {
 
 // account call config
         accountConfig.getCallConfig().setTimerSessExpiresSec(sessionTimerExpireSec);
+        setIpChangeConfig(accountConfig);
 
         return accountConfig;
     }
@@ -328,6 +330,7 @@ public class SipAccountData implements Parcelable {
         accountConfig.getRegConfig().setRegisterOnAdd(false);
         accountConfig.getCallConfig().setTimerSessExpiresSec(sessionTimerExpireSec);
         setVideoConfig(accountConfig);
+        setIpChangeConfig(accountConfig);
         return accountConfig;
     }
 
@@ -337,6 +340,16 @@ public class SipAccountData implements Parcelable {
         accountConfig.getVideoConfig().setDefaultCaptureDevice(SipServiceConstants.FRONT_CAMERA_CAPTURE_DEVICE);
         accountConfig.getVideoConfig().setDefaultRenderDevice(SipServiceConstants.DEFAULT_RENDER_DEVICE);
     }
+
+    private void setIpChangeConfig(AccountConfig accountConfig) {
+        // keep the calls on IP change: the connections bound to the old address are shut down,
+        // and calls are re-INVITEd with a new contact and re-initialised media, restarting ICE
+        accountConfig.getIpChangeConfig().setShutdownTp(true);
+        accountConfig.getIpChangeConfig().setHangupCalls(false);
+        accountConfig.getIpChangeConfig().setReinviteFlags(pjsua_call_flag.PJSUA_CALL_UPDATE_CONTACT
+                | pjsua_call_flag.PJSUA_CALL_UPDATE_VIA
+                | pjsua_call_flag.PJSUA_CALL_REINIT_MEDIA);
+    }
     /*          Utilities end           */
 
     /*****          Object overrides        ******/
@@ -17,14 +17,18 @@ import org.pjsip.pjsua2.CallMediaInfoVector;
 import org.pjsip.pjsua2.CallOpParam;
 import org.pjsip.pjsua2.CallSetting;
 import org.pjsip.pjsua2.CallVidSetStreamParam;
-import org.pjsip.pjsua2.Endpoint;
 import org.pjsip.pjsua2.Media;
 import org.pjsip.pjsua2.MediaFmtChangedEvent;
 import org.pjsip.pjsua2.OnCallMediaEventParam;
 import org.pjsip.pjsua2.OnCallMediaStateParam;
 import org.pjsip.pjsua2.OnCallStateParam;
+import org.pjsip.pjsua2.OnCallTsxStateParam;
+import org.pjsip.pjsua2.OnDtmfDigitParam;
+import org.pjsip.pjsua2.OnStreamCreatedParam;
 import org.pjsip.pjsua2.OnStreamDestroyedParam;
+import org.pjsip.pjsua2.RtcpFbEvent;
 import org.pjsip.pjsua2.RtcpStreamStat;
+import org.pjsip.pjsua2.SipEvent;
 import org.pjsip.pjsua2.StreamInfo;
 import org.pjsip.pjsua2.StreamStat;
 import org.pjsip.pjsua2.VideoPreview;
@@ -35,6 +39,7 @@ import org.pjsip.pjsua2.pjmedia_dir;
 import org.pjsip.pjsua2.pjmedia_event_type;
 import org.pjsip.pjsua2.pjmedia_rtcp_fb_type;
 import org.pjsip.pjsua2.pjmedia_type;
+import org.pjsip.pjsua2.pjsip_event_id_e;
 import org.pjsip.pjsua2.pjsip_inv_state;
 import org.pjsip.pjsua2.pjsip_role_e;
 import org.pjsip.pjsua2.pjsip_status_code;
@@ -44,6 +49,9 @@ import org.pjsip.pjsua2.pjsua_call_media_status;
 import org.pjsip.pjsua2.pjsua_call_vid_strm_op;
 import org.pjsip.pjsua2.pjsua_vid_req_keyframe_method;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Wrapper around PJSUA2 Call object.
  * @author gotev (Aleksandar Gotev)
@@ -52,6 +60,8 @@ import org.pjsip.pjsua2.pjsua_vid_req_keyframe_method;
 public class SipCall extends Call {
 
     private static final String LOG_TAG = SipCall.class.getSimpleName();
+    private static final long QUALITY_SAMPLE_INTERVAL_MS = 10000;
+    private static final int MAX_QUALITY_SAMPLES = 60;
 
     private final SipAccount account;
     private boolean localHold = false;
@@ -68,6 +78,27 @@ public class SipCall extends Call {
 
     private StreamInfo streamInfo = null;
     private StreamStat streamStat = null;
+    private StreamInfo videoStreamInfo = null;
+    private StreamStat videoStreamStat = null;
+    private final VideoStatsTracker videoStats;
+
+    private CallRecorder callRecorder = null;
+
+    private AudioPromptPlayer promptPlayer = null;
+    private AudioMedia promptSink = null;
+    private boolean promptBargeIn = false;
+
+    private final AudioLatencyTrace latencyTrace;
+    private final CallSetupTimeline setupTimeline;
+    private CallProbeScheduler probeScheduler = null;
+    private volatile int streamGeneration = 0;
+    private volatile long streamDestroyedTimestamp = 0;
+
+    private final long startTimestamp = System.currentTimeMillis();
+    private volatile int reconnects = 0;
+    private final ArrayList<CallQualitySample> qualitySamples = new ArrayList<>();
+    private long qualitySampleInterval = QUALITY_SAMPLE_INTERVAL_MS;
+    private final Runnable qualitySampleJob = this::sampleQuality;
 
     /**
      * Incoming call constructor.
@@ -77,8 +108,12 @@ public class SipCall extends Call {
     public SipCall(SipAccount account, int callID) {
         super(account, callID);
         this.account = account;
+        this.latencyTrace = new AudioLatencyTrace();
+        this.setupTimeline = new CallSetupTimeline(this, account.getService(), latencyTrace);
+        this.videoStats = new VideoStatsTracker(this, account);
         mVideoPreview = null;
         mVideoWindow = null;
+        NativeObjectTracker.getInstance().register(NativeObjectTracker.Kind.CALL, this, this::delete);
     }
 
     /**
@@ -88,6 +123,16 @@ public class SipCall extends Call {
     public SipCall(SipAccount account) {
         super(account);
         this.account = account;
+        this.latencyTrace = new AudioLatencyTrace();
+        this.setupTimeline = new CallSetupTimeline(this, account.getService(), latencyTrace);
+        this.videoStats = new VideoStatsTracker(this, account);
+        NativeObjectTracker.getInstance().register(NativeObjectTracker.Kind.CALL, this, this::delete);
+    }
+
+    @Override
+    public synchronized void delete() {
+        NativeObjectTracker.getInstance().unregister(this);
+        super.delete();
     }
 
     public int getCurrentState() {
@@ -104,15 +149,18 @@ public class SipCall extends Call {
     public void onCallState(OnCallStateParam prm) {
         try {
             CallInfo info = getInfo();
-            Logger.debug(LOG_TAG, "Call State: " + info.getState() +
-                    ", Role: " + info.getRole() +
-                    ", LastReason: " + info.getLastReason() +
-                    ", LastStatusCode: " + info.getLastStatusCode() +
-                    ", RemoteUri: " + info.getRemoteUri() +
-                    ", LocalContact: " + info.getLocalContact() +
-                    ", RemoteContact: " + info.getRemoteContact() +
-                    ", CallId: " + info.getCallIdString() +
-                    ", LocalUri: " + info.getLocalUri());
+            // each getter is a JNI call, so they are skipped when debug logging is disabled
+            if (Logger.isLoggable(Logger.LogLevel.DEBUG)) {
+                Logger.debug(LOG_TAG, "Call State: " + info.getState() +
+                        ", Role: " + info.getRole() +
+                        ", LastReason: " + info.getLastReason() +
+                        ", LastStatusCode: " + info.getLastStatusCode() +
+                        ", RemoteUri: " + info.getRemoteUri() +
+                        ", LocalContact: " + info.getLocalContact() +
+                        ", RemoteContact: " + info.getRemoteContact() +
+                        ", CallId: " + info.getCallIdString() +
+                        ", LocalUri: " + info.getLocalUri());
+            }
 
             int callID = info.getId();
             int callState = info.getState();
@@ -120,7 +168,7 @@ public class SipCall extends Call {
 
             try {
                 callStatus = info.getLastStatusCode();
-                account.getService().setLastCallStatus(callStatus);
+                if (!isProbe()) account.getService().setLastCallStatus(callStatus);
             } catch(Exception ex) {
                 Logger.error(LOG_TAG, "Error while getting call status", ex);
             }
@@ -128,38 +176,80 @@ public class SipCall extends Call {
             if (callState == pjsip_inv_state.PJSIP_INV_STATE_DISCONNECTED) {
                 checkAndStopLocalRingBackTone();
                 stopVideoFeeds();
+                stopRecording();
+                stopAudioPrompt();
+                latencyTrace.cancel();
+                long[] setupTimeline = this.setupTimeline.finish();
+                if (!isProbe()) {
+                    account.getService().getBroadcastEmitter().callSetupTimeline(callID, setupTimeline);
+                }
+                account.getService().getMediaGraph().removeCall(callID);
                 account.removeCall(callID);
-                if (connectTimestamp > 0 && streamInfo != null && streamStat != null) {
+                if (probeScheduler != null) {
+                    probeScheduler.onProbeDisconnected(this, connectTimestamp > 0, callStatus,
+                            this.setupTimeline.getPostDialDelay(), streamStat);
+                }
+                account.getService().dequeueJob(qualitySampleJob);
+                videoStats.stop();
+                VideoStreamStats finalVideoStats = getFinalVideoStats();
+                CallStreamStats streamStats = null;
+                if (streamStat != null) {
                     try {
-                        sendCallStats(callID, info.getConnectDuration().getSec(), callStatus);
+                        streamStats = CallStreamStats.from(streamInfo, streamStat);
+                    } catch (Exception ex) {
+                        Logger.error(LOG_TAG, "Error while reading stream stats", ex);
+                    }
+                }
+                if (!isProbe()) {
+                    countCall(info, callStatus);
+                    storeCallHistory(info, callStatus, streamStats, finalVideoStats);
+                    if (connectTimestamp > 0 && streamStats != null) {
+                        account.getService().getCallQualityAggregator().record(
+                                NetworkMonitor.getNetworkType(account.getService()),
+                                account.getData().getIdUri(), streamStats);
+                    }
+                }
+                if (!isProbe() && connectTimestamp > 0 && streamInfo != null && streamStat != null) {
+                    try {
+                        sendCallStats(callID, info.getConnectDuration().getSec(), callStatus,
+                                streamStats, finalVideoStats);
                     } catch (Exception ex) {
                         Logger.error(LOG_TAG, "Error while sending call stats", ex);
                         throw ex;
                     }
                 }
             } else if (callState == pjsip_inv_state.PJSIP_INV_STATE_CONFIRMED) {
+                latencyTrace.onConfirmed();
+                setupTimeline.mark(CallSetupMilestone.ACK);
                 handleMedia(info);
                 checkAndStopLocalRingBackTone();
                 connectTimestamp = System.currentTimeMillis();
+                account.getService().enqueueDelayedJob(qualitySampleJob, qualitySampleInterval);
                 if (videoCall) {
                     setVideoMute(false);
                 }
             } else if (callState == pjsip_inv_state.PJSIP_INV_STATE_EARLY) {
                 int statusCode = info.getLastStatusCode();
-                if (statusCode == pjsip_status_code.PJSIP_SC_RINGING && info.getRole() == pjsip_role_e.PJSIP_ROLE_UAC) {
+                if (statusCode == pjsip_status_code.PJSIP_SC_RINGING && info.getRole() == pjsip_role_e.PJSIP_ROLE_UAC
+                        && !isProbe()) {
                     checkAndStopLocalRingBackTone();
                     toneGenerator = new ToneGenerator(AudioManager.STREAM_VOICE_CALL, 80); // Use STREAM_VOICE_CALL, reduce volume to 80
+                    NativeObjectTracker.getInstance().register(NativeObjectTracker.Kind.TONE_GENERATOR,
+                            toneGenerator, toneGenerator::release);
                     toneGenerator.startTone(ToneGenerator.TONE_SUP_RINGTONE);
                 } else if (statusCode == pjsip_status_code.PJSIP_SC_PROGRESS) {
                     checkAndStopLocalRingBackTone();
                 }
             }
 
-            account.getService().getBroadcastEmitter()
-                    .callState(account.getData().getIdUri(), callID, callState, callStatus, connectTimestamp);
+            // probes are measured by their scheduler, the app doesn't know about them
+            if (!isProbe()) {
+                account.getService().getBroadcastEmitter()
+                        .callState(account.getData().getIdUri(), callID, callState, callStatus, connectTimestamp);
+            }
 
             if (callState == pjsip_inv_state.PJSIP_INV_STATE_DISCONNECTED) {
-                account.getService().setLastCallStatus(0);
+                if (!isProbe()) account.getService().setLastCallStatus(0);
                 delete();
             }
         } catch (Exception exc) {
@@ -185,7 +275,7 @@ public class SipCall extends Call {
                     && media != null
                     && mediaInfo.getStatus() == pjsua_call_media_status.PJSUA_CALL_MEDIA_ACTIVE) {
 
-                handleAudioMedia(media);
+                handleAudioMedia(media, i);
 
             } else if (mediaInfo.getType() == pjmedia_type.PJMEDIA_TYPE_VIDEO
                     && mediaInfo.getStatus() == pjsua_call_media_status.PJSUA_CALL_MEDIA_ACTIVE
@@ -208,6 +298,7 @@ public class SipCall extends Call {
                             mediaInfo.getDir() == pjmedia_dir.PJMEDIA_DIR_DECODING) {
                         MediaFmtChangedEvent fmtEvent = prm.getEv().getData().getFmtChanged();
                         Logger.info(LOG_TAG, "Notify new video size");
+                        videoStats.onRxSize((int) fmtEvent.getNewWidth(), (int) fmtEvent.getNewHeight());
                         account.getService().getBroadcastEmitter().videoSize(
                                 (int) fmtEvent.getNewWidth(),
                                 (int) fmtEvent.getNewHeight()
@@ -219,25 +310,68 @@ public class SipCall extends Call {
                 break;
             case pjmedia_event_type.PJMEDIA_EVENT_RX_RTCP_FB:
                 Logger.debug(LOG_TAG, "Keyframe request received");
-                if (prm.getEv().getData() != null &&
-                        prm.getEv().getData().getRtcpFb().getFbType() == pjmedia_rtcp_fb_type.PJMEDIA_RTCP_FB_NACK &&
-                        prm.getEv().getData().getRtcpFb().getIsParamLengthZero()
-                ) {
-                    Logger.info(LOG_TAG, "Sending new keyframe");
-                    sendKeyFrame();
+                if (prm.getEv().getData() != null) {
+                    RtcpFbEvent rtcpFb = prm.getEv().getData().getRtcpFb();
+                    if (rtcpFb.getFbType() == pjmedia_rtcp_fb_type.PJMEDIA_RTCP_FB_NACK) {
+                        // a NACK without parameters is a picture loss indication
+                        if (rtcpFb.getIsParamLengthZero()) {
+                            videoStats.onPli();
+                            Logger.info(LOG_TAG, "Sending new keyframe");
+                            sendKeyFrame();
+                        } else {
+                            videoStats.onNack();
+                        }
+                    }
                 }
+                break;
+            case pjmedia_event_type.PJMEDIA_EVENT_KEYFRAME_MISSING:
+                videoStats.onKeyframeMissing();
+                break;
         }
         super.onCallMediaEvent(prm);
     }
 
+    @Override
+    public void onCallTsxState(OnCallTsxStateParam prm) {
+        try {
+            SipEvent event = prm.getE();
+            if (event.getType() == pjsip_event_id_e.PJSIP_EVENT_TSX_STATE) {
+                setupTimeline.onTransaction(event.getBody().getTsxState().getTsx());
+            }
+        } catch (Exception exc) {
+            Logger.error(LOG_TAG, "onCallTsxState: error while getting transaction", exc);
+        }
+        super.onCallTsxState(prm);
+    }
+
+    @Override
+    public void onDtmfDigit(OnDtmfDigitParam prm) {
+        if (promptBargeIn) {
+            Logger.debug(LOG_TAG, () -> "Audio prompt barge-in for call " + getId());
+            finishAudioPrompt(promptPlayer, AudioPromptState.BARGED_IN, prm.getDigit());
+        }
+        super.onDtmfDigit(prm);
+    }
+
+    @Override
+    public void onStreamCreated(OnStreamCreatedParam prm) {
+        streamGeneration++;
+        super.onStreamCreated(prm);
+    }
+
     @Override
     public void onStreamDestroyed(OnStreamDestroyedParam prm) {
+        streamDestroyedTimestamp = System.nanoTime();
         long idx = prm.getStreamIdx();
         try {
             CallInfo callInfo = getInfo();
-            if (getInfo().getMedia().get((int)idx).getType() == pjmedia_type.PJMEDIA_TYPE_AUDIO) {
+            int mediaType = callInfo.getMedia().get((int)idx).getType();
+            if (mediaType == pjmedia_type.PJMEDIA_TYPE_AUDIO) {
                 streamInfo = getStreamInfo(idx);
                 streamStat = getStreamStat(idx);
+            } else if (mediaType == pjmedia_type.PJMEDIA_TYPE_VIDEO) {
+                videoStreamInfo = getStreamInfo(idx);
+                videoStreamStat = getStreamStat(idx);
             }
         } catch (Exception ex) {
             Logger.error(LOG_TAG, "onStreamDestroyed: error while getting call stats", ex);
@@ -262,12 +396,41 @@ public class SipCall extends Call {
             callSetting.setFlag(pjsua_call_flag.PJSUA_CALL_INCLUDE_DISABLED_MEDIA);
         }
         try {
+            latencyTrace.onOk();
+            long start = System.nanoTime();
             answer(param);
+            MetricsRegistry.getInstance().jniCall("answer").observeSince(start);
         } catch (Exception exc) {
             Logger.error(LOG_TAG, "Failed to accept incoming call", exc);
         }
     }
 
+    /**
+     * Marks when the command which originated this call has been received by the service.
+     * @param timestamp {@link System#nanoTime()} at reception
+     */
+    void setCommandTimestamp(long timestamp) {
+        setupTimeline.mark(CallSetupMilestone.COMMAND, timestamp);
+    }
+
+    /**
+     * Marks this call as a synthetic probe, which is not counted as an active call.
+     */
+    void setProbe(CallProbeScheduler probeScheduler) {
+        this.probeScheduler = probeScheduler;
+    }
+
+    public boolean isProbe() {
+        return probeScheduler != null;
+    }
+
+    /**
+     * Marks the sound device as already opened when the call was ringing.
+     */
+    void setAudioPrewarmed(boolean prewarmed) {
+        latencyTrace.setPrewarmed(prewarmed);
+    }
+
     public void sendBusyHereToIncomingCall() {
         CallOpParam param = new CallOpParam();
         param.setStatusCode(pjsip_status_code.PJSIP_SC_BUSY_HERE);
@@ -295,7 +458,9 @@ public class SipCall extends Call {
         param.setStatusCode(pjsip_status_code.PJSIP_SC_DECLINE);
 
         try {
+            long start = System.nanoTime();
             hangup(param);
+            MetricsRegistry.getInstance().jniCall("hangup").observeSince(start);
         } catch (Exception exc) {
             Logger.error(LOG_TAG, "Failed to hangUp call", exc);
         }
@@ -309,36 +474,12 @@ public class SipCall extends Call {
         // return immediately if we are not changing the current state
         if (localMute == mute) return;
 
-        CallInfo info;
-        try {
-            info = getInfo();
-        } catch (Exception exc) {
-            Logger.error(LOG_TAG, "setMute: error while getting call info", exc);
-            return;
-        }
-
-        for (int i = 0; i < info.getMedia().size(); i++) {
-            Media media = getMedia(i);
-            CallMediaInfo mediaInfo = info.getMedia().get(i);
-
-            if (mediaInfo.getType() == pjmedia_type.PJMEDIA_TYPE_AUDIO
-                    && media != null
-                    && mediaInfo.getStatus() == pjsua_call_media_status.PJSUA_CALL_MEDIA_ACTIVE) {
-                AudioMedia audioMedia = AudioMedia.typecastFromMedia(media);
-
-                // connect or disconnect the captured audio
-                try {
-                    AudDevManager mgr = account.getService().getAudDevManager();
-                    if (mute) mgr.getCaptureDevMedia().stopTransmit(audioMedia);
-                    else mgr.getCaptureDevMedia().startTransmit(audioMedia);
-                    localMute = mute;
-                    account.getService().getBroadcastEmitter().callMediaState(
-                            account.getData().getIdUri(), getId(), MediaState.LOCAL_MUTE, localMute);
-                } catch (Exception exc) {
-                    Logger.error(LOG_TAG, "setMute: error while connecting audio media to sound device", exc);
-                }
-            }
-        }
+        // only the capture device is disconnected, audio prompts still reach the remote party.
+        // If the audio is not connected yet, mute is applied when it gets connected
+        account.getService().getMediaGraph().setMute(getId(), mute);
+        localMute = mute;
+        account.getService().getBroadcastEmitter().callMediaState(
+                account.getData().getIdUri(), getId(), MediaState.LOCAL_MUTE, localMute);
     }
 
     public boolean isLocalMute() {
@@ -382,11 +523,11 @@ public class SipCall extends Call {
 
         try {
             if (hold) {
-                Logger.debug(LOG_TAG, "holding call with ID " + getId());
+                Logger.debug(LOG_TAG, () -> "holding call with ID " + getId());
                 setHold(param);
             } else {
                 // http://lists.pjsip.org/pipermail/pjsip_lists.pjsip.org/2015-March/018246.html
-                Logger.debug(LOG_TAG, "un-holding call with ID " + getId());
+                Logger.debug(LOG_TAG, () -> "un-holding call with ID " + getId());
                 setMediaParams(param);
                 CallSetting opt = param.getOpt();
                 opt.setFlag(pjsua_call_flag.PJSUA_CALL_UNHOLD);
@@ -412,6 +553,7 @@ public class SipCall extends Call {
     // check if Local RingBack Tone has started, if so, stop it.
     private void checkAndStopLocalRingBackTone() {
         if (toneGenerator != null) {
+            NativeObjectTracker.getInstance().unregister(toneGenerator);
             toneGenerator.stopTone();
             toneGenerator.release();
             toneGenerator = null;
@@ -421,49 +563,59 @@ public class SipCall extends Call {
     // disable video programmatically
     @Override
     public void makeCall(String dst_uri, CallOpParam prm) throws java.lang.Exception {
+        setupTimeline.mark(CallSetupMilestone.MAKE_CALL);
         setMediaParams(prm);
         if (!videoCall) {
             CallSetting callSetting = prm.getOpt();
             callSetting.setFlag(pjsua_call_flag.PJSUA_CALL_INCLUDE_DISABLED_MEDIA);
         }
+        long start = System.nanoTime();
         super.makeCall(dst_uri, prm);
+        MetricsRegistry.getInstance().jniCall("make_call").observeSince(start);
     }
 
-    private void handleAudioMedia(Media media) {
-        try {
-            AudioMedia audioMedia = AudioMedia.typecastFromMedia(media);
-            if (audioMedia == null) {
-                Logger.error(LOG_TAG, "Audio media is null");
-                return;
-            }
-
-            // Connect the call audio media to sound device
-            Endpoint ep = Endpoint.instance();
-            AudioMedia playback = ep.audDevManager().getPlaybackDevMedia();
-            AudioMedia capture = ep.audDevManager().getCaptureDevMedia();
-
-            audioMedia.startTransmit(playback);
-            capture.startTransmit(audioMedia);
+    private void handleAudioMedia(Media media, int mediaIndex) {
+        AudioMedia audioMedia = AudioMedia.typecastFromMedia(media);
+        if (audioMedia == null) {
+            Logger.error(LOG_TAG, "Audio media is null");
+            return;
+        }
+        connectAudioMedia(audioMedia, mediaIndex);
+    }
 
-            // Adjust audio levels
-            try {
-                audioMedia.adjustTxLevel(1.0f); // Set transmit gain to normal
-                audioMedia.adjustRxLevel(1.0f); // Set receive gain to normal
-            } catch (Exception exc) {
-                Logger.error(LOG_TAG, "Error while adjusting audio levels", exc);
-            }
+    /**
+     * Connects the call audio to the sound device. It's called on every media state change
+     * and at confirmation, but only the missing connections are made.
+     * Probes are never connected to the sound device nor recorded.
+     */
+    private void connectAudioMedia(AudioMedia audioMedia, int mediaIndex) {
+        if (isProbe()) {
+            setupTimeline.onMediaActive(mediaIndex);
+            return;
+        }
 
-            Log.d(LOG_TAG, "Audio media connected successfully.");
+        try {
+            AudDevManager mgr = account.getService().getAudDevManager();
+            AudioMedia playback = mgr.getPlaybackDevMedia();
+            AudioMedia capture = mgr.getCaptureDevMedia();
+
+            account.getService().getMediaGraph().connectCallAudio(getId(), audioMedia, playback, capture);
+            latencyTrace.onAudioConnected(playback, getId());
+            setupTimeline.onMediaActive(mediaIndex);
+            startRecording(audioMedia, capture);
         } catch (Exception exc) {
             Logger.error(LOG_TAG, "Error while connecting audio media", exc);
         }
     }
 
     private void handleVideoMedia(CallMediaInfo mediaInfo) {
+        NativeObjectTracker nativeObjects = NativeObjectTracker.getInstance();
         if (mVideoWindow != null) {
+            nativeObjects.unregister(mVideoWindow);
             mVideoWindow.delete();
         }
         if (mVideoPreview != null) {
+            nativeObjects.unregister(mVideoPreview);
             mVideoPreview.delete();
         }
         if (!videoConference) {
@@ -471,8 +623,11 @@ public class SipCall extends Call {
             // thus mediaInfo.getVideoCapDev() always returns -3 -> NULL
             // mVideoPreview = new VideoPreview(mediaInfo.getVideoCapDev());
             mVideoPreview = new VideoPreview(SipServiceConstants.FRONT_CAMERA_CAPTURE_DEVICE);
+            nativeObjects.register(NativeObjectTracker.Kind.VIDEO_PREVIEW, mVideoPreview, mVideoPreview::delete);
         }
         mVideoWindow = new VideoWindow(mediaInfo.getVideoIncomingWindowId());
+        nativeObjects.register(NativeObjectTracker.Kind.VIDEO_WINDOW, mVideoWindow, mVideoWindow::delete);
+        videoStats.start();
     }
 
     public VideoWindow getVideoWindow() {
@@ -532,6 +687,7 @@ public class SipCall extends Call {
         VideoWindow videoWindow = getVideoWindow();
         if (videoWindow != null) {
             try {
+                NativeObjectTracker.getInstance().unregister(videoWindow);
                 videoWindow.delete();
             } catch (Exception ex) {
                 Logger.error(LOG_TAG, "Unable to stop remote video feed", ex);
@@ -599,50 +755,307 @@ public class SipCall extends Call {
     private void sendKeyFrame() {
         try {
             vidSetStream(pjsua_call_vid_strm_op.PJSUA_CALL_VID_STRM_SEND_KEYFRAME, new CallVidSetStreamParam());
+            videoStats.onKeyframeSent();
         } catch (Exception ex) {
             Logger.error(LOG_TAG, "Error sending keyframe", ex);
         }
     }
 
-    private void sendCallStats(int callID, int duration, int callStatus) {
+    private void sendCallStats(int callID, int duration, int callStatus, CallStreamStats streamStats,
+                               VideoStreamStats videoStreamStats) {
         String audioCodec = streamInfo.getCodecName().toLowerCase()+"_"+streamInfo.getCodecClockRate();
 
-        RtcpStreamStat rxStat = streamStat.getRtcp().getRxStat();
-        RtcpStreamStat txStat = streamStat.getRtcp().getTxStat();
-
-        Jitter rxJitter = new Jitter(
-                rxStat.getJitterUsec().getMax(),
-                rxStat.getJitterUsec().getMean(),
-                rxStat.getJitterUsec().getMin());
-
-        Jitter txJitter = new Jitter(
-                txStat.getJitterUsec().getMax(),
-                txStat.getJitterUsec().getMean(),
-                txStat.getJitterUsec().getMin());
-
-        RtpStreamStats rx = new RtpStreamStats(
-                (int)rxStat.getPkt(),
-                (int)rxStat.getDiscard(),
-                (int)rxStat.getLoss(),
-                (int)rxStat.getReorder(),
-                (int)rxStat.getDup(),
-                rxJitter
-        );
-
-        RtpStreamStats tx = new RtpStreamStats(
-                (int)txStat.getPkt(),
-                (int)txStat.getDiscard(),
-                (int)txStat.getLoss(),
-                (int)txStat.getReorder(),
-                (int)txStat.getDup(),
-                txJitter
-        );
+        RtpStreamStats rx = toRtpStreamStats(streamStat.getRtcp().getRxStat());
+        RtpStreamStats tx = toRtpStreamStats(streamStat.getRtcp().getTxStat());
 
-        account.getService().getBroadcastEmitter().callStats(callID, duration, audioCodec, callStatus, rx, tx);
+        account.getService().getBroadcastEmitter().callStats(callID, duration, audioCodec, callStatus,
+                rx, tx, streamStats, videoStreamStats);
         streamInfo = null;
         streamStat = null;
     }
 
+    private static RtpStreamStats toRtpStreamStats(RtcpStreamStat stat) {
+        Jitter jitter = new Jitter(
+                stat.getJitterUsec().getMax(),
+                stat.getJitterUsec().getMean(),
+                stat.getJitterUsec().getMin());
+
+        return new RtpStreamStats(
+                (int)stat.getPkt(),
+                (int)stat.getDiscard(),
+                (int)stat.getLoss(),
+                (int)stat.getReorder(),
+                (int)stat.getDup(),
+                jitter
+        );
+    }
+
+    /**
+     * Called on the service thread while the call is connected, samples the receive quality.
+     * When the samples reach the maximum, every other one is dropped and the interval doubled,
+     * so that long calls keep an even coverage in bounded memory.
+     */
+    private void sampleQuality() {
+        if (account.getCall(getId()) != this) return;
+
+        int mediaIndex = getAudioMediaIndex();
+        if (mediaIndex >= 0) {
+            try {
+                StreamStat stat = getStreamStat(mediaIndex);
+                RtcpStreamStat rxStat = stat.getRtcp().getRxStat();
+                CallQualitySample sample = new CallQualitySample(System.currentTimeMillis(),
+                        rxStat.getPkt(), rxStat.getLoss(), rxStat.getJitterUsec().getMean(),
+                        stat.getRtcp().getRttUsec().getMean());
+
+                synchronized (qualitySamples) {
+                    qualitySamples.add(sample);
+                    if (qualitySamples.size() >= MAX_QUALITY_SAMPLES) {
+                        for (int i = qualitySamples.size() - 1; i >= 0; i -= 2) {
+                            qualitySamples.remove(i);
+                        }
+                        qualitySampleInterval *= 2;
+                    }
+                }
+            } catch (Exception exc) {
+                Logger.error(LOG_TAG, "Error while sampling call quality", exc);
+            }
+        }
+
+        account.getService().enqueueDelayedJob(qualitySampleJob, qualitySampleInterval);
+    }
+
+    /**
+     * Called after a successful reconnection following a network change.
+     */
+    void onReconnected() {
+        reconnects++;
+    }
+
+    private void countCall(CallInfo info, int callStatus) {
+        boolean incoming = info.getRole() == pjsip_role_e.PJSIP_ROLE_UAS;
+        String outcome;
+        if (connectTimestamp > 0) {
+            outcome = "answered";
+        } else if (incoming) {
+            outcome = "missed";
+        } else if (callStatus == pjsip_status_code.PJSIP_SC_REQUEST_TERMINATED) {
+            outcome = "cancelled";
+        } else if (callStatus == pjsip_status_code.PJSIP_SC_BUSY_HERE
+                || callStatus == pjsip_status_code.PJSIP_SC_DECLINE) {
+            outcome = "rejected";
+        } else {
+            outcome = "failed";
+        }
+        MetricsRegistry.getInstance().counter("sip_calls_total", "Calls by direction and outcome",
+                "direction", incoming ? "incoming" : "outgoing", "outcome", outcome).inc();
+    }
+
+    /**
+     * @return statistics of the video stream captured when it was destroyed, with the bitrates
+     * averaged over the connected time, or null if the call had no video
+     */
+    private VideoStreamStats getFinalVideoStats() {
+        if (videoStreamInfo == null || videoStreamStat == null) return null;
+
+        try {
+            long connected = connectTimestamp > 0 ? System.currentTimeMillis() - connectTimestamp : 0;
+            return videoStats.buildFinal(videoStreamInfo, videoStreamStat, connected);
+        } catch (Exception exc) {
+            Logger.error(LOG_TAG, "Error while reading video stream stats", exc);
+            return null;
+        } finally {
+            videoStreamInfo = null;
+            videoStreamStat = null;
+        }
+    }
+
+    private void storeCallHistory(CallInfo info, int callStatus, CallStreamStats streamStats,
+                                  VideoStreamStats videoStreamStats) {
+        CallHistoryStore store = account.getService().getCallHistoryStore();
+        if (store == null) return;
+
+        try {
+            boolean incoming = info.getRole() == pjsip_role_e.PJSIP_ROLE_UAS;
+            CallerInfo callerInfo = new CallerInfo(info);
+            CallHistoryRecord record = new CallHistoryRecord()
+                    .setCallId(info.getId())
+                    .setAccountID(account.getData().getIdUri())
+                    .setIncoming(incoming)
+                    .setMissed(incoming && connectTimestamp == 0)
+                    .setRemoteUri(callerInfo.getRemoteUri())
+                    .setDisplayName(callerInfo.getDisplayName())
+                    .setStartTimestamp(startTimestamp)
+                    .setConnectTimestamp(connectTimestamp)
+                    .setEndTimestamp(System.currentTimeMillis())
+                    .setDuration(connectTimestamp > 0 ? info.getConnectDuration().getSec() : 0)
+                    .setStatusCode(callStatus)
+                    .setReconnects(reconnects)
+                    .setStreamStats(streamStats)
+                    .setVideoStats(videoStreamStats);
+
+            if (streamInfo != null && streamStat != null) {
+                record.setCodec(streamInfo.getCodecName().toLowerCase() + "_" + streamInfo.getCodecClockRate())
+                        .setStreamStats(toRtpStreamStats(streamStat.getRtcp().getRxStat()),
+                                toRtpStreamStats(streamStat.getRtcp().getTxStat()));
+            }
+
+            synchronized (qualitySamples) {
+                record.setQualitySamples(new ArrayList<>(qualitySamples));
+            }
+
+            store.add(record);
+        } catch (Exception exc) {
+            Logger.error(LOG_TAG, "Error while storing call history", exc);
+        }
+    }
+
+    public boolean isRecording() {
+        return callRecorder != null && callRecorder.isRecording();
+    }
+
+    private void startRecording(AudioMedia audioMedia, AudioMedia capture) {
+        CallRecordingConfig config = account.getService().getCallRecordingConfig();
+        if (callRecorder == null) {
+            if (!config.isEnabled()) return;
+
+            try {
+                CallInfo info = getInfo();
+                String sipCallId = info.getCallIdString();
+                CallRecordingInfo recordingInfo = new CallRecordingInfo(info.getId(), sipCallId,
+                        account.getData().getIdUri(), info.getRemoteUri(), config.getFormat());
+                String filePrefix = "call_" + System.currentTimeMillis() + "_"
+                        + sipCallId.replaceAll("[^A-Za-z0-9._-]", "_");
+                callRecorder = new CallRecorder(account.getService(), config,
+                        account.getService().getCallRecordingDirectory(), filePrefix, recordingInfo);
+            } catch (Exception exc) {
+                Logger.error(LOG_TAG, "Error while setting up call recording", exc);
+                return;
+            }
+        }
+
+        try {
+            callRecorder.start(audioMedia, capture);
+        } catch (Exception exc) {
+            Logger.error(LOG_TAG, "Error while starting call recording", exc);
+        }
+    }
+
+    private void stopRecording() {
+        if (callRecorder == null) return;
+
+        CallRecordingInfo info = callRecorder.stop();
+        if (info != null) {
+            account.getService().getCallRecordingIndex().finalise(callRecorder.getDirectory(), info);
+        }
+        callRecorder = null;
+    }
+
+    /**
+     * Plays one or more WAV files to the remote party, replacing the prompt being played.
+     * @param files absolute paths of the files, more than one are played as a playlist
+     * @param bargeIn whether a DTMF digit from the remote party stops the playback
+     * @throws Exception if the call has no active audio or the files can't be opened
+     */
+    public void playAudioPrompt(List<String> files, boolean bargeIn) throws Exception {
+        AudioMedia audioMedia = getActiveAudioMedia();
+        if (audioMedia == null) {
+            throw new IllegalStateException("Call " + getId() + " has no active audio media");
+        }
+
+        stopAudioPrompt();
+
+        AudioPromptPlayer player = account.getService().getAudioPromptCache().acquire(files);
+        player.setListener(eofPlayer -> account.getService().enqueueJob(
+                () -> finishAudioPrompt(eofPlayer, AudioPromptState.COMPLETED, null)));
+        synchronized (this) {
+            promptPlayer = player;
+            promptSink = audioMedia;
+            promptBargeIn = bargeIn;
+        }
+        try {
+            account.getService().getMediaGraph().connect(getId(), player, audioMedia);
+        } catch (Exception exc) {
+            finishAudioPrompt(player, AudioPromptState.FAILED, null);
+            throw exc;
+        }
+    }
+
+    public void stopAudioPrompt() {
+        finishAudioPrompt(promptPlayer, AudioPromptState.STOPPED, null);
+    }
+
+    public boolean isPlayingAudioPrompt() {
+        return promptPlayer != null;
+    }
+
+    private void finishAudioPrompt(AudioPromptPlayer player, AudioPromptState state, String dtmf) {
+        AudioMedia sink;
+        synchronized (this) {
+            // the prompt may have already been replaced or stopped
+            if (player == null || player != promptPlayer) return;
+            sink = promptSink;
+            promptPlayer = null;
+            promptSink = null;
+            promptBargeIn = false;
+        }
+
+        account.getService().getMediaGraph().disconnect(getId(), player, sink);
+        account.getService().getAudioPromptCache().release(player);
+        account.getService().getBroadcastEmitter().audioPromptState(
+                account.getData().getIdUri(), getId(), state, dtmf);
+    }
+
+    private AudioMedia getActiveAudioMedia() {
+        int mediaIndex = getAudioMediaIndex();
+        return mediaIndex < 0 ? null : AudioMedia.typecastFromMedia(getMedia(mediaIndex));
+    }
+
+    /**
+     * @return index of the active audio media, or -1 if there's none
+     */
+    int getAudioMediaIndex() {
+        try {
+            CallInfo info = getInfo();
+            for (int i = 0; i < info.getMedia().size(); i++) {
+                CallMediaInfo mediaInfo = info.getMedia().get(i);
+                if (mediaInfo.getType() == pjmedia_type.PJMEDIA_TYPE_AUDIO
+                        && mediaInfo.getStatus() == pjsua_call_media_status.PJSUA_CALL_MEDIA_ACTIVE) {
+                    return i;
+                }
+            }
+        } catch (Exception exc) {
+            Logger.error(LOG_TAG, "Error while getting active audio media", exc);
+        }
+        return -1;
+    }
+
+    /**
+     * Re-INVITEs the call over the transport the account is bound to, with new
+     * contact and re-initialised media.
+     */
+    void reinviteForHandover() throws Exception {
+        CallOpParam param = new CallOpParam(true);
+        setMediaParams(param);
+        param.getOpt().setFlag(pjsua_call_flag.PJSUA_CALL_UPDATE_CONTACT
+                | pjsua_call_flag.PJSUA_CALL_UPDATE_VIA
+                | pjsua_call_flag.PJSUA_CALL_REINIT_MEDIA);
+        reinvite(param);
+    }
+
+    /**
+     * @return number of media streams created so far, changes when the media is re-initialised
+     */
+    int getStreamGeneration() {
+        return streamGeneration;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} of the last stream destruction
+     */
+    long getStreamDestroyedTimestamp() {
+        return streamDestroyedTimestamp;
+    }
+
     private void handleMedia(CallInfo callInfo) {
         try {
             CallMediaInfoVector media = callInfo.getMedia();
@@ -650,24 +1063,7 @@ public class SipCall extends Call {
                 CallMediaInfo mediaInfo = media.get(i);
                 if (mediaInfo.getType() == pjmedia_type.PJMEDIA_TYPE_AUDIO &&
                         mediaInfo.getStatus() == pjsua_call_media_status.PJSUA_CALL_MEDIA_ACTIVE) {
-
-                    AudioMedia audioMedia = AudioMedia.typecastFromMedia(getMedia(i));
-                    Endpoint ep = Endpoint.instance();
-                    AudioMedia playback = ep.audDevManager().getPlaybackDevMedia();
-                    AudioMedia capture = ep.audDevManager().getCaptureDevMedia();
-
-                    audioMedia.startTransmit(playback);
-                    capture.startTransmit(audioMedia);
-
-                    // Adjust audio levels
-                    try {
-                        audioMedia.adjustTxLevel(1.0f); // Set transmit gain to normal
-                        audioMedia.adjustRxLevel(1.0f); // Set receive gain to normal
-                    } catch (Exception exc) {
-                        Logger.error(LOG_TAG, "Error while adjusting audio levels", exc);
-                    }
-
-                    Log.d("SipCall", "Audio connected between app and network.");
+                    connectAudioMedia(AudioMedia.typecastFromMedia(getMedia(i)), i);
                 }
             }
         } catch (Exception e) {
@@ -24,7 +24,7 @@ public class SipEndpoint extends Endpoint {
     public void onTransportState(OnTransportStateParam prm) {
         super.onTransportState(prm);
 
-        if (service.getSharedPreferencesHelper().isVerifySipServerCert() &&
+        if (service.getSettings().isVerifySipServerCert() &&
                 prm.getType().equalsIgnoreCase("TLS")
         ) {
             long verifyMsg = prm.getTlsInfo().getVerifyStatus();
@@ -48,12 +48,12 @@ public class SipEndpoint extends Endpoint {
         super.onIpChangeProgress(prm);
         if (prm.getStatus() != pj_constants_.PJ_SUCCESS) {
             hangupAllCalls();
-            service.getBroadcastEmitter().callReconnectionState(CallReconnectionState.FAILED);
+            service.onCallReconnectionFinished(false);
             return;
         }
 
         if (prm.getOp() == pjsua_ip_change_op.PJSUA_IP_CHANGE_OP_COMPLETED) {
-            service.getBroadcastEmitter().callReconnectionState(CallReconnectionState.SUCCESS);
+            service.onCallReconnectionFinished(true);
         }
     }
 
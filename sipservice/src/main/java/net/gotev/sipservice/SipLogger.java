@@ -9,25 +9,40 @@ import org.pjsip.pjsua2.pj_log_decoration;
  * <p>
  * Created by Vincenzo Esposito on 15/10/21.
  * Copyright © 2021 VoiSmart S.r.l. All rights reserved.
+ * <p>
+ * Entries are called on the pjsip worker and media threads, so they are only enqueued
+ * in {@link NativeLogDrainer}, which writes them on its own thread.
  */
 public class SipLogger extends LogWriter {
+
+    private final NativeLogDrainer drainer = NativeLogDrainer.getInstance();
+    private final boolean logging;
+
+    public SipLogger() {
+        this(true);
+    }
+
+    /**
+     * @param logging false to only offer the entries to the active {@link SipMessageCapture}
+     */
+    SipLogger(boolean logging) {
+        this.logging = logging;
+        if (logging) drainer.start();
+    }
+
     public void write(LogEntry entry) {
-        switch(entry.getLevel()) {
-            case 0:
-            case 1:
-                Logger.error("PJSIP "+entry.getThreadName(), entry.getMsg());
-                break;
-            case 2:
-                Logger.warning("PJSIP "+entry.getThreadName(), entry.getMsg());
-                break;
-            case 3:
-                Logger.info("PJSIP "+entry.getThreadName(), entry.getMsg());
-                break;
-            case 4:
-            default:
-                Logger.debug("PJSIP "+entry.getThreadName(), entry.getMsg());
-                break;
-        }
+        int level = entry.getLevel();
+        SipMessageCapture capture = level == SipMessageCapture.MESSAGE_LEVEL
+                ? SipMessageCapture.getActive() : null;
+        boolean logged = logging && drainer.accepts(level);
+        if (capture == null && !logged) return;
+
+        // the message is copied from native memory only for the entries passing the level
+        String message = entry.getMsg();
+        if (capture != null) capture.offer(message);
+        if (!logged || !drainer.getSenderFilter().accepts(level, message)) return;
+
+        drainer.enqueue(level, entry.getThreadName(), message);
     }
 
     /**
@@ -0,0 +1,397 @@
+package net.gotev.sipservice;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Captures the SIP messages sent and received by pjsip into rotating pcapng files which
+ * can be opened with Wireshark.
+ * <p>
+ * Messages are taken from the pjsua message logging (level 4 entries of pjsua_core.c,
+ * written by its transport tx/rx hooks for every message), which {@link SipLogger} offers
+ * to the active capture. They are queued in a {@link NativeLogBuffer}, so the pjsip threads
+ * never block, and written by a background thread into a memory-mapped file, with synthetic
+ * IP and UDP headers built from the local transport address and the remote one. Like the
+ * {@link NativeLogDrainer}, the writer parks while the buffer is empty and is unparked only
+ * when it's parked.
+ * <p>
+ * Messages of every transport are framed as UDP datagrams, so that Wireshark dissects
+ * them (TLS messages are logged in clear). The remote port is the one of the log line, the
+ * local one is the port of the local transport of the same type, and messages which were
+ * not sent over UDP have the actual transport recorded in the packet comment.
+ * URIs and credentials are masked as configured in {@link ObfuscationHelper}.
+ */
+final class SipMessageCapture {
+
+    private static final String TAG = SipMessageCapture.class.getSimpleName();
+
+    /**
+     * Level of the pjsua message logging entries.
+     */
+    static final int MESSAGE_LEVEL = 4;
+    static final String FILE_NAME = "sip_capture.pcapng";
+    static final long MAX_FILE_SIZE = 4 * 1024 * 1024;
+    static final int MAX_FILES = 3;
+    static final String PROTOCOL_UDP = "UDP";
+    static final String PROTOCOL_TCP = "TCP";
+    static final String PROTOCOL_TLS = "TLS";
+
+    private static final String SENDER = "pjsua_core.c";
+    private static final String END_OF_MESSAGE = "\n--end msg--";
+    static final Pattern HEADER = Pattern.compile(
+            "^([RT]X) \\d+ bytes .* (?:from|to) (\\S+) (\\S+):(\\d+):\\r?$");
+    private static final int BUFFER_CAPACITY = 1024;
+    private static final int BATCH_SIZE = 64;
+
+    private static final int LINKTYPE_RAW = 101;
+    private static final int IPV4_HEADER_LENGTH = 20;
+    private static final int IPV6_HEADER_LENGTH = 40;
+    private static final int UDP_HEADER_LENGTH = 8;
+    private static final int MAX_PAYLOAD_LENGTH = 65535 - IPV6_HEADER_LENGTH - UDP_HEADER_LENGTH;
+    private static final int DEFAULT_LOCAL_PORT = 5060;
+    private static final short OPTION_COMMENT = 1;
+
+    private static volatile SipMessageCapture active;
+
+    private final Context context;
+    private final File directory;
+    private final NativeLogBuffer buffer =
+            new NativeLogBuffer(BUFFER_CAPACITY, NativeLogBuffer.OverflowPolicy.DROP_NEWEST);
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean waiting = false;
+    private volatile byte[] localAddress = new byte[4];
+    // local transport ports by protocol, as written in the log lines
+    private final ConcurrentHashMap<String, Integer> localPorts = new ConcurrentHashMap<>();
+
+    // accessed only by the writer thread
+    private RandomAccessFile file;
+    private MappedByteBuffer output;
+    private final ByteBuffer packet = ByteBuffer.allocate(65535).order(ByteOrder.BIG_ENDIAN);
+
+    /**
+     * @param context application context, used to read the obfuscation setting
+     * @param directory directory of the capture files
+     */
+    SipMessageCapture(Context context, File directory) {
+        this.context = context;
+        this.directory = directory;
+        this.thread = new Thread(this::run, "SipCaptureWriter");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+
+        MetricsRegistry.getInstance().gauge("sip_capture_dropped_messages",
+                "SIP messages dropped because the capture writer was behind", buffer::getDropped);
+    }
+
+    /**
+     * @return the running capture, or null
+     */
+    static SipMessageCapture getActive() {
+        return active;
+    }
+
+    /**
+     * Starts writing and makes this the active capture.
+     */
+    void start() {
+        thread.start();
+        active = this;
+        Logger.info(TAG, "SIP message capture started in " + directory);
+    }
+
+    /**
+     * Stops capturing, writes the queued messages and closes the file.
+     */
+    void stop() {
+        if (active == this) active = null;
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+        Logger.info(TAG, "SIP message capture stopped, dropped messages: " + buffer.getDropped());
+    }
+
+    /**
+     * @param protocol transport type, one of {@link #PROTOCOL_UDP}, {@link #PROTOCOL_TCP}
+     *                 and {@link #PROTOCOL_TLS}
+     * @param localName local transport address, as ip:port
+     */
+    void setLocalAddress(String protocol, String localName) {
+        int separator = localName == null ? -1 : localName.lastIndexOf(':');
+        if (separator <= 0) return;
+
+        String host = localName.substring(0, separator);
+        if (host.startsWith("[") && host.endsWith("]")) host = host.substring(1, host.length() - 1);
+        byte[] address = parseAddress(host);
+        if (address == null) return;
+        try {
+            localPorts.put(protocol, Integer.parseInt(localName.substring(separator + 1)));
+            localAddress = address;
+        } catch (NumberFormatException exc) {
+            Logger.error(TAG, "Invalid local address " + localName);
+        }
+    }
+
+    /**
+     * Queues a native log entry if it's a logged SIP message, never blocking.
+     * @param message log entry message, decorated with the sender
+     */
+    void offer(String message) {
+        int start = 0;
+        while (start < message.length() && message.charAt(start) == ' ') start++;
+        if (!message.startsWith(SENDER, start)) return;
+
+        // the sender is followed by spaces and by the indentation dots
+        start += SENDER.length();
+        while (start < message.length()
+                && (message.charAt(start) == ' ' || message.charAt(start) == '.')) {
+            start++;
+        }
+        if (!message.startsWith("RX ", start) && !message.startsWith("TX ", start)) return;
+
+        if (buffer.offer(MESSAGE_LEVEL, null, message.substring(start), System.currentTimeMillis())
+                && waiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void run() {
+        NativeLogBuffer.EntryConsumer consumer = this::write;
+        try {
+            openFile();
+            while (running) {
+                if (buffer.drain(consumer, BATCH_SIZE) > 0) continue;
+
+                // the flag is raised before looking at the buffer again: a producer either
+                // sees it and unparks this thread, or its entry is seen here
+                waiting = true;
+                if (buffer.size() == 0 && running) LockSupport.park(this);
+                waiting = false;
+            }
+            while (buffer.drain(consumer, BATCH_SIZE) > 0) {
+                // write what's left
+            }
+        } catch (IOException exc) {
+            Logger.error(TAG, "Error while writing SIP capture", exc);
+        } finally {
+            closeFile();
+        }
+    }
+
+    private void write(NativeLogBuffer.Entry entry) {
+        String message = entry.message;
+        int headerEnd = message.indexOf('\n');
+        if (headerEnd < 0) return;
+
+        Matcher header = HEADER.matcher(message.substring(0, headerEnd));
+        if (!header.matches()) return;
+
+        boolean received = "RX".equals(header.group(1));
+        // IPv6 transports are named e.g. UDP6
+        String protocol = header.group(2);
+        if (protocol.endsWith("6")) protocol = protocol.substring(0, protocol.length() - 1);
+        String host = header.group(3);
+        if (host.startsWith("[") && host.endsWith("]")) host = host.substring(1, host.length() - 1);
+        byte[] remoteAddress = parseAddress(host);
+        if (remoteAddress == null) return;
+        int remotePort = Integer.parseInt(header.group(4));
+
+        // entries longer than the pjsip log buffer are truncated, without the end marker
+        int bodyEnd = message.lastIndexOf(END_OF_MESSAGE);
+        String body = message.substring(headerEnd + 1, bodyEnd > headerEnd ? bodyEnd : message.length());
+        byte[] payload = ObfuscationHelper.getSipMessage(context, body).getBytes(StandardCharsets.UTF_8);
+
+        byte[] local = localAddress;
+        if (local.length != remoteAddress.length) local = new byte[remoteAddress.length];
+        Integer transportPort = localPorts.get(protocol);
+        int localPort = transportPort == null ? DEFAULT_LOCAL_PORT : transportPort;
+        if (received) {
+            buildPacket(remoteAddress, remotePort, local, localPort, payload);
+        } else {
+            buildPacket(local, localPort, remoteAddress, remotePort, payload);
+        }
+
+        try {
+            writePacket(entry.timestamp, PROTOCOL_UDP.equals(protocol) ? null : "SIP over " + protocol);
+            MetricsRegistry.getInstance().counter("sip_capture_messages_total",
+                    "SIP messages written to the capture").inc();
+        } catch (IOException exc) {
+            Logger.error(TAG, "Error while writing SIP capture", exc);
+        }
+    }
+
+    /**
+     * Builds an IPv4 or IPv6 datagram with a UDP header in {@link #packet}.
+     */
+    private void buildPacket(byte[] source, int sourcePort, byte[] destination, int destinationPort,
+                             byte[] payload) {
+        int payloadLength = Math.min(payload.length, MAX_PAYLOAD_LENGTH);
+        int udpLength = UDP_HEADER_LENGTH + payloadLength;
+        packet.clear();
+
+        if (source.length == 4) {
+            packet.put((byte) 0x45).put((byte) 0).putShort((short) (IPV4_HEADER_LENGTH + udpLength))
+                    .putShort((short) 0).putShort((short) 0x4000)
+                    .put((byte) 64).put((byte) 17).putShort((short) 0)
+                    .put(source).put(destination);
+            packet.putShort(10, (short) checksum(packet.array(), 0, IPV4_HEADER_LENGTH, 0));
+        } else {
+            packet.putInt(0x60000000).putShort((short) udpLength).put((byte) 17).put((byte) 64)
+                    .put(source).put(destination);
+        }
+
+        int udpStart = packet.position();
+        packet.putShort((short) sourcePort).putShort((short) destinationPort)
+                .putShort((short) udpLength).putShort((short) 0)
+                .put(payload, 0, payloadLength);
+
+        int pseudoHeader = 17 + udpLength;
+        for (int i = 0; i < source.length; i += 2) {
+            pseudoHeader += ((source[i] & 0xff) << 8) | (source[i + 1] & 0xff);
+            pseudoHeader += ((destination[i] & 0xff) << 8) | (destination[i + 1] & 0xff);
+        }
+        int udpChecksum = checksum(packet.array(), udpStart, udpLength, pseudoHeader);
+        packet.putShort(udpStart + 6, (short) (udpChecksum == 0 ? 0xffff : udpChecksum));
+        packet.flip();
+    }
+
+    /**
+     * Internet checksum, RFC 1071.
+     * @param initial sum of the pseudo header, 0 for none
+     */
+    static int checksum(byte[] data, int offset, int length, int initial) {
+        long sum = initial & 0xffffffffL;
+        for (int i = 0; i < length - 1; i += 2) {
+            sum += ((data[offset + i] & 0xff) << 8) | (data[offset + i + 1] & 0xff);
+        }
+        if ((length & 1) != 0) sum += (data[offset + length - 1] & 0xff) << 8;
+        while ((sum >> 16) != 0) sum = (sum & 0xffff) + (sum >> 16);
+        return (int) (~sum & 0xffff);
+    }
+
+    /**
+     * Writes {@link #packet} as an Enhanced Packet Block, rotating the file if full.
+     * @param comment packet comment option, null for none
+     */
+    private void writePacket(long timestamp, String comment) throws IOException {
+        int length = packet.remaining();
+        int padding = (4 - length % 4) % 4;
+        byte[] commentBytes = comment == null ? null : comment.getBytes(StandardCharsets.UTF_8);
+        int commentPadding = commentBytes == null ? 0 : (4 - commentBytes.length % 4) % 4;
+        // the comment option is followed by the end of options
+        int optionsLength = commentBytes == null ? 0 : 4 + commentBytes.length + commentPadding + 4;
+        int blockLength = 32 + length + padding + optionsLength;
+        if (output == null) return;
+        if (output.remaining() < blockLength) {
+            rotate();
+            if (output == null) return;
+        }
+
+        long micros = TimeUnit.MILLISECONDS.toMicros(timestamp);
+        output.putInt(6).putInt(blockLength).putInt(0)
+                .putInt((int) (micros >>> 32)).putInt((int) micros)
+                .putInt(length).putInt(length)
+                .put(packet);
+        for (int i = 0; i < padding; i++) output.put((byte) 0);
+        if (commentBytes != null) {
+            output.putShort(OPTION_COMMENT).putShort((short) commentBytes.length).put(commentBytes);
+            for (int i = 0; i < commentPadding; i++) output.put((byte) 0);
+            output.putInt(0);
+        }
+        output.putInt(blockLength);
+    }
+
+    private void openFile() throws IOException {
+        //noinspection ResultOfMethodCallIgnored
+        directory.mkdirs();
+        file = new RandomAccessFile(new File(directory, FILE_NAME), "rw");
+        file.setLength(0);
+        output = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, MAX_FILE_SIZE);
+        output.order(ByteOrder.LITTLE_ENDIAN);
+
+        // Section Header Block
+        output.putInt(0x0A0D0D0A).putInt(28).putInt(0x1A2B3C4D)
+                .putShort((short) 1).putShort((short) 0).putLong(-1).putInt(28);
+        // Interface Description Block, raw IP with microseconds timestamps
+        output.putInt(1).putInt(20).putShort((short) LINKTYPE_RAW).putShort((short) 0)
+                .putInt(0).putInt(20);
+    }
+
+    /**
+     * Shifts sip_capture.pcapng to sip_capture.pcapng.1 and so on, deleting the oldest one.
+     */
+    private void rotate() throws IOException {
+        closeFile();
+        for (int i = MAX_FILES - 1; i >= 1; i--) {
+            File from = new File(directory, i == 1 ? FILE_NAME : FILE_NAME + "." + (i - 1));
+            File to = new File(directory, FILE_NAME + "." + i);
+            //noinspection ResultOfMethodCallIgnored
+            to.delete();
+            //noinspection ResultOfMethodCallIgnored
+            from.renameTo(to);
+        }
+        openFile();
+    }
+
+    private void closeFile() {
+        if (file == null) return;
+        try {
+            // the mapping is sized for the whole file, so it's cut to what has been written
+            int written = output.position();
+            output.force();
+            output = null;
+            file.setLength(written);
+            file.close();
+        } catch (IOException exc) {
+            Logger.error(TAG, "Error while closing SIP capture", exc);
+        }
+        file = null;
+    }
+
+    /**
+     * Parses a numeric IPv4 or IPv6 address, without any name resolution.
+     * @return the address bytes, or null if it's not numeric
+     */
+    static byte[] parseAddress(String host) {
+        if (host.indexOf(':') >= 0) {
+            try {
+                // a literal containing ':' is never resolved
+                return InetAddress.getByName(host).getAddress();
+            } catch (IOException exc) {
+                return null;
+            }
+        }
+
+        String[] parts = host.split("\\.");
+        if (parts.length != 4) return null;
+        byte[] address = new byte[4];
+        try {
+            for (int i = 0; i < 4; i++) {
+                int value = Integer.parseInt(parts[i]);
+                if (value < 0 || value > 255) return null;
+                address[i] = (byte) value;
+            }
+        } catch (NumberFormatException exc) {
+            return null;
+        }
+        return address;
+    }
+}
@@ -21,7 +21,6 @@ import org.pjsip.pjsua2.IpChangeParam;
 import org.pjsip.pjsua2.StringVector;
 import org.pjsip.pjsua2.TransportConfig;
 import org.pjsip.pjsua2.VidDevManager;
-import org.pjsip.pjsua2.pj_log_decoration;
 import org.pjsip.pjsua2.pj_qos_type;
 import org.pjsip.pjsua2.pj_turn_tp_type;
 import org.pjsip.pjsua2.pjmedia_orient;
@@ -30,6 +29,7 @@ import org.pjsip.pjsua2.pjsip_transport_type_e;
 import org.pjsip.pjsua2.pjsua_call_vid_strm_op;
 import org.pjsip.pjsua2.pjsua_destroy_flag;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
@@ -56,7 +56,40 @@ public class SipService extends BackgroundService implements SipServiceConstants
     }
 
     private SharedPreferencesHelper mSharedPreferencesHelper;
+    private volatile boolean mAudioPrewarm = false;
+    private CallRecordingIndex mCallRecordingIndex;
+    private CallProbeScheduler mCallProbeScheduler;
+    private CallHistoryStore mCallHistoryStore;
+    private CallQualityAggregator mCallQualityAggregator;
+    private final MetricsServer mMetricsServer = new MetricsServer(MetricsRegistry.getInstance());
+    private NetworkMonitor mNetworkMonitor;
+    private final CallReconnectionStats mReconnectionStats = new CallReconnectionStats();
+    private final Runnable mReconnectionTimeoutJob = this::onCallReconnectionTimeout;
+    // a network change received during a reconnection, handled once it finishes
+    private boolean mNetworkChangePending = false;
+    private final TransportHandover mTransportHandover = new TransportHandover(this);
+    private final MetricsRegistry.Histogram mHandoverAudioGapHistogram = MetricsRegistry.getInstance()
+            .histogram("sip_handover_audio_gap_seconds", "Audio gap of the calls moved by a transport handover",
+                    MetricsRegistry.LATENCY_BUCKETS);
+    private CallHandoverMode mCallHandoverMode = CallHandoverMode.BREAK_BEFORE_MAKE;
+    private int mUdpTransportId = -1;
+    private String mUdpTransportLocalName;
+    private String mTcpTransportLocalName;
+    private String mTlsTransportLocalName;
+    private SipMessageCapture mSipMessageCapture;
+    private final AudioPromptCache mAudioPromptCache = new AudioPromptCache(AUDIO_PROMPT_CACHE_SIZE);
+    private final MediaGraphManager mMediaGraph = new MediaGraphManager();
+    private final MetricsRegistry.Histogram mPostDialDelayHistogram = MetricsRegistry.getInstance()
+            .histogram("sip_post_dial_delay_seconds", "Time from make call to the first ringing indication",
+                    MetricsRegistry.LATENCY_BUCKETS);
+    private final MetricsRegistry.Histogram mAnswerLatencyHistogram = MetricsRegistry.getInstance()
+            .histogram("sip_answer_latency_seconds", "Time from the 200 OK to the first RTP packet",
+                    MetricsRegistry.LATENCY_BUCKETS);
     private volatile boolean mStarted;
+    private static volatile boolean sOpenH264Loaded = false;
+    private boolean mVideoSupportReady = false;
+    private final ProfileCpuMeter mProfileCpuMeter = new ProfileCpuMeter(this, this::countActiveCalls);
+    private volatile EndpointProfile mEndpointProfile = EndpointProfile.BALANCED;
     private int callStatus;
 
     /***   Service Lifecycle Callbacks    ***/
@@ -73,11 +106,28 @@ public class SipService extends BackgroundService implements SipServiceConstants
         enqueueJob(() -> {
             Logger.debug(TAG, "Creating SipService with priority: " + Thread.currentThread().getPriority());
 
-            loadNativeLibraries();
+            // the keystore initialisation started by the preferences runs while native
+            // libraries load, only the accounts wait for it
+            long startTimestamp = System.nanoTime();
             mSharedPreferencesHelper = SharedPreferencesHelper.getInstance(SipService.this);
+            long prefsTimestamp = System.nanoTime();
+            loadNativeLibraries();
+            long nativeTimestamp = System.nanoTime();
             mBroadcastEmitter = new BroadcastEventEmitter(SipService.this);
+            mCallRecordingIndex = new CallRecordingIndex(mBroadcastEmitter);
+            mNetworkMonitor = new NetworkMonitor(SipService.this);
+            mCallHistoryStore = new CallHistoryStore(getFilesDir());
+            mCallQualityAggregator = new CallQualityAggregator(getFilesDir());
+            registerMetrics();
+            mAudioPrewarm = mSharedPreferencesHelper.isAudioPrewarmEnabled();
+            mCallHandoverMode = mSharedPreferencesHelper.getCallHandoverMode();
+            long accountsWaitTimestamp = System.nanoTime();
             loadConfiguredAccounts();
+            long accountsTimestamp = System.nanoTime();
+            traceStartup(startTimestamp, prefsTimestamp, nativeTimestamp, accountsWaitTimestamp, accountsTimestamp);
             addAllConfiguredAccounts();
+            mCallProbeScheduler = new CallProbeScheduler(SipService.this, new CallProbeStore(getFilesDir()));
+            mCallProbeScheduler.setConfig(mSharedPreferencesHelper.retrieveCallProbeConfig());
 
             Logger.debug(TAG, "SipService created!");
         });
@@ -85,6 +135,7 @@ public class SipService extends BackgroundService implements SipServiceConstants
 
     @Override
     public int onStartCommand(final Intent intent, int flags, int startId) {
+        final long commandTimestamp = System.nanoTime();
         enqueueJob(() -> {
             if (intent == null) return;
 
@@ -103,7 +154,7 @@ public class SipService extends BackgroundService implements SipServiceConstants
                     handleRestartSipStack();
                     break;
                 case ACTION_MAKE_CALL:
-                    handleMakeCall(intent);
+                    handleMakeCall(intent, commandTimestamp);
                     break;
                 case ACTION_HANG_UP_CALL:
                     handleHangUpCall(intent);
@@ -178,17 +229,72 @@ public class SipService extends BackgroundService implements SipServiceConstants
                     handleSwitchVideoCaptureDevice(intent);
                     break;
                 case ACTION_MAKE_DIRECT_CALL:
-                    handleMakeDirectCall(intent);
+                    handleMakeDirectCall(intent, commandTimestamp);
                     break;
                 case ACTION_RECONNECT_CALL:
                     handleReconnectCall();
                     break;
                 case ACTION_MAKE_SILENT_CALL:
-                    handleMakeSilentCall(intent);
+                    handleMakeSilentCall(intent, commandTimestamp);
+                    break;
+                case ACTION_SET_CALL_RECORDING:
+                    handleSetCallRecording(intent);
+                    break;
+                case ACTION_PRELOAD_AUDIO_PROMPTS:
+                    handlePreloadAudioPrompts(intent);
+                    break;
+                case ACTION_PLAY_AUDIO_PROMPT:
+                    handlePlayAudioPrompt(intent);
+                    break;
+                case ACTION_STOP_AUDIO_PROMPT:
+                    handleStopAudioPrompt(intent);
+                    break;
+                case ACTION_SET_AUDIO_PREWARM:
+                    handleSetAudioPrewarm(intent);
+                    break;
+                case ACTION_GET_MEDIA_GRAPH:
+                    handleGetMediaGraph();
+                    break;
+                case ACTION_SET_CALL_PROBE:
+                    handleSetCallProbe(intent);
+                    break;
+                case ACTION_SET_CALL_HANDOVER_MODE:
+                    handleSetCallHandoverMode(intent);
+                    break;
+                case ACTION_GET_CALL_HISTORY:
+                    handleGetCallHistory(intent);
+                    break;
+                case ACTION_GET_CALL_QUALITY:
+                    handleGetCallQuality(intent);
+                    break;
+                case ACTION_DUMP_METRICS:
+                    handleDumpMetrics(intent);
+                    break;
+                case ACTION_SET_METRICS_ENDPOINT:
+                    handleSetMetricsEndpoint(intent);
+                    break;
+                case ACTION_SET_NATIVE_LOG_OUTPUT:
+                    handleSetNativeLogOutput(intent);
+                    break;
+                case ACTION_SET_NATIVE_LOG_LEVEL:
+                    handleSetNativeLogLevel(intent);
+                    break;
+                case ACTION_SET_NATIVE_LOG_FILTER:
+                    handleSetNativeLogFilter(intent);
+                    break;
+                case ACTION_SET_SIP_MESSAGE_CAPTURE:
+                    handleSetSipMessageCapture(intent);
+                    break;
+                case ACTION_BENCHMARK_ENDPOINT_PROFILES:
+                    mProfileCpuMeter.report();
                     break;
                 default: break;
             }
 
+            MetricsRegistry.getInstance().histogram("sip_command_duration_seconds",
+                    "Time from command reception to the end of its handling",
+                    MetricsRegistry.LATENCY_BUCKETS, "action", action).observeSince(commandTimestamp);
+
             if (mConfiguredAccounts.isEmpty() && mConfiguredGuestAccount == null) {
                 Logger.debug(TAG, "No more configured accounts. Shutting down service");
                 stopSelf();
@@ -203,10 +309,48 @@ public class SipService extends BackgroundService implements SipServiceConstants
         enqueueJob(() -> {
             Logger.debug(TAG, "Destroying SipService");
             stopStack();
+            if (mCallRecordingIndex != null) {
+                mCallRecordingIndex.shutdown();
+            }
+            if (mCallProbeScheduler != null) {
+                mCallProbeScheduler.stop();
+            }
+            if (mCallHistoryStore != null) {
+                mCallHistoryStore.shutdown();
+            }
+            if (mCallQualityAggregator != null) {
+                mCallQualityAggregator.shutdown();
+            }
+            mMetricsServer.stop();
+            if (mSipMessageCapture != null) {
+                mSipMessageCapture.stop();
+                mSipMessageCapture = null;
+            }
+            mSharedPreferencesHelper.flush();
         });
         super.onDestroy();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // from now on the process may be killed without onDestroy
+        flushSettingsAsync();
+    }
+
+    @Override
+    public void onTaskRemoved(Intent rootIntent) {
+        super.onTaskRemoved(rootIntent);
+        flushSettingsAsync();
+    }
+
+    private void flushSettingsAsync() {
+        // not created yet while the creation job is pending, and nothing is written before it
+        if (mSharedPreferencesHelper != null) {
+            mSharedPreferencesHelper.flushAsync();
+        }
+    }
+
     /***   Sip Calls Management    ***/
 
     private SipCall getCall(String accountID, int callID) {
@@ -269,6 +413,7 @@ public class SipService extends BackgroundService implements SipServiceConstants
         if (sipCall != null) {
             boolean isVideo = intent.getBooleanExtra(PARAM_IS_VIDEO, false);
             try {
+                if (isVideo) ensureVideoSupport();
                 sipCall.setVideoParams(isVideo, false);
                 sipCall.acceptIncomingCall();
             } catch (Exception exc) {
@@ -566,7 +711,7 @@ public class SipService extends BackgroundService implements SipServiceConstants
         }
     }
 
-    private void handleMakeCall(Intent intent) {
+    private void handleMakeCall(Intent intent, long commandTimestamp) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         String number = intent.getStringExtra(PARAM_NUMBER);
         boolean isVideo = intent.getBooleanExtra(PARAM_IS_VIDEO, false);
@@ -579,11 +724,14 @@ public class SipService extends BackgroundService implements SipServiceConstants
             isTransfer = intent.getBooleanExtra(PARAM_IS_TRANSFER, false);
         }
 
-        Logger.debug(TAG, "Making call to " + getValue(getApplicationContext(), number));
+        Logger.debug(TAG, () -> "Making call to " + getValue(getApplicationContext(), number));
 
         try {
+            if (isVideo) ensureVideoSupport();
+            abortCallProbe();
             SipCall call = mActiveSipAccounts.get(accountID).addOutgoingCall(number, isVideo, isVideoConference, isTransfer);
             call.setVideoParams(isVideo, isVideoConference);
+            call.setCommandTimestamp(commandTimestamp);
             mBroadcastEmitter.outgoingCall(accountID, call.getId(), number, isVideo, isVideoConference, isTransfer);
         } catch (Exception exc) {
             Logger.error(TAG, "Error while making outgoing call", exc);
@@ -591,7 +739,7 @@ public class SipService extends BackgroundService implements SipServiceConstants
         }
     }
 
-    private void handleMakeDirectCall(Intent intent) {
+    private void handleMakeDirectCall(Intent intent, long commandTimestamp) {
         Bundle bundle = intent.getExtras();
         if (bundle == null) return;
         Uri uri = bundle.getParcelable(PARAM_DIRECT_CALL_URI);
@@ -607,7 +755,7 @@ public class SipService extends BackgroundService implements SipServiceConstants
                 intent.getIntExtra(PARAM_DIRECT_CALL_TRANSPORT, 0)
         );
 
-        Logger.debug(TAG, "Making call to " + getValue(getApplicationContext(), uri.getUserInfo()));
+        Logger.debug(TAG, () -> "Making call to " + getValue(getApplicationContext(), uri.getUserInfo()));
         String accountID = "sip:"+name+"@"+uri.getHost();
         String sipUri = "sip:" + uri.getUserInfo()+"@"+uri.getHost();
 
@@ -629,9 +777,12 @@ public class SipService extends BackgroundService implements SipServiceConstants
             // Overwrite the old value if present
             mActiveSipAccounts.put(accountID, pjSipAndroidAccount);
 
+            if (isVideo) ensureVideoSupport();
+            abortCallProbe();
             SipCall call = mActiveSipAccounts.get(accountID).addOutgoingCall(sipUri, isVideo, isVideoConference, false);
             if (call != null) {
                 call.setVideoParams(isVideo, isVideoConference);
+                call.setCommandTimestamp(commandTimestamp);
                 mBroadcastEmitter.outgoingCall(accountID, call.getId(), uri.getUserInfo(), isVideo, isVideoConference, false);
             } else {
                 Logger.error(TAG, "Error while making a direct call as Guest");
@@ -643,28 +794,245 @@ public class SipService extends BackgroundService implements SipServiceConstants
         }
     }
 
-    private void handleMakeSilentCall(Intent intent) {
+    private void handleMakeSilentCall(Intent intent, long commandTimestamp) {
         String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
         String number = intent.getStringExtra(PARAM_NUMBER);
 
-        Logger.debug(TAG, "Making silent call to " + getValue(getApplicationContext(), number));
+        Logger.debug(TAG, () -> "Making silent call to " + getValue(getApplicationContext(), number));
 
         try {
-            mBroadcastEmitter.silentCallStatus(mActiveSipAccounts.get(accountID).addOutgoingCall(number) != null, number);
+            abortCallProbe();
+            SipCall call = mActiveSipAccounts.get(accountID).addOutgoingCall(number);
+            if (call != null) {
+                call.setCommandTimestamp(commandTimestamp);
+            }
+            mBroadcastEmitter.silentCallStatus(call != null, number);
         } catch (Exception exc) {
             mBroadcastEmitter.silentCallStatus(false, number);
             Logger.error(TAG, "Error while making silent call", exc);
         }
     }
 
+    private void handlePreloadAudioPrompts(Intent intent) {
+        ArrayList<String> files = intent.getStringArrayListExtra(PARAM_AUDIO_PROMPT_FILES);
+        if (files == null) return;
+
+        startStack();
+        if (!mStarted) return;
+
+        for (String file : files) {
+            try {
+                mAudioPromptCache.preload(file);
+            } catch (Exception exc) {
+                Logger.error(TAG, "Error while preloading audio prompt " + file, exc);
+            }
+        }
+        Logger.debug(TAG, "Audio prompts cached: " + mAudioPromptCache.size());
+    }
+
+    private void handlePlayAudioPrompt(Intent intent) {
+        String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
+        int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
+        ArrayList<String> files = intent.getStringArrayListExtra(PARAM_AUDIO_PROMPT_FILES);
+        if (files == null || files.isEmpty()) return;
+
+        SipCall sipCall = getCall(accountID, callID);
+        if (sipCall != null) {
+            try {
+                sipCall.playAudioPrompt(files, intent.getBooleanExtra(PARAM_AUDIO_PROMPT_BARGE_IN, false));
+            } catch (Exception exc) {
+                Logger.error(TAG, "Error while playing audio prompt. AccountID: "
+                        + getValue(getApplicationContext(), accountID) + ", CallID: " + callID, exc);
+                mBroadcastEmitter.audioPromptState(accountID, callID, AudioPromptState.FAILED, null);
+            }
+        }
+    }
+
+    private void handleStopAudioPrompt(Intent intent) {
+        String accountID = intent.getStringExtra(PARAM_ACCOUNT_ID);
+        int callID = intent.getIntExtra(PARAM_CALL_ID, 0);
+
+        SipCall sipCall = getCall(accountID, callID);
+        if (sipCall != null) {
+            sipCall.stopAudioPrompt();
+        }
+    }
+
+    AudioPromptCache getAudioPromptCache() {
+        return mAudioPromptCache;
+    }
+
+    /**
+     * @return profile the running stack has been started with
+     */
+    EndpointProfile getEndpointProfile() {
+        return mEndpointProfile;
+    }
+
+    MediaGraphManager getMediaGraph() {
+        return mMediaGraph;
+    }
+
+    MetricsRegistry.Histogram getPostDialDelayHistogram() {
+        return mPostDialDelayHistogram;
+    }
+
+    MetricsRegistry.Histogram getAnswerLatencyHistogram() {
+        return mAnswerLatencyHistogram;
+    }
+
+    private void handleGetMediaGraph() {
+        String mediaGraph = mMediaGraph.dump();
+        Logger.debug(TAG, "Media graph:\n" + mediaGraph);
+        mBroadcastEmitter.mediaGraph(mediaGraph);
+    }
+
     private void handleReconnectCall() {
+        if (mEndpoint == null) return;
+
+        if (mReconnectionStats.isInProgress()) {
+            Logger.info(TAG, "Call reconnection already in progress, it will run again once finished");
+            mNetworkChangePending = true;
+            return;
+        }
+
         try {
-            getBroadcastEmitter().callReconnectionState(CallReconnectionState.PROGRESS);
-            mEndpoint.handleIpChange(new IpChangeParam());
+            IpChangeParam param = new IpChangeParam();
+            // the listener is bound to the old address, restart it on the new one
+            param.setRestartListener(true);
+            onCallReconnectionStarted();
+            mEndpoint.handleIpChange(param);
             Logger.info(TAG, "Call reconnection started");
         } catch (Exception exc) {
             Logger.error(TAG, "Error while reconnecting the call", exc);
+            onCallReconnectionFinished(false);
+        }
+    }
+
+    /**
+     * Called by the network monitor once the default network has settled on new addresses.
+     */
+    void onNetworkChanged() {
+        if (!mStarted || (mActiveSipAccounts.isEmpty() && mConfiguredGuestAccount == null)) return;
+
+        Logger.info(TAG, "Network changed, reconnecting with mode " + mCallHandoverMode);
+        if (mCallHandoverMode == CallHandoverMode.MAKE_BEFORE_BREAK && mUdpTransportId >= 0) {
+            startTransportHandover();
+        } else {
+            handleReconnectCall();
+        }
+    }
+
+    private void startTransportHandover() {
+        if (mReconnectionStats.isInProgress() || mTransportHandover.isRunning()) {
+            Logger.info(TAG, "Call reconnection already in progress, it will run again once finished");
+            mNetworkChangePending = true;
+            return;
+        }
+
+        try {
+            onCallReconnectionStarted();
+            TransportConfig transportConfig = createUdpTransportConfig();
+            String address = mNetworkMonitor.getLocalAddress();
+            if (address != null) transportConfig.setBoundAddress(address);
+            mTransportHandover.start(mEndpoint, mUdpTransportId, transportConfig);
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while starting transport handover", exc);
+            onCallReconnectionFinished(false);
+        }
+    }
+
+    private TransportConfig createUdpTransportConfig() {
+        TransportConfig udpTransport = new TransportConfig();
+        udpTransport.setQosType(pj_qos_type.PJ_QOS_TYPE_VOICE);
+        return udpTransport;
+    }
+
+    void closeTransport(int transportId) {
+        if (mEndpoint == null) return;
+
+        try {
+            mEndpoint.transportClose(transportId);
+            Logger.debug(TAG, "Transport " + transportId + " closed");
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while closing transport " + transportId, exc);
+        }
+    }
+
+    /**
+     * Called by the transport handover once finished.
+     * @param success true if the calls have moved to the new transport
+     * @param transportId UDP transport in use from now on
+     */
+    void onTransportHandoverFinished(boolean success, int transportId) {
+        mUdpTransportId = transportId;
+        try {
+            mUdpTransportLocalName = mEndpoint.transportGetInfo(transportId).getLocalName();
+            setCaptureLocalAddresses();
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while getting transport " + transportId + " info", exc);
+        }
+        onCallReconnectionFinished(success);
+    }
+
+    MetricsRegistry.Histogram getHandoverAudioGapHistogram() {
+        return mHandoverAudioGapHistogram;
+    }
+
+    private void handleSetCallHandoverMode(Intent intent) {
+        CallHandoverMode mode = (CallHandoverMode) intent.getSerializableExtra(PARAM_CALL_HANDOVER_MODE);
+        if (mode == null) return;
+
+        Logger.debug(TAG, "Call handover mode: " + mode);
+        mCallHandoverMode = mode;
+        mSharedPreferencesHelper.setCallHandoverMode(mode);
+    }
+
+    private void onCallReconnectionStarted() {
+        mReconnectionStats.onStarted();
+        enqueueDelayedJob(mReconnectionTimeoutJob, CallReconnectionStats.TIMEOUT_MS);
+        getBroadcastEmitter().callReconnectionState(CallReconnectionState.PROGRESS, -1,
+                mReconnectionStats.getSuccessRate());
+    }
+
+    private void onCallReconnectionTimeout() {
+        if (!mReconnectionStats.isInProgress()) return;
+
+        Logger.error(TAG, "Call reconnection not completed in ms: " + CallReconnectionStats.TIMEOUT_MS);
+        onCallReconnectionFinished(false);
+    }
+
+    /**
+     * Called when a reconnection completes or fails, from the pjsip threads too.
+     */
+    void onCallReconnectionFinished(boolean success) {
+        long duration = mReconnectionStats.onFinished(success);
+        // already reported as timed out
+        if (duration < 0) return;
+
+        dequeueJob(mReconnectionTimeoutJob);
+        enqueueJob(this::runPendingNetworkChange);
+        if (success) {
+            for (SipAccount account : mActiveSipAccounts.values()) {
+                for (int callId : new ArrayList<>(account.getCallIDs())) {
+                    SipCall call = account.getCall(callId);
+                    if (call != null) call.onReconnected();
+                }
+            }
         }
+        Logger.info(TAG, "Call reconnection " + (success ? "succeeded" : "failed")
+                + " in ms: " + duration + " - " + mReconnectionStats);
+        getBroadcastEmitter().callReconnectionState(
+                success ? CallReconnectionState.SUCCESS : CallReconnectionState.FAILED,
+                duration, mReconnectionStats.getSuccessRate());
+    }
+
+    private void runPendingNetworkChange() {
+        if (!mNetworkChangePending) return;
+
+        mNetworkChangePending = false;
+        Logger.info(TAG, "Handling the network change received during the reconnection");
+        onNetworkChanged();
     }
 
     public void setLastCallStatus(int callStatus) {
@@ -708,7 +1076,7 @@ public class SipService extends BackgroundService implements SipServiceConstants
                 ex.printStackTrace();
             }
         } else {
-            Logger.debug(TAG, "account "+getValue(getApplicationContext(), accountID)+" not set");
+            Logger.debug(TAG, () -> "account "+getValue(getApplicationContext(), accountID)+" not set");
         }
     }
 
@@ -740,7 +1108,7 @@ public class SipService extends BackgroundService implements SipServiceConstants
     private void handleRemoveAccount(Intent intent) {
         String accountIDtoRemove = intent.getStringExtra(PARAM_ACCOUNT_ID);
 
-        Logger.debug(TAG, "Removing " + getValue(getApplicationContext(), accountIDtoRemove));
+        Logger.debug(TAG, () -> "Removing " + getValue(getApplicationContext(), accountIDtoRemove));
 
         Iterator<SipAccountData> iterator = mConfiguredAccounts.iterator();
 
@@ -777,7 +1145,7 @@ public class SipService extends BackgroundService implements SipServiceConstants
 //                Logger.error(TAG, "Error while adding " + getValue(getApplicationContext(), data.getIdUri() ?: ""), exc);
             }
         } else {
-            Logger.debug(TAG, "Reconfiguring " + getValue(getApplicationContext(), data.getIdUri()));
+            Logger.debug(TAG, () -> "Reconfiguring " + getValue(getApplicationContext(), data.getIdUri()));
 
             try {
                 //removeAccount(data.getIdUri());
@@ -813,7 +1181,238 @@ public class SipService extends BackgroundService implements SipServiceConstants
     }
 
     public boolean isDND() {
-        return mSharedPreferencesHelper.isDND();
+        return getSettings().isDND();
+    }
+
+    /**
+     * @return the current settings, readable from any thread without locking
+     */
+    SettingsSnapshot getSettings() {
+        return mSharedPreferencesHelper.getSnapshot();
+    }
+
+    private void handleSetCallRecording(Intent intent) {
+        CallRecordingConfig config = intent.getParcelableExtra(PARAM_CALL_RECORDING_CONFIG);
+        if (config == null) return;
+
+        Logger.debug(TAG, "Call recording set - " + config);
+        mSharedPreferencesHelper.persistCallRecordingConfig(config);
+    }
+
+    private void handleSetCallProbe(Intent intent) {
+        CallProbeConfig config = intent.getParcelableExtra(PARAM_CALL_PROBE_CONFIG);
+        if (config == null) return;
+
+        Logger.debug(TAG, "Call probe set - " + config);
+        mSharedPreferencesHelper.persistCallProbeConfig(config);
+        mCallProbeScheduler.setConfig(config);
+    }
+
+    CallHistoryStore getCallHistoryStore() {
+        return mCallHistoryStore;
+    }
+
+    private void handleGetCallHistory(Intent intent) {
+        long from = intent.getLongExtra(PARAM_CALL_HISTORY_FROM, 0);
+        long to = intent.getLongExtra(PARAM_CALL_HISTORY_TO, 0);
+        String remoteUri = intent.getStringExtra(PARAM_REMOTE_URI);
+        int page = intent.getIntExtra(PARAM_CALL_HISTORY_PAGE, 0);
+        int pageSize = intent.getIntExtra(PARAM_CALL_HISTORY_PAGE_SIZE, 20);
+
+        mCallHistoryStore.query(from, to, remoteUri, page, pageSize,
+                (records, total) -> mBroadcastEmitter.callHistory(records, page, total));
+    }
+
+    CallQualityAggregator getCallQualityAggregator() {
+        return mCallQualityAggregator;
+    }
+
+    private void handleGetCallQuality(Intent intent) {
+        mCallQualityAggregator.query(
+                intent.getStringExtra(PARAM_NETWORK_TYPE),
+                intent.getStringExtra(PARAM_CODEC),
+                intent.getStringExtra(PARAM_ACCOUNT_ID),
+                (summaries, total) -> mBroadcastEmitter.callQuality(summaries, total));
+    }
+
+    private void registerMetrics() {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.gauge("sip_stack_started", "Whether the native stack is started", () -> mStarted ? 1 : 0);
+        registry.gauge("sip_active_accounts", "Active SIP accounts", () -> mActiveSipAccounts.size());
+        registry.gauge("sip_active_calls", "Active calls, probes excluded", this::countActiveCalls);
+    }
+
+    private int countActiveCalls() {
+        int calls = 0;
+        for (SipAccount account : mActiveSipAccounts.values()) {
+            calls += account.getActiveCallsCount();
+        }
+        return calls;
+    }
+
+    private void handleDumpMetrics(Intent intent) {
+        String path = intent.getStringExtra(PARAM_METRICS_FILE);
+        File file = path == null ? new File(getFilesDir(), METRICS_FILE_NAME) : new File(path);
+        if (MetricsRegistry.getInstance().writeTo(file)) {
+            Logger.info(TAG, "Metrics written to " + file.getAbsolutePath());
+        }
+    }
+
+    private void handleSetMetricsEndpoint(Intent intent) {
+        int port = intent.getIntExtra(PARAM_METRICS_PORT, 0);
+        if (port <= 0) {
+            mMetricsServer.stop();
+            return;
+        }
+
+        try {
+            mMetricsServer.start(port);
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while starting metrics endpoint on port " + port, exc);
+        }
+    }
+
+    /**
+     * Logs the duration of the startup phases and records them in
+     * sip_startup_phase_duration_seconds. The keystore phase runs in parallel with the
+     * others, the time saved is the part of it which did not delay the accounts loading.
+     */
+    private void traceStartup(long start, long prefs, long nativeLibs, long accountsWait, long accounts) {
+        long keystoreNanos = mSharedPreferencesHelper.getEncryptedInitNanos();
+        long accountsNanos = accounts - accountsWait;
+        long savedNanos = Math.max(0, keystoreNanos - accountsNanos);
+
+        observeStartupPhase("plain_prefs", prefs - start);
+        observeStartupPhase("native_libs", nativeLibs - prefs);
+        observeStartupPhase("keystore", keystoreNanos);
+        observeStartupPhase("accounts", accountsNanos);
+
+        Logger.info(TAG, "Startup trace: plain prefs " + (prefs - start) / 1000000 + "ms"
+                + ", native libs " + (nativeLibs - prefs) / 1000000 + "ms"
+                + ", keystore " + keystoreNanos / 1000000 + "ms (parallel)"
+                + ", accounts " + accountsNanos / 1000000 + "ms"
+                + ", total " + (accounts - start) / 1000000 + "ms"
+                + ", saved " + savedNanos / 1000000 + "ms"
+                + ", resident memory " + SipServiceUtils.readResidentSetKb() + " kB"
+                + (SipServiceUtils.AUDIO_ONLY_STACK ? " (audio only)" : ""));
+    }
+
+    private void observeStartupPhase(String phase, long nanos) {
+        MetricsRegistry.getInstance().histogram("sip_startup_phase_duration_seconds",
+                "Duration of the service startup phases", MetricsRegistry.LATENCY_BUCKETS,
+                "phase", phase).observeNanos(nanos);
+    }
+
+    private void handleSetNativeLogOutput(Intent intent) {
+        NativeLogDrainer drainer = NativeLogDrainer.getInstance();
+        drainer.setLogcatEnabled(intent.getBooleanExtra(PARAM_NATIVE_LOG_LOGCAT, true));
+        drainer.setLogDirectory(intent.getBooleanExtra(PARAM_NATIVE_LOG_FILE, false) ? getFilesDir() : null);
+        Logger.debug(TAG, "Native log output set, dropped entries so far: " + drainer.getDropped());
+    }
+
+    private void handleSetNativeLogLevel(Intent intent) {
+        NativeLogDrainer drainer = NativeLogDrainer.getInstance();
+        int level = intent.getIntExtra(PARAM_NATIVE_LOG_LEVEL, drainer.getLevel());
+        int consoleLevel = intent.getIntExtra(PARAM_NATIVE_LOG_CONSOLE_LEVEL, drainer.getConsoleLevel());
+        drainer.setLevels(level, consoleLevel);
+        Logger.debug(TAG, "Native log level set to " + drainer.getLevel()
+                + ", console level " + drainer.getConsoleLevel());
+    }
+
+    private void handleSetNativeLogFilter(Intent intent) {
+        NativeLogFilter filter = new NativeLogFilter(
+                intent.getStringArrayListExtra(PARAM_NATIVE_LOG_INCLUDE),
+                intent.getStringArrayListExtra(PARAM_NATIVE_LOG_EXCLUDE));
+        NativeLogDrainer.getInstance().setSenderFilter(filter);
+        Logger.debug(TAG, "Native log sender filter set: " + filter);
+    }
+
+    private void handleSetSipMessageCapture(Intent intent) {
+        boolean enabled = intent.getBooleanExtra(PARAM_SIP_MESSAGE_CAPTURE, false);
+        if (enabled == (mSipMessageCapture != null)) return;
+
+        if (!enabled) {
+            mSipMessageCapture.stop();
+            mSipMessageCapture = null;
+            return;
+        }
+
+        mSipMessageCapture = new SipMessageCapture(getApplicationContext(),
+                new File(getFilesDir(), SIP_CAPTURE_DIRECTORY));
+        setCaptureLocalAddresses();
+        mSipMessageCapture.start();
+        if (mStarted && SipServiceUtils.getNativeLogLevel() < SipMessageCapture.MESSAGE_LEVEL) {
+            Logger.warning(TAG, "SIP messages are not logged by the running stack, "
+                    + "they will be captured after a restart");
+        }
+    }
+
+    private void setCaptureLocalAddresses() {
+        if (mSipMessageCapture == null) return;
+        mSipMessageCapture.setLocalAddress(SipMessageCapture.PROTOCOL_UDP, mUdpTransportLocalName);
+        mSipMessageCapture.setLocalAddress(SipMessageCapture.PROTOCOL_TCP, mTcpTransportLocalName);
+        mSipMessageCapture.setLocalAddress(SipMessageCapture.PROTOCOL_TLS, mTlsTransportLocalName);
+    }
+
+    /**
+     * Hangs up the running call probe, if any, before a real call. To be called on the
+     * service thread.
+     */
+    void abortCallProbe() {
+        if (mCallProbeScheduler != null) mCallProbeScheduler.onRealCall();
+    }
+
+    /**
+     * @return the call recording configuration, which must not be modified
+     */
+    CallRecordingConfig getCallRecordingConfig() {
+        return getSettings().getCallRecordingConfig();
+    }
+
+    CallRecordingIndex getCallRecordingIndex() {
+        return mCallRecordingIndex;
+    }
+
+    File getCallRecordingDirectory() {
+        String path = getCallRecordingConfig().getDirectory();
+        File directory = path.isEmpty() ? new File(getFilesDir(), "recordings") : new File(path);
+        if (!directory.exists() && !directory.mkdirs()) {
+            Logger.error(TAG, "Unable to create call recordings directory");
+        }
+        return directory;
+    }
+
+    private void handleSetAudioPrewarm(Intent intent) {
+        mAudioPrewarm = intent.getBooleanExtra(PARAM_AUDIO_PREWARM, false);
+        int sndAutoCloseTime = intent.getIntExtra(PARAM_SND_AUTO_CLOSE_TIME, DEFAULT_SND_AUTO_CLOSE_TIME);
+        mSharedPreferencesHelper.setAudioPrewarm(mAudioPrewarm, sndAutoCloseTime);
+        Logger.debug(TAG, "Audio prewarm: " + mAudioPrewarm + ", sound auto close time: " + sndAutoCloseTime);
+    }
+
+    boolean isAudioPrewarmEnabled() {
+        return mAudioPrewarm;
+    }
+
+    /**
+     * Opens the sound device ahead of the call audio being connected, so that answering
+     * doesn't wait for the device to start. The device stays open for the configured
+     * sound auto close time if nothing gets connected to it.
+     * @return true if the sound device has been opened by this call, false if it was
+     * already open or can't be opened
+     */
+    boolean prewarmAudioDevice() {
+        try {
+            AudDevManager audDevManager = getAudDevManager();
+            if (audDevManager.sndIsActive()) return false;
+
+            long start = System.nanoTime();
+            audDevManager.setPlaybackDev(audDevManager.getPlaybackDev());
+            Logger.debug(TAG, "Sound device prewarmed in ms: " + (System.nanoTime() - start) / 1000000);
+            return audDevManager.sndIsActive();
+        } catch (Exception exc) {
+            Logger.error(TAG, "Error while prewarming the sound device", exc);
+            return false;
+        }
     }
 
     /***   Sip Stack Management    ***/
@@ -827,12 +1426,10 @@ public class SipService extends BackgroundService implements SipServiceConstants
             throw new RuntimeException(error);
         }
 
-        try {
-            System.loadLibrary("openh264");
-            Logger.debug(TAG, "OpenH264 loaded");
-        } catch (UnsatisfiedLinkError error) {
-            Logger.error(TAG, "Error while loading OpenH264 native library", error);
-            throw new RuntimeException(error);
+        if (SipServiceUtils.AUDIO_ONLY_STACK) {
+            Logger.debug(TAG, "Audio only stack, OpenH264 loaded on demand");
+        } else {
+            loadOpenH264();
         }
 
         try {
@@ -844,6 +1441,39 @@ public class SipService extends BackgroundService implements SipServiceConstants
         }
     }
 
+    private static void loadOpenH264() {
+        if (sOpenH264Loaded) return;
+        try {
+            System.loadLibrary("openh264");
+            sOpenH264Loaded = true;
+            Logger.debug(TAG, "OpenH264 loaded");
+        } catch (UnsatisfiedLinkError error) {
+            Logger.error(TAG, "Error while loading OpenH264 native library", error);
+            throw new RuntimeException(error);
+        }
+    }
+
+    /**
+     * Loads OpenH264 and sets up the video codecs of the running stack, if not done yet.
+     * With the audio only profile it's done on the first video call or video accept.
+     * Time and resident memory taken are logged and the time is recorded as the video
+     * phase of sip_startup_phase_duration_seconds.
+     */
+    private void ensureVideoSupport() throws Exception {
+        if (mVideoSupportReady || !mStarted) return;
+
+        long start = System.nanoTime();
+        long residentKb = SipServiceUtils.readResidentSetKb();
+        loadOpenH264();
+        SipServiceUtils.setVideoCodecPriorities(mEndpoint);
+        mVideoSupportReady = true;
+
+        long nanos = System.nanoTime() - start;
+        observeStartupPhase("video", nanos);
+        Logger.info(TAG, "Video support set up in " + nanos / 1000000 + "ms, resident memory "
+                + (SipServiceUtils.readResidentSetKb() - residentKb) + " kB more");
+    }
+
     /**
      * Starts PJSIP Stack.
      */
@@ -856,24 +1486,18 @@ public class SipService extends BackgroundService implements SipServiceConstants
 
         try {
             Logger.debug(TAG, "Starting PJSIP");
+            long start = System.nanoTime();
             mEndpoint = new SipEndpoint(this);
             mEndpoint.libCreate();
 
             EpConfig epConfig = new EpConfig();
             epConfig.getUaConfig().setUserAgent(AGENT_NAME);
 
-            epConfig.getLogConfig().setLevel(5); // Enable detailed logging
-            epConfig.getLogConfig().setConsoleLevel(5);
-            epConfig.getLogConfig().setDecor(pj_log_decoration.PJ_LOG_HAS_NEWLINE | pj_log_decoration.PJ_LOG_HAS_TIME | pj_log_decoration.PJ_LOG_HAS_SENDER);
-
-            epConfig.getMedConfig().setHasIoqueue(true);
-
-            epConfig.getMedConfig().setHasIoqueue(true);
-            epConfig.getMedConfig().setClockRate(16000);
-            epConfig.getMedConfig().setQuality(10);
-            epConfig.getMedConfig().setEcOptions(1);
-            epConfig.getMedConfig().setEcTailLen(200);
-            epConfig.getMedConfig().setThreadCnt(2);
+            EndpointProfile profile = SipServiceUtils.ENDPOINT_PROFILE;
+            profile.apply(epConfig);
+            mEndpointProfile = profile;
+            Logger.debug(TAG, "Endpoint profile: {}", profile);
+            epConfig.getMedConfig().setSndAutoCloseTime(mSharedPreferencesHelper.getSndAutoCloseTime());
             SipServiceUtils.setSipLogger(epConfig);
 // In startStack method
             epConfig.getUaConfig().setStunServer(new StringVector());
@@ -883,8 +1507,7 @@ public class SipService extends BackgroundService implements SipServiceConstants
             Logger.debug(TAG, "STUN servers configured: " + epConfig.getUaConfig().getStunServer().toString());
             mEndpoint.libInit(epConfig);
 
-            TransportConfig udpTransport = new TransportConfig();
-            udpTransport.setQosType(pj_qos_type.PJ_QOS_TYPE_VOICE);
+            TransportConfig udpTransport = createUdpTransportConfig();
             TransportConfig tcpTransport = new TransportConfig();
             tcpTransport.setQosType(pj_qos_type.PJ_QOS_TYPE_VOICE);
             TransportConfig tlsTransport = new TransportConfig();
@@ -893,18 +1516,27 @@ public class SipService extends BackgroundService implements SipServiceConstants
 
 
             int transIdUDP =  mEndpoint.transportCreate(pjsip_transport_type_e.PJSIP_TRANSPORT_UDP, udpTransport);
+            mUdpTransportId = transIdUDP;
             int transIdTCP =mEndpoint.transportCreate(pjsip_transport_type_e.PJSIP_TRANSPORT_TCP, tcpTransport);
             int transIdTLS= mEndpoint.transportCreate(pjsip_transport_type_e.PJSIP_TRANSPORT_TLS, tlsTransport);
+            mUdpTransportLocalName = mEndpoint.transportGetInfo(transIdUDP).getLocalName();
+            mTcpTransportLocalName = mEndpoint.transportGetInfo(transIdTCP).getLocalName();
+            mTlsTransportLocalName = mEndpoint.transportGetInfo(transIdTLS).getLocalName();
+            setCaptureLocalAddresses();
             mEndpoint.libStart();
+            MetricsRegistry.getInstance().jniCall("start_stack").observeSince(start);
             Log.e("transId",""+transIdUDP+" "+transIdTCP+" "+transIdTLS);
             ArrayList<CodecPriority> codecPriorities = getConfiguredCodecPriorities();
             SipServiceUtils.setAudioCodecPriorities(codecPriorities, mEndpoint);
 
-            SipServiceUtils.setVideoCodecPriorities(mEndpoint);
-
             Logger.debug(TAG, "PJSIP started!");
             mStarted = true;
+            if (!SipServiceUtils.AUDIO_ONLY_STACK) {
+                ensureVideoSupport();
+            }
+            mProfileCpuMeter.start(profile);
             mBroadcastEmitter.stackStatus(true);
+            mNetworkMonitor.start();
 
         } catch (Exception exc) {
             Logger.error(TAG, "Error while starting PJSIP", exc);
@@ -924,6 +1556,14 @@ public class SipService extends BackgroundService implements SipServiceConstants
 
         try {
             Logger.debug(TAG, "Stopping PJSIP");
+            mNetworkMonitor.stop();
+            mTransportHandover.cancel();
+            dequeueJob(mReconnectionTimeoutJob);
+            mReconnectionStats.onFinished(false);
+            mNetworkChangePending = false;
+            mUdpTransportId = -1;
+            mVideoSupportReady = false;
+            mProfileCpuMeter.stop();
 
             /*
              * Do not remove accounts on service stop anymore
@@ -936,13 +1576,21 @@ public class SipService extends BackgroundService implements SipServiceConstants
              * *************************************
              */
 
-            /* Try to force GC to do its job before destroying the library
-             * since it's recommended to do that by PJSUA examples
+            /*
+             * Native objects are deleted here in order, on this thread, instead of forcing
+             * a GC to run their finalizers before destroying the library
              */
-            Runtime.getRuntime().gc();
+            mAudioPromptCache.clear();
+            mMediaGraph.clear();
 
+            long start = System.nanoTime();
+            NativeObjectTracker nativeObjects = NativeObjectTracker.getInstance();
+            nativeObjects.deleteBeforeLibDestroy();
             mEndpoint.libDestroy(pjsua_destroy_flag.PJSUA_DESTROY_NO_NETWORK);
+            nativeObjects.deleteAfterLibDestroy();
+            mActiveSipAccounts.clear();
             mEndpoint.delete();
+            MetricsRegistry.getInstance().jniCall("stop_stack").observeSince(start);
             mEndpoint = null;
 
             Logger.debug(TAG, "PJSIP stopped");
@@ -954,6 +1602,8 @@ public class SipService extends BackgroundService implements SipServiceConstants
         } finally {
             mStarted = false;
             mEndpoint = null;
+            // the native logs of the shutdown are written and the log file closed
+            NativeLogDrainer.getInstance().stop();
         }
     }
 
@@ -1077,7 +1727,7 @@ public class SipService extends BackgroundService implements SipServiceConstants
             SipAccount pjSipAndroidAccount = new SipAccount(this, account);
             pjSipAndroidAccount.create();
             mActiveSipAccounts.put(accountString, pjSipAndroidAccount);
-            Logger.debug(TAG, "SIP account " + getValue(getApplicationContext(), account.getIdUri()) + " successfully added");
+            Logger.debug(TAG, () -> "SIP account " + getValue(getApplicationContext(), account.getIdUri()) + " successfully added");
         } else {
             sipAccount.setRegistration(false);
         }
@@ -1094,9 +1744,9 @@ public class SipService extends BackgroundService implements SipServiceConstants
             return;
         }
 
-        Logger.debug(TAG, "Removing SIP account " + getValue(getApplicationContext(), accountID));
+        Logger.debug(TAG, () -> "Removing SIP account " + getValue(getApplicationContext(), accountID));
         account.delete();
-        Logger.debug(TAG, "SIP account " + getValue(getApplicationContext(), accountID) + " successfully removed");
+        Logger.debug(TAG, () -> "SIP account " + getValue(getApplicationContext(), accountID) + " successfully removed");
     }
 
     private void persistConfiguredAccounts() {
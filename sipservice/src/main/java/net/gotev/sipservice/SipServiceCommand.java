@@ -30,6 +30,24 @@ public class SipServiceCommand implements SipServiceConstants {
         SipServiceUtils.ENABLE_SIP_LOGGING = enable;
     }
 
+    /**
+     * Enables the audio only stack profile, to be set before the service starts.
+     * OpenH264 is not loaded and the video codecs are not set up when the stack starts, but
+     * the first time a video call is made or accepted.
+     */
+    public static void enableAudioOnlyStack(boolean enable) {
+        SipServiceUtils.AUDIO_ONLY_STACK = enable;
+    }
+
+    /**
+     * Sets the endpoint performance profile used from the next stack start, e.g. before the
+     * service starts or before {@link #restartSipStack(Context)}. Default is
+     * {@link EndpointProfile#BALANCED}.
+     */
+    public static void setEndpointProfile(EndpointProfile profile) {
+        SipServiceUtils.ENDPOINT_PROFILE = profile == null ? EndpointProfile.BALANCED : profile;
+    }
+
     /**
      * Adds a new SIP account.
      * @param context application context
@@ -669,4 +687,293 @@ public class SipServiceCommand implements SipServiceConstants {
     public static void setVerifySipServerCert(Context context, boolean verify) {
         SharedPreferencesHelper.getInstance(context).setVerifySipServerCert(verify);
     }
+
+    /**
+     * Configures the recording of the calls. When enabled, both directions of every call are
+     * recorded once its audio gets connected. You will be notified through
+     * {@link BroadcastEventReceiver#onCallRecording(int, ArrayList)} once the files of a call are
+     * finalised and indexed, after hangup.
+     * @param context application context
+     * @param config call recording configuration
+     */
+    public static void setCallRecording(Context context, CallRecordingConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("config MUST not be null!");
+        }
+
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_SET_CALL_RECORDING);
+        intent.putExtra(PARAM_CALL_RECORDING_CONFIG, config);
+        context.startService(intent);
+    }
+
+    /**
+     * Opens the given prompts and keeps them ready to be played, so that
+     * {@link #playAudioPrompt(Context, String, int, ArrayList, boolean)} starts playing them
+     * without file open latency. At most {@link SipServiceConstants#AUDIO_PROMPT_CACHE_SIZE}
+     * prompts are kept, the least recently used are closed first.
+     * @param context application context
+     * @param files absolute paths of the WAV files to preload
+     */
+    public static void preloadAudioPrompts(Context context, ArrayList<String> files) {
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_PRELOAD_AUDIO_PROMPTS);
+        intent.putStringArrayListExtra(PARAM_AUDIO_PROMPT_FILES, files);
+        context.startService(intent);
+    }
+
+    /**
+     * Plays one or more WAV files into an active call, so that the remote party hears them.
+     * More files are played one after the other as a playlist. The end of the playback is
+     * notified through
+     * {@link BroadcastEventReceiver#onAudioPromptState(String, int, AudioPromptState, String)}.
+     * If the call does not exist or has been terminated, a disconnected state will be sent to
+     * {@link BroadcastEventReceiver#onCallState(String, int, int, int, long)}
+     * @param context application context
+     * @param accountID account ID
+     * @param callID call ID
+     * @param files absolute paths of the WAV files to play
+     * @param bargeIn whether the playback is cancelled when the remote party sends a DTMF digit
+     */
+    public static void playAudioPrompt(Context context, String accountID, int callID,
+                                       ArrayList<String> files, boolean bargeIn) {
+        checkAccount(accountID);
+
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_PLAY_AUDIO_PROMPT);
+        intent.putExtra(PARAM_ACCOUNT_ID, accountID);
+        intent.putExtra(PARAM_CALL_ID, callID);
+        intent.putStringArrayListExtra(PARAM_AUDIO_PROMPT_FILES, files);
+        intent.putExtra(PARAM_AUDIO_PROMPT_BARGE_IN, bargeIn);
+        context.startService(intent);
+    }
+
+    /**
+     * Stops the audio prompt currently played into a call.
+     * @param context application context
+     * @param accountID account ID
+     * @param callID call ID
+     */
+    public static void stopAudioPrompt(Context context, String accountID, int callID) {
+        checkAccount(accountID);
+
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_STOP_AUDIO_PROMPT);
+        intent.putExtra(PARAM_ACCOUNT_ID, accountID);
+        intent.putExtra(PARAM_CALL_ID, callID);
+        context.startService(intent);
+    }
+
+    /**
+     * Enables the sound device prewarm. When enabled, the sound device is opened as soon as
+     * an incoming call rings, instead of when the call audio gets connected after answering.
+     * @param context application context
+     * @param prewarm whether to open the sound device on incoming ring
+     * @param sndAutoCloseTime seconds of inactivity after which the sound device gets closed,
+     *                         -1 to never close it. It should be longer than the ring time
+     *                         for the prewarm to be effective, and it is applied on the next
+     *                         stack start
+     */
+    public static void setAudioPrewarm(Context context, boolean prewarm, int sndAutoCloseTime) {
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_SET_AUDIO_PREWARM);
+        intent.putExtra(PARAM_AUDIO_PREWARM, prewarm);
+        intent.putExtra(PARAM_SND_AUTO_CLOSE_TIME, sndAutoCloseTime);
+        context.startService(intent);
+    }
+
+    /**
+     * Requests the conference bridge connections made for each call, for debugging purposes.
+     * The result is delivered with the media graph broadcast.
+     * @param context application context
+     */
+    public static void getMediaGraph(Context context) {
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_GET_MEDIA_GRAPH);
+        context.startService(intent);
+    }
+
+    /**
+     * Configures the synthetic call probes. When enabled, a silent call is periodically placed
+     * to the configured echo or test extension and measured. Each result is stored locally and
+     * delivered through {@link BroadcastEventReceiver#onCallProbeResult(CallProbeResult)}.
+     * Probes are postponed while a real call is active.
+     * @param context application context
+     * @param config call probe configuration
+     */
+    public static void setCallProbe(Context context, CallProbeConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("config MUST not be null!");
+        }
+
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_SET_CALL_PROBE);
+        intent.putExtra(PARAM_CALL_PROBE_CONFIG, config);
+        context.startService(intent);
+    }
+
+    /**
+     * Sets how active calls are moved to a new network, when the network changes.
+     * @param context application context
+     * @param mode handover mode, {@link CallHandoverMode#BREAK_BEFORE_MAKE} by default
+     */
+    public static void setCallHandoverMode(Context context, CallHandoverMode mode) {
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_SET_CALL_HANDOVER_MODE);
+        intent.putExtra(PARAM_CALL_HANDOVER_MODE, mode);
+        context.startService(intent);
+    }
+
+    /**
+     * Queries the locally stored call history, missed calls included.
+     * The result is delivered through
+     * {@link BroadcastEventReceiver#onCallHistory(ArrayList, int, int)}.
+     * @param context application context
+     * @param from minimum call start timestamp in milliseconds, 0 for no lower bound
+     * @param to maximum call start timestamp in milliseconds (exclusive), 0 for no upper bound
+     * @param remoteUri remote party URI (e.g. 200@example.com), null for every party
+     * @param page zero based page number
+     * @param pageSize records per page
+     */
+    public static void getCallHistory(Context context, long from, long to, String remoteUri,
+                                      int page, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize MUST be greater than 0!");
+        }
+
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_GET_CALL_HISTORY);
+        intent.putExtra(PARAM_CALL_HISTORY_FROM, from);
+        intent.putExtra(PARAM_CALL_HISTORY_TO, to);
+        intent.putExtra(PARAM_REMOTE_URI, remoteUri);
+        intent.putExtra(PARAM_CALL_HISTORY_PAGE, page);
+        intent.putExtra(PARAM_CALL_HISTORY_PAGE_SIZE, pageSize);
+        context.startService(intent);
+    }
+
+    /**
+     * Queries the p50/p95/p99 of jitter, loss, RTT and MOS aggregated over the past calls.
+     * The result is delivered through
+     * {@link BroadcastEventReceiver#onCallQuality(ArrayList, CallQualitySummary)}.
+     * @param context application context
+     * @param networkType wifi, cellular, ethernet, vpn, other or null for every network
+     * @param codec codec with clock rate (e.g. opus_48000), null for every codec
+     * @param accountID account ID, null for every account
+     */
+    public static void getCallQuality(Context context, String networkType, String codec, String accountID) {
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_GET_CALL_QUALITY);
+        intent.putExtra(PARAM_NETWORK_TYPE, networkType);
+        intent.putExtra(PARAM_CODEC, codec);
+        intent.putExtra(PARAM_ACCOUNT_ID, accountID);
+        context.startService(intent);
+    }
+
+    /**
+     * Writes the service metrics in the Prometheus text format.
+     * @param context application context
+     * @param path destination file, null for {@link SipServiceConstants#METRICS_FILE_NAME}
+     *             in the application files directory
+     */
+    public static void dumpMetrics(Context context, String path) {
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_DUMP_METRICS);
+        intent.putExtra(PARAM_METRICS_FILE, path);
+        context.startService(intent);
+    }
+
+    /**
+     * Serves the service metrics in the Prometheus text format on http://127.0.0.1:port/metrics,
+     * for debugging and soak tests (e.g. through adb forward). The endpoint is bound to the
+     * loopback address only and it's not persisted across service restarts.
+     * @param context application context
+     * @param port loopback port, 0 to stop the endpoint
+     */
+    public static void setMetricsEndpoint(Context context, int port) {
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_SET_METRICS_ENDPOINT);
+        intent.putExtra(PARAM_METRICS_PORT, port);
+        context.startService(intent);
+    }
+
+    /**
+     * Sets where the pjsip native logs are written. The rotating log files are written in
+     * the application files directory, as pjsip.log, pjsip.log.1 and pjsip.log.2.
+     * Not persisted across service restarts.
+     * @param context application context
+     * @param logcat true to write them with the Logger delegate (logcat by default)
+     * @param file true to write them to the rotating log files
+     */
+    public static void setNativeLogOutput(Context context, boolean logcat, boolean file) {
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_SET_NATIVE_LOG_OUTPUT);
+        intent.putExtra(PARAM_NATIVE_LOG_LOGCAT, logcat);
+        intent.putExtra(PARAM_NATIVE_LOG_FILE, file);
+        context.startService(intent);
+    }
+
+    /**
+     * Changes the pjsip native log levels without restarting the stack. Levels go from 0
+     * (none) to 5 (trace) and only apply if native logging has been enabled with
+     * {@link #enableSipDebugLogging(boolean)}. Not persisted across service restarts.
+     * @param context application context
+     * @param level maximum level of the entries written to the log file
+     * @param consoleLevel maximum level of the entries written with the Logger delegate
+     */
+    public static void setNativeLogLevel(Context context, int level, int consoleLevel) {
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_SET_NATIVE_LOG_LEVEL);
+        intent.putExtra(PARAM_NATIVE_LOG_LEVEL, level);
+        intent.putExtra(PARAM_NATIVE_LOG_CONSOLE_LEVEL, consoleLevel);
+        context.startService(intent);
+    }
+
+    /**
+     * Filters the pjsip native logs by sender (the pjsip module or object writing them),
+     * matched by prefix, e.g. "pjsua_call.c" or "tsx". Errors and warnings are never filtered.
+     * Not persisted across service restarts.
+     * @param context application context
+     * @param include sender prefixes to keep, null or empty to keep every sender
+     * @param exclude sender prefixes to discard, null or empty to discard none
+     */
+    public static void setNativeLogFilter(Context context, ArrayList<String> include,
+                                          ArrayList<String> exclude) {
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_SET_NATIVE_LOG_FILTER);
+        intent.putStringArrayListExtra(PARAM_NATIVE_LOG_INCLUDE, include);
+        intent.putStringArrayListExtra(PARAM_NATIVE_LOG_EXCLUDE, exclude);
+        context.startService(intent);
+    }
+
+    /**
+     * Starts or stops capturing the SIP messages sent and received into rotating pcapng
+     * files, sip_capture/sip_capture.pcapng and sip_capture.pcapng.1 and .2 in the
+     * application files directory, which can be opened with Wireshark.
+     * URIs and credentials are obfuscated if obfuscation is enabled.
+     * The messages are taken from the pjsip message logging, so if native logging has not
+     * been enabled with {@link #enableSipDebugLogging(boolean)}, capturing begins after the
+     * stack is (re)started, e.g. with {@link #restartSipStack(Context)}.
+     * Not persisted across service restarts.
+     * @param context application context
+     * @param enabled true to start capturing, false to stop
+     */
+    public static void setSipMessageCapture(Context context, boolean enabled) {
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_SET_SIP_MESSAGE_CAPTURE);
+        intent.putExtra(PARAM_SIP_MESSAGE_CAPTURE, enabled);
+        context.startService(intent);
+    }
+
+    /**
+     * Reports the process CPU time per active call measured under each endpoint profile
+     * since the service started, net of the idle CPU of the stack. To compare profiles, make
+     * the same calls after restarting the stack with each of them, see
+     * {@link #setEndpointProfile(EndpointProfile)}. Results are written in the log.
+     * @param context application context
+     */
+    public static void benchmarkEndpointProfiles(Context context) {
+        Intent intent = new Intent(context, SipService.class);
+        intent.setAction(ACTION_BENCHMARK_ENDPOINT_PROFILES);
+        context.startService(intent);
+    }
 }
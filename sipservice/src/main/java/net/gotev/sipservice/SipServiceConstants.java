@@ -36,6 +36,23 @@ public interface SipServiceConstants {
     String ACTION_MAKE_DIRECT_CALL = "makeDirectCall";
     String ACTION_RECONNECT_CALL = "reconnectCall";
     String ACTION_MAKE_SILENT_CALL = "makeSilentCall";
+    String ACTION_SET_CALL_RECORDING = "setCallRecording";
+    String ACTION_PRELOAD_AUDIO_PROMPTS = "preloadAudioPrompts";
+    String ACTION_PLAY_AUDIO_PROMPT = "playAudioPrompt";
+    String ACTION_STOP_AUDIO_PROMPT = "stopAudioPrompt";
+    String ACTION_SET_AUDIO_PREWARM = "setAudioPrewarm";
+    String ACTION_GET_MEDIA_GRAPH = "getMediaGraph";
+    String ACTION_SET_CALL_PROBE = "setCallProbe";
+    String ACTION_SET_CALL_HANDOVER_MODE = "setCallHandoverMode";
+    String ACTION_GET_CALL_HISTORY = "getCallHistory";
+    String ACTION_GET_CALL_QUALITY = "getCallQuality";
+    String ACTION_DUMP_METRICS = "dumpMetrics";
+    String ACTION_SET_METRICS_ENDPOINT = "setMetricsEndpoint";
+    String ACTION_SET_NATIVE_LOG_OUTPUT = "setNativeLogOutput";
+    String ACTION_SET_NATIVE_LOG_LEVEL = "setNativeLogLevel";
+    String ACTION_SET_NATIVE_LOG_FILTER = "setNativeLogFilter";
+    String ACTION_SET_SIP_MESSAGE_CAPTURE = "setSipMessageCapture";
+    String ACTION_BENCHMARK_ENDPOINT_PROFILES = "benchmarkEndpointProfiles";
 
     /*
      * Generic Parameters
@@ -61,6 +78,28 @@ public interface SipServiceConstants {
     String PARAM_DIRECT_CALL_SIP_SERVER = "sipServer";
     String PARAM_DIRECT_CALL_TRANSPORT = "directTransport";
     String PARAM_IS_TRANSFER = "isTransfer";
+    String PARAM_CALL_RECORDING_CONFIG = "callRecordingConfig";
+    String PARAM_AUDIO_PROMPT_FILES = "audioPromptFiles";
+    String PARAM_AUDIO_PROMPT_BARGE_IN = "audioPromptBargeIn";
+    String PARAM_AUDIO_PREWARM = "audioPrewarm";
+    String PARAM_SND_AUTO_CLOSE_TIME = "sndAutoCloseTime";
+    String PARAM_CALL_PROBE_CONFIG = "callProbeConfig";
+    String PARAM_CALL_HANDOVER_MODE = "callHandoverMode";
+    String PARAM_CALL_HISTORY_FROM = "callHistoryFrom";
+    String PARAM_CALL_HISTORY_TO = "callHistoryTo";
+    String PARAM_CALL_HISTORY_PAGE = "callHistoryPage";
+    String PARAM_CALL_HISTORY_PAGE_SIZE = "callHistoryPageSize";
+    String PARAM_NETWORK_TYPE = "networkType";
+    String PARAM_CODEC = "codec";
+    String PARAM_METRICS_FILE = "metricsFile";
+    String PARAM_METRICS_PORT = "metricsPort";
+    String PARAM_NATIVE_LOG_LOGCAT = "nativeLogLogcat";
+    String PARAM_NATIVE_LOG_FILE = "nativeLogFile";
+    String PARAM_NATIVE_LOG_LEVEL = "nativeLogLevel";
+    String PARAM_NATIVE_LOG_CONSOLE_LEVEL = "nativeLogConsoleLevel";
+    String PARAM_NATIVE_LOG_INCLUDE = "nativeLogInclude";
+    String PARAM_NATIVE_LOG_EXCLUDE = "nativeLogExclude";
+    String PARAM_SIP_MESSAGE_CAPTURE = "sipMessageCapture";
 
     /**
      * Specific Parameters passed in the broadcast intents.
@@ -80,7 +119,18 @@ public interface SipServiceConstants {
     String PARAM_INCOMING_VIDEO_WIDTH = "incomingVideoWidth";
     String PARAM_INCOMING_VIDEO_HEIGHT = "incomingVideoHeight";
     String PARAM_CALL_RECONNECTION_STATE = "callReconnectionState";
+    String PARAM_CALL_RECONNECTION_DURATION = "callReconnectionDuration";
+    String PARAM_CALL_RECONNECTION_SUCCESS_RATE = "callReconnectionSuccessRate";
     String PARAM_SILENT_CALL_STATUS = "silentCallStatus";
+    String PARAM_CALL_RECORDING_FILES = "callRecordingFiles";
+    String PARAM_AUDIO_PROMPT_STATE = "audioPromptState";
+    String PARAM_MEDIA_GRAPH = "mediaGraph";
+    String PARAM_CALL_SETUP_TIMELINE = "callSetupTimeline";
+    String PARAM_CALL_PROBE_RESULT = "callProbeResult";
+    String PARAM_CALL_HISTORY = "callHistory";
+    String PARAM_CALL_HISTORY_TOTAL = "callHistoryTotal";
+    String PARAM_CALL_QUALITY = "callQuality";
+    String PARAM_CALL_QUALITY_TOTAL = "callQualityTotal";
 
     /**
      * Specific Parameters passed in the broadcast intents for call stats.
@@ -90,6 +140,9 @@ public interface SipServiceConstants {
     String PARAM_CALL_STATS_CALL_STATUS = "callStatsCallStatus";
     String PARAM_CALL_STATS_RX_STREAM = "callStatsRxStream";
     String PARAM_CALL_STATS_TX_STREAM = "callStatsTxStream";
+    String PARAM_CALL_STATS_STREAM = "callStatsStream";
+    String PARAM_CALL_STATS_VIDEO = "callStatsVideo";
+    String PARAM_VIDEO_STATS = "videoStats";
 
     /**
      * Video Configuration Params
@@ -116,6 +169,10 @@ public interface SipServiceConstants {
      * Generic Constants
      */
     int DELAYED_JOB_DEFAULT_DELAY = 5000;
+    int AUDIO_PROMPT_CACHE_SIZE = 16;
+    int DEFAULT_SND_AUTO_CLOSE_TIME = 1;     // pjsua default, in seconds
+    String METRICS_FILE_NAME = "metrics.prom";
+    String SIP_CAPTURE_DIRECTORY = "sip_capture";
 
     /**
      * SIP DEFAULT PORTS
@@ -6,6 +6,8 @@ import static net.gotev.sipservice.SipServiceConstants.H264_DEF_WIDTH;
 import static net.gotev.sipservice.SipServiceConstants.PROFILE_LEVEL_ID_HEADER;
 import static net.gotev.sipservice.SipServiceConstants.PROFILE_LEVEL_ID_JANUS_BRIDGE;
 
+import android.content.Context;
+
 import org.pjsip.pjsua2.CodecFmtpVector;
 import org.pjsip.pjsua2.CodecInfo;
 import org.pjsip.pjsua2.EpConfig;
@@ -13,6 +15,9 @@ import org.pjsip.pjsua2.LogConfig;
 import org.pjsip.pjsua2.MediaFormatVideo;
 import org.pjsip.pjsua2.VidCodecParam;
 
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
 
 /**
@@ -25,20 +30,55 @@ public class SipServiceUtils {
 
     private static final String TAG = "SipServiceUtils";
     public static boolean ENABLE_SIP_LOGGING = false;
+    public static boolean AUDIO_ONLY_STACK = false;
+    public static EndpointProfile ENDPOINT_PROFILE = EndpointProfile.BALANCED;
     // Keeping the reference avoids the logger being garbage collected thus crashing the lib
     @SuppressWarnings("FieldCanBeLocal")
     private static SipLogger sipLogger;
+    private static int nativeLogLevel = 0;
 
     /**
      * Sets logger writer and decor flags on the endpoint config
-     * Change flags as needed
+     * Change flags as needed.
+     * The native levels are set to the maximum, the effective ones are set at runtime
+     * with {@link SipServiceCommand#setNativeLogLevel(Context, int, int)}.
+     * If native logging is disabled but SIP messages are being captured, the level is the
+     * one of the message logging, and the entries are not logged.
      */
     public static void setSipLogger(EpConfig epConfig) {
         LogConfig logCfg = epConfig.getLogConfig();
-        sipLogger = new SipLogger();
+        sipLogger = new SipLogger(ENABLE_SIP_LOGGING);
         logCfg.setWriter(sipLogger);
         logCfg.setDecor(sipLogger.getDecor());
-        logCfg.setLevel(ENABLE_SIP_LOGGING ? 5 : 0);
+        int level = ENABLE_SIP_LOGGING ? NativeLogDrainer.MAX_LEVEL
+                : SipMessageCapture.getActive() != null ? SipMessageCapture.MESSAGE_LEVEL : 0;
+        logCfg.setLevel(level);
+        logCfg.setConsoleLevel(level);
+        nativeLogLevel = level;
+    }
+
+    /**
+     * @return resident set size of the process in kB, or 0 if it can't be read
+     */
+    static long readResidentSetKb() {
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.substring(6).replace("kB", "").trim());
+                }
+            }
+        } catch (IOException | NumberFormatException exc) {
+            Logger.error(TAG, "Error while reading the resident set size", exc);
+        }
+        return 0;
+    }
+
+    /**
+     * @return the native log level set by the last {@link #setSipLogger(EpConfig)}
+     */
+    static int getNativeLogLevel() {
+        return nativeLogLevel;
     }
 
     public static void setAudioCodecPriorities (
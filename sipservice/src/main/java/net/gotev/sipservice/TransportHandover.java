@@ -0,0 +1,187 @@
+package net.gotev.sipservice;
+
+import org.pjsip.pjsua2.Endpoint;
+import org.pjsip.pjsua2.TransportConfig;
+import org.pjsip.pjsua2.pjsip_transport_type_e;
+
+import java.util.ArrayList;
+
+/**
+ * Make-before-break handover of the UDP transport to a new network.
+ * A new transport is created while the old one is still up, the UDP accounts are bound to
+ * it, which re-registers them, and calls are re-INVITEd with re-initialised media.
+ * The old transport is closed only once RTP is received on the new stream of every call.
+ * If that doesn't happen before a timeout, the handover is rolled back: accounts are bound
+ * to the old transport again, calls are re-INVITEd through it and the new transport is
+ * closed. Calls are never hung up.
+ * The audio gap of each call is measured from the old stream destruction to the first
+ * packet received on the new one. All the jobs run on the service thread.
+ */
+class TransportHandover {
+
+    private static final String TAG = TransportHandover.class.getSimpleName();
+    private static final long POLL_INTERVAL_MS = 20;
+    private static final long TIMEOUT_MS = 5000;
+
+    private final SipService service;
+    private final ArrayList<SipAccount> reboundAccounts = new ArrayList<>();
+    private final ArrayList<PendingCall> calls = new ArrayList<>();
+    private boolean running = false;
+    private long startTimestamp;
+    private int oldTransportId;
+    private int newTransportId;
+
+    private final Runnable pollJob = this::pollMedia;
+
+    TransportHandover(SipService service) {
+        this.service = service;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Starts the handover. The service is notified of the outcome through
+     * {@link SipService#onTransportHandoverFinished(boolean, int)}.
+     * @param endpoint started endpoint
+     * @param oldTransportId UDP transport bound to the old network
+     * @param transportConfig configuration of the new UDP transport
+     * @throws Exception if the new transport can't be created
+     */
+    void start(Endpoint endpoint, int oldTransportId, TransportConfig transportConfig) throws Exception {
+        this.oldTransportId = oldTransportId;
+        newTransportId = endpoint.transportCreate(pjsip_transport_type_e.PJSIP_TRANSPORT_UDP, transportConfig);
+        running = true;
+        startTimestamp = System.nanoTime();
+        Logger.info(TAG, "Handover started from transport " + oldTransportId + " to " + newTransportId
+                + " bound to " + transportConfig.getBoundAddress());
+
+        for (SipAccount account : SipService.getActiveSipAccounts().values()) {
+            // TCP and TLS accounts keep their transport, their connections are re-established
+            if (account.getData().getTransport() != SipAccountTransport.UDP) continue;
+
+            try {
+                account.bindTransport(newTransportId);
+                reboundAccounts.add(account);
+            } catch (Exception exc) {
+                Logger.error(TAG, "Error while binding account to the new transport", exc);
+                continue;
+            }
+
+            for (int callId : new ArrayList<>(account.getCallIDs())) {
+                SipCall call = account.getCall(callId);
+                if (call == null || !call.isActive() || call.getAudioMediaIndex() < 0) continue;
+
+                try {
+                    PendingCall pendingCall = new PendingCall(account, call);
+                    call.reinviteForHandover();
+                    calls.add(pendingCall);
+                } catch (Exception exc) {
+                    Logger.error(TAG, "Error while re-INVITEing call " + callId, exc);
+                }
+            }
+        }
+
+        service.enqueueJob(pollJob);
+    }
+
+    void cancel() {
+        service.dequeueJob(pollJob);
+        reboundAccounts.clear();
+        calls.clear();
+        running = false;
+    }
+
+    private void pollMedia() {
+        if (!running) return;
+
+        int pending = 0;
+        for (PendingCall pendingCall : calls) {
+            SipCall call = pendingCall.call;
+
+            // already on the new path, or disconnected in the meantime
+            if (pendingCall.moved || !pendingCall.isActive()) continue;
+
+            if (call.getStreamGeneration() != pendingCall.streamGeneration) {
+                try {
+                    int mediaIndex = call.getAudioMediaIndex();
+                    if (mediaIndex >= 0 && call.getStreamStat(mediaIndex).getRtcp().getRxStat().getPkt() > 0) {
+                        long gap = (System.nanoTime() - call.getStreamDestroyedTimestamp()) / 1000000;
+                        service.getHandoverAudioGapHistogram().observeMillis(gap);
+                        Logger.info(TAG, "Media flowing on the new path for call " + pendingCall.callId
+                                + ", audio gap ms: " + gap);
+                        pendingCall.moved = true;
+                        continue;
+                    }
+                } catch (Exception exc) {
+                    Logger.debug(TAG, "Stream not ready yet for call " + pendingCall.callId);
+                }
+            }
+            pending++;
+        }
+
+        if (pending == 0) {
+            finish(true);
+        } else if ((System.nanoTime() - startTimestamp) / 1000000 >= TIMEOUT_MS) {
+            Logger.error(TAG, "No media on the new path for " + pending + " calls, rolling back");
+            rollBack();
+            finish(false);
+        } else {
+            service.enqueueDelayedJob(pollJob, POLL_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * Moves accounts and calls back to the old transport, which is still up.
+     */
+    private void rollBack() {
+        for (SipAccount account : reboundAccounts) {
+            try {
+                account.bindTransport(oldTransportId);
+            } catch (Exception exc) {
+                Logger.error(TAG, "Error while binding account to the old transport", exc);
+            }
+        }
+
+        for (PendingCall pendingCall : calls) {
+            if (!pendingCall.isActive()) continue;
+            try {
+                pendingCall.call.reinviteForHandover();
+            } catch (Exception exc) {
+                Logger.error(TAG, "Error while re-INVITEing call " + pendingCall.callId, exc);
+            }
+        }
+    }
+
+    private void finish(boolean success) {
+        reboundAccounts.clear();
+        calls.clear();
+        running = false;
+        service.closeTransport(success ? oldTransportId : newTransportId);
+        int transportId = success ? newTransportId : oldTransportId;
+        Logger.info(TAG, "Handover " + (success ? "completed" : "rolled back") + " to transport "
+                + transportId + " in ms: " + (System.nanoTime() - startTimestamp) / 1000000 + " - "
+                + "Handover audio gap - " + service.getHandoverAudioGapHistogram());
+        service.onTransportHandoverFinished(success, transportId);
+    }
+
+    private static class PendingCall {
+        final SipAccount account;
+        final SipCall call;
+        final int callId;
+        final int streamGeneration;
+        boolean moved = false;
+
+        PendingCall(SipAccount account, SipCall call) {
+            this.account = account;
+            this.call = call;
+            this.callId = call.getId();
+            this.streamGeneration = call.getStreamGeneration();
+        }
+
+        boolean isActive() {
+            return account.getCall(callId) == call;
+        }
+    }
+}
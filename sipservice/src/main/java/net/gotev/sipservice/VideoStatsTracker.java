@@ -0,0 +1,154 @@
+package net.gotev.sipservice;
+
+import org.pjsip.pjsua2.MediaFormatVideo;
+import org.pjsip.pjsua2.RtcpStreamStat;
+import org.pjsip.pjsua2.StreamInfo;
+import org.pjsip.pjsua2.StreamStat;
+import org.pjsip.pjsua2.VidCodecParam;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Samples the video stream of a call on the service thread and emits its statistics at a
+ * fixed interval, which also throttles the events. RTCP feedback and keyframe counters are
+ * updated from the pjsip callbacks.
+ */
+class VideoStatsTracker {
+
+    private static final String TAG = VideoStatsTracker.class.getSimpleName();
+    static final long SAMPLE_INTERVAL_MS = 5000;
+
+    private final SipCall call;
+    private final SipService service;
+    private final String accountID;
+    private final AtomicLong keyframesSent = new AtomicLong();
+    private final AtomicLong pliReceived = new AtomicLong();
+    private final AtomicLong nackReceived = new AtomicLong();
+    private final AtomicLong keyframesMissing = new AtomicLong();
+    private volatile int rxWidth = 0;
+    private volatile int rxHeight = 0;
+
+    // accessed only on the service thread
+    private boolean running = false;
+    private long lastTimestamp = 0;
+    private long lastRxBytes = 0;
+    private long lastTxBytes = 0;
+
+    private final Runnable sampleJob = this::sample;
+
+    VideoStatsTracker(SipCall call, SipAccount account) {
+        this.call = call;
+        this.service = account.getService();
+        this.accountID = account.getData().getIdUri();
+    }
+
+    void start() {
+        service.enqueueJob(() -> {
+            if (running) return;
+            running = true;
+            lastTimestamp = System.nanoTime();
+            service.enqueueDelayedJob(sampleJob, SAMPLE_INTERVAL_MS);
+        });
+    }
+
+    void stop() {
+        service.dequeueJob(sampleJob);
+        service.enqueueJob(() -> running = false);
+    }
+
+    void onKeyframeSent() {
+        keyframesSent.incrementAndGet();
+    }
+
+    void onPli() {
+        pliReceived.incrementAndGet();
+    }
+
+    void onNack() {
+        nackReceived.incrementAndGet();
+    }
+
+    void onKeyframeMissing() {
+        keyframesMissing.incrementAndGet();
+    }
+
+    void onRxSize(int width, int height) {
+        rxWidth = width;
+        rxHeight = height;
+    }
+
+    /**
+     * Builds the statistics of the video stream.
+     * @param info video stream info
+     * @param stat video stream statistics
+     * @param intervalMillis interval elapsed since the previous bitrate measure
+     * @param rxBytes received bytes in the interval
+     * @param txBytes sent bytes in the interval
+     * @return video stream statistics
+     */
+    VideoStreamStats build(StreamInfo info, StreamStat stat, long intervalMillis, long rxBytes, long txBytes) {
+        VideoStreamStats stats = new VideoStreamStats()
+                .setCodec(info.getCodecName())
+                .setIntervalMillis(intervalMillis)
+                .setFeedback(keyframesSent.get(), pliReceived.get(), nackReceived.get(), keyframesMissing.get());
+
+        VidCodecParam param = info.getVidCodecParam();
+        MediaFormatVideo dec = param.getDecFmt();
+        MediaFormatVideo enc = param.getEncFmt();
+        RtcpStreamStat rx = stat.getRtcp().getRxStat();
+        RtcpStreamStat tx = stat.getRtcp().getTxStat();
+        int width = rxWidth > 0 ? rxWidth : (int) dec.getWidth();
+        int height = rxHeight > 0 ? rxHeight : (int) dec.getHeight();
+
+        stats.setRx(width, height, fps(dec), bitrate(rxBytes, intervalMillis), rx.getPkt(), rx.getLoss());
+        stats.setTx((int) enc.getWidth(), (int) enc.getHeight(), fps(enc),
+                bitrate(txBytes, intervalMillis), tx.getPkt(), tx.getLoss());
+        return stats;
+    }
+
+    /**
+     * Builds the end of call statistics from the stream captured when it was destroyed,
+     * with the bitrates averaged over the whole call.
+     */
+    VideoStreamStats buildFinal(StreamInfo info, StreamStat stat, long durationMillis) {
+        return build(info, stat, durationMillis,
+                stat.getRtcp().getRxStat().getBytes(), stat.getRtcp().getTxStat().getBytes());
+    }
+
+    private void sample() {
+        if (!running || !call.isActive()) return;
+
+        int mediaIndex = call.vidGetStreamIdx();
+        if (mediaIndex >= 0) {
+            try {
+                StreamStat stat = call.getStreamStat(mediaIndex);
+                long now = System.nanoTime();
+                long rxBytes = stat.getRtcp().getRxStat().getBytes();
+                long txBytes = stat.getRtcp().getTxStat().getBytes();
+                // counters restart when the stream is re-created
+                long rxDelta = rxBytes >= lastRxBytes ? rxBytes - lastRxBytes : rxBytes;
+                long txDelta = txBytes >= lastTxBytes ? txBytes - lastTxBytes : txBytes;
+
+                VideoStreamStats stats = build(call.getStreamInfo(mediaIndex), stat,
+                        (now - lastTimestamp) / 1000000, rxDelta, txDelta);
+                lastTimestamp = now;
+                lastRxBytes = rxBytes;
+                lastTxBytes = txBytes;
+
+                service.getBroadcastEmitter().videoStats(accountID, call.getId(), stats);
+            } catch (Exception exc) {
+                Logger.error(TAG, "Error while sampling video stats", exc);
+            }
+        }
+
+        service.enqueueDelayedJob(sampleJob, SAMPLE_INTERVAL_MS);
+    }
+
+    private static float fps(MediaFormatVideo format) {
+        return format.getFpsDenum() == 0 ? 0 : (float) format.getFpsNum() / format.getFpsDenum();
+    }
+
+    private static long bitrate(long bytes, long intervalMillis) {
+        return intervalMillis <= 0 ? 0 : bytes * 8000 / intervalMillis;
+    }
+}
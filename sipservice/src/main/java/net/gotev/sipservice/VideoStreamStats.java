@@ -0,0 +1,247 @@
+package net.gotev.sipservice;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Statistics of the video stream of a call.
+ * Resolutions and frame rates are the ones negotiated for the encoder and the decoder,
+ * the received resolution is updated with the format changes notified by the decoder.
+ * Bitrates are measured over the last sampling interval, packet counters, RTCP feedback and
+ * keyframe counters are cumulative since the start of the call.
+ */
+@SuppressWarnings("unused")
+public class VideoStreamStats implements Parcelable {
+
+    private String codec;
+    private long intervalMillis;
+    private int rxWidth;
+    private int rxHeight;
+    private float rxFps;
+    private long rxBitrate;
+    private long rxPackets;
+    private long rxLoss;
+    private int txWidth;
+    private int txHeight;
+    private float txFps;
+    private long txBitrate;
+    private long txPackets;
+    private long txLoss;
+    private long keyframesSent;
+    private long pliReceived;
+    private long nackReceived;
+    private long keyframesMissing;
+
+    VideoStreamStats() { }
+
+    public static final Parcelable.Creator<VideoStreamStats> CREATOR =
+            new Parcelable.Creator<VideoStreamStats>() {
+                @Override
+                public VideoStreamStats createFromParcel(final Parcel in) {
+                    return new VideoStreamStats(in);
+                }
+
+                @Override
+                public VideoStreamStats[] newArray(final int size) {
+                    return new VideoStreamStats[size];
+                }
+            };
+
+    private VideoStreamStats(Parcel in) {
+        codec = in.readString();
+        intervalMillis = in.readLong();
+        rxWidth = in.readInt();
+        rxHeight = in.readInt();
+        rxFps = in.readFloat();
+        rxBitrate = in.readLong();
+        rxPackets = in.readLong();
+        rxLoss = in.readLong();
+        txWidth = in.readInt();
+        txHeight = in.readInt();
+        txFps = in.readFloat();
+        txBitrate = in.readLong();
+        txPackets = in.readLong();
+        txLoss = in.readLong();
+        keyframesSent = in.readLong();
+        pliReceived = in.readLong();
+        nackReceived = in.readLong();
+        keyframesMissing = in.readLong();
+    }
+
+    @Override
+    public void writeToParcel(Parcel parcel, int arg1) {
+        parcel.writeString(codec);
+        parcel.writeLong(intervalMillis);
+        parcel.writeInt(rxWidth);
+        parcel.writeInt(rxHeight);
+        parcel.writeFloat(rxFps);
+        parcel.writeLong(rxBitrate);
+        parcel.writeLong(rxPackets);
+        parcel.writeLong(rxLoss);
+        parcel.writeInt(txWidth);
+        parcel.writeInt(txHeight);
+        parcel.writeFloat(txFps);
+        parcel.writeLong(txBitrate);
+        parcel.writeLong(txPackets);
+        parcel.writeLong(txLoss);
+        parcel.writeLong(keyframesSent);
+        parcel.writeLong(pliReceived);
+        parcel.writeLong(nackReceived);
+        parcel.writeLong(keyframesMissing);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    VideoStreamStats setCodec(String codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    VideoStreamStats setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+        return this;
+    }
+
+    VideoStreamStats setRx(int width, int height, float fps, long bitrate, long packets, long loss) {
+        this.rxWidth = width;
+        this.rxHeight = height;
+        this.rxFps = fps;
+        this.rxBitrate = bitrate;
+        this.rxPackets = packets;
+        this.rxLoss = loss;
+        return this;
+    }
+
+    VideoStreamStats setTx(int width, int height, float fps, long bitrate, long packets, long loss) {
+        this.txWidth = width;
+        this.txHeight = height;
+        this.txFps = fps;
+        this.txBitrate = bitrate;
+        this.txPackets = packets;
+        this.txLoss = loss;
+        return this;
+    }
+
+    VideoStreamStats setFeedback(long keyframesSent, long pliReceived, long nackReceived, long keyframesMissing) {
+        this.keyframesSent = keyframesSent;
+        this.pliReceived = pliReceived;
+        this.nackReceived = nackReceived;
+        this.keyframesMissing = keyframesMissing;
+        return this;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    /**
+     * @return interval over which the bitrates have been measured
+     */
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public int getRxWidth() {
+        return rxWidth;
+    }
+
+    public int getRxHeight() {
+        return rxHeight;
+    }
+
+    public float getRxFps() {
+        return rxFps;
+    }
+
+    /**
+     * @return received bits per second, RTP payload and headers
+     */
+    public long getRxBitrate() {
+        return rxBitrate;
+    }
+
+    public long getRxPackets() {
+        return rxPackets;
+    }
+
+    public long getRxLoss() {
+        return rxLoss;
+    }
+
+    public int getTxWidth() {
+        return txWidth;
+    }
+
+    public int getTxHeight() {
+        return txHeight;
+    }
+
+    public float getTxFps() {
+        return txFps;
+    }
+
+    /**
+     * @return sent bits per second, RTP payload and headers
+     */
+    public long getTxBitrate() {
+        return txBitrate;
+    }
+
+    public long getTxPackets() {
+        return txPackets;
+    }
+
+    /**
+     * @return packets lost in the sending direction, as reported by the remote party RTCP
+     */
+    public long getTxLoss() {
+        return txLoss;
+    }
+
+    /**
+     * @return keyframes sent in reply to the remote party requests
+     */
+    public long getKeyframesSent() {
+        return keyframesSent;
+    }
+
+    /**
+     * @return picture loss indications received from the remote party
+     */
+    public long getPliReceived() {
+        return pliReceived;
+    }
+
+    /**
+     * @return generic NACKs received from the remote party
+     */
+    public long getNackReceived() {
+        return nackReceived;
+    }
+
+    /**
+     * @return times the decoder waited for a missing keyframe
+     */
+    public long getKeyframesMissing() {
+        return keyframesMissing;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Codec: " + codec +
+                ", Rx: " + rxWidth + "x" + rxHeight + "@" + rxFps + " " + rxBitrate + "bps" +
+                " pkt " + rxPackets + " loss " + rxLoss +
+                ", Tx: " + txWidth + "x" + txHeight + "@" + txFps + " " + txBitrate + "bps" +
+                " pkt " + txPackets + " loss " + txLoss +
+                ", Keyframes sent: " + keyframesSent +
+                ", PLI: " + pliReceived +
+                ", NACK: " + nackReceived +
+                ", Keyframes missing: " + keyframesMissing;
+    }
+}
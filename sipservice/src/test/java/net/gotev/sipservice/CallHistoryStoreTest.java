@@ -0,0 +1,126 @@
+package net.gotev.sipservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class CallHistoryStoreTest {
+
+    private File directory;
+    private CallHistoryStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("call-history").toFile();
+        store = new CallHistoryStore(directory);
+    }
+
+    @After
+    public void tearDown() {
+        store.shutdown();
+        delete(directory);
+    }
+
+    @Test
+    public void testQueryReturnsMostRecentFirst() throws Exception {
+        store.add(record(1, "sip:alice@test.com", 1000));
+        store.add(record(2, "sip:bob@test.com", 2000));
+        store.add(record(3, "sip:alice@test.com", 3000));
+
+        Page page = query(store, 0, 0, null, 0, 10);
+        assertEquals(3, page.total);
+        assertEquals(3, page.records.get(0).getCallId());
+        assertEquals(2, page.records.get(1).getCallId());
+        assertEquals(1, page.records.get(2).getCallId());
+    }
+
+    @Test
+    public void testQueryFiltersAndPages() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            store.add(record(i, "sip:alice@test.com", 1000 + i));
+        }
+        store.add(record(5, "sip:bob@test.com", 1005));
+
+        Page alice = query(store, 1001, 1004, "sip:alice@test.com", 1, 2);
+        assertEquals(3, alice.total);
+        assertEquals(1, alice.records.size());
+        assertEquals(1, alice.records.get(0).getCallId());
+
+        Page bob = query(store, 0, 0, "sip:bob@test.com", 0, 10);
+        assertEquals(1, bob.total);
+        assertEquals(5, bob.records.get(0).getCallId());
+    }
+
+    @Test
+    public void testRecordsAreReadBackAfterRestart() throws Exception {
+        store.add(record(1, "sip:alice@test.com", 1000));
+        store.add(record(2, "sip:bob@test.com", 2000));
+        assertEquals(2, query(store, 0, 0, null, 0, 10).total);
+        store.shutdown();
+
+        // without index the data file is scanned again
+        assertTrue(new File(directory, CallHistoryStore.INDEX_FILE_NAME).delete());
+        store = new CallHistoryStore(directory);
+        Page page = query(store, 0, 0, null, 0, 10);
+        assertEquals(2, page.total);
+        assertEquals("sip:bob@test.com", page.records.get(0).getRemoteUri());
+    }
+
+    @Test
+    public void testUnwrittenRecordsAreKeptForRetry() throws Exception {
+        delete(directory);
+        store.add(record(1, "sip:alice@test.com", 1000));
+        assertEquals(0, query(store, 0, 0, null, 0, 10).total);
+
+        assertTrue(directory.mkdirs());
+        store.add(record(2, "sip:bob@test.com", 2000));
+        Page page = query(store, 0, 0, null, 0, 10);
+        assertEquals(2, page.total);
+        assertEquals(2, page.records.get(0).getCallId());
+        assertEquals(1, page.records.get(1).getCallId());
+    }
+
+    private static CallHistoryRecord record(int callId, String remoteUri, long startTimestamp) {
+        return new CallHistoryRecord()
+                .setCallId(callId)
+                .setAccountID("sip:user@test.com")
+                .setRemoteUri(remoteUri)
+                .setStartTimestamp(startTimestamp)
+                .setEndTimestamp(startTimestamp + 1000);
+    }
+
+    private static Page query(CallHistoryStore store, long from, long to, String remoteUri,
+                              int page, int pageSize) throws InterruptedException {
+        Page result = new Page();
+        CountDownLatch done = new CountDownLatch(1);
+        store.query(from, to, remoteUri, page, pageSize, (records, total) -> {
+            result.records = records;
+            result.total = total;
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        return result;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) delete(child);
+        }
+        file.delete();
+    }
+
+    private static class Page {
+        ArrayList<CallHistoryRecord> records;
+        int total;
+    }
+}
@@ -0,0 +1,117 @@
+package net.gotev.sipservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LoggerTest {
+
+    private final List<String> messages = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Logger.setLoggerDelegate(new Logger.LoggerDelegate() {
+            @Override
+            public void error(String tag, String message) {
+                messages.add("E " + message);
+            }
+
+            @Override
+            public void error(String tag, String message, Throwable exception) {
+                messages.add("E " + message);
+            }
+
+            @Override
+            public void warning(String tag, String message) {
+                messages.add("W " + message);
+            }
+
+            @Override
+            public void info(String tag, String message) {
+                messages.add("I " + message);
+            }
+
+            @Override
+            public void debug(String tag, String message) {
+                messages.add("D " + message);
+            }
+        });
+        Logger.setLogLevel(Logger.LogLevel.DEBUG);
+    }
+
+    @After
+    public void tearDown() {
+        Logger.resetLoggerDelegate();
+        Logger.setLogLevel(Logger.LogLevel.DEBUG);
+    }
+
+    @Test
+    public void testFormat() {
+        assertEquals("no placeholders", Logger.format("no placeholders"));
+        assertEquals("call 3 port 5 to 7", Logger.format("call {} port {} to {}", 3, 5, 7));
+        assertEquals("null value", Logger.format("{} value", (Object) null));
+        assertEquals("{} at the end", Logger.format("{} at the end"));
+    }
+
+    @Test
+    public void testFormatArgumentsAndPlaceholdersMismatch() {
+        assertEquals("a b {}", Logger.format("{} {} {}", "a", "b"));
+        assertEquals("a", Logger.format("{}", "a", "b"));
+        assertEquals("{x} a", Logger.format("{x} {}", "a"));
+    }
+
+    @Test
+    public void testTemplateOverloads() {
+        Logger.debug("tag", "id {}", 42L);
+        Logger.debug("tag", "uri {}", "sip:alice@test.com");
+        Logger.info("tag", "{} of {}", 1, 2);
+        Logger.info("tag", "{}, {} and {}", "a", "b", "c");
+        Logger.debug("tag", "no placeholder", 1L);
+
+        assertEquals("D id 42", messages.get(0));
+        assertEquals("D uri sip:alice@test.com", messages.get(1));
+        assertEquals("I 1 of 2", messages.get(2));
+        assertEquals("I a, b and c", messages.get(3));
+        assertEquals("D no placeholder", messages.get(4));
+    }
+
+    @Test
+    public void testDisabledLevelsAreNotFormatted() {
+        Logger.setLogLevel(Logger.LogLevel.WARNING);
+
+        assertFalse(Logger.isLoggable(Logger.LogLevel.DEBUG));
+        assertFalse(Logger.isLoggable(Logger.LogLevel.INFO));
+        assertTrue(Logger.isLoggable(Logger.LogLevel.WARNING));
+        assertTrue(Logger.isLoggable(Logger.LogLevel.ERROR));
+
+        Logger.debug("tag", () -> {
+            throw new AssertionError("supplier invoked");
+        });
+        Logger.info("tag", "value {}", new Object() {
+            @Override
+            public String toString() {
+                throw new AssertionError("argument formatted");
+            }
+        });
+        Logger.warning("tag", "warning");
+        assertEquals(1, messages.size());
+        assertEquals("W warning", messages.get(0));
+    }
+
+    @Test
+    public void testOffIsNeverLoggable() {
+        Logger.setLogLevel(Logger.LogLevel.OFF);
+        assertFalse(Logger.isLoggable(Logger.LogLevel.ERROR));
+        assertFalse(Logger.isLoggable(Logger.LogLevel.OFF));
+
+        Logger.error("tag", "error");
+        assertTrue(messages.isEmpty());
+    }
+}
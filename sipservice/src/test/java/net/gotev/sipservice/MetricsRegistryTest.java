@@ -0,0 +1,132 @@
+package net.gotev.sipservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class MetricsRegistryTest {
+
+    private final MetricsRegistry registry = MetricsRegistry.getInstance();
+
+    @Test
+    public void testCounterExposition() {
+        registry.counter("test_requests_total", "Requests", "method", "INVITE").inc();
+        registry.counter("test_requests_total", "Requests", "method", "INVITE").inc(2);
+        registry.counter("test_requests_total", "Requests", "method", "BYE").inc();
+
+        assertEquals("# HELP test_requests_total Requests\n"
+                        + "# TYPE test_requests_total counter\n"
+                        + "test_requests_total{method=\"BYE\"} 1\n"
+                        + "test_requests_total{method=\"INVITE\"} 3\n",
+                family("test_requests_total"));
+    }
+
+    @Test
+    public void testSeriesAreCreatedOnce() {
+        MetricsRegistry.Counter counter = registry.counter("test_once_total", "Once");
+        assertSame(counter, registry.counter("test_once_total", "Once"));
+    }
+
+    @Test
+    public void testGaugeIsReadAtScrapeAndReplaced() {
+        registry.gauge("test_gauge", "Gauge", () -> 1, "name", "a\"b\\c\nd");
+        registry.gauge("test_gauge", "Gauge", () -> 42, "name", "a\"b\\c\nd");
+        registry.gauge("test_gauge_failing", "Failing gauge", () -> {
+            throw new IllegalStateException();
+        });
+
+        assertEquals("# HELP test_gauge Gauge\n"
+                        + "# TYPE test_gauge gauge\n"
+                        + "test_gauge{name=\"a\\\"b\\\\c\\nd\"} 42\n",
+                family("test_gauge"));
+        assertEquals("# HELP test_gauge_failing Failing gauge\n"
+                        + "# TYPE test_gauge_failing gauge\n",
+                family("test_gauge_failing"));
+    }
+
+    @Test
+    public void testHistogramExposition() {
+        MetricsRegistry.Histogram histogram = registry.histogram("test_duration_seconds", "Duration",
+                new double[]{0.01, 0.1, 1}, "op", "call");
+        histogram.observeNanos(5000000);
+        histogram.observeNanos(50000000);
+        histogram.observeNanos(2000000000);
+
+        assertEquals("# HELP test_duration_seconds Duration\n"
+                        + "# TYPE test_duration_seconds histogram\n"
+                        + "test_duration_seconds_bucket{op=\"call\",le=\"0.01\"} 1\n"
+                        + "test_duration_seconds_bucket{op=\"call\",le=\"0.1\"} 2\n"
+                        + "test_duration_seconds_bucket{op=\"call\",le=\"1\"} 2\n"
+                        + "test_duration_seconds_bucket{op=\"call\",le=\"+Inf\"} 3\n"
+                        + "test_duration_seconds_sum{op=\"call\"} 2.055\n"
+                        + "test_duration_seconds_count{op=\"call\"} 3\n",
+                family("test_duration_seconds"));
+    }
+
+    @Test
+    public void testHistogramSummary() {
+        MetricsRegistry.Histogram histogram = registry.histogram("test_latency_seconds", "Latency",
+                MetricsRegistry.LATENCY_BUCKETS);
+        assertEquals(-1, histogram.getPercentileMillis(50));
+        assertEquals("count: 0, mean ms: -1, p50 ms: -1, p95 ms: -1, max ms: 0", histogram.toString());
+
+        histogram.observeMillis(-5);
+        for (int i = 0; i < 90; i++) {
+            histogram.observeMillis(15);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.observeMillis(700);
+        }
+
+        assertEquals(100, histogram.getCount());
+        // upper bounds of the buckets, capped to the highest observed value
+        assertEquals(25, histogram.getPercentileMillis(50));
+        assertEquals(700, histogram.getPercentileMillis(95));
+        assertEquals("count: 100, mean ms: 83, p50 ms: 25, p95 ms: 700, max ms: 700", histogram.toString());
+    }
+
+    @Test
+    public void testHistogramPercentileBeyondLastBucket() {
+        MetricsRegistry.Histogram histogram = registry.histogram("test_long_seconds", "Long",
+                MetricsRegistry.LATENCY_BUCKETS);
+        histogram.observeMillis(10);
+        histogram.observeMillis(50000);
+
+        assertEquals(10, histogram.getPercentileMillis(50));
+        assertEquals(50000, histogram.getPercentileMillis(100));
+    }
+
+    @Test
+    public void testWriteTo() throws Exception {
+        registry.counter("test_written_total", "Written").inc();
+        File directory = Files.createTempDirectory("metrics").toFile();
+        File file = new File(directory, "metrics.prom");
+
+        assertTrue(registry.writeTo(file));
+        String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        assertTrue(content.contains("test_written_total 1\n"));
+        assertTrue(file.delete());
+        assertTrue(directory.delete());
+    }
+
+    /**
+     * @return the lines of the given metric family in the scrape output
+     */
+    private String family(String name) {
+        StringBuilder out = new StringBuilder();
+        for (String line : registry.scrape().split("\n")) {
+            String metric = line.startsWith("# ") ? line.split(" ")[2] : line.split("[{ ]")[0];
+            if (metric.equals(name) || metric.equals(name + "_bucket")
+                    || metric.equals(name + "_sum") || metric.equals(name + "_count")) {
+                out.append(line).append('\n');
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,142 @@
+package net.gotev.sipservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class NativeLogBufferTest {
+
+    @Test
+    public void testCapacityIsRoundedToPowerOfTwo() {
+        assertEquals(8, new NativeLogBuffer(5, NativeLogBuffer.OverflowPolicy.DROP_NEWEST).capacity());
+        assertEquals(8, new NativeLogBuffer(8, NativeLogBuffer.OverflowPolicy.DROP_NEWEST).capacity());
+        assertEquals(2, new NativeLogBuffer(1, NativeLogBuffer.OverflowPolicy.DROP_NEWEST).capacity());
+    }
+
+    @Test
+    public void testEntriesAreDrainedInOrder() {
+        NativeLogBuffer buffer = new NativeLogBuffer(8, NativeLogBuffer.OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(buffer.offer(3, "thread", "message " + i, i));
+        }
+        assertEquals(5, buffer.size());
+
+        List<String> messages = new ArrayList<>();
+        assertEquals(3, buffer.drain(entry -> messages.add(entry.message + " at " + entry.timestamp), 3));
+        assertEquals(2, buffer.drain(entry -> messages.add(entry.message + " at " + entry.timestamp), 10));
+        assertEquals(0, buffer.drain(entry -> messages.add(entry.message), 10));
+
+        assertEquals(5, messages.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("message " + i + " at " + i, messages.get(i));
+        }
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void testDrainedSlotsAreReleasedAndReused() {
+        NativeLogBuffer buffer = new NativeLogBuffer(4, NativeLogBuffer.OverflowPolicy.DROP_NEWEST);
+        List<NativeLogBuffer.Entry> drained = new ArrayList<>();
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(buffer.offer(1, "thread", "message", 0));
+            }
+            assertEquals(4, buffer.drain(drained::add, 10));
+        }
+
+        assertEquals(40, drained.size());
+        assertNull(drained.get(0).message);
+        assertNull(drained.get(0).threadName);
+        assertEquals(0, buffer.getDropped());
+    }
+
+    @Test
+    public void testDropNewestWhenFull() {
+        NativeLogBuffer buffer = new NativeLogBuffer(4, NativeLogBuffer.OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(5, "thread", "verbose " + i, 0));
+        }
+        assertFalse(buffer.offer(1, "thread", "error", 0));
+        assertEquals(1, buffer.getDropped());
+
+        List<String> messages = new ArrayList<>();
+        buffer.drain(entry -> messages.add(entry.message), 10);
+        assertEquals("verbose 3", messages.get(3));
+    }
+
+    @Test
+    public void testDropVerboseKeepsRoomForImportantEntries() {
+        NativeLogBuffer buffer = new NativeLogBuffer(8, NativeLogBuffer.OverflowPolicy.DROP_VERBOSE);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(buffer.offer(4, "thread", "debug", 0));
+        }
+        // past three quarters of the capacity only levels below debug are accepted
+        assertFalse(buffer.offer(4, "thread", "debug", 0));
+        assertFalse(buffer.offer(5, "thread", "trace", 0));
+        assertTrue(buffer.offer(3, "thread", "info", 0));
+        assertTrue(buffer.offer(1, "thread", "error", 0));
+        assertFalse(buffer.offer(1, "thread", "error", 0));
+        assertEquals(3, buffer.getDropped());
+
+        buffer.drain(entry -> { }, 4);
+        assertTrue(buffer.offer(4, "thread", "debug", 0));
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        int producers = 4;
+        int perProducer = 5000;
+        NativeLogBuffer buffer = new NativeLogBuffer(1024, NativeLogBuffer.OverflowPolicy.DROP_NEWEST);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            String name = "producer" + p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException exc) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    buffer.offer(3, name, Integer.toString(i), 0);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        int[] lastSeen = new int[producers];
+        Arrays.fill(lastSeen, -1);
+        long[] consumed = new long[1];
+        NativeLogBuffer.EntryConsumer consumer = entry -> {
+            int producer = entry.threadName.charAt(entry.threadName.length() - 1) - '0';
+            int value = Integer.parseInt(entry.message);
+            // entries of the same producer are never reordered
+            assertTrue(value > lastSeen[producer]);
+            lastSeen[producer] = value;
+            consumed[0]++;
+        };
+
+        start.countDown();
+        boolean running = true;
+        while (running) {
+            running = false;
+            for (Thread thread : threads) {
+                if (thread.isAlive()) running = true;
+            }
+            buffer.drain(consumer, 256);
+        }
+        buffer.drain(consumer, Integer.MAX_VALUE);
+
+        assertEquals((long) producers * perProducer, consumed[0] + buffer.getDropped());
+        assertEquals(0, buffer.size());
+    }
+}
@@ -0,0 +1,113 @@
+package net.gotev.sipservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class NativeLogDrainerTest {
+
+    private final NativeLogDrainer drainer = NativeLogDrainer.getInstance();
+    private final List<String> messages = new CopyOnWriteArrayList<>();
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("native-log").toFile();
+        Logger.setLoggerDelegate(new Logger.LoggerDelegate() {
+            @Override
+            public void error(String tag, String message) {
+                messages.add(message);
+            }
+
+            @Override
+            public void error(String tag, String message, Throwable exception) {
+                messages.add(message);
+            }
+
+            @Override
+            public void warning(String tag, String message) {
+                messages.add(message);
+            }
+
+            @Override
+            public void info(String tag, String message) {
+                messages.add(message);
+            }
+
+            @Override
+            public void debug(String tag, String message) {
+                messages.add(message);
+            }
+        });
+        drainer.setLevels(NativeLogDrainer.MAX_LEVEL, NativeLogDrainer.MAX_LEVEL);
+        drainer.setLogcatEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        drainer.stop();
+        drainer.setLogDirectory(null);
+        Logger.resetLoggerDelegate();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testParkedDrainerIsWokenUpByProducers() throws Exception {
+        drainer.start();
+        // let the drainer park on the empty buffer
+        Thread.sleep(100);
+
+        drainer.enqueue(3, "pjsip", "first");
+        awaitMessages(1);
+        Thread.sleep(100);
+        drainer.enqueue(3, "pjsip", "second");
+        awaitMessages(2);
+
+        assertEquals("first", messages.get(0));
+        assertEquals("second", messages.get(1));
+    }
+
+    @Test
+    public void testStopWritesPendingEntriesAndClosesTheFile() throws Exception {
+        drainer.setLogcatEnabled(false);
+        drainer.setLogDirectory(directory);
+        drainer.start();
+        for (int i = 0; i < 100; i++) {
+            drainer.enqueue(3, "pjsip", "entry " + i);
+        }
+        drainer.stop();
+
+        File file = new File(directory, NativeLogDrainer.LOG_FILE_NAME);
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(100, lines.size());
+        assertTrue(lines.get(99).endsWith(" 3 pjsip entry 99"));
+
+        // the file is opened again by the next drainer thread
+        drainer.start();
+        drainer.enqueue(3, "pjsip", "after restart");
+        drainer.stop();
+        lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(101, lines.size());
+    }
+
+    private void awaitMessages(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (messages.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, messages.size());
+    }
+}
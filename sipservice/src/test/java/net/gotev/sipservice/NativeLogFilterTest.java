@@ -0,0 +1,78 @@
+package net.gotev.sipservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class NativeLogFilterTest {
+
+    private static final String CALL = "     pjsua_call.c  Making call with acc #0";
+    private static final String TSX = "tsx0x7a8b1c2d  State changed from Calling to Completed";
+    private static final String ENDPOINT = "   sip_endpoint.c  Module mod-msg-print registered";
+
+    @Test
+    public void testNoneAcceptsEverything() {
+        assertTrue(NativeLogFilter.NONE.isEmpty());
+        assertTrue(NativeLogFilter.NONE.accepts(5, CALL));
+        assertTrue(NativeLogFilter.NONE.accepts(5, null));
+    }
+
+    @Test
+    public void testExcludedSendersAreRejected() {
+        NativeLogFilter filter = new NativeLogFilter(null, Collections.singletonList("tsx"));
+
+        assertFalse(filter.accepts(4, TSX));
+        assertTrue(filter.accepts(4, CALL));
+        assertTrue(filter.accepts(4, ENDPOINT));
+    }
+
+    @Test
+    public void testOnlyIncludedSendersAreAccepted() {
+        NativeLogFilter filter = new NativeLogFilter(Arrays.asList("pjsua_", "sip_endpoint.c"), null);
+
+        assertTrue(filter.accepts(4, CALL));
+        assertTrue(filter.accepts(4, ENDPOINT));
+        assertFalse(filter.accepts(4, TSX));
+    }
+
+    @Test
+    public void testExclusionWinsOverInclusion() {
+        NativeLogFilter filter = new NativeLogFilter(Collections.singletonList("pjsua_"),
+                Collections.singletonList("pjsua_call"));
+
+        assertFalse(filter.accepts(4, CALL));
+        assertTrue(filter.accepts(4, "pjsua_acc.c  Registration sent"));
+    }
+
+    @Test
+    public void testSenderIsMatchedOnlyAtTheStart() {
+        NativeLogFilter filter = new NativeLogFilter(null, Collections.singletonList("Making"));
+
+        assertTrue(filter.accepts(4, CALL));
+    }
+
+    @Test
+    public void testErrorsAndWarningsAreNeverFiltered() {
+        NativeLogFilter filter = new NativeLogFilter(null, Collections.singletonList("tsx"));
+
+        assertTrue(filter.accepts(1, TSX));
+        assertTrue(filter.accepts(2, TSX));
+        assertFalse(filter.accepts(3, TSX));
+    }
+
+    @Test
+    public void testBlankPrefixesAreIgnored() {
+        NativeLogFilter filter = new NativeLogFilter(Arrays.asList(" ", null, ""), Arrays.asList(" tsx "));
+
+        assertFalse(filter.isEmpty());
+        assertFalse(filter.accepts(4, TSX));
+        assertTrue(filter.accepts(4, CALL));
+        assertEquals("include=[], exclude=[tsx]", filter.toString());
+        assertTrue(new NativeLogFilter(Arrays.asList(" ", null), null).isEmpty());
+    }
+}
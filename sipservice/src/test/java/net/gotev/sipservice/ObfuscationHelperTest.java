@@ -0,0 +1,61 @@
+package net.gotev.sipservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class ObfuscationHelperTest {
+
+    private static final String BODY = "v=0\r\no=- 1 1 IN IP4 192.168.1.10\r\n";
+    private static final String INVITE = "INVITE sip:alice@test.com SIP/2.0\r\n"
+            + "From: \"Bob Smith\" <sip:bob@test.com>;tag=1\r\n"
+            + "To: <tel:+390123456789>\r\n"
+            + "Authorization: Digest username=\"bob\", realm=\"test.com\", nonce=\"abcdef\", "
+            + "response=\"0123456789abcdef\"\r\n"
+            + "Content-Length: " + BODY.length() + "\r\n\r\n"
+            + BODY;
+
+    @Test
+    public void testUsersNamesAndCredentialsAreMasked() {
+        String obfuscated = ObfuscationHelper.obfuscateSipMessage(INVITE);
+
+        assertTrue(obfuscated.startsWith("INVITE sip:****e@test.com SIP/2.0\r\n"));
+        assertTrue(obfuscated.contains("From: \"******ith\" <sip:**b@test.com>;tag=1\r\n"));
+        assertTrue(obfuscated.contains("To: <tel:**********789>\r\n"));
+        assertTrue(obfuscated.contains("username=\"**b\", realm=\"*****com\", nonce=\"***def\", "
+                + "response=\"*************def\""));
+        assertFalse(obfuscated.contains("alice"));
+        assertFalse(obfuscated.contains("Bob Smith"));
+    }
+
+    @Test
+    public void testBodyAndContentLengthAreUntouched() {
+        String obfuscated = ObfuscationHelper.obfuscateSipMessage(INVITE);
+
+        assertEquals(INVITE.length(), obfuscated.length());
+        assertTrue(obfuscated.endsWith("Content-Length: " + BODY.length() + "\r\n\r\n" + BODY));
+    }
+
+    @Test
+    public void testUtf8LengthIsPreserved() {
+        String message = "From: \"Àlice ☎ Ünal\" <sip:àlice@test.com>\r\n\r\n";
+
+        String obfuscated = ObfuscationHelper.obfuscateSipMessage(message);
+
+        assertEquals(message.getBytes(StandardCharsets.UTF_8).length,
+                obfuscated.getBytes(StandardCharsets.UTF_8).length);
+        assertFalse(obfuscated.contains("Àlice"));
+        assertFalse(obfuscated.contains("àlice"));
+    }
+
+    @Test
+    public void testMessageWithoutSensitiveValuesIsUnchanged() {
+        String message = "OPTIONS sip:test.com SIP/2.0\r\nMax-Forwards: 70\r\n\r\n";
+
+        assertEquals(message, ObfuscationHelper.obfuscateSipMessage(message));
+    }
+}
@@ -0,0 +1,88 @@
+package net.gotev.sipservice;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+public class QuantileSketchTest {
+
+    private static final double ACCURACY = 0.02;
+
+    @Test
+    public void testEmptySketch() {
+        QuantileSketch sketch = new QuantileSketch();
+        assertEquals(0, sketch.getCount());
+        assertEquals(0, sketch.getQuantile(0.5), 0);
+    }
+
+    @Test
+    public void testQuantilesWithinRelativeAccuracy() {
+        QuantileSketch sketch = new QuantileSketch();
+        for (int value = 1; value <= 10000; value++) {
+            sketch.add(value);
+        }
+
+        assertEquals(10000, sketch.getCount());
+        assertRelative(5000, sketch.getQuantile(0.5));
+        assertRelative(9500, sketch.getQuantile(0.95));
+        assertRelative(9900, sketch.getQuantile(0.99));
+        assertEquals(1, sketch.getQuantile(0), 0);
+        assertEquals(10000, sketch.getQuantile(1), 0);
+    }
+
+    @Test
+    public void testValuesBelowOneAndInvalidValues() {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.add(0.5);
+        sketch.add(0.25);
+        sketch.add(-1);
+        sketch.add(Double.NaN);
+        sketch.add(100);
+
+        assertEquals(3, sketch.getCount());
+        assertEquals(0.25, sketch.getQuantile(0.5), 0);
+        assertRelative(100, sketch.getQuantile(1));
+    }
+
+    @Test
+    public void testMergeMatchesSingleSketch() {
+        QuantileSketch all = new QuantileSketch();
+        QuantileSketch low = new QuantileSketch();
+        QuantileSketch high = new QuantileSketch();
+        for (int value = 1; value <= 2000; value++) {
+            all.add(value);
+            (value <= 1000 ? low : high).add(value);
+        }
+
+        low.merge(high);
+        assertEquals(all.getCount(), low.getCount());
+        for (double quantile : new double[]{0, 0.1, 0.5, 0.9, 0.99, 1}) {
+            assertEquals(all.getQuantile(quantile), low.getQuantile(quantile), 0);
+        }
+    }
+
+    @Test
+    public void testCompactedSketchSurvivesSerialisation() {
+        QuantileSketch sketch = new QuantileSketch();
+        for (int value = 0; value < 500; value++) {
+            sketch.add(value * 7);
+        }
+        sketch.compact();
+
+        Gson gson = new Gson();
+        QuantileSketch restored = gson.fromJson(gson.toJson(sketch), QuantileSketch.class);
+        assertEquals(sketch.getCount(), restored.getCount());
+        for (double quantile : new double[]{0, 0.25, 0.5, 0.75, 0.95, 1}) {
+            assertEquals(sketch.getQuantile(quantile), restored.getQuantile(quantile), 0);
+        }
+
+        restored.add(10);
+        assertEquals(501, restored.getCount());
+    }
+
+    private static void assertRelative(double expected, double actual) {
+        assertEquals(expected, actual, expected * ACCURACY);
+    }
+}
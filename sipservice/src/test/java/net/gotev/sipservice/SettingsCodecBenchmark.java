@@ -0,0 +1,93 @@
+package net.gotev.sipservice;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares {@link SettingsCodec} with the Gson encoding previously used for the persisted
+ * accounts and codec priorities: mean encode and decode time on the JVM and size of the
+ * stored value, before encryption. Timings don't belong in the regular test run, so it's
+ * ignored and meant to be run by hand; correctness is covered by {@link SettingsCodecTest}.
+ */
+@Ignore("benchmark, run by hand")
+public class SettingsCodecBenchmark {
+
+    private static final int ACCOUNTS = 4;
+    private static final int WARMUP_ITERATIONS = 2000;
+    private static final int ITERATIONS = 5000;
+
+    @Test
+    public void benchmark() {
+        List<SipAccountData> accounts = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts.add(new SipAccountData()
+                    .setUsername("user" + i)
+                    .setPassword("password" + i)
+                    .setRealm("test.com")
+                    .setHost("sip" + i + ".test.com")
+                    .setPort(5060 + i)
+                    .setTransport(SipAccountTransport.values()[i % SipAccountTransport.values().length])
+                    .setContactUriParams(";ob")
+                    .setCallId("call-id-" + i));
+        }
+        List<CodecPriority> codecPriorities = new ArrayList<>();
+        for (String codec : new String[]{"opus/48000/2", "G722/16000/1", "PCMU/8000/1",
+                "PCMA/8000/1", "speex/16000/1", "iLBC/8000/1", "GSM/8000/1"}) {
+            codecPriorities.add(new CodecPriority(codec, (short) CodecPriority.PRIORITY_MIN));
+        }
+
+        Gson gson = new Gson();
+        Type accountsType = new TypeToken<ArrayList<SipAccountData>>(){}.getType();
+        Type codecsType = new TypeToken<ArrayList<CodecPriority>>(){}.getType();
+        StringBuilder out = new StringBuilder();
+
+        String accountsJson = gson.toJson(accounts);
+        String accountsBlob = SettingsCodec.toBase64(SettingsCodec.encodeAccounts(accounts));
+        append(out, "accounts", "gson", accountsJson,
+                measure(() -> gson.toJson(accounts)),
+                measure(() -> gson.fromJson(accountsJson, accountsType)));
+        append(out, "accounts", "binary", accountsBlob,
+                measure(() -> SettingsCodec.toBase64(SettingsCodec.encodeAccounts(accounts))),
+                measure(() -> SettingsCodec.decodeAccounts(SettingsCodec.fromBase64(accountsBlob))));
+
+        String codecsJson = gson.toJson(codecPriorities);
+        String codecsBlob = SettingsCodec.toBase64(SettingsCodec.encodeCodecPriorities(codecPriorities));
+        append(out, "codec_priorities", "gson", codecsJson,
+                measure(() -> gson.toJson(codecPriorities)),
+                measure(() -> gson.fromJson(codecsJson, codecsType)));
+        append(out, "codec_priorities", "binary", codecsBlob,
+                measure(() -> SettingsCodec.toBase64(SettingsCodec.encodeCodecPriorities(codecPriorities))),
+                measure(() -> SettingsCodec.decodeCodecPriorities(SettingsCodec.fromBase64(codecsBlob))));
+
+        System.out.print(out);
+    }
+
+    /**
+     * @return mean nanoseconds per run, after a warm up
+     */
+    private static long measure(Runnable operation) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            operation.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            operation.run();
+        }
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    private static void append(StringBuilder out, String type, String codec, String value,
+                               long encodeNanos, long decodeNanos) {
+        out.append(String.format(Locale.US, "%s %s: encode %d ns, decode %d ns, stored size %d B%n",
+                type, codec, encodeNanos, decodeNanos, value.getBytes(StandardCharsets.UTF_8).length));
+    }
+}
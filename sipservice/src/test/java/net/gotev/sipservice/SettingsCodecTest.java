@@ -0,0 +1,185 @@
+package net.gotev.sipservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class SettingsCodecTest {
+
+    @Test
+    public void testAccountsRoundTrip() {
+        SipAccountData first = new SipAccountData()
+                .setUsername("alice")
+                .setPassword("secret")
+                .setRealm("test.com")
+                .setHost("sip.test.com")
+                .setPort(5061)
+                .setTransport(SipAccountTransport.TLS)
+                .setAuthenticationType(SipAccountData.AUTH_TYPE_PLAIN)
+                .setContactUriParams(";ob")
+                .setRegExpirationTimeout(600)
+                .setGuestDisplayName("Àlice ☎")
+                .setCallId("call-id")
+                .setSrtpUse(2)
+                .setSrtpSecureSignalling(1);
+        SipAccountData second = new SipAccountData()
+                .setUsername("bob")
+                .setRealm("*")
+                .setHost("10.0.0.1");
+
+        List<SipAccountData> decoded = SettingsCodec.decodeAccounts(
+                SettingsCodec.fromBase64(SettingsCodec.toBase64(
+                        SettingsCodec.encodeAccounts(Arrays.asList(first, second)))));
+
+        assertEquals(2, decoded.size());
+        assertEquals(first, decoded.get(0));
+        assertEquals(SipAccountData.AUTH_TYPE_PLAIN, decoded.get(0).getAuthenticationType());
+        assertEquals("Àlice ☎", decoded.get(0).getGuestDisplayName());
+        assertEquals(second, decoded.get(1));
+        assertNull(decoded.get(1).getPassword());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testLegacyTcpFlagRoundTrip() {
+        SipAccountData account = new SipAccountData()
+                .setUsername("alice")
+                .setPassword("secret")
+                .setRealm("test.com")
+                .setHost("sip.test.com")
+                .setTcpTransport(true);
+
+        SipAccountData decoded = SettingsCodec.decodeAccounts(
+                SettingsCodec.encodeAccounts(Collections.singletonList(account))).get(0);
+
+        assertTrue(decoded.isTcpTransport());
+        assertEquals(SipAccountTransport.TCP, decoded.getTransport());
+    }
+
+    @Test
+    public void testCodecPrioritiesRoundTrip() {
+        ArrayList<CodecPriority> codecPriorities = new ArrayList<>();
+        codecPriorities.add(new CodecPriority("opus/48000/2", (short) CodecPriority.PRIORITY_MAX));
+        codecPriorities.add(new CodecPriority("PCMU/8000/1", (short) CodecPriority.PRIORITY_DISABLED));
+
+        ArrayList<CodecPriority> decoded = SettingsCodec.decodeCodecPriorities(
+                SettingsCodec.encodeCodecPriorities(codecPriorities));
+
+        assertEquals(codecPriorities, decoded);
+        assertEquals(CodecPriority.PRIORITY_MAX, decoded.get(0).getPriority());
+        assertEquals(CodecPriority.PRIORITY_DISABLED, decoded.get(1).getPriority());
+    }
+
+    @Test
+    public void testEmptyLists() {
+        assertTrue(SettingsCodec.decodeAccounts(
+                SettingsCodec.encodeAccounts(new ArrayList<>())).isEmpty());
+        assertTrue(SettingsCodec.decodeCodecPriorities(
+                SettingsCodec.encodeCodecPriorities(new ArrayList<>())).isEmpty());
+    }
+
+    @Test
+    public void testUnknownFieldsAreSkipped() {
+        Blob record = new Blob()
+                .varint(99 << 3).varint(zigzag(-7))
+                .string(1, "G722/16000/1")
+                .varint(98 << 3 | 2).varint(3).raw(1, 2, 3)
+                .varint(2 << 3).varint(zigzag(128));
+        byte[] data = new Blob()
+                .raw(SettingsCodec.FORMAT_VERSION)
+                .varint(1)
+                .varint(record.size()).raw(record.toByteArray())
+                .toByteArray();
+
+        ArrayList<CodecPriority> decoded = SettingsCodec.decodeCodecPriorities(data);
+        assertEquals(1, decoded.size());
+        assertEquals("G722/16000/1", decoded.get(0).getCodecId());
+        assertEquals(128, decoded.get(0).getPriority());
+    }
+
+    @Test
+    public void testUnsupportedVersionsAreRejected() {
+        byte[] data = SettingsCodec.encodeAccounts(new ArrayList<>());
+
+        data[0] = (byte) (SettingsCodec.FORMAT_VERSION + 1);
+        assertRejected(data);
+        data[0] = 0;
+        assertRejected(data);
+    }
+
+    @Test
+    public void testMalformedBlobsAreRejected() {
+        byte[] data = SettingsCodec.encodeCodecPriorities(Collections.singletonList(
+                new CodecPriority("PCMA/8000/1", (short) 10)));
+
+        for (int length = 0; length < data.length; length++) {
+            assertRejected(Arrays.copyOf(data, length));
+        }
+
+        // the codec id declared as a number
+        byte[] wrongType = data.clone();
+        wrongType[3] = 1 << 3;
+        assertRejected(wrongType);
+    }
+
+    private static void assertRejected(byte[] data) {
+        boolean rejected = false;
+        try {
+            SettingsCodec.decodeCodecPriorities(data);
+        } catch (IllegalArgumentException exc) {
+            rejected = true;
+        }
+        assertTrue("Blob of " + data.length + " bytes has been decoded", rejected);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static class Blob {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Blob varint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+            return this;
+        }
+
+        Blob string(int tag, String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint(tag << 3 | 2).varint(bytes.length);
+            out.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        Blob raw(int... values) {
+            for (int value : values) out.write(value);
+            return this;
+        }
+
+        Blob raw(byte[] values) {
+            out.write(values, 0, values.length);
+            return this;
+        }
+
+        int size() {
+            return out.size();
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+}
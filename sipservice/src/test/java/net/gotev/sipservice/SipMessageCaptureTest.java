@@ -0,0 +1,109 @@
+package net.gotev.sipservice;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.regex.Matcher;
+
+public class SipMessageCaptureTest {
+
+    @Test
+    public void testHeaderOfIpv4Message() {
+        Matcher header = SipMessageCapture.HEADER.matcher(
+                "TX 534 bytes Request msg REGISTER/cseq=1 (tdta0x7f6b2c) to UDP 192.168.1.10:5060:");
+
+        assertTrue(header.matches());
+        assertEquals("TX", header.group(1));
+        assertEquals("UDP", header.group(2));
+        assertEquals("192.168.1.10", header.group(3));
+        assertEquals("5060", header.group(4));
+    }
+
+    @Test
+    public void testHeaderOfBareIpv6Message() {
+        Matcher header = SipMessageCapture.HEADER.matcher(
+                "RX 412 bytes Response msg 200/REGISTER/cseq=1 (rdata0x7f6b2c) from UDP6 2001:db8::1:5060:\r");
+
+        assertTrue(header.matches());
+        assertEquals("RX", header.group(1));
+        assertEquals("UDP6", header.group(2));
+        assertEquals("2001:db8::1", header.group(3));
+        assertEquals("5060", header.group(4));
+    }
+
+    @Test
+    public void testHeaderOfBracketedIpv6Message() {
+        Matcher header = SipMessageCapture.HEADER.matcher(
+                "TX 900 bytes Request msg INVITE/cseq=2 (tdta0x7f6b2c) to TLS6 [2001:db8::1]:5061:");
+
+        assertTrue(header.matches());
+        assertEquals("TLS6", header.group(2));
+        assertEquals("[2001:db8::1]", header.group(3));
+        assertEquals("5061", header.group(4));
+    }
+
+    @Test
+    public void testHeaderOfOtherLogLines() {
+        assertFalse(SipMessageCapture.HEADER.matcher("Module mod-msg-print registered").matches());
+        assertFalse(SipMessageCapture.HEADER.matcher(
+                "TX 534 bytes Request msg REGISTER/cseq=1 (tdta0x7f6b2c) to UDP 192.168.1.10:5060").matches());
+    }
+
+    @Test
+    public void testParseAddress() {
+        assertArrayEquals(new byte[]{(byte) 192, (byte) 168, 1, 10},
+                SipMessageCapture.parseAddress("192.168.1.10"));
+        byte[] ipv6 = SipMessageCapture.parseAddress("2001:db8::1");
+        assertEquals(16, ipv6.length);
+        assertEquals(0x20, ipv6[0]);
+        assertEquals(0x01, ipv6[1]);
+        assertEquals(1, ipv6[15]);
+    }
+
+    @Test
+    public void testParseAddressRejectsNames() {
+        assertNull(SipMessageCapture.parseAddress("sip.test.com"));
+        assertNull(SipMessageCapture.parseAddress("test.com"));
+        assertNull(SipMessageCapture.parseAddress("192.168.1.256"));
+        assertNull(SipMessageCapture.parseAddress("192.168.1"));
+        assertNull(SipMessageCapture.parseAddress("2001:zz8::1"));
+    }
+
+    @Test
+    public void testChecksumOfIpv4Header() {
+        byte[] header = bytes(0x45, 0x00, 0x00, 0x73, 0x00, 0x00, 0x40, 0x00, 0x40, 0x11,
+                0x00, 0x00, 0xc0, 0xa8, 0x00, 0x01, 0xc0, 0xa8, 0x00, 0xc7);
+
+        int checksum = SipMessageCapture.checksum(header, 0, header.length, 0);
+        assertEquals(0xb861, checksum);
+
+        // a header including its checksum sums to zero
+        header[10] = (byte) (checksum >> 8);
+        header[11] = (byte) checksum;
+        assertEquals(0, SipMessageCapture.checksum(header, 0, header.length, 0));
+    }
+
+    @Test
+    public void testChecksumOfOddLengthWithOffsetAndPseudoHeader() {
+        byte[] data = bytes(0xff, 0x01, 0x02, 0x03);
+
+        // the odd byte is padded with a zero
+        assertEquals(~(0x0102 + 0x0300) & 0xffff, SipMessageCapture.checksum(data, 1, 3, 0));
+        assertEquals(~(0x0102 + 0x0300 + 0x0011) & 0xffff, SipMessageCapture.checksum(data, 1, 3, 0x0011));
+        // carries are folded back
+        assertEquals(~0x0002 & 0xffff, SipMessageCapture.checksum(bytes(0xff, 0xff), 0, 2, 2));
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+}